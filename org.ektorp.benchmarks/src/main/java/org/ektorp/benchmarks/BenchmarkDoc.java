@@ -0,0 +1,68 @@
+package org.ektorp.benchmarks;
+
+import java.util.List;
+
+import org.ektorp.support.CouchDbDocument;
+
+/**
+ * The document type used by the benchmarks. The payload field controls the document size.
+ */
+public class BenchmarkDoc extends CouchDbDocument {
+
+	private static final long serialVersionUID = 1L;
+
+	private String name;
+	private int count;
+	private double score;
+	private boolean active;
+	private List<String> tags;
+	private String payload;
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public void setCount(int count) {
+		this.count = count;
+	}
+
+	public double getScore() {
+		return score;
+	}
+
+	public void setScore(double score) {
+		this.score = score;
+	}
+
+	public boolean isActive() {
+		return active;
+	}
+
+	public void setActive(boolean active) {
+		this.active = active;
+	}
+
+	public List<String> getTags() {
+		return tags;
+	}
+
+	public void setTags(List<String> tags) {
+		this.tags = tags;
+	}
+
+	public String getPayload() {
+		return payload;
+	}
+
+	public void setPayload(String payload) {
+		this.payload = payload;
+	}
+}
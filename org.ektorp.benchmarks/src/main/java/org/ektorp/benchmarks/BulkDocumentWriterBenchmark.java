@@ -0,0 +1,54 @@
+package org.ektorp.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
+import org.ektorp.impl.BulkDocumentWriter;
+import org.ektorp.impl.StdObjectMapperFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Serialization of _bulk_docs request bodies.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BulkDocumentWriterBenchmark {
+
+	@Param({ "100", "10000" })
+	public int docs;
+
+	@Param({ "64", "4096" })
+	public int payloadSize;
+
+	private BulkDocumentWriter writer;
+	private List<BenchmarkDoc> documents;
+
+	@Setup
+	public void setup() {
+		writer = new BulkDocumentWriter(new StdObjectMapperFactory().createObjectMapper());
+		documents = Fixtures.newDocuments(docs, payloadSize);
+	}
+
+	@Benchmark
+	public long write() {
+		CountingOutputStream out = new CountingOutputStream(new NullOutputStream());
+		writer.write(documents, false, out);
+		return out.getByteCount();
+	}
+}
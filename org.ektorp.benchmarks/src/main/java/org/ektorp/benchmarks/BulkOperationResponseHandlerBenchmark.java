@@ -0,0 +1,63 @@
+package org.ektorp.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.ektorp.DocumentOperationResult;
+import org.ektorp.impl.BulkOperationResponseHandler;
+import org.ektorp.impl.StdObjectMapperFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Parsing of _bulk_docs responses, including setting the new revisions on the written documents.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BulkOperationResponseHandlerBenchmark {
+
+	@Param({ "100", "10000" })
+	public int docs;
+
+	/**
+	 * Every errorInterval:th document is a conflict, 0 means no conflicts.
+	 */
+	@Param({ "0", "10" })
+	public int errorInterval;
+
+	private ObjectMapper mapper;
+	private byte[] body;
+	private List<BenchmarkDoc> documents;
+
+	@Setup
+	public void setup() {
+		mapper = new StdObjectMapperFactory().createObjectMapper();
+		body = Fixtures.bulkResponse(docs, errorInterval);
+		documents = Fixtures.newDocuments(docs, 16);
+	}
+
+	@Benchmark
+	public List<DocumentOperationResult> parseWithoutDocuments() throws Exception {
+		return new BulkOperationResponseHandler(mapper).success(StubHttpResponse.ok(body));
+	}
+
+	@Benchmark
+	public List<DocumentOperationResult> parseAndUpdateDocuments() throws Exception {
+		return new BulkOperationResponseHandler(documents, mapper).success(StubHttpResponse.ok(body));
+	}
+}
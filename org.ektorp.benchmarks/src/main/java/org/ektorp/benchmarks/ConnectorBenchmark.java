@@ -0,0 +1,69 @@
+package org.ektorp.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.ektorp.CouchDbConnector;
+import org.ektorp.DocumentOperationResult;
+import org.ektorp.ViewQuery;
+import org.ektorp.impl.StdCouchDbConnector;
+import org.ektorp.impl.StdCouchDbInstance;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End to end connector calls against the in-process StubHttpClient: everything Ektorp does for a request except the
+ * network.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConnectorBenchmark {
+
+	@Param({ "100", "10000" })
+	public int rows;
+
+	@Param({ "64", "4096" })
+	public int payloadSize;
+
+	private CouchDbConnector db;
+	private List<BenchmarkDoc> documents;
+
+	@Setup
+	public void setup() {
+		StubHttpClient client = new StubHttpClient()
+			.respond("/benchmark/_design/benchmark/_view/all", Fixtures.viewResult(rows, payloadSize, true))
+			.respond("/benchmark/_bulk_docs", Fixtures.bulkResponse(rows, 0))
+			.respond("/benchmark/" + Fixtures.id(1), Fixtures.document(1, payloadSize).getBytes(Fixtures.UTF_8));
+		db = new StdCouchDbConnector("benchmark", new StdCouchDbInstance(client));
+		documents = Fixtures.newDocuments(rows, payloadSize);
+	}
+
+	@Benchmark
+	public BenchmarkDoc get() {
+		return db.get(BenchmarkDoc.class, Fixtures.id(1));
+	}
+
+	@Benchmark
+	public List<BenchmarkDoc> queryView() {
+		return db.queryView(new ViewQuery().designDocId("_design/benchmark").viewName("all").includeDocs(true),
+				BenchmarkDoc.class);
+	}
+
+	@Benchmark
+	public List<DocumentOperationResult> executeBulk() {
+		return db.executeBulk(documents);
+	}
+}
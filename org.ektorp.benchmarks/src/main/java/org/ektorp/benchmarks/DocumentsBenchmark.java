@@ -0,0 +1,91 @@
+package org.ektorp.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.ektorp.util.Documents;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Id and revision access through Documents for the supported kinds of document classes.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DocumentsBenchmark {
+
+	@Param({ "CouchDbDocument", "AnnotatedFields", "Map", "ObjectNode" })
+	public String documentType;
+
+	private Object document;
+
+	@Setup
+	public void setup() {
+		if ("CouchDbDocument".equals(documentType)) {
+			BenchmarkDoc d = new BenchmarkDoc();
+			d.setId(Fixtures.id(1));
+			d.setRevision(Fixtures.rev(1));
+			document = d;
+		} else if ("AnnotatedFields".equals(documentType)) {
+			AnnotatedDoc d = new AnnotatedDoc();
+			d.id = Fixtures.id(1);
+			d.revision = Fixtures.rev(1);
+			document = d;
+		} else if ("Map".equals(documentType)) {
+			Map<String, Object> d = new HashMap<String, Object>();
+			d.put("_id", Fixtures.id(1));
+			d.put("_rev", Fixtures.rev(1));
+			document = d;
+		} else if ("ObjectNode".equals(documentType)) {
+			ObjectNode d = JsonNodeFactory.instance.objectNode();
+			d.put("_id", Fixtures.id(1));
+			d.put("_rev", Fixtures.rev(1));
+			document = d;
+		} else {
+			throw new IllegalArgumentException(documentType);
+		}
+	}
+
+	@Benchmark
+	public String getId() {
+		return Documents.getId(document);
+	}
+
+	@Benchmark
+	public String getRevision() {
+		return Documents.getRevision(document);
+	}
+
+	@Benchmark
+	public Object setRevision() {
+		Documents.setRevision(document, "2-b");
+		return document;
+	}
+
+	public static class AnnotatedDoc {
+
+		@JsonProperty("_id")
+		String id;
+
+		@JsonProperty("_rev")
+		String revision;
+	}
+}
@@ -0,0 +1,120 @@
+package org.ektorp.benchmarks;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates response bodies with the same shape as responses recorded from CouchDB, for any number of rows and
+ * document size. The content is deterministic so that results are comparable between runs.
+ */
+public final class Fixtures {
+
+	public static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final String ALPHABET = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789 ";
+
+	private Fixtures() {
+	}
+
+	public static String id(int i) {
+		return String.format("doc-%08d", i);
+	}
+
+	public static String rev(int i) {
+		return String.format("1-%032x", i * 2654435761L & 0xffffffffL);
+	}
+
+	/**
+	 * A document as returned by GET /db/id.
+	 */
+	public static String document(int i, int payloadSize) {
+		StringBuilder sb = new StringBuilder(payloadSize + 200);
+		appendDocument(sb, i, payloadSize, new Random(i));
+		return sb.toString();
+	}
+
+	/**
+	 * A view result where each row emits the document as value (emit(doc._id, doc)), or, if includeDocs is true, the
+	 * revision as value and the document in the doc field, as _all_docs?include_docs=true.
+	 */
+	public static byte[] viewResult(int rows, int payloadSize, boolean includeDocs) {
+		Random random = new Random(rows);
+		StringBuilder sb = new StringBuilder(rows * (payloadSize + 300) + 100);
+		sb.append("{\"total_rows\":").append(rows).append(",\"offset\":0,\"rows\":[\r\n");
+		for (int i = 0; i < rows; i++) {
+			if (i > 0) {
+				sb.append(",\r\n");
+			}
+			sb.append("{\"id\":\"").append(id(i)).append("\",\"key\":\"").append(id(i)).append("\",\"value\":");
+			if (includeDocs) {
+				sb.append("{\"rev\":\"").append(rev(i)).append("\"},\"doc\":");
+			}
+			appendDocument(sb, i, payloadSize, random);
+			sb.append('}');
+		}
+		sb.append("\r\n]}\n");
+		return sb.toString().getBytes(UTF_8);
+	}
+
+	/**
+	 * A _bulk_docs response where every errorInterval:th document is rejected with a conflict. 0 means no errors.
+	 */
+	public static byte[] bulkResponse(int docs, int errorInterval) {
+		StringBuilder sb = new StringBuilder(docs * 80);
+		sb.append('[');
+		for (int i = 0; i < docs; i++) {
+			if (i > 0) {
+				sb.append(',');
+			}
+			if (errorInterval > 0 && i % errorInterval == errorInterval - 1) {
+				sb.append("{\"id\":\"").append(id(i))
+					.append("\",\"error\":\"conflict\",\"reason\":\"Document update conflict.\"}");
+			} else {
+				sb.append("{\"ok\":true,\"id\":\"").append(id(i)).append("\",\"rev\":\"").append(rev(i)).append("\"}");
+			}
+		}
+		sb.append("]\n");
+		return sb.toString().getBytes(UTF_8);
+	}
+
+	/**
+	 * New documents, i.e. without revision, for bulk writes.
+	 */
+	public static List<BenchmarkDoc> newDocuments(int docs, int payloadSize) {
+		Random random = new Random(docs);
+		List<BenchmarkDoc> result = new ArrayList<BenchmarkDoc>(docs);
+		for (int i = 0; i < docs; i++) {
+			BenchmarkDoc d = new BenchmarkDoc();
+			d.setId(id(i));
+			d.setName("name " + i);
+			d.setCount(i);
+			d.setScore(i / 7.0);
+			d.setActive(i % 2 == 0);
+			d.setTags(Arrays.asList("tag" + i % 10, "tag" + i % 7));
+			d.setPayload(payload(random, payloadSize));
+			result.add(d);
+		}
+		return result;
+	}
+
+	private static void appendDocument(StringBuilder sb, int i, int payloadSize, Random random) {
+		sb.append("{\"_id\":\"").append(id(i)).append("\",\"_rev\":\"").append(rev(i))
+			.append("\",\"name\":\"name ").append(i)
+			.append("\",\"count\":").append(i)
+			.append(",\"score\":").append(i / 7.0)
+			.append(",\"active\":").append(i % 2 == 0)
+			.append(",\"tags\":[\"tag").append(i % 10).append("\",\"tag").append(i % 7).append("\"]")
+			.append(",\"payload\":\"").append(payload(random, payloadSize)).append("\"}");
+	}
+
+	private static String payload(Random random, int size) {
+		char[] c = new char[size];
+		for (int i = 0; i < size; i++) {
+			c[i] = ALPHABET.charAt(random.nextInt(ALPHABET.length()));
+		}
+		return new String(c);
+	}
+}
@@ -0,0 +1,60 @@
+package org.ektorp.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.ektorp.impl.QueryResultParser;
+import org.ektorp.impl.StdObjectMapperFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Parsing of view results into typed rows, as done by CouchDbConnector.queryView(ViewQuery, Class).
+ * Run with -prof gc to see the allocation rate per operation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QueryResultParserBenchmark {
+
+	@Param({ "10", "1000", "10000" })
+	public int rows;
+
+	@Param({ "64", "4096" })
+	public int payloadSize;
+
+	@Param({ "false", "true" })
+	public boolean includeDocs;
+
+	private ObjectMapper mapper;
+	private byte[] body;
+
+	@Setup
+	public void setup() {
+		mapper = new StdObjectMapperFactory().createObjectMapper();
+		body = Fixtures.viewResult(rows, payloadSize, includeDocs);
+	}
+
+	@Benchmark
+	public List<BenchmarkDoc> parse() throws IOException {
+		QueryResultParser<BenchmarkDoc> parser = new QueryResultParser<BenchmarkDoc>(BenchmarkDoc.class, mapper);
+		parser.parseResult(new ByteArrayInputStream(body));
+		return parser.getRows();
+	}
+}
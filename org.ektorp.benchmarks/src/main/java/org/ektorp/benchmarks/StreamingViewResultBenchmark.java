@@ -0,0 +1,89 @@
+package org.ektorp.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.ektorp.StreamingViewResult;
+import org.ektorp.TypedStreamingViewResult;
+import org.ektorp.ViewResult.Row;
+import org.ektorp.impl.StdObjectMapperFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Row by row iteration of view results, untyped (JsonNode rows) and typed.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StreamingViewResultBenchmark {
+
+	@Param({ "10", "1000", "10000" })
+	public int rows;
+
+	@Param({ "64", "4096" })
+	public int payloadSize;
+
+	private ObjectMapper mapper;
+	private byte[] body;
+	private byte[] bodyWithDocs;
+
+	@Setup
+	public void setup() {
+		mapper = new StdObjectMapperFactory().createObjectMapper();
+		body = Fixtures.viewResult(rows, payloadSize, false);
+		bodyWithDocs = Fixtures.viewResult(rows, payloadSize, true);
+	}
+
+	@Benchmark
+	public void untypedRows(Blackhole bh) {
+		StreamingViewResult result = new StreamingViewResult(mapper, StubHttpResponse.ok(body), false);
+		try {
+			for (Row row : result) {
+				bh.consume(row.getValueAsNode());
+			}
+		} finally {
+			result.close();
+		}
+	}
+
+	@Benchmark
+	public void typedRows(Blackhole bh) {
+		TypedStreamingViewResult<BenchmarkDoc> result = new TypedStreamingViewResult<BenchmarkDoc>(mapper,
+				StubHttpResponse.ok(body), BenchmarkDoc.class, false);
+		try {
+			for (BenchmarkDoc doc : result) {
+				bh.consume(doc);
+			}
+		} finally {
+			result.close();
+		}
+	}
+
+	@Benchmark
+	public void typedIncludedDocs(Blackhole bh) {
+		TypedStreamingViewResult<BenchmarkDoc> result = new TypedStreamingViewResult<BenchmarkDoc>(mapper,
+				StubHttpResponse.ok(bodyWithDocs), BenchmarkDoc.class, false);
+		try {
+			for (BenchmarkDoc doc : result) {
+				bh.consume(doc);
+			}
+		} finally {
+			result.close();
+		}
+	}
+}
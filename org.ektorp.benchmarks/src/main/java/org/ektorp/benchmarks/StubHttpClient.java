@@ -0,0 +1,119 @@
+package org.ektorp.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.http.HttpEntity;
+import org.ektorp.http.HttpClient;
+import org.ektorp.http.HttpResponse;
+
+/**
+ * An in-process HttpClient that serves canned response bodies by path prefix, so that benchmarks measure Ektorp and
+ * not the network or CouchDB. Request bodies are written to a null stream so that serialization is included in the
+ * measurement.
+ */
+public class StubHttpClient implements HttpClient {
+
+	private final Map<String, byte[]> responses = new LinkedHashMap<String, byte[]>();
+
+	/**
+	 * Requests to paths starting with the prefix are answered with 200 and the body. Prefixes are matched in the
+	 * order they were added.
+	 */
+	public StubHttpClient respond(String pathPrefix, byte[] body) {
+		responses.put(pathPrefix, body);
+		return this;
+	}
+
+	private HttpResponse respond(String uri) {
+		for (Map.Entry<String, byte[]> e : responses.entrySet()) {
+			if (uri.startsWith(e.getKey())) {
+				return new StubHttpResponse(200, e.getValue(), uri);
+			}
+		}
+		return new StubHttpResponse(404, "{\"error\":\"not_found\",\"reason\":\"missing\"}".getBytes(Fixtures.UTF_8), uri);
+	}
+
+	private HttpResponse respond(String uri, HttpEntity entity) {
+		try {
+			entity.writeTo(new NullOutputStream());
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return respond(uri);
+	}
+
+	private HttpResponse respond(String uri, InputStream content) {
+		try {
+			IOUtils.copy(content, new NullOutputStream());
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		} finally {
+			IOUtils.closeQuietly(content);
+		}
+		return respond(uri);
+	}
+
+	public HttpResponse get(String uri) {
+		return respond(uri);
+	}
+
+	public HttpResponse get(String uri, Map<String, String> headers) {
+		return respond(uri);
+	}
+
+	public HttpResponse put(String uri, String content) {
+		return respond(uri);
+	}
+
+	public HttpResponse put(String uri) {
+		return respond(uri);
+	}
+
+	public HttpResponse put(String uri, InputStream data, String contentType, long contentLength) {
+		return respond(uri, data);
+	}
+
+	public HttpResponse put(String uri, HttpEntity httpEntity) {
+		return respond(uri, httpEntity);
+	}
+
+	public HttpResponse post(String uri, String content) {
+		return respond(uri);
+	}
+
+	public HttpResponse post(String uri, InputStream content) {
+		return respond(uri, content);
+	}
+
+	public HttpResponse post(String uri, HttpEntity httpEntity) {
+		return respond(uri, httpEntity);
+	}
+
+	public HttpResponse delete(String uri) {
+		return respond(uri);
+	}
+
+	public HttpResponse head(String uri) {
+		return respond(uri);
+	}
+
+	public HttpResponse getUncached(String uri) {
+		return respond(uri);
+	}
+
+	public HttpResponse postUncached(String uri, String content) {
+		return respond(uri);
+	}
+
+	public HttpResponse copy(String sourceUri, String destination) {
+		return respond(sourceUri);
+	}
+
+	public void shutdown() {
+	}
+}
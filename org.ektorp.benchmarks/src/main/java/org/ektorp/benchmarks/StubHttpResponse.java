@@ -0,0 +1,64 @@
+package org.ektorp.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import org.ektorp.http.HttpResponse;
+
+/**
+ * A response served from memory.
+ */
+public class StubHttpResponse implements HttpResponse {
+
+	private final int code;
+	private final byte[] body;
+	private final String requestURI;
+	private InputStream content;
+
+	public StubHttpResponse(int code, byte[] body, String requestURI) {
+		this.code = code;
+		this.body = body;
+		this.requestURI = requestURI;
+	}
+
+	public static StubHttpResponse ok(byte[] body) {
+		return new StubHttpResponse(200, body, "");
+	}
+
+	public boolean isSuccessful() {
+		return code < 300;
+	}
+
+	public int getCode() {
+		return code;
+	}
+
+	public String getRequestURI() {
+		return requestURI;
+	}
+
+	public String getContentType() {
+		return "application/json";
+	}
+
+	public long getContentLength() {
+		return body.length;
+	}
+
+	public InputStream getContent() {
+		if (content == null) {
+			content = new ByteArrayInputStream(body);
+		}
+		return content;
+	}
+
+	public String getETag() {
+		return null;
+	}
+
+	public void releaseConnection() {
+	}
+
+	public void abort() {
+	}
+}
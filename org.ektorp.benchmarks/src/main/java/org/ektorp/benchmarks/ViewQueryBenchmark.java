@@ -0,0 +1,76 @@
+package org.ektorp.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.ektorp.ComplexKey;
+import org.ektorp.ViewQuery;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building of view query URIs. ViewQuery caches the built query, so each invocation builds a new query.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ViewQueryBenchmark {
+
+	private List<Object> keys;
+
+	@Setup
+	public void setup() {
+		keys = new ArrayList<Object>();
+		for (int i = 0; i < 100; i++) {
+			keys.add(Fixtures.id(i));
+		}
+	}
+
+	@Benchmark
+	public String simpleKey() {
+		return new ViewQuery()
+			.dbPath("/benchmark")
+			.designDocId("_design/benchmark")
+			.viewName("by_name")
+			.key("name 1")
+			.includeDocs(true)
+			.buildQuery();
+	}
+
+	@Benchmark
+	public String complexKeyRange() {
+		return new ViewQuery()
+			.dbPath("/benchmark")
+			.designDocId("_design/benchmark")
+			.viewName("by_tag_and_date")
+			.startKey(ComplexKey.of("tag1", 2014, 1))
+			.endKey(ComplexKey.of("tag1", 2014, ComplexKey.emptyObject()))
+			.startDocId(Fixtures.id(1))
+			.limit(100)
+			.descending(true)
+			.reduce(false)
+			.buildQuery();
+	}
+
+	@Benchmark
+	public String keysAsJson() {
+		return new ViewQuery()
+			.dbPath("/benchmark")
+			.designDocId("_design/benchmark")
+			.viewName("by_id")
+			.keys(keys)
+			.getKeysAsJson();
+	}
+}
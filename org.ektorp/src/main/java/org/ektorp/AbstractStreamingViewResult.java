@@ -0,0 +1,205 @@
+package org.ektorp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.ektorp.http.HttpResponse;
+
+/**
+ * Base class for view results that are read row by row from the response stream.
+ *
+ * The response is read through a JsonParser, so no assumptions are made about how the rows are formatted. Only the
+ * current row is held in memory.
+ *
+ * Fields that precede the rows array (total_rows, offset and update_seq in CouchDB responses) are available as soon
+ * as the result has been created. Fields that follow the rows array are available after the iteration has completed.
+ *
+ * @param <E> the type of the elements returned by the iterator.
+ */
+public abstract class AbstractStreamingViewResult<E> implements Iterable<E>, Closeable {
+
+	private static final String OFFSET_FIELD_NAME = "offset";
+	private static final String TOTAL_ROWS_FIELD_NAME = "total_rows";
+	private static final String UPDATE_SEQUENCE_NAME = "update_seq";
+	private static final String ROWS_FIELD_NAME = "rows";
+
+	private int totalRows = -1;
+	private int offset = -1;
+	private Long updateSequence;
+
+	private final JsonParser jp;
+	private final HttpResponse httpResponse;
+	private final boolean ignoreNotFound;
+
+	private boolean iteratorCalled;
+	private boolean finished;
+
+	protected AbstractStreamingViewResult(ObjectMapper objectMapper, HttpResponse httpResponse, boolean ignoreNotFound) {
+		this.httpResponse = httpResponse;
+		this.ignoreNotFound = ignoreNotFound;
+		try {
+			jp = objectMapper.getFactory().createParser(httpResponse.getContent());
+			if (jp.nextToken() != JsonToken.START_OBJECT) {
+				httpResponse.abort();
+				throw new DbAccessException("Expected data to start with an Object");
+			}
+			finished = !readFieldsUntilRows();
+		} catch (IOException e) {
+			httpResponse.abort();
+			throw new DbAccessException(e);
+		}
+		if (finished) {
+			close();
+		}
+	}
+
+	/**
+	 * Reads top level fields until the rows array has been entered.
+	 * @return false if the end of the result object was reached without finding any rows.
+	 */
+	private boolean readFieldsUntilRows() throws IOException {
+		while (jp.nextValue() != JsonToken.END_OBJECT) {
+			String currentName = jp.getCurrentName();
+			if (OFFSET_FIELD_NAME.equals(currentName)) {
+				offset = jp.getIntValue();
+			} else if (TOTAL_ROWS_FIELD_NAME.equals(currentName)) {
+				totalRows = jp.getIntValue();
+			} else if (UPDATE_SEQUENCE_NAME.equals(currentName)) {
+				updateSequence = jp.getLongValue();
+			} else if (ROWS_FIELD_NAME.equals(currentName) && jp.getCurrentToken() == JsonToken.START_ARRAY) {
+				return true;
+			} else {
+				jp.skipChildren();
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Reads one row from the parser. The parser is positioned at the START_OBJECT token of the row and must be left
+	 * at the corresponding END_OBJECT token.
+	 *
+	 * @param jp
+	 * @return the row or null if the row should be skipped.
+	 * @throws IOException
+	 * @throws ViewResultException if the row is an error row that is not ignored. The result is closed.
+	 */
+	protected abstract E readRow(JsonParser jp) throws IOException;
+
+	/**
+	 * Called when the row most recently read by readRow has been returned by the iterator.
+	 */
+	protected void rowReturned() {
+	}
+
+	protected boolean isIgnoreNotFound() {
+		return ignoreNotFound;
+	}
+
+	/**
+	 *
+	 * @return -1 if result did not contain an offset field
+	 */
+	public int getOffset() {
+		return offset;
+	}
+
+	/**
+	 *
+	 * @return -1 if result did not contain a total_rows field
+	 */
+	public int getTotalRows() {
+		return totalRows;
+	}
+
+	/**
+	 *
+	 * @return null if result did not contain an update_seq field
+	 */
+	public Long getUpdateSequence() {
+		return updateSequence;
+	}
+
+	public Iterator<E> iterator() {
+		if (iteratorCalled) {
+			throw new IllegalStateException("Iterator can only be called once!");
+		}
+		iteratorCalled = true;
+		return new StreamingViewResultIterator();
+	}
+
+	public void abort() {
+		httpResponse.abort();
+	}
+
+	public void close() {
+		try {
+			jp.close();
+		} catch (IOException e) {
+		}
+	}
+
+	private class StreamingViewResultIterator implements Iterator<E> {
+		private E row;
+
+		public boolean hasNext() {
+			if (finished) {
+				return false;
+			}
+			if (row != null) {
+				// We still already have an 'uncollected' row from last time.
+				return true;
+			}
+			try {
+				E next = null;
+				while (next == null) {
+					JsonToken token = jp.nextToken();
+					if (token == JsonToken.END_ARRAY) {
+						readFieldsUntilRows();
+						finish();
+						return false;
+					}
+					if (token != JsonToken.START_OBJECT) {
+						finish();
+						throw new DbAccessException("Expected row to be an Object but was: " + token);
+					}
+					next = readRow(jp);
+				}
+				row = next;
+				return true;
+			} catch (IOException e) {
+				finish();
+				throw new DbAccessException(e);
+			} catch (RuntimeException e) {
+				// e.g. a ViewResultException for an error row, the rest of the result is not read
+				finish();
+				throw e;
+			}
+		}
+
+		private void finish() {
+			finished = true;
+			close();
+		}
+
+		public E next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException("Attempt to iterate beyond the result set");
+			}
+			E toReturn = row;
+			row = null;
+			rowReturned();
+			return toReturn;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+}
@@ -0,0 +1,134 @@
+package org.ektorp;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import org.apache.http.concurrent.FutureCallback;
+
+/**
+ * Asynchronous counterpart to {@link CouchDbConnector} for the core document and view operations.
+ *
+ * Every method returns immediately with a Future that is completed when the underlying request has finished. An
+ * optional callback will be notified on completion, failure or cancellation. Callbacks are invoked on the thread that
+ * executed the request, so they should not block.
+ *
+ * Errors are reported the same way as in CouchDbConnector, i.e. Future.get() will throw an ExecutionException with a
+ * DocumentNotFoundException, UpdateConflictException etc. as cause.
+ *
+ * @see org.ektorp.impl.ExecutorAsyncCouchDbConnector
+ */
+public interface AsyncCouchDbConnector {
+
+    /**
+     * @see CouchDbConnector#get(Class, String)
+     */
+    <T> Future<T> get(Class<T> c, String id);
+
+    /**
+     * @see CouchDbConnector#get(Class, String)
+     */
+    <T> Future<T> get(Class<T> c, String id, FutureCallback<T> callback);
+
+    /**
+     * @see CouchDbConnector#get(Class, String, Options)
+     */
+    <T> Future<T> get(Class<T> c, String id, Options options, FutureCallback<T> callback);
+
+    /**
+     * @see CouchDbConnector#find(Class, String)
+     */
+    <T> Future<T> find(Class<T> c, String id);
+
+    /**
+     * @see CouchDbConnector#find(Class, String)
+     */
+    <T> Future<T> find(Class<T> c, String id, FutureCallback<T> callback);
+
+    /**
+     * @see CouchDbConnector#contains(String)
+     */
+    Future<Boolean> contains(String id);
+
+    /**
+     * The Object's id and revision fields will be updated before the Future completes.
+     *
+     * @see CouchDbConnector#create(Object)
+     */
+    Future<Void> create(Object o);
+
+    /**
+     * @see CouchDbConnector#create(Object)
+     */
+    Future<Void> create(Object o, FutureCallback<Void> callback);
+
+    /**
+     * The Object's revision field will be updated before the Future completes.
+     *
+     * @see CouchDbConnector#update(Object)
+     */
+    Future<Void> update(Object o);
+
+    /**
+     * @see CouchDbConnector#update(Object)
+     */
+    Future<Void> update(Object o, FutureCallback<Void> callback);
+
+    /**
+     * @return a Future holding the revision of the deleted document
+     * @see CouchDbConnector#delete(Object)
+     */
+    Future<String> delete(Object o);
+
+    /**
+     * @see CouchDbConnector#delete(Object)
+     */
+    Future<String> delete(Object o, FutureCallback<String> callback);
+
+    /**
+     * @see CouchDbConnector#delete(String, String)
+     */
+    Future<String> delete(String id, String revision, FutureCallback<String> callback);
+
+    /**
+     * @see CouchDbConnector#queryView(ViewQuery, Class)
+     */
+    <T> Future<List<T>> queryView(ViewQuery query, Class<T> type);
+
+    /**
+     * @see CouchDbConnector#queryView(ViewQuery, Class)
+     */
+    <T> Future<List<T>> queryView(ViewQuery query, Class<T> type, FutureCallback<List<T>> callback);
+
+    /**
+     * @see CouchDbConnector#queryView(ViewQuery)
+     */
+    Future<ViewResult> queryView(ViewQuery query);
+
+    /**
+     * @see CouchDbConnector#queryView(ViewQuery)
+     */
+    Future<ViewResult> queryView(ViewQuery query, FutureCallback<ViewResult> callback);
+
+    /**
+     * @see CouchDbConnector#executeBulk(Collection)
+     */
+    Future<List<DocumentOperationResult>> executeBulk(Collection<?> objects);
+
+    /**
+     * @see CouchDbConnector#executeBulk(Collection)
+     */
+    Future<List<DocumentOperationResult>> executeBulk(Collection<?> objects,
+            FutureCallback<List<DocumentOperationResult>> callback);
+
+    /**
+     * @return the synchronous connector that performs the actual requests.
+     */
+    CouchDbConnector getCouchDbConnector();
+
+    /**
+     * Stops accepting new operations. Operations already submitted will be completed.
+     */
+    void shutdown();
+
+}
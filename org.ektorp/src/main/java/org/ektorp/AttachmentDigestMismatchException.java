@@ -0,0 +1,38 @@
+package org.ektorp;
+
+/**
+ * Thrown when the MD5 digest the database reports for an uploaded attachment differs from the digest of the content
+ * that was sent. The revision that holds the attachment has been stored all the same, and may be deleted or
+ * overwritten by the caller.
+ */
+public class AttachmentDigestMismatchException extends DbAccessException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String docId;
+	private final String attachmentId;
+	private final String revision;
+
+	public AttachmentDigestMismatchException(String docId, String attachmentId, String revision, String stored, String sent) {
+		super(String.format("MD5 digest of attachment %s/%s in rev %s is %s but %s was sent",
+				docId, attachmentId, revision, stored, sent));
+		this.docId = docId;
+		this.attachmentId = attachmentId;
+		this.revision = revision;
+	}
+
+	public String getDocId() {
+		return docId;
+	}
+
+	public String getAttachmentId() {
+		return attachmentId;
+	}
+
+	/**
+	 * @return the revision that was stored with the mismatching attachment.
+	 */
+	public String getRevision() {
+		return revision;
+	}
+}
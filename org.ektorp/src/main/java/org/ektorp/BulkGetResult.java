@@ -0,0 +1,111 @@
+package org.ektorp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The result of loading multiple documents by id, see CouchDbConnector.getAll(Class<T> c, Collection<String> ids).
+ *
+ * Documents are kept in the order of the requested ids. Ids that did not resolve to a document are reported through
+ * getMissingIds() (never existed or purged) and getDeletedIds() (deleted).
+ *
+ * @param <T>
+ */
+public class BulkGetResult<T> implements Iterable<T> {
+
+	private final List<String> requestedIds;
+	private final Map<String, T> documents;
+	private final List<String> missingIds = new ArrayList<String>();
+	private final List<String> deletedIds = new ArrayList<String>();
+
+	public BulkGetResult(List<String> requestedIds) {
+		this.requestedIds = requestedIds;
+		this.documents = new HashMap<String, T>(requestedIds.size() * 4 / 3 + 1);
+	}
+
+	public void addDocument(String id, T document) {
+		documents.put(id, document);
+	}
+
+	public void addMissingId(String id) {
+		missingIds.add(id);
+	}
+
+	public void addDeletedId(String id) {
+		deletedIds.add(id);
+	}
+
+	/**
+	 * Adds all entries of another (partial) result to this result.
+	 * @param other
+	 */
+	public void merge(BulkGetResult<T> other) {
+		documents.putAll(other.documents);
+		missingIds.addAll(other.missingIds);
+		deletedIds.addAll(other.deletedIds);
+	}
+
+	/**
+	 * @return the found documents in the same order as the requested ids.
+	 */
+	public List<T> getDocuments() {
+		List<T> result = new ArrayList<T>(documents.size());
+		for (String id : requestedIds) {
+			T doc = documents.get(id);
+			if (doc != null) {
+				result.add(doc);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @param id
+	 * @return the document with the specified id or null if it was missing or deleted.
+	 */
+	public T get(String id) {
+		return documents.get(id);
+	}
+
+	/**
+	 * @return the ids that were requested, in request order.
+	 */
+	public List<String> getRequestedIds() {
+		return Collections.unmodifiableList(requestedIds);
+	}
+
+	/**
+	 * @return the ids that did not match any document in the database.
+	 */
+	public List<String> getMissingIds() {
+		return Collections.unmodifiableList(missingIds);
+	}
+
+	/**
+	 * @return the ids of documents that have been deleted.
+	 */
+	public List<String> getDeletedIds() {
+		return Collections.unmodifiableList(deletedIds);
+	}
+
+	/**
+	 * @return true if every requested id resolved to a document.
+	 */
+	public boolean isComplete() {
+		return missingIds.isEmpty() && deletedIds.isEmpty();
+	}
+
+	public int getSize() {
+		return documents.size();
+	}
+
+	@Override
+	public Iterator<T> iterator() {
+		return getDocuments().iterator();
+	}
+
+}
@@ -0,0 +1,34 @@
+package org.ektorp;
+
+import java.io.Closeable;
+
+/**
+ * Writes documents to the database through _bulk_docs requests, accepting the documents one at a time.
+ *
+ * Documents are collected into batches that are cut when either the maximum number of documents or the maximum size in
+ * bytes configured in {@link BulkWriterConfig} is reached. A batch is sent as soon as it is complete while more
+ * documents are added. When the configured number of batches are in flight, add() blocks until one of them has
+ * completed.
+ *
+ * The id and revision of each document are set when its batch has completed, as in CouchDbConnector.executeBulk.
+ */
+public interface BulkWriter extends Closeable {
+
+	/**
+	 * Adds a document to the current batch. May block if the maximum number of batches are in flight.
+	 *
+	 * @param o the document to write
+	 */
+	void add(Object o);
+
+	/**
+	 * Sends the current batch, even if it is not full, and waits until all batches in flight have completed.
+	 */
+	void flush();
+
+	/**
+	 * Flushes and releases the resources held by this writer. Documents may not be added after close has been called.
+	 */
+	void close();
+
+}
@@ -0,0 +1,27 @@
+package org.ektorp;
+
+import java.util.List;
+
+/**
+ * Receives the outcome of each batch sent by a {@link BulkWriter}.
+ *
+ * Callbacks are invoked on the thread that sent the batch and should not block for long, as the batch is still
+ * counted as in flight until the callback returns.
+ */
+public interface BulkWriterCallback {
+
+	/**
+	 * @param documents the documents of the batch, with ids and revisions updated.
+	 * @param errors the documents that could not be written, an empty list if all documents were written.
+	 */
+	void batchCompleted(List<?> documents, List<DocumentOperationResult> errors);
+
+	/**
+	 * Called when the request for a batch failed as a whole, e.g. because of a network error.
+	 *
+	 * @param documents the documents of the batch.
+	 * @param e
+	 */
+	void batchFailed(List<?> documents, Exception e);
+
+}
@@ -0,0 +1,130 @@
+package org.ektorp;
+
+import java.util.concurrent.ExecutorService;
+
+import org.ektorp.util.Assert;
+
+/**
+ * Configuration of a {@link BulkWriter}. Use the Builder to create instances.
+ */
+public class BulkWriterConfig {
+
+	public static final int DEFAULT_MAX_DOCS_PER_BATCH = 1000;
+	public static final int DEFAULT_MAX_BYTES_PER_BATCH = 4 * 1024 * 1024;
+	public static final int DEFAULT_MAX_BATCHES_IN_FLIGHT = 2;
+
+	private final int maxDocsPerBatch;
+	private final int maxBytesPerBatch;
+	private final int maxBatchesInFlight;
+	private final boolean allOrNothing;
+	private final BulkWriterCallback callback;
+	private final ExecutorService executorService;
+
+	private BulkWriterConfig(Builder b) {
+		maxDocsPerBatch = b.maxDocsPerBatch;
+		maxBytesPerBatch = b.maxBytesPerBatch;
+		maxBatchesInFlight = b.maxBatchesInFlight;
+		allOrNothing = b.allOrNothing;
+		callback = b.callback;
+		executorService = b.executorService;
+	}
+
+	public int getMaxDocsPerBatch() {
+		return maxDocsPerBatch;
+	}
+
+	public int getMaxBytesPerBatch() {
+		return maxBytesPerBatch;
+	}
+
+	public int getMaxBatchesInFlight() {
+		return maxBatchesInFlight;
+	}
+
+	public boolean isAllOrNothing() {
+		return allOrNothing;
+	}
+
+	public BulkWriterCallback getCallback() {
+		return callback;
+	}
+
+	public ExecutorService getExecutorService() {
+		return executorService;
+	}
+
+	public static class Builder {
+
+		private int maxDocsPerBatch = DEFAULT_MAX_DOCS_PER_BATCH;
+		private int maxBytesPerBatch = DEFAULT_MAX_BYTES_PER_BATCH;
+		private int maxBatchesInFlight = DEFAULT_MAX_BATCHES_IN_FLIGHT;
+		private boolean allOrNothing;
+		private BulkWriterCallback callback;
+		private ExecutorService executorService;
+
+		/**
+		 * The maximum number of documents in a batch. Default is 1000.
+		 * @param i
+		 * @return
+		 */
+		public Builder maxDocsPerBatch(int i) {
+			Assert.isTrue(i > 0, "maxDocsPerBatch must be greater than 0");
+			this.maxDocsPerBatch = i;
+			return this;
+		}
+
+		/**
+		 * The maximum size of the serialized documents in a batch. A document larger than this limit is sent in a batch
+		 * of its own. Default is 4 MB.
+		 * @param i
+		 * @return
+		 */
+		public Builder maxBytesPerBatch(int i) {
+			Assert.isTrue(i > 0, "maxBytesPerBatch must be greater than 0");
+			this.maxBytesPerBatch = i;
+			return this;
+		}
+
+		/**
+		 * The number of batches that may be sent concurrently, each on a connection of its own. Should not exceed the
+		 * maxConnections setting of the http client. Default is 2.
+		 * @param i
+		 * @return
+		 */
+		public Builder maxBatchesInFlight(int i) {
+			Assert.isTrue(i > 0, "maxBatchesInFlight must be greater than 0");
+			this.maxBatchesInFlight = i;
+			return this;
+		}
+
+		public Builder allOrNothing(boolean b) {
+			this.allOrNothing = b;
+			return this;
+		}
+
+		/**
+		 * If no callback is set, the first failed batch will be reported by the next call to add, flush or close.
+		 * @param c
+		 * @return
+		 */
+		public Builder callback(BulkWriterCallback c) {
+			this.callback = c;
+			return this;
+		}
+
+		/**
+		 * Bring your own ExecutorService for sending the batches. If not set, the writer will create a pool of
+		 * maxBatchesInFlight threads that is shut down when the writer is closed.
+		 * @param es
+		 * @return
+		 */
+		public Builder executorService(ExecutorService es) {
+			this.executorService = es;
+			return this;
+		}
+
+		public BulkWriterConfig build() {
+			return new BulkWriterConfig(this);
+		}
+	}
+}
@@ -0,0 +1,21 @@
+package org.ektorp;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+/**
+ * An Iterator that holds resources, typically an open http connection, until it is exhausted or closed.
+ *
+ * Iterators that are not consumed to the end must be closed in order to release the connection.
+ *
+ * @param <T>
+ */
+public interface CloseableIterator<T> extends Iterator<T>, Closeable {
+
+	/**
+	 * Releases the resources held by this iterator. Calling close on an exhausted or already closed iterator has no
+	 * effect.
+	 */
+	void close();
+
+}
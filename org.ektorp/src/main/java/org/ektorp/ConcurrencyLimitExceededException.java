@@ -0,0 +1,13 @@
+package org.ektorp;
+
+/**
+ * Thrown when a request could not be sent because the number of requests in flight has reached the concurrency limit.
+ */
+public class ConcurrencyLimitExceededException extends DbAccessException {
+
+	private static final long serialVersionUID = 1L;
+
+	public ConcurrencyLimitExceededException(int limit) {
+		super(String.format("Concurrency limit of %s requests in flight exceeded", limit));
+	}
+}
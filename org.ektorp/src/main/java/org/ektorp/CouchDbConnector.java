@@ -1,14 +1,20 @@
 package org.ektorp;
 
+import java.io.File;
 import java.io.InputStream;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
 import org.ektorp.changes.ChangesCommand;
 import org.ektorp.changes.ChangesFeed;
+import org.ektorp.changes.ChangesPage;
 import org.ektorp.changes.DocumentChange;
+import org.ektorp.changes.TypedChangesFeed;
+import org.ektorp.changes.TypedDocumentChange;
 import org.ektorp.http.HttpClient;
+import org.ektorp.reactive.Publisher;
 import org.ektorp.impl.AttachmentCouchDbConnector;
 
 /**
@@ -147,6 +153,19 @@ public interface CouchDbConnector extends LocalBulkBuffer, AttachmentCouchDbConn
      */
     <T> T find(Class<T> c, String id, Options options);
 
+    /**
+     * Loads multiple documents in as few requests as possible. The ids are sent in chunks to _all_docs and the included
+     * documents are mapped directly to the specified class.
+     * 
+     * @param c
+     *            the target class to map to.
+     * @param ids
+     *            the ids of the documents in the database.
+     * @return the found documents in the order of the supplied ids. Ids of missing or deleted documents are reported
+     *         in the result.
+     */
+    <T> BulkGetResult<T> getAll(Class<T> c, Collection<String> ids);
+
     /**
      * 
      * @param <T>
@@ -283,6 +302,56 @@ public interface CouchDbConnector extends LocalBulkBuffer, AttachmentCouchDbConn
      */
     String createAttachment(String docId, String revision, AttachmentInputStream data);
 
+    /**
+     * Uploads a file as an attachment, streaming it from disk. The MD5 digest is computed while the file is sent and
+     * verified against the digest of the stored attachment.
+     *
+     * @param docId
+     * @param revision may be null if the document does not exist.
+     * @param attachmentId
+     * @param file
+     * @param contentType
+     * @return the new revision of the document
+     * @throws UpdateConflictException
+     *             if there was an update conflict.
+     * @throws AttachmentDigestMismatchException
+     *             if the digest of the stored attachment does not match, the exception holds the stored revision.
+     */
+    String createAttachment(String docId, String revision, String attachmentId, File file, String contentType);
+
+    /**
+     * Downloads an attachment into a file. The content is written through a FileChannel into a temporary file that
+     * replaces the target once the MD5 digest of the content has been verified against the ETag of the response.
+     *
+     * @param id
+     * @param attachmentId
+     * @param target
+     * @return the number of bytes written.
+     * @throws DocumentNotFoundException
+     *             if the document or the attachment was not found.
+     */
+    long getAttachment(String id, String attachmentId, File target);
+
+    long getAttachment(String id, String attachmentId, String revision, File target);
+
+    /**
+     * Reads a byte range of an attachment with a HTTP Range request, e.g. a chunk of a video. The stream ends after
+     * length bytes or at the end of the attachment, whichever comes first.
+     *
+     * Please note that the stream has to be closed after usage, otherwise http connection leaks will occur.
+     *
+     * @param id
+     * @param attachmentId
+     * @param offset the position of the first byte to read.
+     * @param length the maximum number of bytes to read.
+     * @return the range in the form of an AttachmentInputStream.
+     * @throws DocumentNotFoundException
+     *             if the document or the attachment was not found.
+     */
+    AttachmentInputStream getAttachment(String id, String attachmentId, long offset, long length);
+
+    AttachmentInputStream getAttachment(String id, String attachmentId, String revision, long offset, long length);
+
     /**
      * 
      * @param docId
@@ -346,6 +415,59 @@ public interface CouchDbConnector extends LocalBulkBuffer, AttachmentCouchDbConn
      */
     StreamingViewResult queryForStreamingView(ViewQuery query);
 
+    /**
+     * Like queryForStreamingView(ViewQuery query) but each row is bound directly to the specified type while it is
+     * read from the response stream. This makes it possible to iterate over very large results in constant memory.
+     *
+     * Please note that the TypedStreamingViewResult need to be closed after usage.
+     *
+     * @param query
+     * @param type the type to map the result to
+     * @return the view result as a iterable stream of objects of the specified type.
+     */
+    <T> TypedStreamingViewResult<T> queryForStreamingView(ViewQuery query, Class<T> type);
+
+    /**
+     * Creates a publisher of the rows of a view or _all_docs query, bound to the specified type as in
+     * queryForIterator(ViewQuery query, Class<T> type). Each subscription executes the query. Rows are only read from
+     * the connection while the subscriber has outstanding demand, and cancelling the subscription aborts the request.
+     *
+     * @param query
+     * @param type
+     * @return
+     */
+    <T> Publisher<T> queryForPublisher(ViewQuery query, Class<T> type);
+
+    /**
+     * Returns an iterator that binds the rows of the view result to the specified type as they are consumed, in the
+     * same way as queryView(ViewQuery query, Class<T> type).
+     *
+     * The result is read from a single request. The connection is released when the iterator is exhausted, iterators
+     * that are not consumed to the end must be closed.
+     *
+     * @param query
+     * @param type the type to map the result to
+     * @return an iterator over the result
+     */
+    <T> CloseableIterator<T> queryForIterator(ViewQuery query, Class<T> type);
+
+    /**
+     * Returns an iterator that requests the view result in pages of pageSize rows. Each page starts after the last row
+     * of the previous page, so that large views can be traversed without holding a connection open for the whole
+     * traversal. At most two pages are held in memory.
+     *
+     * If an ExecutorService has been set on the connector, the next page is fetched in the background while the
+     * current page is being consumed.
+     *
+     * Queries with multiple keys are not supported.
+     *
+     * @param query
+     * @param type the type to map the result to
+     * @param pageSize the number of rows requested per page
+     * @return an iterator over the result
+     */
+    <T> CloseableIterator<T> queryForIterator(ViewQuery query, Class<T> type, int pageSize);
+
     /**
      * 
      * @param query
@@ -534,6 +656,17 @@ public interface CouchDbConnector extends LocalBulkBuffer, AttachmentCouchDbConn
      */
     List<DocumentOperationResult> executeAllOrNothing(Collection<?> objects);
 
+    /**
+     * Creates a writer that accepts documents one at a time and writes them in batches through _bulk_docs. Several
+     * batches may be in flight at the same time, each on its own connection.
+     *
+     * The writer must be closed after usage.
+     *
+     * @param config
+     * @return a new BulkWriter
+     */
+    BulkWriter createBulkWriter(BulkWriterConfig config);
+
     /**
      * Queries the database for changes. This is a one-off operation. To listen to changes continuously @see
      * changesFeed(ChangesCommand cmd).
@@ -542,6 +675,18 @@ public interface CouchDbConnector extends LocalBulkBuffer, AttachmentCouchDbConn
      * @return
      */
     List<DocumentChange> changes(ChangesCommand cmd);
+
+    /**
+     * Queries the database for changes and binds the included documents to the specified type. The command should
+     * declare includeDocs = true, otherwise getDocument() of the changes will return null.
+     *
+     * Changes and documents are bound directly from the response stream without an intermediate JsonNode.
+     *
+     * @param cmd
+     * @param docType
+     * @return
+     */
+    <T> List<TypedDocumentChange<T>> changes(ChangesCommand cmd, Class<T> docType);
     
     /**
      * Queries the database for changes. this operation gives you the result as a iterable stream of documentchange objects, 
@@ -552,17 +697,51 @@ public interface CouchDbConnector extends LocalBulkBuffer, AttachmentCouchDbConn
      */
     StreamingChangesResult changesAsStream(ChangesCommand cmd);
 
+    /**
+     * Reads the changes of the database in pages of at most pageSize changes, continuing each page from the last_seq
+     * of the previous one. A page is requested when next() is called on the iterator, so catching up with a large
+     * database from since=0 only holds one page in memory at a time.
+     *
+     * The limit of the command, if set, is the total number of changes to read.
+     *
+     * @param cmd
+     * @param pageSize
+     * @return
+     */
+    Iterator<ChangesPage> changesInPages(ChangesCommand cmd, int pageSize);
+
     /**
      * Sets up a continuous changes feed. The current update sequence in the DB will be used if ChangesCommand does not
      * specify the since parameter. A heartbeat interval of 10 seconds will be used if ChangesCommand does not specify
      * the heartbeat parameter.
      * 
      * @param cmd
-     * @return a running changes feed that buffers incoming changes in a unbounded queue (will grow until
-     *         OutOfMemoryException if not polled).
+     * @return a running changes feed that buffers incoming changes in a queue with the capacity and overflow policy
+     *         of the ChangesCommand.
      */
     ChangesFeed changesFeed(ChangesCommand cmd);
 
+    /**
+     * Sets up a continuous changes feed that binds the included documents to the specified type. The command should
+     * declare includeDocs = true, otherwise getDocument() of the changes will return null.
+     *
+     * @see #changesFeed(ChangesCommand)
+     * @param cmd
+     * @param docType
+     * @return
+     */
+    <T> TypedChangesFeed<T> changesFeed(ChangesCommand cmd, Class<T> docType);
+
+    /**
+     * Creates a publisher of the continuous changes feed. Each subscription opens a feed of its own, with since and
+     * heartbeat defaulted as in changesFeed(ChangesCommand cmd). Changes are only read from the connection while the
+     * subscriber has outstanding demand, and cancelling the subscription aborts the request.
+     *
+     * @param cmd
+     * @return
+     */
+    Publisher<DocumentChange> changesPublisher(ChangesCommand cmd);
+
     /**
      * 
      * @param designDoc
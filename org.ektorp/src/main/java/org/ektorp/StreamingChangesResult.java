@@ -24,7 +24,7 @@ public class StreamingChangesResult implements Serializable, Iterable<DocumentCh
     @edu.umd.cs.findbugs.annotations.SuppressWarnings(value="SE_BAD_FIELD")
 	private JsonParser jp;
 
-	private long lastSeq = -1l;
+	private String lastSeq;
 
     @edu.umd.cs.findbugs.annotations.SuppressWarnings(value="SE_BAD_FIELD")
     private final HttpResponse response;
@@ -70,15 +70,31 @@ public class StreamingChangesResult implements Serializable, Iterable<DocumentCh
 	/**
 	 * This method can only be called after stream is fully red
 	 *
-	 * @return
+	 * @return the last sequence as a number. For opaque sequences (CouchDB 2.x, Cloudant) the numeric prefix is
+	 *         returned, use getLastSeqAsString() in order to resume from it.
 	 */
 	public long getLastSeq() {
-	    if (lastSeq == -1) {
-	        throw new IllegalStateException("Last seq can only be called after stream is fully iterated");
+	    String seq = getLastSeqAsString();
+	    int dash = seq.indexOf('-');
+	    try {
+	        return Long.parseLong(dash > 0 ? seq.substring(0, dash) : seq);
+	    } catch (NumberFormatException e) {
+	        throw new IllegalStateException(String.format("Last seq %s is not numeric", seq));
 	    }
-        return lastSeq;
     }
 
+	/**
+	 * This method can only be called after stream is fully red
+	 *
+	 * @return the last sequence as returned by the database.
+	 */
+	public String getLastSeqAsString() {
+	    if (lastSeq == null) {
+	        throw new IllegalStateException("Last seq can only be called after stream is fully iterated");
+	    }
+	    return lastSeq;
+	}
+
 
 	private class StreamingResultIterator implements Iterator<DocumentChange>{
         private DocumentChange row;
@@ -103,7 +119,7 @@ public class StreamingChangesResult implements Serializable, Iterable<DocumentCh
                     JsonNode jsonNode = jp.readValueAs(JsonNode.class);
                     if (jsonNode == null) {
                         jsonNode = jp.readValueAs(JsonNode.class);
-                        lastSeq = jsonNode.get("last_seq").longValue();
+                        lastSeq = jsonNode.get("last_seq").asText();
                         close();
                         hasNext = false;
                     } else {
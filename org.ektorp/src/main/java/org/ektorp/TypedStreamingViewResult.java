@@ -0,0 +1,70 @@
+package org.ektorp;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.ektorp.http.HttpResponse;
+import org.ektorp.impl.ViewRowReader;
+
+/**
+ * View result that binds one row at a time from the response stream to the specified type, without building an
+ * intermediate tree.
+ *
+ * As in CouchDbConnector.queryView(ViewQuery query, Class<T> type), the included doc is bound if the query was made
+ * with include_docs=true, otherwise the value of the row is bound. Rows where the bound field is null are skipped.
+ *
+ * Please note that the TypedStreamingViewResult need to be closed after usage.
+ *
+ * @param <T>
+ */
+public class TypedStreamingViewResult<T> extends AbstractStreamingViewResult<T> {
+
+	private final ViewRowReader<T> rowReader;
+
+	private String readId;
+	private JsonNode readKey;
+	private String currentId;
+	private JsonNode currentKey;
+
+	public TypedStreamingViewResult(ObjectMapper objectMapper, HttpResponse httpResponse, Class<T> type,
+			boolean ignoreNotFound) {
+		super(objectMapper, httpResponse, ignoreNotFound);
+		this.rowReader = new ViewRowReader<T>(objectMapper.reader(type), ignoreNotFound);
+	}
+
+	@Override
+	protected T readRow(JsonParser jp) throws IOException {
+		if (!rowReader.read(jp)) {
+			return null;
+		}
+		T value = rowReader.getValue();
+		if (value != null) {
+			readId = rowReader.getId();
+			readKey = rowReader.getKey();
+		}
+		return value;
+	}
+
+	@Override
+	protected void rowReturned() {
+		currentId = readId;
+		currentKey = readKey;
+	}
+
+	/**
+	 * @return the id of the row most recently returned by the iterator, or null if no row has been read.
+	 */
+	public String getCurrentId() {
+		return currentId;
+	}
+
+	/**
+	 * @return the key of the row most recently returned by the iterator, or null if no row has been read.
+	 */
+	public JsonNode getCurrentKey() {
+		return currentKey;
+	}
+
+}
@@ -1,10 +1,20 @@
 package org.ektorp.changes;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.ektorp.http.URI;
+import org.ektorp.util.Assert;
+import org.ektorp.util.Exceptions;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 
 /**
  * 
@@ -13,6 +23,12 @@ import org.ektorp.http.URI;
  */
 public class ChangesCommand {
 
+	public static final int DEFAULT_QUEUE_CAPACITY = 100;
+	public static final String SELECTOR_FILTER = "_selector";
+	public static final String DOC_IDS_FILTER = "_doc_ids";
+
+	private final static ObjectMapper DEFAULT_MAPPER = new ObjectMapper();
+
 	public final String since;
 	public final boolean continuous;
 	public final String filter;
@@ -20,16 +36,42 @@ public class ChangesCommand {
 	public final int heartbeat;
 	public final int limit;
 	public final Map<String,String> extraQueryParams;
+	/**
+	 * The Mango selector of the _selector filter. Sent in the body of a POST request.
+	 */
+	public final Object selector;
+	/**
+	 * The ids of the _doc_ids filter. Sent in the body of a POST request.
+	 */
+	public final List<String> docIds;
+	/**
+	 * The capacity of the queue of a changes feed. Not sent to the database.
+	 */
+	public final int queueCapacity;
+	/**
+	 * What a changes feed does when its queue is full. Not sent to the database.
+	 */
+	public final OverflowPolicy overflowPolicy;
 	
 	private String queryString; 
 	
 	private ChangesCommand(Builder b) {
 		continuous = b.continuous;
 		since = b.since;
-		filter = b.filter;
+		selector = b.selector;
+		docIds = b.docIds != null ? Collections.unmodifiableList(new ArrayList<String>(b.docIds)) : null;
+		if (selector != null) {
+			filter = SELECTOR_FILTER;
+		} else if (docIds != null) {
+			filter = DOC_IDS_FILTER;
+		} else {
+			filter = b.filter;
+		}
 		includeDocs = b.includeDocs;
 		heartbeat = b.heartbeat;
 		limit = b.limit;
+		queueCapacity = b.queueCapacity;
+		overflowPolicy = b.overflowPolicy;
 		if (b.extraQueryParams != null) {
 			extraQueryParams = Collections.unmodifiableMap(new LinkedHashMap<String, String>(b.extraQueryParams));	
 		} else {
@@ -37,6 +79,47 @@ public class ChangesCommand {
 		}
 	}
 	
+	/**
+	 * @return true if the command has a selector or doc ids that has to be sent in the body of a POST request.
+	 */
+	public boolean hasBody() {
+		return selector != null || docIds != null;
+	}
+
+	/**
+	 * @return the body of the POST request, or null if the command does not have a body.
+	 */
+	public String getBodyAsJson() {
+		return getBodyAsJson(DEFAULT_MAPPER);
+	}
+
+	/**
+	 * @param mapper serializes a selector that is not a JSON string, e.g. the ObjectMapper of the connector.
+	 * @return the body of the POST request, or null if the command does not have a body.
+	 */
+	public String getBodyAsJson(ObjectMapper mapper) {
+		Assert.notNull(mapper, "mapper may not be null");
+		if (!hasBody()) {
+			return null;
+		}
+		ObjectNode body = mapper.createObjectNode();
+		try {
+			if (selector != null) {
+				body.put("selector", selector instanceof String
+						? mapper.readTree((String) selector)
+						: mapper.valueToTree(selector));
+			} else {
+				ArrayNode ids = body.putArray("doc_ids");
+				for (String id : docIds) {
+					ids.add(id);
+				}
+			}
+			return mapper.writeValueAsString(body);
+		} catch (IOException e) {
+			throw Exceptions.propagate(e);
+		}
+	}
+
 	@Override
 	public String toString() {
 		if (queryString == null) {
@@ -88,6 +171,10 @@ public class ChangesCommand {
 		private int heartbeat = -1;
 		private int limit = -1;
 		private Map<String,String> extraQueryParams;
+		private Object selector;
+		private Collection<String> docIds;
+		private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+		private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
 		
 		/**
 		 * Start the results from the change immediately after the given sequence number.
@@ -137,6 +224,31 @@ public class ChangesCommand {
 			this.filter = s;
 			return this;
 		}
+		/**
+		 * Only return changes of documents that match the Mango selector, i.e. filter=_selector. The selector is sent
+		 * in the body of a POST request and may be a JSON string, a Map, a JsonNode or any object that the
+		 * ObjectMapper can serialize.
+		 * @param o
+		 * @return
+		 */
+		public Builder selector(Object o) {
+			Assert.notNull(o, "selector may not be null");
+			Assert.isTrue(docIds == null, "selector and docIds may not be combined");
+			this.selector = o;
+			return this;
+		}
+		/**
+		 * Only return changes of the documents with the specified ids, i.e. filter=_doc_ids. The ids are sent in the
+		 * body of a POST request, so the number of ids is not limited by the maximum length of the url.
+		 * @param ids
+		 * @return
+		 */
+		public Builder docIds(Collection<String> ids) {
+			Assert.notNull(ids, "docIds may not be null");
+			Assert.isTrue(selector == null, "selector and docIds may not be combined");
+			this.docIds = ids;
+			return this;
+		}
 		/**
 		 * Include the associated document with each result.
 		 * @param b
@@ -157,12 +269,38 @@ public class ChangesCommand {
 		    	return this;
 		}
 		
+		/**
+		 * Sets the number of changes a changes feed buffers for its consumer. Default is 100.
+		 * @param i
+		 * @return
+		 */
+		public Builder queueCapacity(int i) {
+			Assert.isTrue(i > 0, "queueCapacity must be greater than 0");
+			this.queueCapacity = i;
+			return this;
+		}
+
+		/**
+		 * Sets what a changes feed does when its queue is full. Default is OverflowPolicy.BLOCK.
+		 * @param p
+		 * @return
+		 */
+		public Builder overflowPolicy(OverflowPolicy p) {
+			Assert.notNull(p, "overflowPolicy may not be null");
+			this.overflowPolicy = p;
+			return this;
+		}
+
 		public Builder merge(ChangesCommand other) {
 			continuous = other.continuous;
 			filter = other.filter;
+			selector = other.selector;
+			docIds = other.docIds;
 			includeDocs = other.includeDocs;
 			since = other.since;
 			limit = other.limit;
+			queueCapacity = other.queueCapacity;
+			overflowPolicy = other.overflowPolicy;
 			if (other.extraQueryParams != null) {
 			    extraQueryParams = new LinkedHashMap<String, String>(other.extraQueryParams);
 			}
@@ -1,12 +1,14 @@
 package org.ektorp.changes;
 
+import java.util.List;
 import java.util.concurrent.*;
 
 /**
  * ChangesFeed listens to the _changes feed in a CouchDB database.
  * Feeds are created by calling the method  changesFeed(ChangesCommand cmd) in CouchDbConnector.
  * 
- * An active feed buffers incoming changes in a unbounded queue that will grow until OutOfMemoryException if not polled.
+ * An active feed buffers incoming changes in a bounded queue. The capacity of the queue and what happens when it is
+ * full are set through ChangesCommand.queueCapacity and ChangesCommand.overflowPolicy.
  * @author henrik lundgren
  *
  */
@@ -31,6 +33,17 @@ public interface ChangesFeed {
 	 * @throws InterruptedException when this changes feed is closed or otherwise is interrupted
 	 */
 	DocumentChange next(long timeout, TimeUnit unit) throws InterruptedException;
+	/**
+	 * Retrieves and removes up to max changes from the head of this changes feed, waiting up to the specified wait time
+	 * if necessary for the first change to become available. Changes already queued are taken in a single operation,
+	 * which is considerably cheaper than calling next() for each change.
+	 * @param max the maximum number of changes to return
+	 * @param timeout
+	 * @param unit
+	 * @return the changes, an empty list if none became available within the wait time.
+	 * @throws InterruptedException when this changes feed is closed or otherwise is interrupted
+	 */
+	List<? extends DocumentChange> nextBatch(int max, long timeout, TimeUnit unit) throws InterruptedException;
 	/**
 	 * Will close this feed and interrupt any threads waiting on next()  
 	 */
@@ -0,0 +1,18 @@
+package org.ektorp.changes;
+
+import java.util.List;
+
+/**
+ * Receives batches of changes from a changes follower.
+ */
+public interface ChangesHandler {
+	/**
+	 * The batch is checkpointed when this method returns normally. If an exception is thrown the batch is not
+	 * checkpointed and will be delivered again, up to the max attempts of the changes follower.
+	 *
+	 * @param changes never empty
+	 * @throws Exception
+	 */
+	void handle(List<DocumentChange> changes) throws Exception;
+
+}
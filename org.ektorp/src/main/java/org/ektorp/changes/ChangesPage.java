@@ -0,0 +1,47 @@
+package org.ektorp.changes;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A page of changes from a paged catch-up of the changes of a database.
+ */
+public class ChangesPage implements Iterable<DocumentChange> {
+
+	private final List<DocumentChange> changes;
+	private final String lastSeq;
+	private final boolean lastPage;
+
+	public ChangesPage(List<DocumentChange> changes, String lastSeq, boolean lastPage) {
+		this.changes = changes;
+		this.lastSeq = lastSeq;
+		this.lastPage = lastPage;
+	}
+
+	public Iterator<DocumentChange> iterator() {
+		return changes.iterator();
+	}
+
+	public List<DocumentChange> getChanges() {
+		return changes;
+	}
+
+	public int size() {
+		return changes.size();
+	}
+
+	/**
+	 * @return the sequence the next page starts after. Save it in order to resume the catch-up later.
+	 */
+	public String getLastSeq() {
+		return lastSeq;
+	}
+
+	/**
+	 * @return true if the database had no more changes when this page was read.
+	 */
+	public boolean isLastPage() {
+		return lastPage;
+	}
+
+}
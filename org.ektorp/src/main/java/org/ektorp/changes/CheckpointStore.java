@@ -0,0 +1,17 @@
+package org.ektorp.changes;
+
+/**
+ * Persists the sequence up to which changes have been processed, so that a changes consumer can resume where it left
+ * off after a restart or a lost connection.
+ */
+public interface CheckpointStore {
+	/**
+	 * @return the last saved sequence, or null if no checkpoint has been saved.
+	 */
+	String load();
+	/**
+	 * @param sequence the sequence of the last processed change.
+	 */
+	void save(String sequence);
+
+}
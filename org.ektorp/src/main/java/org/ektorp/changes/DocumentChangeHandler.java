@@ -0,0 +1,10 @@
+package org.ektorp.changes;
+
+/**
+ * Processes one document change at a time.
+ */
+public interface DocumentChangeHandler {
+
+	void handle(DocumentChange change) throws Exception;
+
+}
@@ -0,0 +1,19 @@
+package org.ektorp.changes;
+
+import java.util.List;
+
+/**
+ * Receives the batches that a ChangesHandler failed to handle, e.g. in order to store them for later inspection.
+ */
+public interface FailedBatchHandler {
+	/**
+	 * The batch is checkpointed and skipped when this method returns normally. If an exception is thrown the changes
+	 * follower stops.
+	 *
+	 * @param changes never empty
+	 * @param cause the exception thrown by the ChangesHandler on its last attempt.
+	 * @throws Exception
+	 */
+	void failed(List<DocumentChange> changes, Exception cause) throws Exception;
+
+}
@@ -0,0 +1,23 @@
+package org.ektorp.changes;
+
+/**
+ * Decides what a ChangesFeed does when its queue is full because the consumer cannot keep up.
+ */
+public enum OverflowPolicy {
+	/**
+	 * The feed stops reading from the database until the consumer has made room in the queue. No changes are lost.
+	 * This is the default.
+	 */
+	BLOCK,
+	/**
+	 * The oldest change in the queue is discarded to make room for the new one. The feed never falls behind the
+	 * database, but changes are lost if the consumer is too slow.
+	 */
+	DROP_OLDEST,
+	/**
+	 * Changes that do not fit in the queue are written to a temporary file and read back in order when the consumer
+	 * catches up. No changes are lost and the feed does not stop reading, at the cost of disk I/O while the consumer is
+	 * behind.
+	 */
+	SPILL_TO_DISK
+}
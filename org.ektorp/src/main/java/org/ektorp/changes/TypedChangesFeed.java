@@ -0,0 +1,22 @@
+package org.ektorp.changes;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A ChangesFeed whose changes carry documents bound to the type T.
+ * Feeds are created by calling the method changesFeed(ChangesCommand cmd, Class<T> docType) in CouchDbConnector.
+ *
+ * @param <T> the type of the included documents
+ */
+public interface TypedChangesFeed<T> extends ChangesFeed {
+
+	TypedDocumentChange<T> next() throws InterruptedException;
+
+	TypedDocumentChange<T> poll() throws InterruptedException;
+
+	TypedDocumentChange<T> next(long timeout, TimeUnit unit) throws InterruptedException;
+
+	List<TypedDocumentChange<T>> nextBatch(int max, long timeout, TimeUnit unit) throws InterruptedException;
+
+}
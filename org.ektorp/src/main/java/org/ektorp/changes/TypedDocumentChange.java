@@ -0,0 +1,17 @@
+package org.ektorp.changes;
+
+/**
+ * A document change where the included document has been bound to a type of its own.
+ *
+ * getDoc() and getDocAsNode() are available for compatibility, but convert the bound document back to JSON on every
+ * call.
+ *
+ * @param <T> the type of the included document
+ */
+public interface TypedDocumentChange<T> extends DocumentChange {
+	/**
+	 * @return the included document, or null if the feed was not set up to include docs.
+	 */
+	T getDocument();
+
+}
@@ -0,0 +1,505 @@
+package org.ektorp.http;
+
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.HttpEntity;
+import org.ektorp.util.Assert;
+import org.ektorp.util.Exceptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A HttpClient that spreads requests over the nodes of a CouchDB cluster without an external load balancer.
+ *
+ * Every request is sent to the least loaded of two randomly chosen available nodes, where the load of a node is its
+ * number of outstanding requests. A request is outstanding until the response headers have been received.
+ *
+ * A node is ejected when maxFailures consecutive requests to it have failed, either with an exception or with a 5xx
+ * status. Ejected nodes receive no requests until they are re-admitted by a successful health probe, or, if probes
+ * are disabled, until the ejection time has passed. Probes request /_up from every node at a fixed interval and also
+ * eject nodes that do not answer 200, such as nodes in maintenance mode. If all nodes are ejected, requests are spread
+ * over all nodes anyway.
+ *
+ * GET and HEAD requests that fail with an exception are retried once on every other available node. Other requests
+ * are not retried, as they may have been executed by the failed node.
+ *
+ * Each node has a connection pool of its own. Build instances with ClusterHttpClient.Builder.
+ */
+public class ClusterHttpClient implements HttpClient {
+
+	private final static Logger LOG = LoggerFactory.getLogger(ClusterHttpClient.class);
+	private final static AtomicInteger THREAD_COUNT = new AtomicInteger();
+	private final static String UP_PATH = "/_up";
+
+	private final List<Node> nodes;
+	private final int maxFailures;
+	private final long ejectionMillis;
+	private final ScheduledExecutorService prober;
+	private final Random random = new Random();
+
+	/**
+	 * @param nodes the client of each node keyed by its url.
+	 * @param maxFailures consecutive failures after which a node is ejected.
+	 * @param ejectionMillis for how long an ejected node is left alone when probes are disabled.
+	 * @param probeIntervalMillis 0 disables probes.
+	 */
+	ClusterHttpClient(Map<String, HttpClient> nodes, int maxFailures, long ejectionMillis, long probeIntervalMillis) {
+		Assert.isTrue(!nodes.isEmpty(), "at least one node is required");
+		List<Node> list = new ArrayList<Node>(nodes.size());
+		for (Map.Entry<String, HttpClient> e : nodes.entrySet()) {
+			list.add(new Node(e.getKey(), e.getValue()));
+		}
+		this.nodes = Collections.unmodifiableList(list);
+		this.maxFailures = maxFailures;
+		this.ejectionMillis = ejectionMillis;
+		if (probeIntervalMillis > 0) {
+			prober = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, String.format("ektorp-cluster-probe-thread-%s", THREAD_COUNT.incrementAndGet()));
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			prober.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					probe();
+				}
+			}, probeIntervalMillis, probeIntervalMillis, TimeUnit.MILLISECONDS);
+		} else {
+			prober = null;
+		}
+	}
+
+	@Override
+	public HttpResponse get(final String uri) {
+		return executeIdempotent(new Request() {
+			public HttpResponse execute(HttpClient client) {
+				return client.get(uri);
+			}
+		});
+	}
+
+	@Override
+	public HttpResponse get(final String uri, final Map<String, String> headers) {
+		return executeIdempotent(new Request() {
+			public HttpResponse execute(HttpClient client) {
+				return client.get(uri, headers);
+			}
+		});
+	}
+
+	@Override
+	public HttpResponse getUncached(final String uri) {
+		return executeIdempotent(new Request() {
+			public HttpResponse execute(HttpClient client) {
+				return client.getUncached(uri);
+			}
+		});
+	}
+
+	@Override
+	public HttpResponse head(final String uri) {
+		return executeIdempotent(new Request() {
+			public HttpResponse execute(HttpClient client) {
+				return client.head(uri);
+			}
+		});
+	}
+
+	@Override
+	public HttpResponse put(final String uri, final String content) {
+		return execute(new Request() {
+			public HttpResponse execute(HttpClient client) {
+				return client.put(uri, content);
+			}
+		});
+	}
+
+	@Override
+	public HttpResponse put(final String uri) {
+		return execute(new Request() {
+			public HttpResponse execute(HttpClient client) {
+				return client.put(uri);
+			}
+		});
+	}
+
+	@Override
+	public HttpResponse put(final String uri, final InputStream data, final String contentType, final long contentLength) {
+		return execute(new Request() {
+			public HttpResponse execute(HttpClient client) {
+				return client.put(uri, data, contentType, contentLength);
+			}
+		});
+	}
+
+	@Override
+	public HttpResponse put(final String uri, final HttpEntity httpEntity) {
+		return execute(new Request() {
+			public HttpResponse execute(HttpClient client) {
+				return client.put(uri, httpEntity);
+			}
+		});
+	}
+
+	@Override
+	public HttpResponse post(final String uri, final String content) {
+		return execute(new Request() {
+			public HttpResponse execute(HttpClient client) {
+				return client.post(uri, content);
+			}
+		});
+	}
+
+	@Override
+	public HttpResponse post(final String uri, final InputStream content) {
+		return execute(new Request() {
+			public HttpResponse execute(HttpClient client) {
+				return client.post(uri, content);
+			}
+		});
+	}
+
+	@Override
+	public HttpResponse post(final String uri, final HttpEntity httpEntity) {
+		return execute(new Request() {
+			public HttpResponse execute(HttpClient client) {
+				return client.post(uri, httpEntity);
+			}
+		});
+	}
+
+	@Override
+	public HttpResponse postUncached(final String uri, final String content) {
+		return execute(new Request() {
+			public HttpResponse execute(HttpClient client) {
+				return client.postUncached(uri, content);
+			}
+		});
+	}
+
+	@Override
+	public HttpResponse delete(final String uri) {
+		return execute(new Request() {
+			public HttpResponse execute(HttpClient client) {
+				return client.delete(uri);
+			}
+		});
+	}
+
+	@Override
+	public HttpResponse copy(final String sourceUri, final String destination) {
+		return execute(new Request() {
+			public HttpResponse execute(HttpClient client) {
+				return client.copy(sourceUri, destination);
+			}
+		});
+	}
+
+	@Override
+	public void shutdown() {
+		if (prober != null) {
+			prober.shutdownNow();
+		}
+		for (Node n : nodes) {
+			n.client.shutdown();
+		}
+	}
+
+	/**
+	 * @return a snapshot of the state of every node.
+	 */
+	public List<NodeStats> getNodeStats() {
+		List<NodeStats> result = new ArrayList<NodeStats>(nodes.size());
+		long now = System.currentTimeMillis();
+		for (Node n : nodes) {
+			result.add(new NodeStats(n.url, n.isAvailable(now), n.outstanding.get(), n.requests.get(), n.failures.get()));
+		}
+		return result;
+	}
+
+	private HttpResponse execute(Request request) {
+		return execute(choose(null), request);
+	}
+
+	private HttpResponse executeIdempotent(Request request) {
+		List<Node> tried = new ArrayList<Node>(2);
+		while (true) {
+			Node node = choose(tried);
+			try {
+				return execute(node, request);
+			} catch (RuntimeException e) {
+				tried.add(node);
+				if (tried.size() >= nodes.size() || choose(tried) == null) {
+					throw e;
+				}
+				LOG.debug("Request to {} failed, retrying on another node", node.url, e);
+			}
+		}
+	}
+
+	private HttpResponse execute(Node node, Request request) {
+		node.outstanding.incrementAndGet();
+		node.requests.incrementAndGet();
+		try {
+			HttpResponse rsp = request.execute(node.client);
+			if (rsp.getCode() >= 500) {
+				failed(node);
+			} else {
+				node.consecutiveFailures.set(0);
+			}
+			return rsp;
+		} catch (RuntimeException e) {
+			failed(node);
+			throw e;
+		} finally {
+			node.outstanding.decrementAndGet();
+		}
+	}
+
+	private void failed(Node node) {
+		node.failures.incrementAndGet();
+		if (node.consecutiveFailures.incrementAndGet() >= maxFailures && node.isAvailable(System.currentTimeMillis())) {
+			LOG.warn("Ejecting {} after {} consecutive failures", node.url, maxFailures);
+			node.eject(prober != null ? Long.MAX_VALUE : System.currentTimeMillis() + ejectionMillis);
+		}
+	}
+
+	/**
+	 * Picks the less loaded of two random available nodes that have not been tried. Falls back to all nodes if none
+	 * is available.
+	 *
+	 * @param exclude may be null
+	 * @return null if all nodes have been tried.
+	 */
+	Node choose(List<Node> exclude) {
+		long now = System.currentTimeMillis();
+		List<Node> candidates = new ArrayList<Node>(nodes.size());
+		for (Node n : nodes) {
+			if (n.isAvailable(now) && (exclude == null || !exclude.contains(n))) {
+				candidates.add(n);
+			}
+		}
+		if (candidates.isEmpty()) {
+			if (exclude != null && !exclude.isEmpty()) {
+				return null;
+			}
+			candidates.addAll(nodes);
+		}
+		int size = candidates.size();
+		if (size == 1) {
+			return candidates.get(0);
+		}
+		Node a = candidates.get(random.nextInt(size));
+		Node b = candidates.get(random.nextInt(size - 1));
+		if (b == a) {
+			b = candidates.get(size - 1);
+		}
+		return a.outstanding.get() <= b.outstanding.get() ? a : b;
+	}
+
+	/**
+	 * Requests /_up from every node, ejecting the nodes that are down and re-admitting the ones that are up.
+	 */
+	void probe() {
+		for (Node n : nodes) {
+			boolean up;
+			try {
+				HttpResponse rsp = n.client.getUncached(UP_PATH);
+				up = rsp.getCode() == HttpStatus.OK;
+				rsp.releaseConnection();
+			} catch (RuntimeException e) {
+				LOG.debug("Probe of {} failed", n.url, e);
+				up = false;
+			}
+			boolean available = n.isAvailable(System.currentTimeMillis());
+			if (up && !available) {
+				LOG.info("Re-admitting {}", n.url);
+				n.admit();
+			} else if (up) {
+				n.consecutiveFailures.set(0);
+			} else if (available) {
+				LOG.warn("Ejecting {} as it is not up", n.url);
+				n.eject(Long.MAX_VALUE);
+			}
+		}
+	}
+
+	private interface Request {
+		HttpResponse execute(HttpClient client);
+	}
+
+	static class Node {
+
+		final String url;
+		final HttpClient client;
+		final AtomicInteger outstanding = new AtomicInteger();
+		final AtomicInteger consecutiveFailures = new AtomicInteger();
+		final AtomicLong requests = new AtomicLong();
+		final AtomicLong failures = new AtomicLong();
+		private volatile long ejectedUntil;
+
+		Node(String url, HttpClient client) {
+			this.url = url;
+			this.client = client;
+		}
+
+		boolean isAvailable(long now) {
+			return now >= ejectedUntil;
+		}
+
+		void eject(long until) {
+			ejectedUntil = until;
+		}
+
+		void admit() {
+			consecutiveFailures.set(0);
+			ejectedUntil = 0;
+		}
+	}
+
+	public static class NodeStats {
+
+		private final String url;
+		private final boolean available;
+		private final int outstandingRequests;
+		private final long requests;
+		private final long failures;
+
+		NodeStats(String url, boolean available, int outstandingRequests, long requests, long failures) {
+			this.url = url;
+			this.available = available;
+			this.outstandingRequests = outstandingRequests;
+			this.requests = requests;
+			this.failures = failures;
+		}
+
+		public String getUrl() {
+			return url;
+		}
+
+		public boolean isAvailable() {
+			return available;
+		}
+
+		public int getOutstandingRequests() {
+			return outstandingRequests;
+		}
+
+		public long getRequests() {
+			return requests;
+		}
+
+		public long getFailures() {
+			return failures;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s available: %s outstanding: %s requests: %s failures: %s",
+					url, available, outstandingRequests, requests, failures);
+		}
+	}
+
+	/**
+	 * Builds one StdHttpClient per node with the settings of this builder, so every node gets a connection pool of
+	 * maxConnections connections. Credentials in a node url override username and password.
+	 *
+	 * The cluster specific settings return this type, set them before the inherited settings when chaining.
+	 */
+	public static class Builder extends StdHttpClient.Builder {
+
+		private final List<URL> nodeUrls = new ArrayList<URL>();
+		private int maxFailures = 3;
+		private long ejectionMillis = 30000;
+		private long probeIntervalMillis = 5000;
+
+		public Builder node(String url) throws MalformedURLException {
+			Assert.hasText(url, "url may not be null or empty");
+			return node(new URL(url));
+		}
+
+		public Builder node(URL url) {
+			Assert.notNull(url, "url may not be null");
+			nodeUrls.add(url);
+			return this;
+		}
+
+		/**
+		 * The number of consecutive failed requests after which a node is ejected. Default is 3.
+		 * @param i
+		 * @return
+		 */
+		public Builder maxFailures(int i) {
+			Assert.isTrue(i > 0, "maxFailures must be greater than 0");
+			maxFailures = i;
+			return this;
+		}
+
+		/**
+		 * For how long an ejected node receives no requests when probes are disabled. Default is 30 s.
+		 * @param time
+		 * @param unit
+		 * @return
+		 */
+		public Builder ejectionTime(long time, TimeUnit unit) {
+			Assert.isTrue(time > 0, "ejectionTime must be greater than 0");
+			ejectionMillis = unit.toMillis(time);
+			return this;
+		}
+
+		/**
+		 * The interval of the /_up probes. 0 disables probes, which is required for CouchDB versions before 2.0.
+		 * Default is 5 s.
+		 * @param time
+		 * @param unit
+		 * @return
+		 */
+		public Builder probeInterval(long time, TimeUnit unit) {
+			Assert.isTrue(time >= 0, "probeInterval may not be negative");
+			probeIntervalMillis = unit.toMillis(time);
+			return this;
+		}
+
+		@Override
+		public ClusterHttpClient build() {
+			Assert.isTrue(!nodeUrls.isEmpty(), "at least one node is required");
+			Assert.isTrue(conman == null, "a connection manager can not be shared by the nodes of a cluster");
+			String defaultUsername = username;
+			String defaultPassword = password;
+			Map<String, HttpClient> clients = new LinkedHashMap<String, HttpClient>();
+			for (URL url : nodeUrls) {
+				username = defaultUsername;
+				password = defaultPassword;
+				url(url);
+				clients.put(withoutUserInfo(url), super.build());
+				conman = null;
+			}
+			return new ClusterHttpClient(clients, maxFailures, ejectionMillis, probeIntervalMillis);
+		}
+
+		private String withoutUserInfo(URL url) {
+			try {
+				return new URL(url.getProtocol(), url.getHost(), url.getPort(), url.getFile()).toString();
+			} catch (MalformedURLException e) {
+				throw Exceptions.propagate(e);
+			}
+		}
+	}
+}
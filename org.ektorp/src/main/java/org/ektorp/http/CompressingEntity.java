@@ -0,0 +1,127 @@
+package org.ektorp.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.output.CloseShieldOutputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.message.BasicHeader;
+import org.ektorp.util.Assert;
+
+/**
+ * Compresses the wrapped request entity while it is written and declares the encoding in Content-Encoding.
+ *
+ * The compressed length is not known in advance, so the entity is sent with chunked transfer encoding.
+ */
+public class CompressingEntity extends HttpEntityWrapper {
+
+	public enum Encoding {
+		GZIP("gzip"),
+		/**
+		 * Rejected by CouchDB with 415, requires a proxy that decompresses the body.
+		 */
+		DEFLATE("deflate");
+
+		private final String headerValue;
+
+		private Encoding(String headerValue) {
+			this.headerValue = headerValue;
+		}
+
+		public String getHeaderValue() {
+			return headerValue;
+		}
+	}
+
+	private final static int BUFFER_SIZE = 8192;
+
+	private final Encoding encoding;
+
+	public CompressingEntity(HttpEntity wrapped, Encoding encoding) {
+		super(wrapped);
+		Assert.notNull(encoding, "encoding may not be null");
+		this.encoding = encoding;
+	}
+
+	@Override
+	public Header getContentEncoding() {
+		return new BasicHeader("Content-Encoding", encoding.getHeaderValue());
+	}
+
+	@Override
+	public long getContentLength() {
+		return -1;
+	}
+
+	@Override
+	public boolean isChunked() {
+		return true;
+	}
+
+	/**
+	 * Compresses the whole entity into memory, the content is normally written with writeTo.
+	 */
+	@Override
+	public InputStream getContent() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writeTo(out);
+		return new ByteArrayInputStream(out.toByteArray());
+	}
+
+	/**
+	 * The wrapped entity is not allowed to close the stream, as the compressed stream has to be finished.
+	 */
+	@Override
+	public void writeTo(OutputStream outstream) throws IOException {
+		Assert.notNull(outstream, "Output stream");
+		CompressingOutputStream out = encoding == Encoding.GZIP
+				? new GzipOutputStream(outstream)
+				: new DeflateOutputStream(outstream);
+		try {
+			wrappedEntity.writeTo(new CloseShieldOutputStream((OutputStream) out));
+			out.finish();
+		} finally {
+			out.end();
+		}
+		outstream.flush();
+	}
+
+	/**
+	 * A compressing stream that releases its deflater without closing the underlying stream.
+	 */
+	private interface CompressingOutputStream {
+		void finish() throws IOException;
+		void end();
+	}
+
+	private static class GzipOutputStream extends GZIPOutputStream implements CompressingOutputStream {
+
+		GzipOutputStream(OutputStream out) throws IOException {
+			super(out, BUFFER_SIZE);
+		}
+
+		public void end() {
+			def.end();
+		}
+	}
+
+	private static class DeflateOutputStream extends DeflaterOutputStream implements CompressingOutputStream {
+
+		DeflateOutputStream(OutputStream out) {
+			super(out, new Deflater(), BUFFER_SIZE);
+		}
+
+		public void end() {
+			def.end();
+		}
+	}
+}
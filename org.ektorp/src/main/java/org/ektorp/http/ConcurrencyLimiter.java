@@ -0,0 +1,236 @@
+package org.ektorp.http;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.ektorp.ConcurrencyLimitExceededException;
+import org.ektorp.metrics.Operation;
+import org.ektorp.util.Assert;
+import org.ektorp.util.Exceptions;
+
+/**
+ * Limits the number of requests in flight to a limit that adapts to the observed latency (AIMD).
+ *
+ * A request is considered congested if the server signalled overload or if its latency exceeds latencyTolerance times
+ * the lowest latency observed in the recent window for the same kind of operation. The baseline is kept per operation
+ * because a view query or a bulk update is normally much slower than a document read, and would otherwise be taken
+ * for congestion whenever it is mixed with fast requests.
+ *
+ * A congested request multiplies the limit by backoffRatio, at most once per round trip, and every other request adds
+ * 1 / limit to it, so the limit grows by about one per round trip while the server keeps up. This keeps the number of requests in flight close to what the server can handle without
+ * queueing, instead of a fixed pool size that is either too small or lets latency collapse under load.
+ *
+ * When the limit has been reached, acquire waits up to maxWait for a request to complete and then throws
+ * ConcurrencyLimitExceededException. A maxWait of 0 fails fast.
+ */
+public class ConcurrencyLimiter {
+
+	private final int minLimit;
+	private final int maxLimit;
+	private final double backoffRatio;
+	private final double latencyTolerance;
+	private final long maxWaitNanos;
+	private final int window;
+
+	private double limit;
+	private int inFlight;
+	private final Map<Operation, Baseline> baselines = new EnumMap<Operation, Baseline>(Operation.class);
+	private long lastDecrease;
+	private long rejected;
+
+	private ConcurrencyLimiter(Builder b) {
+		this.minLimit = b.minLimit;
+		this.maxLimit = b.maxLimit;
+		this.limit = b.initialLimit;
+		this.backoffRatio = b.backoffRatio;
+		this.latencyTolerance = b.latencyTolerance;
+		this.maxWaitNanos = b.maxWaitNanos;
+		this.window = b.window;
+		this.lastDecrease = System.nanoTime();
+	}
+
+	/**
+	 * Waits for the number of requests in flight to drop below the limit.
+	 *
+	 * @return the start time of the request, to be passed to release.
+	 * @throws ConcurrencyLimitExceededException if the limit was not available within maxWait.
+	 */
+	public synchronized long acquire() {
+		long deadline = System.nanoTime() + maxWaitNanos;
+		try {
+			while (inFlight >= getLimit()) {
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0) {
+					rejected++;
+					throw new ConcurrencyLimitExceededException(getLimit());
+				}
+				TimeUnit.NANOSECONDS.timedWait(this, remaining);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw Exceptions.propagate(e);
+		}
+		inFlight++;
+		return System.nanoTime();
+	}
+
+	/**
+	 * Releases a request of unknown kind that took from start until now.
+	 * @param start the time returned by acquire.
+	 * @param overloaded true if the request failed or the server responded that it is overloaded.
+	 */
+	public void release(long start, boolean overloaded) {
+		release(start, Operation.OTHER, System.nanoTime() - start, overloaded);
+	}
+
+	/**
+	 * @param start the time returned by acquire.
+	 * @param operation the kind of request, whose latency is compared with earlier requests of the same kind only.
+	 * @param latency in nanoseconds, e.g. the time until the response headers were received.
+	 * @param overloaded true if the request failed or the server responded that it is overloaded.
+	 */
+	public synchronized void release(long start, Operation operation, long latency, boolean overloaded) {
+		inFlight--;
+		Baseline baseline = baselineOf(operation);
+		if (!overloaded) {
+			baseline.record(latency);
+		}
+		if (overloaded || latency > baseline.minLatency * latencyTolerance) {
+			// requests started before the last decrease were sent under the old limit
+			if (start > lastDecrease) {
+				limit = Math.max(minLimit, limit * backoffRatio);
+				lastDecrease = System.nanoTime();
+			}
+		} else {
+			limit = Math.min(maxLimit, limit + 1 / limit);
+		}
+		notifyAll();
+	}
+
+	private Baseline baselineOf(Operation operation) {
+		Baseline b = baselines.get(operation);
+		if (b == null) {
+			b = new Baseline();
+			baselines.put(operation, b);
+		}
+		return b;
+	}
+
+	public synchronized int getLimit() {
+		return (int) limit;
+	}
+
+	public synchronized int getInFlight() {
+		return inFlight;
+	}
+
+	/**
+	 * @return the number of requests that were rejected because the limit was not available within maxWait.
+	 */
+	public synchronized long getRejectedCount() {
+		return rejected;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("limit: %s in flight: %s rejected: %s", (int) limit, inFlight, rejected);
+	}
+
+	/**
+	 * The lowest latency of an operation in the recent window.
+	 */
+	private class Baseline {
+
+		long minLatency = Long.MAX_VALUE;
+		long windowMinLatency = Long.MAX_VALUE;
+		int windowSamples;
+
+		void record(long latency) {
+			windowMinLatency = Math.min(windowMinLatency, latency);
+			minLatency = Math.min(minLatency, latency);
+			if (++windowSamples >= window) {
+				minLatency = windowMinLatency;
+				windowMinLatency = Long.MAX_VALUE;
+				windowSamples = 0;
+			}
+		}
+	}
+
+	public static class Builder {
+
+		private int minLimit = 1;
+		private int maxLimit = 20;
+		private int initialLimit = 10;
+		private double backoffRatio = 0.9;
+		private double latencyTolerance = 2.0;
+		private long maxWaitNanos = TimeUnit.SECONDS.toNanos(1);
+		private int window = 1000;
+
+		/**
+		 * Default is an initial limit of 10 within 1 to 20.
+		 * @param initial
+		 * @param min
+		 * @param max
+		 * @return
+		 */
+		public Builder limits(int initial, int min, int max) {
+			Assert.isTrue(min > 0, "min limit must be greater than 0");
+			Assert.isTrue(max >= min, "max limit may not be less than min");
+			Assert.isTrue(initial >= min && initial <= max, "initial limit must be within min and max");
+			this.initialLimit = initial;
+			this.minLimit = min;
+			this.maxLimit = max;
+			return this;
+		}
+
+		/**
+		 * The factor the limit is multiplied by when a request is congested. Default is 0.9.
+		 * @param d
+		 * @return
+		 */
+		public Builder backoffRatio(double d) {
+			Assert.isTrue(d > 0 && d < 1, "backoffRatio must be between 0 and 1");
+			this.backoffRatio = d;
+			return this;
+		}
+
+		/**
+		 * How many times the lowest recent latency a request may take before it is considered congested. Default is 2.
+		 * @param d
+		 * @return
+		 */
+		public Builder latencyTolerance(double d) {
+			Assert.isTrue(d > 1, "latencyTolerance must be greater than 1");
+			this.latencyTolerance = d;
+			return this;
+		}
+
+		/**
+		 * How long acquire waits for the limit to become available. 0 fails fast. Default is 1 s.
+		 * @param time
+		 * @param unit
+		 * @return
+		 */
+		public Builder maxWait(long time, TimeUnit unit) {
+			Assert.isTrue(time >= 0, "maxWait may not be negative");
+			this.maxWaitNanos = unit.toNanos(time);
+			return this;
+		}
+
+		/**
+		 * The number of requests of an operation after which its lowest latency is measured anew. Default is 1000.
+		 * @param i
+		 * @return
+		 */
+		public Builder window(int i) {
+			Assert.isTrue(i > 0, "window must be greater than 0");
+			this.window = i;
+			return this;
+		}
+
+		public ConcurrencyLimiter build() {
+			return new ConcurrencyLimiter(this);
+		}
+	}
+}
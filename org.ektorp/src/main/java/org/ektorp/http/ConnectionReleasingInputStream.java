@@ -11,9 +11,11 @@ import java.io.InputStream;
 
 public class ConnectionReleasingInputStream extends FilterInputStream {
 
+	private final static String LEAK_MESSAGE = "ConnectionReleasingInputStream was not closed properly. In order to avoid leaking connections, don't forget to call close() on every instance of InputStream retrieved on the StdHttpResponse";
+
 	private final static Logger LOG = LoggerFactory.getLogger(ConnectionReleasingInputStream.class);
 
-	private final Throwable instantiationStackTrace = new Throwable("This is the instantiation stack trace of the ConnectionReleasingInputStream instance");
+	private final LeakDetector.Tracker leakTracker;
 
 	private boolean closed = false;
 
@@ -28,6 +30,7 @@ public class ConnectionReleasingInputStream extends FilterInputStream {
 		if (src == null) {
 			eof = true;
 		}
+		this.leakTracker = LeakDetector.getInstance().track(this, LEAK_MESSAGE);
 	}
 
 	@Override
@@ -87,18 +90,13 @@ public class ConnectionReleasingInputStream extends FilterInputStream {
 	public void closeInnerInputStream() {
 		IOUtils.closeQuietly(in);
 		closed = true;
+		if (leakTracker != null) {
+			leakTracker.close();
+		}
 	}
 
 	public boolean isClosed() {
 		return closed;
 	}
 
-	@Override
-	protected void finalize() {
-		if (!closed) {
-			LOG.warn("ConnectionReleasingInputStream was not closed properly. In order to avoid leaking connections, don't forget to call close() on every instance of InputStream retrieved on the StdHttpResponse", instantiationStackTrace);
-		}
-	}
-
-
 }
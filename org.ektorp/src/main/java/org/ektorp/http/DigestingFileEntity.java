@@ -0,0 +1,87 @@
+package org.ektorp.http;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+
+import org.apache.http.entity.AbstractHttpEntity;
+import org.ektorp.util.Assert;
+import org.ektorp.util.Exceptions;
+
+/**
+ * A repeatable entity that sends a file and computes the MD5 digest of the content while it is written, so that the
+ * file is read only once for both.
+ *
+ * The file is copied through a buffer of BUFFER_SIZE bytes. Memory mapping it would not avoid that copy, as the output
+ * stream of the connection is not a channel that can write from a mapped region directly.
+ */
+public class DigestingFileEntity extends AbstractHttpEntity {
+
+	private final static int BUFFER_SIZE = 64 * 1024;
+
+	private final File file;
+	private volatile byte[] md5;
+
+	public DigestingFileEntity(File file, String contentType) {
+		Assert.notNull(file, "file may not be null");
+		Assert.isTrue(file.isFile(), "file must be a readable file");
+		this.file = file;
+		setContentType(contentType);
+	}
+
+	public long getContentLength() {
+		return file.length();
+	}
+
+	public boolean isRepeatable() {
+		return true;
+	}
+
+	public boolean isStreaming() {
+		return false;
+	}
+
+	public InputStream getContent() throws IOException {
+		return new FileInputStream(file);
+	}
+
+	public void writeTo(OutputStream outstream) throws IOException {
+		Assert.notNull(outstream, "Output stream");
+		MessageDigest digest = md5Digest();
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				digest.update(buffer, 0, n);
+				outstream.write(buffer, 0, n);
+			}
+			outstream.flush();
+			md5 = digest.digest();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * @return the MD5 digest of the content written by the last completed writeTo, or null if it has not been written.
+	 */
+	public byte[] getMd5Digest() {
+		return md5;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	private static MessageDigest md5Digest() {
+		try {
+			return MessageDigest.getInstance("MD5");
+		} catch (Exception e) {
+			throw Exceptions.propagate(e);
+		}
+	}
+}
@@ -0,0 +1,447 @@
+package org.ektorp.http;
+
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.HttpEntity;
+import org.ektorp.util.Assert;
+import org.ektorp.util.Exceptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A HttpClient that hedges GET and HEAD requests in order to cut tail latency.
+ *
+ * If a read has not been answered within the hedge delay, a second identical request is sent through the delegate,
+ * which as a ClusterHttpClient sends it to another node and otherwise over another connection. The first response
+ * wins and the other one is aborted when it arrives. The hedge delay is a percentile of the recent read latencies,
+ * kept within the min and max delay, so only the slowest reads are hedged.
+ *
+ * The extra load is capped by a budget: every read earns budget tokens and every hedge spends one, so at most
+ * budget * reads hedges are sent over time.
+ *
+ * Document, view and stream reads of a CouchDbConnector are all GET requests and are hedged. Writes and POST requests,
+ * such as view queries with multiple keys, are passed to the delegate as they are.
+ */
+public class HedgingHttpClient implements HttpClient {
+
+	private final static Logger LOG = LoggerFactory.getLogger(HedgingHttpClient.class);
+	private final static AtomicInteger THREAD_COUNT = new AtomicInteger();
+	private final static int MIN_SAMPLES = 100;
+	private final static int MAX_BUDGET_TOKENS = 10;
+
+	private final HttpClient delegate;
+	private final Executor executor;
+	private final ExecutorService ownExecutor;
+	private final double percentile;
+	private final long minDelayNanos;
+	private final long maxDelayNanos;
+	private final double budget;
+
+	private final long[] samples;
+	private int sampleCount;
+	private int nextSample;
+	private volatile long delayNanos;
+	private double budgetTokens;
+
+	private final AtomicLong reads = new AtomicLong();
+	private final AtomicLong hedges = new AtomicLong();
+	private final AtomicLong hedgeWins = new AtomicLong();
+	private final AtomicLong budgetExhausted = new AtomicLong();
+
+	private HedgingHttpClient(Builder b) {
+		this.delegate = b.delegate;
+		if (b.executor != null) {
+			this.executor = b.executor;
+			this.ownExecutor = null;
+		} else {
+			this.ownExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, String.format("ektorp-hedge-thread-%s", THREAD_COUNT.incrementAndGet()));
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			this.executor = ownExecutor;
+		}
+		this.percentile = b.percentile;
+		this.minDelayNanos = b.minDelayNanos;
+		this.maxDelayNanos = b.maxDelayNanos;
+		this.budget = b.budget;
+		this.samples = new long[b.window];
+		this.delayNanos = maxDelayNanos;
+	}
+
+	@Override
+	public HttpResponse get(final String uri) {
+		return hedge(new Read() {
+			public HttpResponse execute() {
+				return delegate.get(uri);
+			}
+		});
+	}
+
+	@Override
+	public HttpResponse get(final String uri, final Map<String, String> headers) {
+		return hedge(new Read() {
+			public HttpResponse execute() {
+				return delegate.get(uri, headers);
+			}
+		});
+	}
+
+	@Override
+	public HttpResponse getUncached(final String uri) {
+		return hedge(new Read() {
+			public HttpResponse execute() {
+				return delegate.getUncached(uri);
+			}
+		});
+	}
+
+	@Override
+	public HttpResponse head(final String uri) {
+		return hedge(new Read() {
+			public HttpResponse execute() {
+				return delegate.head(uri);
+			}
+		});
+	}
+
+	@Override
+	public HttpResponse put(String uri, String content) {
+		return delegate.put(uri, content);
+	}
+
+	@Override
+	public HttpResponse put(String uri) {
+		return delegate.put(uri);
+	}
+
+	@Override
+	public HttpResponse put(String uri, InputStream data, String contentType, long contentLength) {
+		return delegate.put(uri, data, contentType, contentLength);
+	}
+
+	@Override
+	public HttpResponse put(String uri, HttpEntity httpEntity) {
+		return delegate.put(uri, httpEntity);
+	}
+
+	@Override
+	public HttpResponse post(String uri, String content) {
+		return delegate.post(uri, content);
+	}
+
+	@Override
+	public HttpResponse post(String uri, InputStream content) {
+		return delegate.post(uri, content);
+	}
+
+	@Override
+	public HttpResponse post(String uri, HttpEntity httpEntity) {
+		return delegate.post(uri, httpEntity);
+	}
+
+	@Override
+	public HttpResponse postUncached(String uri, String content) {
+		return delegate.postUncached(uri, content);
+	}
+
+	@Override
+	public HttpResponse delete(String uri) {
+		return delegate.delete(uri);
+	}
+
+	@Override
+	public HttpResponse copy(String sourceUri, String destination) {
+		return delegate.copy(sourceUri, destination);
+	}
+
+	@Override
+	public void shutdown() {
+		if (ownExecutor != null) {
+			ownExecutor.shutdownNow();
+		}
+		delegate.shutdown();
+	}
+
+	public HedgeStats getStats() {
+		return new HedgeStats(reads.get(), hedges.get(), hedgeWins.get(), budgetExhausted.get(),
+				TimeUnit.NANOSECONDS.toMillis(delayNanos));
+	}
+
+	private HttpResponse hedge(Read read) {
+		reads.incrementAndGet();
+		earnBudget();
+		Race race = new Race();
+		race.start(read, false);
+		try {
+			Object result = race.results.poll(delayNanos, TimeUnit.NANOSECONDS);
+			if (result == null) {
+				if (spendBudget()) {
+					hedges.incrementAndGet();
+					race.start(read, true);
+				} else {
+					budgetExhausted.incrementAndGet();
+				}
+				result = race.results.take();
+			}
+			// Results are queued before they are counted as done, so once nothing is pending the queue holds all of
+			// them.
+			while (result instanceof Throwable) {
+				Object next = race.pending.get() > 0 ? race.results.take() : race.results.poll();
+				if (next == null) {
+					break;
+				}
+				result = next;
+			}
+			if (result instanceof Throwable) {
+				throw Exceptions.propagate((Throwable) result);
+			}
+			return (HttpResponse) result;
+		} catch (InterruptedException e) {
+			race.cancel();
+			Thread.currentThread().interrupt();
+			throw Exceptions.propagate(e);
+		}
+	}
+
+	private synchronized void earnBudget() {
+		budgetTokens = Math.min(MAX_BUDGET_TOKENS, budgetTokens + budget);
+	}
+
+	private synchronized boolean spendBudget() {
+		if (budgetTokens < 1) {
+			return false;
+		}
+		budgetTokens -= 1;
+		return true;
+	}
+
+	private synchronized void recordLatency(long nanos) {
+		samples[nextSample] = nanos;
+		nextSample = (nextSample + 1) % samples.length;
+		if (sampleCount < samples.length) {
+			sampleCount++;
+		}
+		if (sampleCount >= Math.min(MIN_SAMPLES, samples.length) && nextSample % MIN_SAMPLES == 0) {
+			long[] sorted = Arrays.copyOf(samples, sampleCount);
+			Arrays.sort(sorted);
+			int index = (int) Math.ceil(percentile / 100 * sampleCount) - 1;
+			long p = sorted[Math.max(0, Math.min(index, sampleCount - 1))];
+			delayNanos = Math.max(minDelayNanos, Math.min(maxDelayNanos, p));
+		}
+	}
+
+	private interface Read {
+		HttpResponse execute();
+	}
+
+	/**
+	 * The attempts of one read. The first successful response is handed to the caller, later responses are aborted.
+	 */
+	private class Race {
+
+		final BlockingQueue<Object> results = new LinkedBlockingQueue<Object>();
+		final AtomicInteger pending = new AtomicInteger();
+		final AtomicBoolean decided = new AtomicBoolean();
+		volatile boolean cancelled;
+
+		void start(final Read read, final boolean hedge) {
+			pending.incrementAndGet();
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					long start = System.nanoTime();
+					try {
+						HttpResponse rsp = read.execute();
+						recordLatency(System.nanoTime() - start);
+						if (decided.compareAndSet(false, true)) {
+							if (hedge) {
+								hedgeWins.incrementAndGet();
+							}
+							results.add(rsp);
+							if (cancelled) {
+								abortResults();
+							}
+						} else {
+							LOG.trace("Aborting losing response from {}", rsp.getRequestURI());
+							rsp.abort();
+						}
+					} catch (Throwable e) {
+						results.add(e);
+					} finally {
+						pending.decrementAndGet();
+					}
+				}
+			});
+		}
+
+		/**
+		 * Called when the caller gives up. A winning response queued after this call is aborted by its attempt.
+		 */
+		void cancel() {
+			cancelled = true;
+			decided.set(true);
+			abortResults();
+		}
+
+		private void abortResults() {
+			Object result;
+			while ((result = results.poll()) != null) {
+				if (result instanceof HttpResponse) {
+					((HttpResponse) result).abort();
+				}
+			}
+		}
+	}
+
+	public static class HedgeStats {
+
+		private final long reads;
+		private final long hedges;
+		private final long hedgeWins;
+		private final long budgetExhausted;
+		private final long delayMillis;
+
+		HedgeStats(long reads, long hedges, long hedgeWins, long budgetExhausted, long delayMillis) {
+			this.reads = reads;
+			this.hedges = hedges;
+			this.hedgeWins = hedgeWins;
+			this.budgetExhausted = budgetExhausted;
+			this.delayMillis = delayMillis;
+		}
+
+		public long getReads() {
+			return reads;
+		}
+
+		/**
+		 * @return the number of second requests sent.
+		 */
+		public long getHedges() {
+			return hedges;
+		}
+
+		/**
+		 * @return the number of reads that were answered by the second request.
+		 */
+		public long getHedgeWins() {
+			return hedgeWins;
+		}
+
+		/**
+		 * @return the number of reads that would have been hedged if the budget had allowed it.
+		 */
+		public long getBudgetExhausted() {
+			return budgetExhausted;
+		}
+
+		/**
+		 * @return the current hedge delay.
+		 */
+		public long getDelayMillis() {
+			return delayMillis;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("reads: %s hedges: %s hedge wins: %s budget exhausted: %s delay: %s ms",
+					reads, hedges, hedgeWins, budgetExhausted, delayMillis);
+		}
+	}
+
+	public static class Builder {
+
+		private final HttpClient delegate;
+		private Executor executor;
+		private double percentile = 95;
+		private long minDelayNanos = TimeUnit.MILLISECONDS.toNanos(10);
+		private long maxDelayNanos = TimeUnit.SECONDS.toNanos(1);
+		private double budget = 0.05;
+		private int window = 1000;
+
+		public Builder(HttpClient delegate) {
+			Assert.notNull(delegate, "delegate may not be null");
+			this.delegate = delegate;
+		}
+
+		/**
+		 * The percentile of recent read latencies after which a read is hedged. Default is 95.
+		 * @param p
+		 * @return
+		 */
+		public Builder percentile(double p) {
+			Assert.isTrue(p > 0 && p <= 100, "percentile must be greater than 0 and at most 100");
+			this.percentile = p;
+			return this;
+		}
+
+		/**
+		 * The bounds of the hedge delay. The max delay is used until enough latencies have been recorded. Default is
+		 * 10 ms to 1 s.
+		 * @param min
+		 * @param max
+		 * @param unit
+		 * @return
+		 */
+		public Builder delay(long min, long max, TimeUnit unit) {
+			Assert.isTrue(min > 0, "min delay must be greater than 0");
+			Assert.isTrue(max >= min, "max delay may not be less than min");
+			this.minDelayNanos = unit.toNanos(min);
+			this.maxDelayNanos = unit.toNanos(max);
+			return this;
+		}
+
+		/**
+		 * The maximum share of reads that may be hedged. Default is 0.05, i.e. 5%.
+		 * @param b
+		 * @return
+		 */
+		public Builder budget(double b) {
+			Assert.isTrue(b >= 0 && b <= 1, "budget must be between 0 and 1");
+			this.budget = b;
+			return this;
+		}
+
+		/**
+		 * The number of recent read latencies the hedge delay is computed from. Default is 1000.
+		 * @param i
+		 * @return
+		 */
+		public Builder window(int i) {
+			Assert.isTrue(i > 0, "window must be greater than 0");
+			this.window = i;
+			return this;
+		}
+
+		/**
+		 * The executor that runs the requests. Default is a cached pool of daemon threads that is shut down with the
+		 * client.
+		 * @param e
+		 * @return
+		 */
+		public Builder executor(Executor e) {
+			Assert.notNull(e, "executor may not be null");
+			this.executor = e;
+			return this;
+		}
+
+		public HedgingHttpClient build() {
+			return new HedgingHttpClient(this);
+		}
+	}
+}
@@ -17,6 +17,10 @@ public final class HttpStatus {
 	 * Request for database compaction completed successfully.
 	 */
 	public final static int ACCEPTED = 202;
+	/**
+	 * The requested range of the resource was returned.
+	 */
+	public final static int PARTIAL_CONTENT = 206;
 	/**
 	 * Etag not modified since last update.
 	 */
@@ -41,9 +45,17 @@ public final class HttpStatus {
 	 * Request attempted to created database which already exists.
 	 */
 	public final static int PRECONDITION_FAILED = 412;
+	/**
+	 * The client has sent too many requests, e.g. to a rate limiting proxy.
+	 */
+	public final static int TOO_MANY_REQUESTS = 429;
 	/**
 	 * Request contained invalid JSON, probably happens in other cases too.
 	 */
 	public final static int INTERNAL_SERVER_ERROR = 500;
+	/**
+	 * The server is overloaded or in maintenance mode.
+	 */
+	public final static int SERVICE_UNAVAILABLE = 503;
 	
 }
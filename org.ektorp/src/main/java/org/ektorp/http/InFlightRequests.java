@@ -0,0 +1,69 @@
+package org.ektorp.http;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.http.client.methods.HttpUriRequest;
+
+/**
+ * Collects the requests that a thread sends through StdHttpClient while it is bound to an instance, so that another
+ * thread can abort them. Aborting a request closes its connection, which also aborts a response that is being read,
+ * the same way as HttpResponse.abort().
+ *
+ * Requests that are sent after abort has been called are aborted right away.
+ */
+public final class InFlightRequests {
+
+	private final static ThreadLocal<InFlightRequests> CURRENT = new ThreadLocal<InFlightRequests>();
+
+	private final List<HttpUriRequest> requests = new ArrayList<HttpUriRequest>();
+	private boolean aborted;
+
+	/**
+	 * Binds a new instance to the calling thread. Must be followed by {@link #close()} on the same thread.
+	 */
+	public static InFlightRequests open() {
+		InFlightRequests r = new InFlightRequests();
+		CURRENT.set(r);
+		return r;
+	}
+
+	static void register(HttpUriRequest request) {
+		InFlightRequests r = CURRENT.get();
+		if (r != null) {
+			r.add(request);
+		}
+	}
+
+	private synchronized void add(HttpUriRequest request) {
+		if (aborted) {
+			request.abort();
+		} else {
+			requests.add(request);
+		}
+	}
+
+	public synchronized void abort() {
+		aborted = true;
+		for (HttpUriRequest r : requests) {
+			r.abort();
+		}
+		requests.clear();
+	}
+
+	public synchronized boolean isAborted() {
+		return aborted;
+	}
+
+	/**
+	 * Unbinds this instance from the calling thread.
+	 */
+	public void close() {
+		if (CURRENT.get() == this) {
+			CURRENT.remove();
+		}
+		synchronized (this) {
+			requests.clear();
+		}
+	}
+}
@@ -0,0 +1,190 @@
+package org.ektorp.http;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.ektorp.util.Assert;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Detects http responses and content streams that are garbage collected without having been released, i.e. leaked
+ * connections.
+ *
+ * Tracked objects are registered with a PhantomReference. Collected references are checked each time a new object is
+ * tracked, so detection does not need a thread of its own.
+ *
+ * The level can be set through the system property org.ektorp.leakDetection.level (disabled, sampled or paranoid) and
+ * the sampling interval through org.ektorp.leakDetection.samplingInterval, or at runtime through the setters of the
+ * shared instance.
+ */
+public class LeakDetector {
+
+	public enum Level {
+		/**
+		 * No objects are tracked.
+		 */
+		DISABLED,
+		/**
+		 * One in samplingInterval objects is tracked. Leaks are reported without the stack trace of where the object
+		 * was created.
+		 */
+		SAMPLED,
+		/**
+		 * Every object is tracked and the stack trace of where it was created is captured. Expensive, use for
+		 * debugging only.
+		 */
+		PARANOID
+	}
+
+	public static final String LEVEL_PROPERTY = "org.ektorp.leakDetection.level";
+	public static final String SAMPLING_INTERVAL_PROPERTY = "org.ektorp.leakDetection.samplingInterval";
+	public static final int DEFAULT_SAMPLING_INTERVAL = 128;
+
+	private static final Logger LOG = LoggerFactory.getLogger(LeakDetector.class);
+
+	private static final LeakDetector INSTANCE = new LeakDetector(levelFromSystemProperty(),
+			Integer.getInteger(SAMPLING_INTERVAL_PROPERTY, DEFAULT_SAMPLING_INTERVAL));
+
+	private final ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+	private final Set<LeakReference> liveReferences = Collections.newSetFromMap(new ConcurrentHashMap<LeakReference, Boolean>());
+	private final AtomicInteger sampleCounter = new AtomicInteger();
+	private final AtomicLong leakCount = new AtomicLong();
+
+	private volatile Level level;
+	private volatile int samplingInterval;
+
+	public LeakDetector(Level level, int samplingInterval) {
+		setLevel(level);
+		setSamplingInterval(samplingInterval);
+	}
+
+	/**
+	 * @return the instance used by StdHttpResponse and ConnectionReleasingInputStream.
+	 */
+	public static LeakDetector getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Starts tracking the specified object, depending on the level of this detector.
+	 *
+	 * @param resource the object to track
+	 * @param description describes how the resource should have been released, included in the leak report.
+	 * @return a Tracker that must be closed when the resource is released, or null if the object is not tracked.
+	 */
+	public Tracker track(Object resource, String description) {
+		Level l = level;
+		if (l == Level.DISABLED) {
+			return null;
+		}
+		reportLeaks();
+		if (l == Level.SAMPLED && sampleCounter.incrementAndGet() % samplingInterval != 0) {
+			return null;
+		}
+		Throwable creationTrace = l == Level.PARANOID ? new Throwable("Creation stack trace of the leaked resource") : null;
+		LeakReference ref = new LeakReference(resource, queue, description, creationTrace);
+		liveReferences.add(ref);
+		return ref;
+	}
+
+	/**
+	 * Reports tracked objects that have been garbage collected without being released.
+	 * @return the number of leaks found by this call.
+	 */
+	int reportLeaks() {
+		int found = 0;
+		Reference<?> r;
+		while ((r = queue.poll()) != null) {
+			LeakReference ref = (LeakReference) r;
+			if (liveReferences.remove(ref)) {
+				found++;
+				long total = leakCount.incrementAndGet();
+				if (ref.creationTrace != null) {
+					LOG.warn("LEAK: {} (leaks detected so far: {})", ref.description, total);
+					LOG.warn("Leaked resource was created at:", ref.creationTrace);
+				} else {
+					LOG.warn("LEAK: {} (leaks detected so far: {}). Set the system property {}=paranoid to find out where the leaked resource was created.",
+							new Object[] {ref.description, total, LEVEL_PROPERTY});
+				}
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * @return the number of leaks that have been detected by this detector.
+	 */
+	public long getLeakCount() {
+		return leakCount.get();
+	}
+
+	public Level getLevel() {
+		return level;
+	}
+
+	public void setLevel(Level level) {
+		Assert.notNull(level, "level may not be null");
+		this.level = level;
+	}
+
+	public int getSamplingInterval() {
+		return samplingInterval;
+	}
+
+	/**
+	 * @param samplingInterval one in samplingInterval objects is tracked when the level is SAMPLED. Default is 128.
+	 */
+	public void setSamplingInterval(int samplingInterval) {
+		Assert.isTrue(samplingInterval > 0, "samplingInterval must be greater than 0");
+		this.samplingInterval = samplingInterval;
+	}
+
+	private static Level levelFromSystemProperty() {
+		String value = System.getProperty(LEVEL_PROPERTY);
+		if (value == null) {
+			return Level.SAMPLED;
+		}
+		try {
+			return Level.valueOf(value.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			LOG.warn("Unknown value of {}: {}, using sampled leak detection", LEVEL_PROPERTY, value);
+			return Level.SAMPLED;
+		}
+	}
+
+	/**
+	 * Handle to a tracked object.
+	 */
+	public interface Tracker {
+		/**
+		 * Marks the tracked object as released.
+		 */
+		void close();
+	}
+
+	private class LeakReference extends PhantomReference<Object> implements Tracker {
+
+		private final String description;
+		private final Throwable creationTrace;
+
+		LeakReference(Object referent, ReferenceQueue<Object> q, String description, Throwable creationTrace) {
+			super(referent, q);
+			this.description = description;
+			this.creationTrace = creationTrace;
+		}
+
+		public void close() {
+			if (liveReferences.remove(this)) {
+				clear();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,82 @@
+package org.ektorp.http;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.ClientConnectionRequest;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.pool.ConnPoolControl;
+import org.apache.http.pool.PoolStats;
+import org.ektorp.metrics.MetricsCollector;
+import org.ektorp.util.Assert;
+
+/**
+ * A ClientConnectionManager that reports the time spent waiting for connections, and the state of the pool if the
+ * wrapped manager is a ConnPoolControl (as PoolingClientConnectionManager is), to a MetricsCollector.
+ *
+ * StdHttpClient.Builder wraps its connection manager when a MetricsCollector has been configured.
+ */
+public class MeteredClientConnectionManager implements ClientConnectionManager {
+
+	private final ClientConnectionManager delegate;
+	private final MetricsCollector metrics;
+
+	public MeteredClientConnectionManager(ClientConnectionManager delegate, MetricsCollector metrics) {
+		Assert.notNull(delegate, "delegate may not be null");
+		Assert.notNull(metrics, "metrics may not be null");
+		this.delegate = delegate;
+		this.metrics = metrics;
+	}
+
+	public ClientConnectionManager getDelegate() {
+		return delegate;
+	}
+
+	public SchemeRegistry getSchemeRegistry() {
+		return delegate.getSchemeRegistry();
+	}
+
+	public ClientConnectionRequest requestConnection(HttpRoute route, Object state) {
+		final long start = System.nanoTime();
+		final ClientConnectionRequest request = delegate.requestConnection(route, state);
+		return new ClientConnectionRequest() {
+
+			public ManagedClientConnection getConnection(long timeout, TimeUnit tunit) throws InterruptedException,
+					ConnectionPoolTimeoutException {
+				ManagedClientConnection conn = request.getConnection(timeout, tunit);
+				metrics.connectionLeased(System.nanoTime() - start, poolStats());
+				return conn;
+			}
+
+			public void abortRequest() {
+				request.abortRequest();
+			}
+		};
+	}
+
+	public void releaseConnection(ManagedClientConnection conn, long validDuration, TimeUnit timeUnit) {
+		delegate.releaseConnection(conn, validDuration, timeUnit);
+	}
+
+	public void closeIdleConnections(long idletime, TimeUnit tunit) {
+		delegate.closeIdleConnections(idletime, tunit);
+	}
+
+	public void closeExpiredConnections() {
+		delegate.closeExpiredConnections();
+	}
+
+	public void shutdown() {
+		delegate.shutdown();
+	}
+
+	private PoolStats poolStats() {
+		if (delegate instanceof ConnPoolControl) {
+			return ((ConnPoolControl<?>) delegate).getTotalStats();
+		}
+		return null;
+	}
+}
@@ -0,0 +1,37 @@
+package org.ektorp.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.ektorp.metrics.MetricsCollector;
+import org.ektorp.metrics.Operation;
+
+/**
+ * Reports the number of bytes written by the wrapped request entity.
+ */
+class MeteredEntity extends HttpEntityWrapper {
+
+	private final MetricsCollector metrics;
+	private final Operation operation;
+	private final String database;
+
+	MeteredEntity(HttpEntity wrapped, MetricsCollector metrics, Operation operation, String database) {
+		super(wrapped);
+		this.metrics = metrics;
+		this.operation = operation;
+		this.database = database;
+	}
+
+	@Override
+	public void writeTo(OutputStream outstream) throws IOException {
+		CountingOutputStream out = new CountingOutputStream(outstream);
+		try {
+			super.writeTo(out);
+		} finally {
+			metrics.bytesSent(operation, database, out.getByteCount());
+		}
+	}
+}
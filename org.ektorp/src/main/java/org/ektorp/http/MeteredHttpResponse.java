@@ -0,0 +1,98 @@
+package org.ektorp.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.io.input.CountingInputStream;
+import org.ektorp.metrics.MetricsCollector;
+import org.ektorp.metrics.Operation;
+
+/**
+ * Counts the bytes read from the content of the wrapped response and reports them when the content is closed or the
+ * connection is released.
+ */
+class MeteredHttpResponse implements HttpResponse {
+
+	private final HttpResponse delegate;
+	private final MetricsCollector metrics;
+	private final Operation operation;
+	private final String database;
+	private final AtomicBoolean reported = new AtomicBoolean();
+
+	private CountingInputStream content;
+
+	MeteredHttpResponse(HttpResponse delegate, MetricsCollector metrics, Operation operation, String database) {
+		this.delegate = delegate;
+		this.metrics = metrics;
+		this.operation = operation;
+		this.database = database;
+	}
+
+	public boolean isSuccessful() {
+		return delegate.isSuccessful();
+	}
+
+	public int getCode() {
+		return delegate.getCode();
+	}
+
+	public String getRequestURI() {
+		return delegate.getRequestURI();
+	}
+
+	public String getContentType() {
+		return delegate.getContentType();
+	}
+
+	public long getContentLength() {
+		return delegate.getContentLength();
+	}
+
+	public InputStream getContent() {
+		if (content == null) {
+			InputStream in = delegate.getContent();
+			if (in == null) {
+				return null;
+			}
+			content = new CountingInputStream(in) {
+				@Override
+				public void close() throws IOException {
+					try {
+						super.close();
+					} finally {
+						reportBytesReceived();
+					}
+				}
+			};
+		}
+		return content;
+	}
+
+	public String getETag() {
+		return delegate.getETag();
+	}
+
+	public void releaseConnection() {
+		try {
+			delegate.releaseConnection();
+		} finally {
+			reportBytesReceived();
+		}
+	}
+
+	public void abort() {
+		delegate.abort();
+	}
+
+	private void reportBytesReceived() {
+		if (content != null && reported.compareAndSet(false, true)) {
+			metrics.bytesReceived(operation, database, content.getByteCount());
+		}
+	}
+
+	@Override
+	public String toString() {
+		return delegate.toString();
+	}
+}
@@ -0,0 +1,118 @@
+package org.ektorp.http;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.ektorp.metrics.Operation;
+import org.ektorp.util.Assert;
+
+/**
+ * Decides which request bodies StdHttpClient compresses.
+ *
+ * A body is compressed if it is JSON, the operation of the request is one of the configured operations and its length
+ * is at least the threshold. JSON bodies of unknown length, such as streamed bulk updates, are always compressed.
+ * Attachments are never compressed, whatever their content type, and neither are requests that already declare a
+ * Content-Encoding.
+ *
+ * CouchDB accepts request bodies with Content-Encoding gzip. Other encodings are rejected with 415 Unsupported Media
+ * Type unless a proxy in front of the database decompresses them.
+ */
+public class RequestCompression {
+
+	public static final int DEFAULT_THRESHOLD = 8192;
+
+	private final CompressingEntity.Encoding encoding;
+	private final int threshold;
+	private final Set<Operation> operations;
+
+	/**
+	 * Compresses _bulk_docs bodies of at least DEFAULT_THRESHOLD bytes.
+	 */
+	public RequestCompression(CompressingEntity.Encoding encoding) {
+		this(encoding, DEFAULT_THRESHOLD, Operation.BULK);
+	}
+
+	public RequestCompression(CompressingEntity.Encoding encoding, int threshold, Operation... operations) {
+		Assert.notNull(encoding, "encoding may not be null");
+		Assert.isTrue(threshold >= 0, "threshold may not be negative");
+		Assert.isTrue(operations.length > 0, "at least one operation is required");
+		this.encoding = encoding;
+		this.threshold = threshold;
+		this.operations = Collections.unmodifiableSet(EnumSet.copyOf(Arrays.asList(operations)));
+	}
+
+	/**
+	 * Wraps the body of the request in a CompressingEntity if it should be compressed.
+	 */
+	public void apply(HttpUriRequest request) {
+		if (!(request instanceof HttpEntityEnclosingRequest)) {
+			return;
+		}
+		HttpEntityEnclosingRequest r = (HttpEntityEnclosingRequest) request;
+		HttpEntity entity = r.getEntity();
+		if (entity == null || entity.getContentEncoding() != null || !isJson(entity)) {
+			return;
+		}
+		long length = entity.getContentLength();
+		if (length >= 0 && length < threshold) {
+			return;
+		}
+		String path = request.getURI().getRawPath();
+		if (path == null) {
+			path = "";
+		}
+		if (isAttachment(path)) {
+			return;
+		}
+		if (operations.contains(Operation.classify(request.getMethod(), path))) {
+			r.setEntity(new CompressingEntity(entity, encoding));
+		}
+	}
+
+	private static boolean isJson(HttpEntity entity) {
+		return entity.getContentType() != null && entity.getContentType().getValue().startsWith("application/json");
+	}
+
+	/**
+	 * @return true if the path is that of an attachment, i.e. /db/doc/attachment or /db/_design/doc/attachment.
+	 */
+	static boolean isAttachment(String path) {
+		String[] segments = trimSlashes(path).split("/");
+		if (segments.length < 3 || segments[0].startsWith("_")) {
+			return false;
+		}
+		if (segments[1].equals("_design")) {
+			return segments.length > 3 && !segments[3].startsWith("_");
+		}
+		return !segments[1].startsWith("_");
+	}
+
+	private static String trimSlashes(String path) {
+		int start = 0;
+		int end = path.length();
+		while (start < end && path.charAt(start) == '/') {
+			start++;
+		}
+		while (end > start && path.charAt(end - 1) == '/') {
+			end--;
+		}
+		return path.substring(start, end);
+	}
+
+	public CompressingEntity.Encoding getEncoding() {
+		return encoding;
+	}
+
+	public int getThreshold() {
+		return threshold;
+	}
+
+	public Set<Operation> getOperations() {
+		return operations;
+	}
+}
@@ -1,6 +1,7 @@
 package org.ektorp.http;
 
 import java.io.InputStream;
+import java.util.Map;
 
 import org.apache.http.HttpEntity;
 import org.ektorp.util.Exceptions;
@@ -22,6 +23,11 @@ public class RestTemplate {
 		return handleResponse(callback, hr);
 	}
 
+	public <T> T get(String path, Map<String, String> headers, ResponseCallback<T> callback) {
+		HttpResponse hr = client.get(path, headers);
+		return handleResponse(callback, hr);
+	}
+
 	public <T> T getUncached(String path, ResponseCallback<T> callback) {
 		HttpResponse hr = client.getUncached(path);
 		return handleResponse(callback, hr);
@@ -31,6 +37,10 @@ public class RestTemplate {
 		return handleRawResponse(client.get(path));
 	}
 	
+	public HttpResponse get(String path, Map<String, String> headers) {
+		return handleRawResponse(client.get(path, headers));
+	}
+
 	public HttpResponse getUncached(String path) {
 		return handleRawResponse(client.getUncached(path));
 	}
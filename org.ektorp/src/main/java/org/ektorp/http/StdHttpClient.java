@@ -5,12 +5,14 @@ import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
 
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
 import org.apache.http.HttpHost;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
@@ -40,7 +42,12 @@ import org.apache.http.params.HttpParams;
 import org.apache.http.params.HttpProtocolParams;
 import org.ektorp.http.clientconfig.CredentialsProviderConfigurer;
 import org.ektorp.http.clientconfig.HttpClientRequestExecutor;
+import org.ektorp.http.clientconfig.LimitingHttpClientRequestExecutor;
 import org.ektorp.http.clientconfig.OldHttpClientRequestExecutor;
+import org.ektorp.metrics.MetricsCollector;
+import org.ektorp.metrics.NoOpMetricsCollector;
+import org.ektorp.metrics.Operation;
+import org.ektorp.util.Assert;
 import org.ektorp.util.Exceptions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -57,6 +64,12 @@ public class StdHttpClient implements HttpClient {
 
 	private final HttpClientRequestExecutor httpClientRequestExecutor;
 
+	private final MetricsCollector metrics;
+
+	private final boolean metricsEnabled;
+
+	private final RequestCompression requestCompression;
+
 	public StdHttpClient(org.apache.http.client.HttpClient hc) {
 		this(hc, hc);
 	}
@@ -66,7 +79,31 @@ public class StdHttpClient implements HttpClient {
 	}
 
 	public StdHttpClient(HttpClientRequestExecutor httpClientRequestExecutor) {
+		this(httpClientRequestExecutor, NoOpMetricsCollector.INSTANCE);
+	}
+
+	/**
+	 * @param metrics receives the latency, status and transferred bytes of every request.
+	 */
+	public StdHttpClient(HttpClientRequestExecutor httpClientRequestExecutor, MetricsCollector metrics) {
+		this(httpClientRequestExecutor, metrics, null);
+	}
+
+	/**
+	 * @param metrics receives the latency, status and transferred bytes of every request.
+	 * @param requestCompression decides which request bodies are compressed, may be null.
+	 */
+	public StdHttpClient(HttpClientRequestExecutor httpClientRequestExecutor, MetricsCollector metrics,
+			RequestCompression requestCompression) {
+		Assert.notNull(metrics, "metrics may not be null");
 		this.httpClientRequestExecutor = httpClientRequestExecutor;
+		this.metrics = metrics;
+		this.metricsEnabled = metrics != NoOpMetricsCollector.INSTANCE;
+		this.requestCompression = requestCompression;
+	}
+
+	public MetricsCollector getMetricsCollector() {
+		return metrics;
 	}
 
 	public org.apache.http.client.HttpClient getClient() {
@@ -174,6 +211,13 @@ public class StdHttpClient implements HttpClient {
 	}
 
 	protected HttpResponse executeRequest(HttpUriRequest request, boolean useBackend) {
+		InFlightRequests.register(request);
+		if (requestCompression != null) {
+			requestCompression.apply(request);
+		}
+		if (metricsEnabled) {
+			return executeMeteredRequest(request, useBackend);
+		}
 		try {
 			return httpClientRequestExecutor.executeRequest(request, useBackend);
 		} catch (Exception e) {
@@ -181,6 +225,32 @@ public class StdHttpClient implements HttpClient {
 		}		
 	}
 
+	private HttpResponse executeMeteredRequest(HttpUriRequest request, boolean useBackend) {
+		String path = request.getURI().getRawPath();
+		if (path == null) {
+			path = "";
+		}
+		Operation operation = Operation.classify(request.getMethod(), path);
+		String database = Operation.databaseOf(path);
+		if (request instanceof HttpEntityEnclosingRequest) {
+			HttpEntityEnclosingRequest r = (HttpEntityEnclosingRequest) request;
+			if (r.getEntity() != null) {
+				r.setEntity(new MeteredEntity(r.getEntity(), metrics, operation, database));
+			}
+		}
+		metrics.requestStarted(operation, database);
+		long start = System.nanoTime();
+		HttpResponse rsp;
+		try {
+			rsp = httpClientRequestExecutor.executeRequest(request, useBackend);
+		} catch (Exception e) {
+			metrics.requestFailed(operation, database, e, System.nanoTime() - start);
+			throw Exceptions.propagate(e);
+		}
+		metrics.requestCompleted(operation, database, rsp.getCode(), System.nanoTime() - start);
+		return new MeteredHttpResponse(rsp, metrics, operation, database);
+	}
+
 	protected HttpResponse createHttpResponse(org.apache.http.HttpResponse rsp, HttpUriRequest httpRequest) {
 		return new StdHttpResponse(rsp.getEntity(), rsp.getStatusLine(), httpRequest, rsp.getFirstHeader("ETag"));
 	}
@@ -241,6 +311,10 @@ public class StdHttpClient implements HttpClient {
 		protected boolean compression; // Default is false;
 		protected int maxObjectSizeBytes = 8192;
 		protected int maxCacheEntries = 1000;
+		protected MetricsCollector metricsCollector = NoOpMetricsCollector.INSTANCE;
+		protected boolean adaptiveConcurrency; // Default is false;
+		protected int concurrencyLimitWait = 1000;
+		protected RequestCompression requestCompression;
 
 		public Builder url(String s) throws MalformedURLException {
 			if (s == null) return this;
@@ -304,6 +378,29 @@ public class StdHttpClient implements HttpClient {
 			compression = b;
 			return this;
 		}
+		/**
+		 * Compresses request bodies with the specified encoding and sends them with Content-Encoding. By default
+		 * _bulk_docs bodies of at least 8192 bytes are compressed, use requestCompression(RequestCompression) in order
+		 * to choose the threshold and operations. Only JSON bodies are compressed, never attachments.
+		 * <p>
+		 * CouchDB decompresses request bodies sent with GZIP itself. It rejects DEFLATE with 415 Unsupported Media
+		 * Type, so DEFLATE requires a reverse proxy in front of it that decompresses the bodies.
+		 * <p>
+		 * Disabled by default.
+		 *
+		 * @param encoding
+		 * @return This builder
+		 */
+		public Builder requestCompression(CompressingEntity.Encoding encoding) {
+			requestCompression = new RequestCompression(encoding);
+			return this;
+		}
+
+		public Builder requestCompression(RequestCompression r) {
+			requestCompression = r;
+			return this;
+		}
+
 		/**
 		 * Controls if the http client should cache response entities.
 		 * Default is true.
@@ -324,6 +421,53 @@ public class StdHttpClient implements HttpClient {
 			return this;
 		}
 
+		/**
+		 * Enables collection of request metrics. The connection manager is wrapped in a
+		 * MeteredClientConnectionManager so that connection lease wait time is reported as well.
+		 * Default is NoOpMetricsCollector, i.e. no metrics are collected.
+		 * 
+		 * @param m
+		 * @return This builder
+		 */
+		public Builder metricsCollector(MetricsCollector m) {
+			metricsCollector = m;
+			return this;
+		}
+
+		/**
+		 * Limits the requests in flight with a limit that adapts to the latency of the database, up to
+		 * maxConnections. The caching client and the backend client share the limit, as they share the connection
+		 * pool. A request holds its place until its response is released. Requests that can not get within the limit
+		 * in time fail with ConcurrencyLimitExceededException.
+		 * <p>
+		 * Disabled by default.
+		 *
+		 * @param b
+		 * @return This builder
+		 */
+		public Builder adaptiveConcurrency(boolean b) {
+			adaptiveConcurrency = b;
+			return this;
+		}
+
+		/**
+		 * How long a request waits for the adaptive concurrency limit, 0 fails fast. Default is 1000 ms.
+		 *
+		 * @param millis
+		 * @return This builder
+		 */
+		public Builder concurrencyLimitWait(int millis) {
+			concurrencyLimitWait = millis;
+			return this;
+		}
+
+		protected ConcurrencyLimiter configureConcurrencyLimiter() {
+			return new ConcurrencyLimiter.Builder()
+					.limits(Math.max(1, maxConnections / 2), 1, Math.max(1, maxConnections))
+					.maxWait(concurrencyLimitWait, TimeUnit.MILLISECONDS)
+					.build();
+		}
+
 		public ClientConnectionManager configureConnectionManager(
 				HttpParams params) {
 			if (conman == null) {
@@ -336,6 +480,11 @@ public class StdHttpClient implements HttpClient {
 				conman = cm;
 			}
 
+			if (metricsCollector != NoOpMetricsCollector.INSTANCE
+					&& !(conman instanceof MeteredClientConnectionManager)) {
+				conman = new MeteredClientConnectionManager(conman, metricsCollector);
+			}
+
 			if (cleanupIdleConnections) {
 				IdleConnectionMonitor.monitor(conman);
 			}
@@ -534,7 +683,13 @@ public class StdHttpClient implements HttpClient {
 			if (caching) {
 				cachingHttpClient = WithCachingBuilder.withCaching(client, maxCacheEntries, maxObjectSizeBytes);
 			}
-			return new StdHttpClient(cachingHttpClient, client);
+			HttpClientRequestExecutor executor = new OldHttpClientRequestExecutor(cachingHttpClient, client);
+			if (adaptiveConcurrency) {
+				// one limiter for both clients, as they share the connection pool
+				ConcurrencyLimiter limiter = configureConcurrencyLimiter();
+				executor = new LimitingHttpClientRequestExecutor(executor, limiter, limiter);
+			}
+			return new StdHttpClient(executor, metricsCollector, requestCompression);
 		}
 
 	}
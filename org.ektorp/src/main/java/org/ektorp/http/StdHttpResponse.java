@@ -8,8 +8,6 @@ import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.message.BasicHeader;
 import org.apache.http.protocol.HTTP;
 import org.ektorp.util.Exceptions;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -20,7 +18,7 @@ import java.io.OutputStream;
  */
 public class StdHttpResponse implements HttpResponse {
 
-	private final static Logger LOG = LoggerFactory.getLogger(StdHttpResponse.class);
+	private final static String LEAK_MESSAGE = "StdHttpResponse was not released properly. In order to avoid leaking connections, don't forget to call releaseConnection() on every instance of StdHttpResponse";
 
 	private final static HttpEntity NULL_ENTITY = new NullEntity();
 
@@ -30,11 +28,9 @@ public class StdHttpResponse implements HttpResponse {
 	private final HttpUriRequest httpRequest;
 	private final String revision;
 
-	private boolean released = false;
-
 	private ConnectionReleasingInputStream inputStream;
 
-	private final Throwable instantiationStackTrace = new Throwable("This is the instantiation stack trace of the StdHttpResponse instance");
+	private final LeakDetector.Tracker leakTracker;
 
 	public static StdHttpResponse of(org.apache.http.HttpResponse rsp, HttpUriRequest httpRequest) {
 		return new StdHttpResponse(rsp.getEntity(), rsp.getStatusLine(), httpRequest, rsp.getFirstHeader("ETag"));
@@ -50,6 +46,7 @@ public class StdHttpResponse implements HttpResponse {
 		} else {
 			revision = null;
 		}
+		this.leakTracker = LeakDetector.getInstance().track(this, LEAK_MESSAGE);
 	}
 
 
@@ -105,7 +102,9 @@ public class StdHttpResponse implements HttpResponse {
 					IOUtils.closeQuietly(content);
 				}
 			}
-			released = true;
+			if (leakTracker != null) {
+				leakTracker.close();
+			}
 		}
 	}
 
@@ -117,13 +116,6 @@ public class StdHttpResponse implements HttpResponse {
 		return status.getStatusCode() + ":" + status.getReasonPhrase();
 	}
 
-	@Override
-	protected void finalize() {
-		if (!released) {
-			LOG.warn("StdHttpResponse was not released properly. In order to avoid leaking connections, don't forget to call releaseConnection() on every instance of StdHttpResponse", instantiationStackTrace);
-		}
-	}
-
 	private static class NullEntity implements HttpEntity {
 
 		private static final Header contentType = new BasicHeader(HTTP.CONTENT_TYPE, "null");
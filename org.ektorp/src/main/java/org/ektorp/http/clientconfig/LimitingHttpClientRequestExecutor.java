@@ -0,0 +1,206 @@
+package org.ektorp.http.clientconfig;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.http.HttpHost;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.ektorp.http.ConcurrencyLimiter;
+import org.ektorp.http.HttpResponse;
+import org.ektorp.http.HttpStatus;
+import org.ektorp.metrics.Operation;
+import org.ektorp.util.Assert;
+
+/**
+ * Limits the requests in flight through another executor with adaptive concurrency limits, one for requests through
+ * the caching client and one for requests through the backend client.
+ *
+ * A request is in flight until its response is released, i.e. its content is closed, its connection released or it is
+ * aborted, as it holds a pooled connection until then. Changes requests are the exception and are released when the
+ * headers have been received, as a continuous feed would otherwise hold a permit for as long as it is open.
+ *
+ * The latency compared with earlier requests of the same operation is the time until the headers were received, so
+ * that large responses are not taken for congestion. Failed requests and responses with status 429 or 503 count as
+ * overload.
+ *
+ * The two limiters may be the same instance, which is what StdHttpClient.Builder does as both clients draw from the
+ * same connection pool.
+ */
+public class LimitingHttpClientRequestExecutor extends HttpClientRequestExecutor {
+
+	private final HttpClientRequestExecutor delegate;
+	private final ConcurrencyLimiter limiter;
+	private final ConcurrencyLimiter backendLimiter;
+
+	public LimitingHttpClientRequestExecutor(HttpClientRequestExecutor delegate, ConcurrencyLimiter limiter,
+			ConcurrencyLimiter backendLimiter) {
+		Assert.notNull(delegate, "delegate may not be null");
+		Assert.notNull(limiter, "limiter may not be null");
+		Assert.notNull(backendLimiter, "backendLimiter may not be null");
+		this.delegate = delegate;
+		this.limiter = limiter;
+		this.backendLimiter = backendLimiter;
+	}
+
+	@Override
+	public HttpResponse executeRequest(HttpUriRequest request, boolean useBackend) throws IOException {
+		ConcurrencyLimiter l = useBackend ? backendLimiter : limiter;
+		String path = request.getURI().getRawPath();
+		Operation operation = Operation.classify(request.getMethod(), path != null ? path : "");
+		long start = l.acquire();
+		HttpResponse rsp;
+		try {
+			rsp = delegate.executeRequest(request, useBackend);
+		} catch (IOException e) {
+			l.release(start, operation, System.nanoTime() - start, true);
+			throw e;
+		} catch (RuntimeException e) {
+			l.release(start, operation, System.nanoTime() - start, true);
+			throw e;
+		}
+		boolean overloaded = rsp.getCode() == HttpStatus.SERVICE_UNAVAILABLE || rsp.getCode() == HttpStatus.TOO_MANY_REQUESTS;
+		Permit permit = new Permit(l, start, operation, System.nanoTime() - start, overloaded);
+		if (operation == Operation.CHANGES) {
+			permit.release();
+			return rsp;
+		}
+		return new PermitReleasingHttpResponse(rsp, permit);
+	}
+
+	public ConcurrencyLimiter getLimiter() {
+		return limiter;
+	}
+
+	public ConcurrencyLimiter getBackendLimiter() {
+		return backendLimiter;
+	}
+
+	@Override
+	public HttpHost getHttpHost(HttpClient client) {
+		return delegate.getHttpHost(client);
+	}
+
+	@Override
+	public HttpClient locateHttpClient(boolean useBackend) {
+		return delegate.locateHttpClient(useBackend);
+	}
+
+	@Override
+	public void releaseHttpClient(HttpClient client) throws IOException {
+		delegate.releaseHttpClient(client);
+	}
+
+	@Override
+	public HttpResponse createHttpResponse(org.apache.http.HttpResponse rsp, HttpUriRequest httpRequest) {
+		return delegate.createHttpResponse(rsp, httpRequest);
+	}
+
+	@Override
+	public void shutdown() {
+		delegate.shutdown();
+	}
+
+	private static class Permit {
+
+		private final ConcurrencyLimiter limiter;
+		private final long start;
+		private final Operation operation;
+		private final long latency;
+		private final boolean overloaded;
+		private final AtomicBoolean released = new AtomicBoolean();
+
+		Permit(ConcurrencyLimiter limiter, long start, Operation operation, long latency, boolean overloaded) {
+			this.limiter = limiter;
+			this.start = start;
+			this.operation = operation;
+			this.latency = latency;
+			this.overloaded = overloaded;
+		}
+
+		void release() {
+			if (released.compareAndSet(false, true)) {
+				limiter.release(start, operation, latency, overloaded);
+			}
+		}
+	}
+
+	private static class PermitReleasingHttpResponse implements HttpResponse {
+
+		private final HttpResponse delegate;
+		private final Permit permit;
+		private InputStream content;
+
+		PermitReleasingHttpResponse(HttpResponse delegate, Permit permit) {
+			this.delegate = delegate;
+			this.permit = permit;
+		}
+
+		public boolean isSuccessful() {
+			return delegate.isSuccessful();
+		}
+
+		public int getCode() {
+			return delegate.getCode();
+		}
+
+		public String getRequestURI() {
+			return delegate.getRequestURI();
+		}
+
+		public String getContentType() {
+			return delegate.getContentType();
+		}
+
+		public long getContentLength() {
+			return delegate.getContentLength();
+		}
+
+		public InputStream getContent() {
+			if (content == null) {
+				InputStream in = delegate.getContent();
+				if (in == null) {
+					return null;
+				}
+				content = new FilterInputStream(in) {
+					@Override
+					public void close() throws IOException {
+						try {
+							super.close();
+						} finally {
+							permit.release();
+						}
+					}
+				};
+			}
+			return content;
+		}
+
+		public String getETag() {
+			return delegate.getETag();
+		}
+
+		public void releaseConnection() {
+			try {
+				delegate.releaseConnection();
+			} finally {
+				permit.release();
+			}
+		}
+
+		public void abort() {
+			try {
+				delegate.abort();
+			} finally {
+				permit.release();
+			}
+		}
+
+		@Override
+		public String toString() {
+			return delegate.toString();
+		}
+	}
+}
@@ -0,0 +1,226 @@
+package org.ektorp.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.ektorp.BulkGetResult;
+import org.ektorp.DbAccessException;
+import org.ektorp.http.HttpResponse;
+import org.ektorp.http.RestTemplate;
+import org.ektorp.http.StdResponseHandler;
+import org.ektorp.http.URI;
+import org.ektorp.util.Assert;
+import org.ektorp.util.Exceptions;
+
+/**
+ * Loads documents by id through POST requests to _all_docs?include_docs=true.
+ *
+ * Large id lists are split into chunks of at most maxKeysPerRequest ids. If an ExecutorService is set, the chunks are
+ * fetched in parallel, the first chunk is always fetched in the calling thread.
+ *
+ * Included docs are bound directly from the response stream to the target type.
+ */
+public class AllDocsFetcher {
+
+	public static final int DEFAULT_MAX_KEYS_PER_REQUEST = 200;
+
+	private static final String ROWS_FIELD_NAME = "rows";
+	private static final String KEY_FIELD_NAME = "key";
+	private static final String VALUE_FIELD_NAME = "value";
+	private static final String DOC_FIELD_NAME = "doc";
+	private static final String ERROR_FIELD_NAME = "error";
+	private static final String DELETED_FIELD_NAME = "deleted";
+
+	private final String allDocsUri;
+	private final RestTemplate restTemplate;
+	private final ObjectMapper objectMapper;
+
+	private int maxKeysPerRequest = DEFAULT_MAX_KEYS_PER_REQUEST;
+	private ExecutorService executorService;
+
+	public AllDocsFetcher(URI dbURI, RestTemplate restTemplate, ObjectMapper objectMapper) {
+		this.allDocsUri = dbURI.append("_all_docs").param("include_docs", "true").toString();
+		this.restTemplate = restTemplate;
+		this.objectMapper = objectMapper;
+	}
+
+	public <T> BulkGetResult<T> fetch(Class<T> type, Collection<String> ids) {
+		Assert.notNull(type, "Class may not be null");
+		Assert.notNull(ids, "ids may not be null");
+		List<String> requestedIds = new ArrayList<String>(ids);
+		for (String id : requestedIds) {
+			Assert.hasText(id, "document id cannot be empty");
+		}
+		BulkGetResult<T> result = new BulkGetResult<T>(requestedIds);
+		if (requestedIds.isEmpty()) {
+			return result;
+		}
+		ObjectReader reader = objectMapper.reader(type);
+		List<List<String>> chunks = partition(requestedIds, maxKeysPerRequest);
+		if (executorService == null || chunks.size() == 1) {
+			for (List<String> chunk : chunks) {
+				fetchChunk(reader, chunk, result);
+			}
+			return result;
+		}
+		List<Future<BulkGetResult<T>>> pending = new ArrayList<Future<BulkGetResult<T>>>(chunks.size() - 1);
+		try {
+			for (final List<String> chunk : chunks.subList(1, chunks.size())) {
+				pending.add(executorService.submit(new ChunkTask<T>(reader, chunk)));
+			}
+			fetchChunk(reader, chunks.get(0), result);
+			for (Future<BulkGetResult<T>> f : pending) {
+				result.merge(f.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DbAccessException(e);
+		} catch (ExecutionException e) {
+			throw Exceptions.propagate(e.getCause());
+		} finally {
+			for (Future<BulkGetResult<T>> f : pending) {
+				f.cancel(true);
+			}
+		}
+		return result;
+	}
+
+	private <T> void fetchChunk(final ObjectReader reader, List<String> ids, final BulkGetResult<T> result) {
+		restTemplate.postUncached(allDocsUri, keysAsJson(ids), new StdResponseHandler<Void>() {
+			@Override
+			public Void success(HttpResponse hr) throws Exception {
+				JsonParser jp = objectMapper.getFactory().createParser(hr.getContent());
+				try {
+					parseRows(jp, reader, result);
+				} finally {
+					jp.close();
+				}
+				return null;
+			}
+		});
+	}
+
+	private String keysAsJson(List<String> ids) {
+		ObjectNode root = objectMapper.createObjectNode();
+		ArrayNode keys = root.putArray("keys");
+		for (String id : ids) {
+			keys.add(id);
+		}
+		try {
+			return objectMapper.writeValueAsString(root);
+		} catch (IOException e) {
+			throw Exceptions.propagate(e);
+		}
+	}
+
+	private <T> void parseRows(JsonParser jp, ObjectReader reader, BulkGetResult<T> result) throws IOException {
+		if (jp.nextToken() != JsonToken.START_OBJECT) {
+			throw new DbAccessException("Expected data to start with an Object");
+		}
+		while (jp.nextValue() != JsonToken.END_OBJECT) {
+			if (ROWS_FIELD_NAME.equals(jp.getCurrentName())) {
+				while (jp.nextToken() == JsonToken.START_OBJECT) {
+					parseRow(jp, reader, result);
+				}
+			} else {
+				jp.skipChildren();
+			}
+		}
+	}
+
+	private <T> void parseRow(JsonParser jp, ObjectReader reader, BulkGetResult<T> result) throws IOException {
+		String key = null;
+		String error = null;
+		boolean deleted = false;
+		T doc = null;
+		while (jp.nextValue() != JsonToken.END_OBJECT) {
+			String currentName = jp.getCurrentName();
+			if (KEY_FIELD_NAME.equals(currentName)) {
+				key = jp.getText();
+			} else if (ERROR_FIELD_NAME.equals(currentName)) {
+				error = jp.getText();
+			} else if (VALUE_FIELD_NAME.equals(currentName) && jp.getCurrentToken() == JsonToken.START_OBJECT) {
+				while (jp.nextValue() != JsonToken.END_OBJECT) {
+					if (DELETED_FIELD_NAME.equals(jp.getCurrentName())) {
+						deleted = jp.getValueAsBoolean();
+					} else {
+						jp.skipChildren();
+					}
+				}
+			} else if (DOC_FIELD_NAME.equals(currentName) && jp.getCurrentToken() == JsonToken.START_OBJECT) {
+				doc = reader.readValue(jp);
+			} else {
+				jp.skipChildren();
+			}
+		}
+		if (deleted) {
+			result.addDeletedId(key);
+		} else if (error != null || doc == null) {
+			result.addMissingId(key);
+		} else {
+			result.addDocument(key, doc);
+		}
+	}
+
+	private static List<List<String>> partition(List<String> ids, int size) {
+		List<List<String>> chunks = new ArrayList<List<String>>(ids.size() / size + 1);
+		for (int i = 0; i < ids.size(); i += size) {
+			chunks.add(ids.subList(i, Math.min(i + size, ids.size())));
+		}
+		return chunks;
+	}
+
+	public int getMaxKeysPerRequest() {
+		return maxKeysPerRequest;
+	}
+
+	/**
+	 * @param maxKeysPerRequest the maximum number of ids sent in a single _all_docs request. Default is 200.
+	 */
+	public void setMaxKeysPerRequest(int maxKeysPerRequest) {
+		Assert.isTrue(maxKeysPerRequest > 0, "maxKeysPerRequest must be greater than 0");
+		this.maxKeysPerRequest = maxKeysPerRequest;
+	}
+
+	public ExecutorService getExecutorService() {
+		return executorService;
+	}
+
+	/**
+	 * @param executorService used for fetching chunks in parallel. If null, chunks are fetched sequentially.
+	 */
+	public void setExecutorService(ExecutorService executorService) {
+		this.executorService = executorService;
+	}
+
+	private class ChunkTask<T> implements Callable<BulkGetResult<T>> {
+
+		private final ObjectReader reader;
+		private final List<String> ids;
+
+		ChunkTask(ObjectReader reader, List<String> ids) {
+			this.reader = reader;
+			this.ids = ids;
+		}
+
+		@Override
+		public BulkGetResult<T> call() throws Exception {
+			BulkGetResult<T> partial = new BulkGetResult<T>(ids);
+			fetchChunk(reader, ids, partial);
+			return partial;
+		}
+	}
+
+}
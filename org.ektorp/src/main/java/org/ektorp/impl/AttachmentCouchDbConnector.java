@@ -1,5 +1,7 @@
 package org.ektorp.impl;
 
+import java.io.File;
+
 import org.apache.http.HttpEntity;
 import org.ektorp.AttachmentInputStream;
 
@@ -17,4 +19,14 @@ public interface AttachmentCouchDbConnector {
 
     AttachmentInputStream getAttachment(String id, String attachmentId, String revision);
 
+    String createAttachment(String docId, String revision, String attachmentId, File file, String contentType);
+
+    long getAttachment(String id, String attachmentId, File target);
+
+    long getAttachment(String id, String attachmentId, String revision, File target);
+
+    AttachmentInputStream getAttachment(String id, String attachmentId, long offset, long length);
+
+    AttachmentInputStream getAttachment(String id, String attachmentId, String revision, long offset, long length);
+
 }
@@ -0,0 +1,403 @@
+package org.ektorp.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpEntity;
+import org.ektorp.AttachmentInputStream;
+import org.ektorp.BulkWriter;
+import org.ektorp.BulkWriterConfig;
+import org.ektorp.CouchDbInstance;
+import org.ektorp.DocumentOperationResult;
+import org.ektorp.Options;
+import org.ektorp.PurgeResult;
+import org.ektorp.changes.ChangesCommand;
+import org.ektorp.changes.ChangesFeed;
+import org.ektorp.changes.DocumentChange;
+import org.ektorp.http.HttpResponse;
+import org.ektorp.http.HttpStatus;
+import org.ektorp.http.ResponseCallback;
+import org.ektorp.util.Assert;
+import org.ektorp.util.Documents;
+import org.ektorp.util.Exceptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A CouchDbConnector that keeps the JSON of the documents read through get(Class, String) and find(Class, String) in a
+ * size bounded LRU cache.
+ *
+ * A cached document is revalidated with a conditional request (If-None-Match with the revision it was read at) when
+ * it is older than the revalidation interval. A 304 Not Modified response serves the cached JSON without transferring
+ * the document again.
+ *
+ * Writes made through this connector invalidate the affected ids. Writes made by other clients are picked up by
+ * revalidation, or immediately if invalidation through the changes feed has been started with
+ * startChangesInvalidation(). Unless an interval has been set, every read is revalidated without the changes feed
+ * and documents are revalidated every 30 s with it. A read that is in flight while its id is invalidated is not
+ * cached.
+ *
+ * By default cached JSON is bound by the configured response handler on every read, so each read returns a new object
+ * that the caller may modify without affecting other readers. With setObjectCaching(true) the bound object is cached
+ * as well and every read returns the same instance without deserialization. The returned objects must then be treated
+ * as immutable: a modification is seen by every other reader and is not detected by revalidation. Documents that are
+ * to be modified can be read with Options, which bypass the cache.
+ *
+ * Reads with Options (specific revisions, conflicts etc.) bypass the cache.
+ */
+public class CachingCouchDbConnector extends StdCouchDbConnector {
+
+	public static final int DEFAULT_MAX_ENTRIES = 10000;
+	public static final long DEFAULT_CHANGES_REVALIDATION_INTERVAL = 30000;
+
+	private final static Logger LOG = LoggerFactory.getLogger(CachingCouchDbConnector.class);
+
+	private final DocumentCache cache;
+	private volatile long revalidationIntervalMillis = -1;
+	private volatile boolean objectCaching;
+	private volatile ChangesFeed invalidationFeed;
+
+	public CachingCouchDbConnector(String databaseName, CouchDbInstance dbInstance) {
+		this(databaseName, dbInstance, DEFAULT_MAX_ENTRIES);
+	}
+
+	public CachingCouchDbConnector(String databaseName, CouchDbInstance dbInstance, int maxEntries) {
+		this(databaseName, dbInstance, new StdObjectMapperFactory(), maxEntries);
+	}
+
+	public CachingCouchDbConnector(String databaseName, CouchDbInstance dbi, ObjectMapperFactory om, int maxEntries) {
+		super(databaseName, dbi, om);
+		this.cache = new DocumentCache(maxEntries);
+	}
+
+	/**
+	 * @param millis cached documents younger than this are served without revalidation. Default is 0, i.e. every
+	 *            read is revalidated, or DEFAULT_CHANGES_REVALIDATION_INTERVAL while changes invalidation is running.
+	 */
+	public void setRevalidationInterval(long millis) {
+		Assert.isTrue(millis >= 0, "revalidation interval may not be negative");
+		this.revalidationIntervalMillis = millis;
+	}
+
+	public long getRevalidationInterval() {
+		long millis = revalidationIntervalMillis;
+		if (millis >= 0) {
+			return millis;
+		}
+		ChangesFeed feed = invalidationFeed;
+		return feed != null && feed.isAlive() ? DEFAULT_CHANGES_REVALIDATION_INTERVAL : 0;
+	}
+
+	/**
+	 * @param b if true, the object a cached document was bound to is returned to every reader of the same class
+	 *            instead of a new object. Such objects must not be modified. Default is false.
+	 */
+	public void setObjectCaching(boolean b) {
+		this.objectCaching = b;
+	}
+
+	public boolean isObjectCaching() {
+		return objectCaching;
+	}
+
+	public DocumentCacheStats getCacheStats() {
+		return cache.getStats();
+	}
+
+	public void invalidate(String id) {
+		cache.invalidate(id);
+	}
+
+	public void invalidateAll() {
+		cache.invalidateAll();
+	}
+
+	/**
+	 * Starts a thread that follows the changes feed of the database and invalidates the changed ids. The cache is
+	 * cleared if the feed is interrupted, as changes may have been missed.
+	 */
+	public synchronized void startChangesInvalidation() {
+		if (invalidationFeed != null && invalidationFeed.isAlive()) {
+			return;
+		}
+		final ChangesFeed feed = changesFeed(new ChangesCommand.Builder().since("now").build());
+		invalidationFeed = feed;
+		Thread t = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					while (feed.isAlive()) {
+						DocumentChange change = feed.next();
+						cache.invalidate(change.getId());
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} catch (RuntimeException e) {
+					LOG.warn("cache invalidation feed failed", e);
+				} finally {
+					cache.invalidateAll();
+				}
+			}
+		});
+		t.setDaemon(true);
+		t.setName(String.format("ektorp-%s-cache-invalidation-thread", getDatabaseName()));
+		t.start();
+	}
+
+	public synchronized void stopChangesInvalidation() {
+		if (invalidationFeed != null) {
+			invalidationFeed.cancel();
+			invalidationFeed = null;
+		}
+	}
+
+	@Override
+	public <T> T get(Class<T> c, String id, Options options) {
+		if (options != null && !options.isEmpty()) {
+			return super.get(c, id, options);
+		}
+		Assert.notNull(c, "Class may not be null");
+		assertDocIdHasValue(id);
+		return read(c, id, false);
+	}
+
+	@Override
+	public <T> T find(Class<T> c, String id, Options options) {
+		if (options != null && !options.isEmpty()) {
+			return super.find(c, id, options);
+		}
+		Assert.notNull(c, "Class may not be null");
+		assertDocIdHasValue(id);
+		return read(c, id, true);
+	}
+
+	private <T> T read(final Class<T> c, final String id, final boolean nullIfNotFound) {
+		final String uri = URIWithDocId(id);
+		final ResponseCallback<T> handler = getCouchDbConnectorResponseHandlerFactory().getClassInstanceResponseHandler(c);
+		final DocumentCache.Entry entry = cache.get(id);
+		if (entry != null && System.currentTimeMillis() - entry.getValidatedAt() < getRevalidationInterval()) {
+			cache.hit(entry);
+			return bind(c, handler, uri, entry);
+		}
+		Map<String, String> headers = entry != null ? Collections.singletonMap("If-None-Match",
+				"\"" + entry.getETag() + "\"") : Collections.<String, String>emptyMap();
+		final DocumentCache.Fetch fetch = cache.startFetch(id);
+		try {
+			return restTemplate.get(uri, headers, new ResponseCallback<T>() {
+				@Override
+				public T success(HttpResponse hr) throws Exception {
+					cache.miss();
+					DocumentCache.Entry e = cache.put(fetch, IOUtils.toByteArray(hr.getContent()), hr.getETag());
+					return bind(c, handler, uri, e);
+				}
+
+				@Override
+				public T error(HttpResponse hr) {
+					if (entry != null && hr.getCode() == HttpStatus.NOT_MODIFIED) {
+						cache.revalidated(entry);
+						return bind(c, handler, uri, entry);
+					}
+					cache.invalidate(id);
+					if (nullIfNotFound && hr.getCode() == HttpStatus.NOT_FOUND) {
+						return null;
+					}
+					return handler.error(hr);
+				}
+			});
+		} finally {
+			cache.endFetch(fetch);
+		}
+	}
+
+	private <T> T bind(Class<T> c, ResponseCallback<T> handler, String uri, DocumentCache.Entry entry) {
+		if (objectCaching) {
+			T o = entry.getObject(c);
+			if (o != null) {
+				return o;
+			}
+		}
+		try {
+			T o = handler.success(new CachedResponse(uri, entry));
+			if (objectCaching) {
+				entry.setObject(c, o);
+			}
+			return o;
+		} catch (Exception e) {
+			throw Exceptions.propagate(e);
+		}
+	}
+
+	@Override
+	public void create(String id, Object node) {
+		cache.invalidate(id);
+		super.create(id, node);
+	}
+
+	@Override
+	public void update(Object o) {
+		String id = Documents.getId(o);
+		if (id != null) {
+			cache.invalidate(id);
+		}
+		super.update(o);
+	}
+
+	@Override
+	public void update(String id, InputStream document, long length, Options options) {
+		cache.invalidate(id);
+		super.update(id, document, length, options);
+	}
+
+	@Override
+	public String delete(String id, String revision) {
+		cache.invalidate(id);
+		return super.delete(id, revision);
+	}
+
+	@Override
+	public String copy(String sourceDocId, String targetDocId, String targetRevision) {
+		cache.invalidate(targetDocId);
+		return super.copy(sourceDocId, targetDocId, targetRevision);
+	}
+
+	@Override
+	public PurgeResult purge(Map<String, List<String>> revisionsToPurge) {
+		for (String id : revisionsToPurge.keySet()) {
+			cache.invalidate(id);
+		}
+		return super.purge(revisionsToPurge);
+	}
+
+	@Override
+	public List<DocumentOperationResult> executeBulk(Collection<?> objects, boolean allOrNothing) {
+		for (Object o : objects) {
+			String id = Documents.getId(o);
+			if (id != null) {
+				cache.invalidate(id);
+			}
+		}
+		return super.executeBulk(objects, allOrNothing);
+	}
+
+	@Override
+	public List<DocumentOperationResult> executeBulk(InputStream inputStream, boolean allOrNothing) {
+		// the ids are unknown without parsing the stream
+		cache.invalidateAll();
+		return super.executeBulk(inputStream, allOrNothing);
+	}
+
+	@Override
+	public List<DocumentOperationResult> flushBulkBuffer() {
+		cache.invalidateAll();
+		return super.flushBulkBuffer();
+	}
+
+	@Override
+	public BulkWriter createBulkWriter(BulkWriterConfig config) {
+		final BulkWriter writer = super.createBulkWriter(config);
+		return new BulkWriter() {
+			@Override
+			public void add(Object o) {
+				String id = Documents.getId(o);
+				if (id != null) {
+					cache.invalidate(id);
+				}
+				writer.add(o);
+			}
+
+			@Override
+			public void flush() {
+				writer.flush();
+			}
+
+			@Override
+			public void close() {
+				writer.close();
+			}
+		};
+	}
+
+	@Override
+	public String createAttachment(String docId, AttachmentInputStream data) {
+		cache.invalidate(docId);
+		return super.createAttachment(docId, data);
+	}
+
+	@Override
+	public String createAttachment(String docId, String revision, AttachmentInputStream data) {
+		cache.invalidate(docId);
+		return super.createAttachment(docId, revision, data);
+	}
+
+	@Override
+	public String createAttachment(String docId, HttpEntity attachmentEntity, String attachmentName) {
+		cache.invalidate(docId);
+		return super.createAttachment(docId, attachmentEntity, attachmentName);
+	}
+
+	@Override
+	public String createAttachment(String docId, String revision, HttpEntity attachmentEntity, String attachmentName) {
+		cache.invalidate(docId);
+		return super.createAttachment(docId, revision, attachmentEntity, attachmentName);
+	}
+
+	@Override
+	public String deleteAttachment(String docId, String revision, String attachmentId) {
+		cache.invalidate(docId);
+		return super.deleteAttachment(docId, revision, attachmentId);
+	}
+
+	/**
+	 * Presents a cached document to a response handler as a successful response.
+	 */
+	private static class CachedResponse implements HttpResponse {
+
+		private final String requestURI;
+		private final DocumentCache.Entry entry;
+
+		CachedResponse(String requestURI, DocumentCache.Entry entry) {
+			this.requestURI = requestURI;
+			this.entry = entry;
+		}
+
+		public boolean isSuccessful() {
+			return true;
+		}
+
+		public int getCode() {
+			return HttpStatus.OK;
+		}
+
+		public String getRequestURI() {
+			return requestURI;
+		}
+
+		public String getContentType() {
+			return "application/json";
+		}
+
+		public long getContentLength() {
+			return entry.getContent().length;
+		}
+
+		public InputStream getContent() {
+			return new ByteArrayInputStream(entry.getContent());
+		}
+
+		public String getETag() {
+			return entry.getETag();
+		}
+
+		public void releaseConnection() {
+		}
+
+		public void abort() {
+		}
+	}
+
+}
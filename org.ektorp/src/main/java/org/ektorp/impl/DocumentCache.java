@@ -0,0 +1,218 @@
+package org.ektorp.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ektorp.util.Assert;
+
+/**
+ * A size bounded, least recently used cache of document JSON keyed by document id.
+ *
+ * Each entry holds the JSON of the document together with the revision (ETag) it was read at, so that it can be
+ * revalidated with a conditional request. The content of an entry must not be modified. An entry may also hold the
+ * object the JSON was last bound to.
+ *
+ * A read from the database is registered with startFetch before the request is sent. If the id is invalidated while
+ * the request is in flight, the response is not cached, as it may have been read before the write that caused the
+ * invalidation.
+ */
+public class DocumentCache {
+
+	private final int maxEntries;
+	private final Map<String, Entry> entries;
+	private final Map<String, List<Fetch>> fetches = new HashMap<String, List<Fetch>>();
+
+	private long hits;
+	private long misses;
+	private long revalidations;
+	private long evictions;
+	private long invalidations;
+
+	public DocumentCache(int maxEntries) {
+		Assert.isTrue(maxEntries > 0, "maxEntries must be greater than 0");
+		this.maxEntries = maxEntries;
+		this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				if (size() > DocumentCache.this.maxEntries) {
+					evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * @param id
+	 * @return the entry for the id, or null.
+	 */
+	public synchronized Entry get(String id) {
+		return entries.get(id);
+	}
+
+	/**
+	 * Registers a read from the database. The fetch must be ended with endFetch when the read has completed.
+	 */
+	public synchronized Fetch startFetch(String id) {
+		Fetch f = new Fetch(id);
+		List<Fetch> l = fetches.get(id);
+		if (l == null) {
+			l = new ArrayList<Fetch>(1);
+			fetches.put(id, l);
+		}
+		l.add(f);
+		return f;
+	}
+
+	public synchronized void endFetch(Fetch f) {
+		List<Fetch> l = fetches.get(f.id);
+		if (l != null && l.remove(f) && l.isEmpty()) {
+			fetches.remove(f.id);
+		}
+	}
+
+	/**
+	 * @return the new entry, which is not cached if the etag is null.
+	 */
+	public synchronized Entry put(String id, byte[] content, String etag) {
+		return put(new Fetch(id), content, etag);
+	}
+
+	/**
+	 * @return the new entry, which is not cached if the etag is null or if the id has been invalidated since the fetch
+	 *         was started.
+	 */
+	public synchronized Entry put(Fetch f, byte[] content, String etag) {
+		Assert.notNull(content, "content may not be null");
+		Entry e = new Entry(content, etag);
+		if (etag != null && !f.invalidated) {
+			entries.put(f.id, e);
+		}
+		return e;
+	}
+
+	/**
+	 * Records a read that had to fetch the document from the database.
+	 */
+	public synchronized void miss() {
+		misses++;
+	}
+
+	/**
+	 * Records a hit for an entry that was served without a request to the database.
+	 */
+	public synchronized void hit(Entry e) {
+		hits++;
+	}
+
+	/**
+	 * Records a hit for an entry that was confirmed to be current by the database.
+	 */
+	public synchronized void revalidated(Entry e) {
+		hits++;
+		revalidations++;
+		e.validatedAt = System.currentTimeMillis();
+	}
+
+	public synchronized void invalidate(String id) {
+		if (entries.remove(id) != null) {
+			invalidations++;
+		}
+		List<Fetch> l = fetches.get(id);
+		if (l != null) {
+			for (Fetch f : l) {
+				f.invalidated = true;
+			}
+		}
+	}
+
+	public synchronized void invalidateAll() {
+		invalidations += entries.size();
+		entries.clear();
+		for (List<Fetch> l : fetches.values()) {
+			for (Fetch f : l) {
+				f.invalidated = true;
+			}
+		}
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	public synchronized DocumentCacheStats getStats() {
+		return new DocumentCacheStats(hits, misses, revalidations, evictions, invalidations, entries.size());
+	}
+
+	public static class Entry {
+
+		private final byte[] content;
+		private final String etag;
+		private volatile long validatedAt = System.currentTimeMillis();
+		private volatile Bound bound;
+
+		Entry(byte[] content, String etag) {
+			this.content = content;
+			this.etag = etag;
+		}
+
+		public byte[] getContent() {
+			return content;
+		}
+
+		public String getETag() {
+			return etag;
+		}
+
+		public long getValidatedAt() {
+			return validatedAt;
+		}
+
+		/**
+		 * @return the object the content was last bound to if it is of the type c, otherwise null.
+		 */
+		public <T> T getObject(Class<T> c) {
+			Bound b = bound;
+			return b != null && b.type == c ? c.cast(b.object) : null;
+		}
+
+		public <T> void setObject(Class<T> c, T object) {
+			bound = new Bound(c, object);
+		}
+	}
+
+	private static class Bound {
+
+		final Class<?> type;
+		final Object object;
+
+		Bound(Class<?> type, Object object) {
+			this.type = type;
+			this.object = object;
+		}
+	}
+
+	/**
+	 * A read from the database that is in flight.
+	 */
+	public static class Fetch {
+
+		private final String id;
+		private boolean invalidated;
+
+		Fetch(String id) {
+			this.id = id;
+		}
+	}
+}
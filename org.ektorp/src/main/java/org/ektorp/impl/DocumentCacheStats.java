@@ -0,0 +1,73 @@
+package org.ektorp.impl;
+
+/**
+ * A snapshot of the counters of a {@link DocumentCache}.
+ */
+public class DocumentCacheStats {
+
+	private final long hits;
+	private final long misses;
+	private final long revalidations;
+	private final long evictions;
+	private final long invalidations;
+	private final int size;
+
+	public DocumentCacheStats(long hits, long misses, long revalidations, long evictions, long invalidations, int size) {
+		this.hits = hits;
+		this.misses = misses;
+		this.revalidations = revalidations;
+		this.evictions = evictions;
+		this.invalidations = invalidations;
+		this.size = size;
+	}
+
+	/**
+	 * @return the number of reads served from the cache, including reads that were revalidated.
+	 */
+	public long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return the number of reads where the document was not in the cache.
+	 */
+	public long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return the number of reads where the cached document was confirmed by a 304 Not Modified response.
+	 */
+	public long getRevalidations() {
+		return revalidations;
+	}
+
+	/**
+	 * @return the number of entries removed to make room for new entries.
+	 */
+	public long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * @return the number of entries removed because the document was written or changed.
+	 */
+	public long getInvalidations() {
+		return invalidations;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public double getHitRatio() {
+		long total = hits + misses;
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("hits: %s, misses: %s, revalidations: %s, evictions: %s, invalidations: %s, size: %s",
+				hits, misses, revalidations, evictions, invalidations, size);
+	}
+}
@@ -0,0 +1,310 @@
+package org.ektorp.impl;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+import org.ektorp.AsyncCouchDbConnector;
+import org.ektorp.CouchDbConnector;
+import org.ektorp.DocumentOperationResult;
+import org.ektorp.Options;
+import org.ektorp.ViewQuery;
+import org.ektorp.ViewResult;
+import org.ektorp.http.InFlightRequests;
+import org.ektorp.util.Assert;
+
+/**
+ * Runs the operations of a synchronous CouchDbConnector on a bounded pool of request threads.
+ *
+ * This is an executor-backed convenience, not a non-blocking transport: every operation in flight holds a pool thread
+ * that is blocked on the synchronous connector until the response has been read. The size of the pool limits the
+ * number of requests in flight, it should be aligned with the maxConnections setting of the underlying http client.
+ * Operations submitted while all threads are busy are queued and do not hold any thread or connection until they are
+ * started.
+ *
+ * A cancelled Future will not notify its callback of completion. If the operation has not started yet when it is
+ * cancelled, no request will be sent to the database. Future.cancel(true) aborts the requests that the operation has
+ * sent through a StdHttpClient, which closes their connections.
+ */
+public class ExecutorAsyncCouchDbConnector implements AsyncCouchDbConnector {
+
+    private final CouchDbConnector connector;
+    private final ExecutorService executorService;
+
+    /**
+     * @param connector
+     * @param maxConcurrentRequests
+     *            the number of requests that may be in flight at the same time.
+     */
+    public ExecutorAsyncCouchDbConnector(CouchDbConnector connector, int maxConcurrentRequests) {
+        this(connector, Executors.newFixedThreadPool(maxConcurrentRequests,
+                new RequestThreadFactory(connector != null ? connector.getDatabaseName() : null)));
+    }
+
+    /**
+     * Bring your own ExecutorService.
+     *
+     * @param connector
+     * @param executorService
+     */
+    public ExecutorAsyncCouchDbConnector(CouchDbConnector connector, ExecutorService executorService) {
+        Assert.notNull(connector, "CouchDbConnector may not be null");
+        Assert.notNull(executorService, "ExecutorService may not be null");
+        this.connector = connector;
+        this.executorService = executorService;
+    }
+
+    @Override
+    public <T> Future<T> get(Class<T> c, String id) {
+        return get(c, id, null);
+    }
+
+    @Override
+    public <T> Future<T> get(final Class<T> c, final String id, FutureCallback<T> callback) {
+        return submit(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                return connector.get(c, id);
+            }
+        }, callback);
+    }
+
+    @Override
+    public <T> Future<T> get(final Class<T> c, final String id, final Options options, FutureCallback<T> callback) {
+        return submit(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                return connector.get(c, id, options);
+            }
+        }, callback);
+    }
+
+    @Override
+    public <T> Future<T> find(Class<T> c, String id) {
+        return find(c, id, null);
+    }
+
+    @Override
+    public <T> Future<T> find(final Class<T> c, final String id, FutureCallback<T> callback) {
+        return submit(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                return connector.find(c, id);
+            }
+        }, callback);
+    }
+
+    @Override
+    public Future<Boolean> contains(final String id) {
+        return submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return connector.contains(id);
+            }
+        }, null);
+    }
+
+    @Override
+    public Future<Void> create(Object o) {
+        return create(o, null);
+    }
+
+    @Override
+    public Future<Void> create(final Object o, FutureCallback<Void> callback) {
+        Assert.notNull(o, "Document may not be null");
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                connector.create(o);
+                return null;
+            }
+        }, callback);
+    }
+
+    @Override
+    public Future<Void> update(Object o) {
+        return update(o, null);
+    }
+
+    @Override
+    public Future<Void> update(final Object o, FutureCallback<Void> callback) {
+        Assert.notNull(o, "Document cannot be null");
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                connector.update(o);
+                return null;
+            }
+        }, callback);
+    }
+
+    @Override
+    public Future<String> delete(Object o) {
+        return delete(o, null);
+    }
+
+    @Override
+    public Future<String> delete(final Object o, FutureCallback<String> callback) {
+        Assert.notNull(o, "document may not be null");
+        return submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return connector.delete(o);
+            }
+        }, callback);
+    }
+
+    @Override
+    public Future<String> delete(final String id, final String revision, FutureCallback<String> callback) {
+        return submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return connector.delete(id, revision);
+            }
+        }, callback);
+    }
+
+    @Override
+    public <T> Future<List<T>> queryView(ViewQuery query, Class<T> type) {
+        return queryView(query, type, null);
+    }
+
+    @Override
+    public <T> Future<List<T>> queryView(final ViewQuery query, final Class<T> type, FutureCallback<List<T>> callback) {
+        Assert.notNull(query, "query may not be null");
+        return submit(new Callable<List<T>>() {
+            @Override
+            public List<T> call() throws Exception {
+                return connector.queryView(query, type);
+            }
+        }, callback);
+    }
+
+    @Override
+    public Future<ViewResult> queryView(ViewQuery query) {
+        return queryView(query, (FutureCallback<ViewResult>) null);
+    }
+
+    @Override
+    public Future<ViewResult> queryView(final ViewQuery query, FutureCallback<ViewResult> callback) {
+        Assert.notNull(query, "query cannot be null");
+        return submit(new Callable<ViewResult>() {
+            @Override
+            public ViewResult call() throws Exception {
+                return connector.queryView(query);
+            }
+        }, callback);
+    }
+
+    @Override
+    public Future<List<DocumentOperationResult>> executeBulk(Collection<?> objects) {
+        return executeBulk(objects, null);
+    }
+
+    @Override
+    public Future<List<DocumentOperationResult>> executeBulk(final Collection<?> objects,
+            FutureCallback<List<DocumentOperationResult>> callback) {
+        return submit(new Callable<List<DocumentOperationResult>>() {
+            @Override
+            public List<DocumentOperationResult> call() throws Exception {
+                return connector.executeBulk(objects);
+            }
+        }, callback);
+    }
+
+    @Override
+    public CouchDbConnector getCouchDbConnector() {
+        return connector;
+    }
+
+    @Override
+    public void shutdown() {
+        executorService.shutdown();
+    }
+
+    protected <T> Future<T> submit(final Callable<T> operation, FutureCallback<T> callback) {
+        final AbortingFuture<T> future = new AbortingFuture<T>(callback);
+        try {
+            executorService.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (future.isCancelled()) {
+                        return;
+                    }
+                    InFlightRequests requests = InFlightRequests.open();
+                    try {
+                        future.started(requests);
+                        future.completed(operation.call());
+                    } catch (Exception e) {
+                        future.failed(e);
+                    } finally {
+                        requests.close();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.failed(e);
+        }
+        return future;
+    }
+
+    /**
+     * A future that aborts the requests of its operation when it is cancelled with mayInterruptIfRunning.
+     */
+    private static class AbortingFuture<T> extends BasicFuture<T> {
+
+        private InFlightRequests requests;
+        private boolean abort;
+
+        AbortingFuture(FutureCallback<T> callback) {
+            super(callback);
+        }
+
+        synchronized void started(InFlightRequests r) {
+            this.requests = r;
+            if (abort) {
+                r.abort();
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled && mayInterruptIfRunning) {
+                synchronized (this) {
+                    abort = true;
+                    if (requests != null) {
+                        requests.abort();
+                    }
+                }
+            }
+            return cancelled;
+        }
+    }
+
+    private static class RequestThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger threadCount = new AtomicInteger(0);
+        private final String dbName;
+
+        RequestThreadFactory(String dbName) {
+            this.dbName = dbName;
+        }
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r);
+            t.setDaemon(true);
+            t.setName(String.format("ektorp-%s-async-request-thread-%s", dbName, threadCount.incrementAndGet()));
+            return t;
+        }
+    }
+
+}
@@ -0,0 +1,198 @@
+package org.ektorp.impl;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+
+import org.ektorp.CloseableIterator;
+import org.ektorp.DbAccessException;
+import org.ektorp.ViewQuery;
+import org.ektorp.http.HttpResponse;
+import org.ektorp.http.StdResponseHandler;
+import org.ektorp.util.Assert;
+import org.ektorp.util.Exceptions;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Iterates over a view by requesting it in pages of pageSize rows. Each page starts at the key and document id of the
+ * last row of the previous page (startkey and startkey_docid) and skips the rows with that key and id that have already
+ * been returned, so the cost of a page request does not grow with the position in the view. A document that emits the
+ * same key more than once is paged correctly, but every page request skips all of its rows with that key that have been
+ * returned so far.
+ *
+ * At most two pages are held in memory. If an ExecutorService is provided, the next page is fetched in the background
+ * while the current page is being consumed, otherwise it is fetched when the current page is exhausted.
+ *
+ * The limit of the query, if set, limits the total number of rows returned by the iterator.
+ *
+ * @param <T>
+ */
+public class KeysetPagingViewIterator<T> implements CloseableIterator<T> {
+
+	private final ViewQuery query;
+	private final Class<T> type;
+	private final int pageSize;
+	private final ObjectMapper objectMapper;
+	private final QueryExecutor queryExecutor;
+	private final ExecutorService executorService;
+
+	private Iterator<T> currentRows;
+	private FutureTask<ViewPage<T>> nextPage;
+	private int remaining;
+	private boolean closed;
+
+	public KeysetPagingViewIterator(ViewQuery query, Class<T> type, int pageSize, ObjectMapper objectMapper,
+			QueryExecutor queryExecutor, ExecutorService executorService) {
+		Assert.notNull(query, "query may not be null");
+		Assert.notNull(type, "type may not be null");
+		Assert.isTrue(pageSize > 0, "pageSize must be greater than 0");
+		Assert.isTrue(!query.hasMultipleKeys(), "keyset paging is not supported for queries with multiple keys");
+		this.query = query;
+		this.type = type;
+		this.pageSize = pageSize;
+		this.objectMapper = objectMapper;
+		this.queryExecutor = queryExecutor;
+		this.executorService = executorService;
+		this.remaining = query.getLimit() > 0 ? query.getLimit() : Integer.MAX_VALUE;
+		// the first page is loaded in the calling thread so that errors are reported by the query call.
+		acceptPage(fetchPage(null, null, 0));
+	}
+
+	public boolean hasNext() {
+		if (closed) {
+			return false;
+		}
+		while (!currentRows.hasNext()) {
+			if (nextPage == null) {
+				close();
+				return false;
+			}
+			acceptPage(awaitNextPage());
+		}
+		return true;
+	}
+
+	public T next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException("Attempt to iterate beyond the result set");
+		}
+		remaining--;
+		return currentRows.next();
+	}
+
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	public void close() {
+		closed = true;
+		currentRows = Collections.<T>emptyList().iterator();
+		if (nextPage != null) {
+			nextPage.cancel(true);
+			nextPage = null;
+		}
+	}
+
+	private void acceptPage(ViewPage<T> page) {
+		List<T> rows = page.rows;
+		if (rows.size() > remaining) {
+			rows = rows.subList(0, remaining);
+		}
+		currentRows = rows.iterator();
+		boolean hasMore = page.hasMore && remaining > rows.size() && page.lastKey != null;
+		nextPage = hasMore ? scheduleFetch(page.lastKey, page.lastId, page.skipAfter()) : null;
+	}
+
+	private FutureTask<ViewPage<T>> scheduleFetch(final JsonNode startKey, final String startDocId, final int skip) {
+		FutureTask<ViewPage<T>> task = new FutureTask<ViewPage<T>>(new Callable<ViewPage<T>>() {
+			public ViewPage<T> call() throws Exception {
+				return fetchPage(startKey, startDocId, skip);
+			}
+		});
+		if (executorService != null) {
+			executorService.execute(task);
+		}
+		return task;
+	}
+
+	private ViewPage<T> awaitNextPage() {
+		FutureTask<ViewPage<T>> f = nextPage;
+		if (executorService == null) {
+			f.run();
+		}
+		try {
+			return f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DbAccessException(e);
+		} catch (ExecutionException e) {
+			close();
+			throw Exceptions.propagate(e.getCause());
+		}
+	}
+
+	private ViewPage<T> fetchPage(final JsonNode startKey, final String startDocId, final int skip) {
+		ViewQuery pagedQuery = query.clone();
+		if (startKey != null) {
+			pagedQuery.startKey(startKey);
+			if (startDocId != null) {
+				pagedQuery.startDocId(startDocId);
+			}
+			pagedQuery.skip(skip);
+		}
+		pagedQuery.limit(pageSize);
+		final QueryResultParser<T> parser = new QueryResultParser<T>(type, objectMapper);
+		parser.setIgnoreNotFound(query.isIgnoreNotFound());
+		return queryExecutor.executeQuery(pagedQuery, new StdResponseHandler<ViewPage<T>>() {
+			@Override
+			public ViewPage<T> success(HttpResponse hr) throws Exception {
+				parser.parseResult(hr.getContent());
+				// rows where the doc or value is null are not returned but still count when deciding if there are more
+				// pages.
+				return new ViewPage<T>(parser.getRows(), parser.getRowCount() == pageSize, parser.getLastRowKey(),
+						parser.getLastRowId(), parser.getLastRowRepeats(), startKey, startDocId, skip);
+			}
+		});
+	}
+
+	private static class ViewPage<T> {
+
+		final List<T> rows;
+		final boolean hasMore;
+		final JsonNode lastKey;
+		final String lastId;
+		final int lastRepeats;
+		final JsonNode startKey;
+		final String startId;
+		final int skip;
+
+		ViewPage(List<T> rows, boolean hasMore, JsonNode lastKey, String lastId, int lastRepeats, JsonNode startKey,
+				String startId, int skip) {
+			this.rows = rows != null ? rows : Collections.<T>emptyList();
+			this.hasMore = hasMore;
+			this.lastKey = lastKey;
+			this.lastId = lastId;
+			this.lastRepeats = lastRepeats;
+			this.startKey = startKey;
+			this.startId = startId;
+			this.skip = skip;
+		}
+
+		/**
+		 * @return the number of rows with the last key and id that have been returned up to and including this page.
+		 */
+		int skipAfter() {
+			// rows are sorted, so if the last row is at the start key and id, all rows of this page are.
+			boolean sameAsStart = lastKey.equals(startKey) && (lastId == null ? startId == null : lastId.equals(startId));
+			return sameAsStart ? skip + lastRepeats : lastRepeats;
+		}
+	}
+
+}
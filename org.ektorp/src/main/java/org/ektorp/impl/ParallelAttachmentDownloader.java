@@ -0,0 +1,629 @@
+package org.ektorp.impl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.IOUtils;
+import org.ektorp.CouchDbConnector;
+import org.ektorp.DbAccessException;
+import org.ektorp.DocumentNotFoundException;
+import org.ektorp.util.Assert;
+import org.ektorp.util.Base64;
+import org.ektorp.util.Exceptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Downloads large attachments as byte ranges that are fetched concurrently over several pooled connections.
+ *
+ * The length, digest and revision of the attachment are read from the attachment stub of the document, and all ranges
+ * are requested from that revision so that they belong to the same content. The reassembled content is verified
+ * against the MD5 digest of the stub.
+ *
+ * A download into a file is written to a .part file next to the target, and the completed ranges are recorded in a
+ * .ranges file. If a range still fails after the configured retries the download stops and both files are kept, so a
+ * later download of the same attachment into the same target only fetches the ranges that are missing. The target is
+ * replaced once all ranges have been fetched and the digest matches.
+ *
+ * A download into a WritableByteChannel writes the ranges in order and buffers at most parallelism ranges in memory.
+ *
+ * If the server ignores range requests and answers with the whole attachment, the range requests are aborted and the
+ * attachment is downloaded once, sequentially, instead.
+ *
+ * The parallelism should not exceed the max connections of the HttpClient of the connector.
+ */
+public class ParallelAttachmentDownloader {
+
+	private final static Logger LOG = LoggerFactory.getLogger(ParallelAttachmentDownloader.class);
+	private final static AtomicInteger THREAD_COUNT = new AtomicInteger();
+	private final static ObjectMapper MAPPER = new ObjectMapper();
+	private final static int BUFFER_SIZE = 64 * 1024;
+	private final static long REGION_SIZE = 16 * 1024 * 1024;
+
+	private final CouchDbConnector db;
+	private final long rangeSize;
+	private final int parallelism;
+	private final int retries;
+	private final ExecutorService executor;
+	private final ExecutorService ownExecutor;
+
+	private ParallelAttachmentDownloader(Builder b) {
+		this.db = b.db;
+		this.rangeSize = b.rangeSize;
+		this.parallelism = b.parallelism;
+		this.retries = b.retries;
+		if (b.executor != null) {
+			this.executor = b.executor;
+			this.ownExecutor = null;
+		} else {
+			this.ownExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, String.format("ektorp-attachment-download-thread-%s", THREAD_COUNT.incrementAndGet()));
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			this.executor = ownExecutor;
+		}
+	}
+
+	/**
+	 * Downloads the attachment into a file, resuming an earlier download into the same target that failed.
+	 *
+	 * @return the length of the attachment.
+	 * @throws DocumentNotFoundException if the document or the attachment was not found.
+	 * @throws DbAccessException if the digest of the downloaded content does not match.
+	 */
+	public long download(String id, String attachmentId, File target) {
+		Assert.notNull(target, "target may not be null");
+		Stub stub = stub(id, attachmentId);
+		File dir = target.getAbsoluteFile().getParentFile();
+		File part = new File(dir, target.getName() + ".part");
+		File progressFile = new File(dir, target.getName() + ".ranges");
+		try {
+			BitSet completed = loadProgress(progressFile, part, stub);
+			RandomAccessFile file = new RandomAccessFile(part, "rw");
+			boolean rangesIgnored = false;
+			try {
+				file.setLength(stub.length);
+				FileDownload download = new FileDownload(stub, file.getChannel(), progressFile, completed);
+				List<Integer> missing = new ArrayList<Integer>();
+				for (int i = 0; i < download.ranges; i++) {
+					if (!completed.get(i)) {
+						missing.add(i);
+					}
+				}
+				if (missing.size() < download.ranges) {
+					LOG.info("Resuming download of {}/{} with {} of {} ranges missing",
+							new Object[] {id, attachmentId, missing.size(), download.ranges});
+				}
+				fetchAll(download, missing);
+			} catch (RangesIgnoredException e) {
+				rangesIgnored = true;
+			} finally {
+				file.close();
+			}
+			if (rangesIgnored) {
+				// the part file is rewritten from the start, so the recorded ranges no longer hold
+				progressFile.delete();
+				fetchWhole(stub, part);
+			}
+			byte[] md5 = digest(part);
+			try {
+				verify(stub, md5);
+			} catch (DbAccessException e) {
+				part.delete();
+				progressFile.delete();
+				throw e;
+			}
+			if (target.exists() && !target.delete()) {
+				throw new IOException("Could not replace " + target);
+			}
+			if (!part.renameTo(target)) {
+				throw new IOException("Could not rename " + part + " to " + target);
+			}
+			progressFile.delete();
+			return stub.length;
+		} catch (Exception e) {
+			throw Exceptions.propagate(e);
+		}
+	}
+
+	/**
+	 * Downloads the attachment into a channel. Failed ranges are retried, but a download that fails after the
+	 * retries has to be started over as the channel cannot be rewound.
+	 *
+	 * @return the length of the attachment.
+	 * @throws DocumentNotFoundException if the document or the attachment was not found.
+	 * @throws DbAccessException if the digest of the downloaded content does not match.
+	 */
+	public long download(String id, String attachmentId, WritableByteChannel target) {
+		Assert.notNull(target, "target may not be null");
+		Stub stub = stub(id, attachmentId);
+		try {
+			ChannelDownload download = new ChannelDownload(stub, target);
+			List<Integer> all = new ArrayList<Integer>(download.ranges);
+			for (int i = 0; i < download.ranges; i++) {
+				all.add(i);
+			}
+			try {
+				fetchAll(download, all);
+			} catch (RangesIgnoredException e) {
+				download.fetchRest();
+			}
+			verify(stub, download.digest.digest());
+			return stub.length;
+		} catch (Exception e) {
+			throw Exceptions.propagate(e);
+		}
+	}
+
+	/**
+	 * Shuts down the executor if it was created by this downloader.
+	 */
+	public void shutdown() {
+		if (ownExecutor != null) {
+			ownExecutor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Keeps at most parallelism ranges in flight or buffered, and hands the completed ranges to the download on the
+	 * calling thread.
+	 */
+	private void fetchAll(final Download download, List<Integer> indices) throws Exception {
+		CompletionService<Range> completion = new ExecutorCompletionService<Range>(executor);
+		List<Future<Range>> futures = new ArrayList<Future<Range>>();
+		Iterator<Integer> next = indices.iterator();
+		int running = 0;
+		try {
+			while (running > 0 || next.hasNext()) {
+				while (running + download.buffered() < parallelism && next.hasNext()) {
+					final int index = next.next();
+					futures.add(completion.submit(new Callable<Range>() {
+						@Override
+						public Range call() throws Exception {
+							return fetch(download, index);
+						}
+					}));
+					running++;
+				}
+				Range range = completion.take().get();
+				running--;
+				download.completed(range);
+			}
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RangesIgnoredException) {
+				throw (RangesIgnoredException) e.getCause();
+			}
+			throw Exceptions.propagate(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw Exceptions.propagate(e);
+		} finally {
+			for (Future<Range> f : futures) {
+				f.cancel(true);
+			}
+		}
+	}
+
+	private Range fetch(Download download, int index) throws Exception {
+		long offset = index * rangeSize;
+		long length = Math.min(rangeSize, download.stub.length - offset);
+		for (int attempt = 0;; attempt++) {
+			InputStream in = null;
+			try {
+				in = db.getAttachment(download.stub.id, download.stub.attachmentId, download.stub.revision, offset, length);
+				if (in instanceof RangeIgnoredAttachmentInputStream) {
+					// closing the stream aborts the response
+					throw new RangesIgnoredException();
+				}
+				return download.read(index, offset, length, in);
+			} catch (Exception e) {
+				if (e instanceof RangesIgnoredException || attempt >= retries || Thread.currentThread().isInterrupted()) {
+					throw e;
+				}
+				LOG.warn("Range {} of attachment {}/{} failed, retrying: {}",
+						new Object[] {index, download.stub.id, download.stub.attachmentId, e.toString()});
+			} finally {
+				IOUtils.closeQuietly(in);
+			}
+		}
+	}
+
+	/**
+	 * Downloads the whole attachment into the part file with one request. The file is opened anew as interrupting
+	 * the cancelled range fetches may have closed the channel of the ranged download.
+	 */
+	private void fetchWhole(Stub stub, File part) throws IOException {
+		LOG.info("Range requests for {}/{} are not supported, downloading it sequentially", stub.id, stub.attachmentId);
+		InputStream in = db.getAttachment(stub.id, stub.attachmentId, stub.revision);
+		try {
+			FileOutputStream out = new FileOutputStream(part);
+			try {
+				assertComplete(IOUtils.copyLarge(in, out), stub.length, 0);
+				out.getChannel().force(false);
+			} finally {
+				out.close();
+			}
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+	}
+
+	private Stub stub(String id, String attachmentId) {
+		Assert.hasText(id, "id may not be null or empty");
+		Assert.hasText(attachmentId, "attachmentId may not be null or empty");
+		InputStream in = db.getAsStream(id);
+		try {
+			JsonNode doc = MAPPER.readTree(in);
+			JsonNode attachment = doc.path("_attachments").path(attachmentId);
+			if (!attachment.isObject()) {
+				throw new DocumentNotFoundException(id + "/" + attachmentId);
+			}
+			return new Stub(id, attachmentId, doc.path("_rev").asText(), attachment.path("length").asLong(),
+					attachment.path("digest").asText());
+		} catch (IOException e) {
+			throw Exceptions.propagate(e);
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+	}
+
+	/**
+	 * The recorded progress is only used if it belongs to the same content and range size and the part file is
+	 * still there, otherwise the download starts over.
+	 */
+	private BitSet loadProgress(File progressFile, File part, Stub stub) throws IOException {
+		BitSet completed = new BitSet();
+		if (!progressFile.exists() || !part.exists()) {
+			return completed;
+		}
+		Properties p = new Properties();
+		InputStream in = new FileInputStream(progressFile);
+		try {
+			p.load(in);
+		} finally {
+			in.close();
+		}
+		if (stub.digest.length() > 0 && stub.digest.equals(p.getProperty("digest"))
+				&& String.valueOf(stub.length).equals(p.getProperty("length"))
+				&& String.valueOf(rangeSize).equals(p.getProperty("rangeSize"))
+				&& part.length() == stub.length) {
+			for (String index : p.getProperty("completed", "").split(",")) {
+				if (index.length() > 0) {
+					completed.set(Integer.parseInt(index));
+				}
+			}
+		}
+		return completed;
+	}
+
+	private void verify(Stub stub, byte[] md5) {
+		if (!stub.digest.startsWith("md5-")) {
+			return;
+		}
+		String actual = "md5-" + Base64.encodeBytes(md5);
+		if (!actual.equals(stub.digest)) {
+			throw new DbAccessException(String.format("MD5 digest of attachment %s/%s is %s but %s was expected",
+					stub.id, stub.attachmentId, actual, stub.digest));
+		}
+	}
+
+	private byte[] digest(File file) throws Exception {
+		MessageDigest digest = MessageDigest.getInstance("MD5");
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			long size = channel.size();
+			for (long position = 0; position < size; position += REGION_SIZE) {
+				digest.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(REGION_SIZE, size - position)));
+			}
+			return digest.digest();
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void assertComplete(long read, long length, long offset) throws IOException {
+		if (read != length) {
+			throw new IOException(String.format("Range at %s ended after %s of %s bytes", offset, read, length));
+		}
+	}
+
+	/**
+	 * Signals that the server answered a range request with the whole attachment.
+	 */
+	private static class RangesIgnoredException extends IOException {
+
+		private static final long serialVersionUID = 1L;
+	}
+
+	private static class Stub {
+
+		final String id;
+		final String attachmentId;
+		final String revision;
+		final long length;
+		final String digest;
+
+		Stub(String id, String attachmentId, String revision, long length, String digest) {
+			this.id = id;
+			this.attachmentId = attachmentId;
+			this.revision = revision;
+			this.length = length;
+			this.digest = digest;
+		}
+	}
+
+	private static class Range {
+
+		final int index;
+		final byte[] data;
+
+		Range(int index, byte[] data) {
+			this.index = index;
+			this.data = data;
+		}
+	}
+
+	private abstract class Download {
+
+		final Stub stub;
+		final int ranges;
+
+		Download(Stub stub) {
+			this.stub = stub;
+			this.ranges = (int) ((stub.length + rangeSize - 1) / rangeSize);
+		}
+
+		/**
+		 * Reads a range on a worker thread.
+		 */
+		abstract Range read(int index, long offset, long length, InputStream in) throws IOException;
+
+		/**
+		 * Called on the downloading thread when a range has been read.
+		 */
+		abstract void completed(Range range) throws IOException;
+
+		/**
+		 * @return the number of ranges that have been read but are not yet written.
+		 */
+		abstract int buffered();
+	}
+
+	/**
+	 * Writes each range at its position in the part file as it arrives and records it as completed once it has been
+	 * forced to disk. The progress is written to a temporary file that replaces the .ranges file, so a crash never
+	 * leaves a truncated record behind.
+	 */
+	private class FileDownload extends Download {
+
+		final FileChannel channel;
+		final File progressFile;
+		final BitSet completed;
+
+		FileDownload(Stub stub, FileChannel channel, File progressFile, BitSet completed) {
+			super(stub);
+			this.channel = channel;
+			this.progressFile = progressFile;
+			this.completed = completed;
+		}
+
+		@Override
+		Range read(int index, long offset, long length, InputStream in) throws IOException {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			long read = 0;
+			int n;
+			while (read < length && (n = in.read(buffer, 0, (int) Math.min(buffer.length, length - read))) != -1) {
+				ByteBuffer bb = ByteBuffer.wrap(buffer, 0, n);
+				while (bb.hasRemaining()) {
+					read += channel.write(bb, offset + read);
+				}
+			}
+			assertComplete(read, length, offset);
+			return new Range(index, null);
+		}
+
+		@Override
+		void completed(Range range) throws IOException {
+			channel.force(false);
+			completed.set(range.index);
+			StringBuilder indices = new StringBuilder();
+			for (int i = completed.nextSetBit(0); i >= 0; i = completed.nextSetBit(i + 1)) {
+				if (indices.length() > 0) {
+					indices.append(',');
+				}
+				indices.append(i);
+			}
+			Properties p = new Properties();
+			p.setProperty("digest", stub.digest);
+			p.setProperty("length", String.valueOf(stub.length));
+			p.setProperty("rangeSize", String.valueOf(rangeSize));
+			p.setProperty("completed", indices.toString());
+			File tmp = new File(progressFile.getPath() + ".tmp");
+			FileOutputStream out = new FileOutputStream(tmp);
+			try {
+				p.store(out, String.format("ranges of %s/%s", stub.id, stub.attachmentId));
+				out.getChannel().force(false);
+			} finally {
+				out.close();
+			}
+			// renameTo does not replace an existing file on all platforms
+			if (!tmp.renameTo(progressFile) && !(progressFile.delete() && tmp.renameTo(progressFile))) {
+				throw new IOException("Could not rename " + tmp + " to " + progressFile);
+			}
+		}
+
+		@Override
+		int buffered() {
+			return 0;
+		}
+	}
+
+	/**
+	 * Buffers ranges that arrive out of order until the ranges before them have been written.
+	 */
+	private class ChannelDownload extends Download {
+
+		final WritableByteChannel channel;
+		final MessageDigest digest;
+		final Map<Integer, byte[]> pending = new HashMap<Integer, byte[]>();
+		int nextIndex;
+
+		ChannelDownload(Stub stub, WritableByteChannel channel) throws Exception {
+			super(stub);
+			this.channel = channel;
+			this.digest = MessageDigest.getInstance("MD5");
+		}
+
+		@Override
+		Range read(int index, long offset, long length, InputStream in) throws IOException {
+			byte[] data = new byte[(int) length];
+			int read = 0;
+			int n;
+			while (read < length && (n = in.read(data, read, data.length - read)) != -1) {
+				read += n;
+			}
+			assertComplete(read, length, offset);
+			return new Range(index, data);
+		}
+
+		@Override
+		void completed(Range range) throws IOException {
+			pending.put(range.index, range.data);
+			byte[] data;
+			while ((data = pending.remove(nextIndex)) != null) {
+				digest.update(data);
+				ByteBuffer bb = ByteBuffer.wrap(data);
+				while (bb.hasRemaining()) {
+					channel.write(bb);
+				}
+				nextIndex++;
+			}
+		}
+
+		@Override
+		int buffered() {
+			return pending.size();
+		}
+
+		/**
+		 * Downloads the whole attachment with one request and writes what has not been written yet.
+		 */
+		void fetchRest() throws IOException {
+			LOG.info("Range requests for {}/{} are not supported, downloading it sequentially", stub.id, stub.attachmentId);
+			pending.clear();
+			long written = Math.min(nextIndex * rangeSize, stub.length);
+			InputStream in = db.getAttachment(stub.id, stub.attachmentId, stub.revision);
+			try {
+				IOUtils.skipFully(in, written);
+				byte[] buffer = new byte[BUFFER_SIZE];
+				int n;
+				while ((n = in.read(buffer)) != -1) {
+					digest.update(buffer, 0, n);
+					ByteBuffer bb = ByteBuffer.wrap(buffer, 0, n);
+					while (bb.hasRemaining()) {
+						channel.write(bb);
+					}
+					written += n;
+				}
+				assertComplete(written, stub.length, 0);
+			} finally {
+				IOUtils.closeQuietly(in);
+			}
+		}
+	}
+
+	public static class Builder {
+
+		private final CouchDbConnector db;
+		private long rangeSize = 8 * 1024 * 1024;
+		private int parallelism = 4;
+		private int retries = 3;
+		private ExecutorService executor;
+
+		public Builder(CouchDbConnector db) {
+			Assert.notNull(db, "db may not be null");
+			this.db = db;
+		}
+
+		/**
+		 * The size of each range. Default is 8 MB.
+		 * @param bytes
+		 * @return
+		 */
+		public Builder rangeSize(long bytes) {
+			Assert.isTrue(bytes > 0 && bytes <= Integer.MAX_VALUE, "rangeSize must be greater than 0 and fit in an int");
+			this.rangeSize = bytes;
+			return this;
+		}
+
+		/**
+		 * The number of ranges fetched concurrently by one download. Default is 4.
+		 * @param i
+		 * @return
+		 */
+		public Builder parallelism(int i) {
+			Assert.isTrue(i > 0, "parallelism must be greater than 0");
+			this.parallelism = i;
+			return this;
+		}
+
+		/**
+		 * How many times a failed range is requested again before the download fails. Default is 3.
+		 * @param i
+		 * @return
+		 */
+		public Builder retries(int i) {
+			Assert.isTrue(i >= 0, "retries may not be negative");
+			this.retries = i;
+			return this;
+		}
+
+		/**
+		 * The executor that fetches the ranges. Default is a cached pool of daemon threads that is shut down with the
+		 * downloader.
+		 * @param e
+		 * @return
+		 */
+		public Builder executor(ExecutorService e) {
+			Assert.notNull(e, "executor may not be null");
+			this.executor = e;
+			return this;
+		}
+
+		public ParallelAttachmentDownloader build() {
+			return new ParallelAttachmentDownloader(this);
+		}
+	}
+}
@@ -1,13 +1,11 @@
 package org.ektorp.impl;
 
-import com.fasterxml.jackson.annotation.JsonAutoDetect;
-import com.fasterxml.jackson.annotation.JsonAutoDetect.Visibility;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import org.ektorp.DbAccessException;
-import org.ektorp.ViewResultException;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -21,13 +19,7 @@ import java.util.Map;
  * @author Pascal Gélinas (rewrite for issue #98)
  */
 public class QueryResultParser<T> {
-    private static final String NOT_FOUND_ERROR = "not_found";
     private static final String ROWS_FIELD_NAME = "rows";
-    private static final String VALUE_FIELD_NAME = "value";
-    private static final String ID_FIELD_NAME = "id";
-    private static final String ERROR_FIELD_NAME = "error";
-    private static final String KEY_FIELD_NAME = "key";
-    private static final String INCLUDED_DOC_FIELD_NAME = "doc";
     private static final String TOTAL_ROWS_FIELD_NAME = "total_rows";
     private static final String OFFSET_FIELD_NAME = "offset";
     private static final String UPDATE_SEQUENCE_NAME = "update_seq";
@@ -43,13 +35,18 @@ public class QueryResultParser<T> {
     private String lastId;
     private JsonNode lastKey;
 
+    private int rowCount;
+    private String lastRowId;
+    private JsonNode lastRowKey;
+    private int lastRowRepeats;
+
     private final ObjectMapper mapper;
-    private final Class<T> type;
+    private final ObjectReader reader;
     private boolean ignoreNotFound;
 
     public QueryResultParser(Class<T> type, ObjectMapper mapper) {
-        this.type = type;
         this.mapper = mapper;
+        this.reader = mapper.reader(type);
     }
 
     public void parseResult(InputStream json) throws IOException {
@@ -104,62 +101,31 @@ public class QueryResultParser<T> {
             throw new DbAccessException("Expected rows to start with an Array");
         }
 
-        // Parses the first row that isn't an error row to find out which field
-        // to use (doc or value).
-        String dataField = null;
-        while (dataField == null && jp.nextToken() == JsonToken.START_OBJECT) {
-            Row row = jp.readValueAs(Row.class);
-            if (row.error != null) {
-                if (!ignoreError(row.error)) {
-                    throw new ViewResultException(row.key, row.error);
-                }
+        ViewRowReader<T> rowReader = new ViewRowReader<T>(reader, ignoreNotFound);
+        // jp points at START_OBJECT except after the last row
+        while (jp.nextToken() != JsonToken.END_ARRAY) {
+            if (!rowReader.read(jp)) {
                 continue;
             }
-            if (row.doc != null) {
-                dataField = INCLUDED_DOC_FIELD_NAME;
-                rows.add(mapper.readValue(row.doc.traverse(jp.getCodec()), type));
+            String currentId = rowReader.getId();
+            JsonNode currentKey = rowReader.getKey();
+            T value = rowReader.getValue();
+            rowCount++;
+            if (rowCount > 1 && equal(currentId, lastRowId) && equal(currentKey, lastRowKey)) {
+                lastRowRepeats++;
             } else {
-                dataField = VALUE_FIELD_NAME;
-                rows.add(mapper.readValue(row.value.traverse(jp.getCodec()), type));
+                lastRowRepeats = 1;
             }
-            firstId = row.id;
-            firstKey = row.key;
-        }
-        // After the while, either we point at END_ARRAY but we have no
-        // dataField (all rows were error),
-        // or we point at an END_OBJECT (end of a row) and have determined which
-        // data field to use.
-        if (dataField == null)
-            return;
-
-        // Parse all the remaining rows; jp points at START_OBJECT except after
-        // the last row
-        while (jp.nextToken() != JsonToken.END_ARRAY) {
-            String currentId = null;
-            JsonNode currentKey = null;
-            String error = null;
-            T value = null;
-            // Parse the fields of a row; jp points at a value token except
-            // after the last field.
-            while (jp.nextValue() != JsonToken.END_OBJECT) {
-                String currentName = jp.getCurrentName();
-                if (ID_FIELD_NAME.equals(currentName)) {
-                    currentId = jp.getText();
-                } else if (KEY_FIELD_NAME.equals(currentName)) {
-                    currentKey = jp.readValueAsTree();
-                } else if (dataField.equals(currentName)) {
-                    value = jp.readValueAs(type);
-                } else if (ERROR_FIELD_NAME.equals(currentName)) {
-                    error = jp.getText();
-                } else {
-                    // Skip fields value that are of no interest to us.
-                    jp.skipChildren();
+            lastRowId = currentId;
+            lastRowKey = currentKey;
+            if (rowCount == 1) {
+                firstId = currentId;
+                firstKey = currentKey;
+                if (value != null) {
+                    rows.add(value);
                 }
+                continue;
             }
-            if (error != null && !ignoreError(error)) {
-                throw new ViewResultException(currentKey, error);
-            }
-            // If the current row is an error row, then value will be null
             if (value != null) {
                 lastId = currentId;
                 lastKey = currentKey;
@@ -168,10 +134,6 @@ public class QueryResultParser<T> {
         }
     }
 
-    private boolean ignoreError(String error) {
-        return ignoreNotFound && NOT_FOUND_ERROR.equals(error);
-    }
-
     public int getTotalRows() {
         return totalRows;
     }
@@ -200,6 +162,39 @@ public class QueryResultParser<T> {
         return firstKey;
     }
 
+    /**
+     * @return the number of rows read, including rows where the doc or value was null. Error rows are not counted.
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return the id of the last row read, regardless of whether its doc or value was null.
+     */
+    public String getLastRowId() {
+        return lastRowId;
+    }
+
+    /**
+     * @return the key of the last row read, regardless of whether its doc or value was null.
+     */
+    public JsonNode getLastRowKey() {
+        return lastRowKey;
+    }
+
+    /**
+     * @return the number of rows at the end of the result that have the same key and id as the last row, i.e. 1 unless a
+     *         document emitted the same key more than once.
+     */
+    public int getLastRowRepeats() {
+        return lastRowRepeats;
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
     public void setIgnoreNotFound(boolean ignoreNotFound) {
         this.ignoreNotFound = ignoreNotFound;
     }
@@ -207,13 +202,4 @@ public class QueryResultParser<T> {
     public Long getUpdateSequence() {
         return updateSequence;
     }
-
-    @JsonAutoDetect(fieldVisibility = Visibility.ANY)
-    private static class Row {
-        private String id;
-        private JsonNode key;
-        private JsonNode value;
-        private JsonNode doc;
-        private String error;
-    }
 }
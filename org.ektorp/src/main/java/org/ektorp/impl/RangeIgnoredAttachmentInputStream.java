@@ -0,0 +1,40 @@
+package org.ektorp.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.ektorp.AttachmentInputStream;
+import org.ektorp.http.HttpResponse;
+
+/**
+ * A range of an attachment cut from a response that holds the whole attachment, because the server ignored the Range
+ * header. The bytes before the range must have been skipped, reading stops at the end of the range.
+ *
+ * Closing the stream aborts the response instead of reading the rest of the attachment in order to reuse the
+ * connection, unless the range reaches the end of the attachment.
+ */
+class RangeIgnoredAttachmentInputStream extends AttachmentInputStream {
+
+	private final HttpResponse response;
+	private final boolean reachesEnd;
+
+	RangeIgnoredAttachmentInputStream(String attachmentId, HttpResponse response, InputStream content, long offset,
+			long length) {
+		super(attachmentId, new BoundedInputStream(content, length), response.getContentType(),
+				response.getContentLength() < 0 ? -1 : Math.max(0, Math.min(length, response.getContentLength() - offset)));
+		this.response = response;
+		this.reachesEnd = response.getContentLength() >= 0 && offset + length >= response.getContentLength();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (reachesEnd) {
+			super.close();
+		} else {
+			response.abort();
+			IOUtils.closeQuietly(in);
+		}
+	}
+}
@@ -1,11 +1,30 @@
 package org.ektorp.impl;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.Collections;
+
+import org.apache.commons.io.IOUtils;
 import org.apache.http.HttpEntity;
+import org.ektorp.AttachmentDigestMismatchException;
 import org.ektorp.AttachmentInputStream;
+import org.ektorp.DbAccessException;
+import org.ektorp.http.DigestingFileEntity;
 import org.ektorp.http.HttpResponse;
+import org.ektorp.http.HttpStatus;
 import org.ektorp.http.RestTemplate;
 import org.ektorp.http.URI;
+import org.ektorp.http.StdResponseHandler;
 import org.ektorp.util.Assert;
+import org.ektorp.util.Base64;
+import org.ektorp.util.Exceptions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -13,6 +32,8 @@ public class StdAttachmentCouchDbConnector implements AttachmentCouchDbConnector
 
     private static final Logger LOG = LoggerFactory.getLogger(StdCouchDbConnector.class);
 
+    private static final long TRANSFER_SIZE = 1024 * 1024;
+
     protected final URI dbURI;
 
     protected final RevisionResponseHandler revisionHandler;
@@ -79,6 +100,146 @@ public class StdAttachmentCouchDbConnector implements AttachmentCouchDbConnector
         return new AttachmentInputStream(attachmentId, r.getContent(), r.getContentType(), r.getContentLength());
     }
 
+    @Override
+    public AttachmentInputStream getAttachment(String id, String attachmentId, long offset, long length) {
+        assertDocIdHasValue(id);
+        Assert.hasText(attachmentId, "attachmentId may not be null or empty");
+        return getAttachment(attachmentId, dbURI.append(id).append(attachmentId), offset, length);
+    }
+
+    @Override
+    public AttachmentInputStream getAttachment(String id, String attachmentId, String revision, long offset, long length) {
+        assertDocIdHasValue(id);
+        Assert.hasText(attachmentId, "attachmentId may not be null or empty");
+        Assert.hasText(revision, "revision may not be null or empty");
+        return getAttachment(attachmentId, dbURI.append(id).append(attachmentId).param("rev", revision), offset, length);
+    }
+
+    /**
+     * Requests the range with a Range header. Servers that ignore the header answer with the whole attachment, in which
+     * case the bytes before the range are skipped and the stream is cut off after it. Closing such a stream aborts the
+     * response rather than reading the rest of the attachment.
+     */
+    private AttachmentInputStream getAttachment(String attachmentId, URI uri, long offset, long length) {
+        Assert.isTrue(offset >= 0, "offset may not be negative");
+        Assert.isTrue(length > 0, "length must be greater than 0");
+        LOG.trace("fetching bytes {} to {} of attachment {}", new Object[] {offset, offset + length - 1, uri});
+        HttpResponse r = restTemplate.get(uri.toString(),
+                Collections.singletonMap("Range", String.format("bytes=%s-%s", offset, offset + length - 1)));
+        if (r.getCode() == HttpStatus.PARTIAL_CONTENT) {
+            return new AttachmentInputStream(attachmentId, r.getContent(), r.getContentType(), r.getContentLength());
+        }
+        InputStream content = r.getContent();
+        try {
+            IOUtils.skipFully(content, offset);
+        } catch (IOException e) {
+            r.abort();
+            IOUtils.closeQuietly(content);
+            throw Exceptions.propagate(e);
+        }
+        return new RangeIgnoredAttachmentInputStream(attachmentId, r, content, offset, length);
+    }
+
+    /**
+     * Uploads the file through a DigestingFileEntity and verifies that the MD5 digest computed while it was sent matches
+     * the digest the database reports in the ETag of the stored attachment. A mismatch is reported with an
+     * AttachmentDigestMismatchException that carries the stored revision. If the ETag is not a base64 encoded MD5
+     * digest the upload can not be verified, which is logged as a warning.
+     */
+    @Override
+    public String createAttachment(String docId, String revision, String attachmentId, File file, String contentType) {
+        assertDocIdHasValue(docId);
+        Assert.hasText(attachmentId, "attachmentId may not be null or empty");
+        Assert.hasText(contentType, "contentType may not be null or empty");
+        DigestingFileEntity entity = new DigestingFileEntity(file, contentType);
+        String newRevision = createAttachment(docId, revision, entity, attachmentId);
+        String md5 = entity.getMd5Digest() != null ? Base64.encodeBytes(entity.getMd5Digest()) : null;
+        String stored = restTemplate.head(dbURI.append(docId).append(attachmentId).param("rev", newRevision).toString(),
+                new StdResponseHandler<String>() {
+                    @Override
+                    public String success(HttpResponse hr) throws Exception {
+                        return hr.getETag();
+                    }
+                });
+        if (md5 == null || !isMd5Digest(stored)) {
+            LOG.warn("Could not verify attachment {}/{} in rev {}, the database reported ETag {}",
+                    new Object[] {docId, attachmentId, newRevision, stored});
+        } else if (!md5.equals(stored)) {
+            throw new AttachmentDigestMismatchException(docId, attachmentId, newRevision, stored, md5);
+        }
+        return newRevision;
+    }
+
+    @Override
+    public long getAttachment(String id, String attachmentId, File target) {
+        assertDocIdHasValue(id);
+        Assert.hasText(attachmentId, "attachmentId may not be null or empty");
+        return download(dbURI.append(id).append(attachmentId), target);
+    }
+
+    @Override
+    public long getAttachment(String id, String attachmentId, String revision, File target) {
+        assertDocIdHasValue(id);
+        Assert.hasText(attachmentId, "attachmentId may not be null or empty");
+        Assert.hasText(revision, "revision may not be null or empty");
+        return download(dbURI.append(id).append(attachmentId).param("rev", revision), target);
+    }
+
+    /**
+     * Streams the attachment into a temporary file next to the target with FileChannel.transferFrom, computing its
+     * MD5 digest on the way. The temporary file replaces the target only if the digest matches the ETag.
+     */
+    private long download(URI uri, File target) {
+        Assert.notNull(target, "target may not be null");
+        File part = new File(target.getAbsoluteFile().getParentFile(), target.getName() + ".part");
+        HttpResponse r = restTemplate.get(uri.toString());
+        InputStream in = null;
+        FileOutputStream out = null;
+        boolean complete = false;
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            in = new DigestInputStream(r.getContent(), digest);
+            out = new FileOutputStream(part);
+            FileChannel channel = out.getChannel();
+            ReadableByteChannel source = Channels.newChannel(in);
+            long position = 0;
+            long transferred;
+            while ((transferred = channel.transferFrom(source, position, TRANSFER_SIZE)) > 0) {
+                position += transferred;
+            }
+            out.close();
+            String md5 = Base64.encodeBytes(digest.digest());
+            if (isMd5Digest(r.getETag()) && !md5.equals(r.getETag())) {
+                throw new DbAccessException(String.format("MD5 digest of %s is %s but %s was expected",
+                        uri, md5, r.getETag()));
+            }
+            if (target.exists() && !target.delete()) {
+                throw new IOException("Could not replace " + target);
+            }
+            if (!part.renameTo(target)) {
+                throw new IOException("Could not rename " + part + " to " + target);
+            }
+            complete = true;
+            return position;
+        } catch (Exception e) {
+            throw Exceptions.propagate(e);
+        } finally {
+            IOUtils.closeQuietly(out);
+            IOUtils.closeQuietly(in);
+            r.releaseConnection();
+            if (!complete) {
+                part.delete();
+            }
+        }
+    }
+
+    /**
+     * Attachment ETags are the base64 encoded MD5 digest of the attachment.
+     */
+    private boolean isMd5Digest(String etag) {
+        return etag != null && etag.length() == 24 && etag.endsWith("==");
+    }
+
     protected void assertDocIdHasValue(String docId) {
         Assert.hasText(docId, "document id cannot be empty");
     }
@@ -0,0 +1,269 @@
+package org.ektorp.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.http.entity.AbstractHttpEntity;
+import org.ektorp.BulkWriter;
+import org.ektorp.BulkWriterCallback;
+import org.ektorp.BulkWriterConfig;
+import org.ektorp.DbAccessException;
+import org.ektorp.DocumentOperationResult;
+import org.ektorp.http.RestTemplate;
+import org.ektorp.http.URI;
+import org.ektorp.util.Assert;
+import org.ektorp.util.Exceptions;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Documents are serialized when they are added, so that batches can be cut on their size in bytes. A batch is held in
+ * memory as the serialized documents until its request has completed, which means that the memory used by the writer
+ * is bounded by (maxBatchesInFlight + 1) * maxBytesPerBatch.
+ *
+ * This class is thread safe, although documents added concurrently will end up in batches in no particular order.
+ */
+public class StdBulkWriter implements BulkWriter {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final byte[] ALL_OR_NOTHING_PREFIX = "{\"all_or_nothing\":true,\"docs\":[".getBytes(UTF_8);
+	private static final byte[] PREFIX = "{\"docs\":[".getBytes(UTF_8);
+	private static final byte[] SUFFIX = "]}".getBytes(UTF_8);
+
+	private final String bulkDocsPath;
+	private final RestTemplate restTemplate;
+	private final ObjectMapper objectMapper;
+	private final BulkWriterConfig config;
+	private final ExecutorService executorService;
+	private final boolean ownsExecutorService;
+	private final Semaphore inFlight;
+	private final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+
+	private List<Object> documents;
+	private List<byte[]> serializedDocuments;
+	private int batchBytes;
+	private boolean closed;
+
+	public StdBulkWriter(URI dbURI, RestTemplate restTemplate, ObjectMapper objectMapper, BulkWriterConfig config) {
+		Assert.notNull(config, "BulkWriterConfig may not be null");
+		this.bulkDocsPath = dbURI.append("_bulk_docs").toString();
+		this.restTemplate = restTemplate;
+		this.objectMapper = objectMapper;
+		this.config = config;
+		this.inFlight = new Semaphore(config.getMaxBatchesInFlight());
+		if (config.getExecutorService() != null) {
+			this.executorService = config.getExecutorService();
+			this.ownsExecutorService = false;
+		} else {
+			this.executorService = Executors.newFixedThreadPool(config.getMaxBatchesInFlight(),
+					new BulkWriterThreadFactory());
+			this.ownsExecutorService = true;
+		}
+		newBatch();
+	}
+
+	@Override
+	public synchronized void add(Object o) {
+		Assert.notNull(o, "document may not be null");
+		assertOpen();
+		rethrowFailure();
+		byte[] json;
+		try {
+			json = objectMapper.writeValueAsBytes(o);
+		} catch (IOException e) {
+			throw Exceptions.propagate(e);
+		}
+		if (!documents.isEmpty() && batchBytes + json.length > config.getMaxBytesPerBatch()) {
+			submitBatch();
+		}
+		documents.add(o);
+		serializedDocuments.add(json);
+		batchBytes += json.length + 1;
+		if (documents.size() >= config.getMaxDocsPerBatch() || batchBytes >= config.getMaxBytesPerBatch()) {
+			submitBatch();
+		}
+	}
+
+	@Override
+	public synchronized void flush() {
+		assertOpen();
+		if (!documents.isEmpty()) {
+			submitBatch();
+		}
+		awaitBatchesInFlight();
+		rethrowFailure();
+	}
+
+	@Override
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+		try {
+			flush();
+		} finally {
+			closed = true;
+			if (ownsExecutorService) {
+				executorService.shutdown();
+			}
+		}
+	}
+
+	private void submitBatch() {
+		final List<Object> batch = documents;
+		final BulkEntity entity = new BulkEntity(serializedDocuments, batchBytes,
+				config.isAllOrNothing() ? ALL_OR_NOTHING_PREFIX : PREFIX);
+		newBatch();
+		try {
+			inFlight.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DbAccessException(e);
+		}
+		try {
+			executorService.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						sendBatch(batch, entity);
+					} finally {
+						inFlight.release();
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			inFlight.release();
+			throw e;
+		}
+	}
+
+	private void sendBatch(List<Object> batch, BulkEntity entity) {
+		BulkWriterCallback callback = config.getCallback();
+		List<DocumentOperationResult> errors;
+		try {
+			errors = restTemplate.post(bulkDocsPath, entity, new BulkOperationResponseHandler(batch, objectMapper));
+		} catch (Exception e) {
+			if (callback != null) {
+				callback.batchFailed(Collections.unmodifiableList(batch), e);
+			} else {
+				failure.compareAndSet(null, e);
+			}
+			return;
+		}
+		if (callback != null) {
+			callback.batchCompleted(Collections.unmodifiableList(batch), errors);
+		}
+	}
+
+	private void awaitBatchesInFlight() {
+		int permits = config.getMaxBatchesInFlight();
+		try {
+			inFlight.acquire(permits);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DbAccessException(e);
+		}
+		inFlight.release(permits);
+	}
+
+	private void newBatch() {
+		documents = new ArrayList<Object>();
+		serializedDocuments = new ArrayList<byte[]>();
+		batchBytes = 0;
+	}
+
+	private void rethrowFailure() {
+		Exception e = failure.getAndSet(null);
+		if (e != null) {
+			throw Exceptions.propagate(e);
+		}
+	}
+
+	private void assertOpen() {
+		if (closed) {
+			throw new IllegalStateException("BulkWriter has been closed");
+		}
+	}
+
+	/**
+	 * Writes the serialized documents of a batch as a _bulk_docs request body without copying them into one buffer.
+	 */
+	private static class BulkEntity extends AbstractHttpEntity {
+
+		private final List<byte[]> documents;
+		private final byte[] prefix;
+		private final long contentLength;
+
+		BulkEntity(List<byte[]> documents, int documentBytes, byte[] prefix) {
+			this.documents = documents;
+			this.prefix = prefix;
+			// documentBytes includes one separator per document, one more than needed.
+			this.contentLength = prefix.length + documentBytes - 1 + SUFFIX.length;
+			setContentType("application/json");
+		}
+
+		@Override
+		public boolean isRepeatable() {
+			return true;
+		}
+
+		@Override
+		public long getContentLength() {
+			return contentLength;
+		}
+
+		@Override
+		public InputStream getContent() throws IOException {
+			ByteArrayOutputStream out = new ByteArrayOutputStream((int) contentLength);
+			writeTo(out);
+			return new ByteArrayInputStream(out.toByteArray());
+		}
+
+		@Override
+		public void writeTo(OutputStream out) throws IOException {
+			out.write(prefix);
+			boolean first = true;
+			for (byte[] doc : documents) {
+				if (!first) {
+					out.write(',');
+				}
+				out.write(doc);
+				first = false;
+			}
+			out.write(SUFFIX);
+			out.flush();
+		}
+
+		@Override
+		public boolean isStreaming() {
+			return false;
+		}
+	}
+
+	private static class BulkWriterThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger threadCount = new AtomicInteger(0);
+
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r);
+			t.setDaemon(true);
+			t.setName(String.format("ektorp-bulk-writer-thread-%s", threadCount.incrementAndGet()));
+			return t;
+		}
+	}
+
+}
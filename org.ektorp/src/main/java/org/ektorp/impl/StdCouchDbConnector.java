@@ -8,19 +8,35 @@ import org.apache.http.HttpEntity;
 import org.ektorp.*;
 import org.ektorp.changes.ChangesCommand;
 import org.ektorp.changes.ChangesFeed;
+import org.ektorp.changes.ChangesPage;
 import org.ektorp.changes.DocumentChange;
+import org.ektorp.changes.TypedChangesFeed;
+import org.ektorp.changes.TypedDocumentChange;
 import org.ektorp.http.*;
+import org.ektorp.impl.changes.ChangeParser;
+import org.ektorp.impl.changes.ChangesFeedMultiplexer;
+import org.ektorp.impl.changes.ChangesHub;
+import org.ektorp.impl.changes.ChangesPager;
+import org.ektorp.impl.changes.ChangesSource;
 import org.ektorp.impl.changes.ContinuousChangesFeed;
-import org.ektorp.impl.changes.StdDocumentChange;
+import org.ektorp.impl.changes.StdChangeParser;
+import org.ektorp.impl.changes.StdTypedChangesFeed;
+import org.ektorp.impl.changes.TypedChangeParser;
+import org.ektorp.reactive.Publisher;
+import org.ektorp.reactive.Source;
+import org.ektorp.reactive.SourceFactory;
+import org.ektorp.reactive.SourcePublisher;
 import org.ektorp.util.Assert;
 import org.ektorp.util.Documents;
 import org.ektorp.util.Exceptions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
 
 /**
  *
@@ -55,6 +71,14 @@ public class StdCouchDbConnector implements CouchDbConnector {
 
     private AttachmentCouchDbConnector attachmentCouchDbConnector;
 
+    private AllDocsFetcher allDocsFetcher;
+
+    private ExecutorService executorService;
+
+    private volatile ChangesFeedMultiplexer changesFeedMultiplexer;
+
+    private ChangesHub changesHub;
+
     private final ObjectMapperFactory objectMapperFactory;
 
     private CouchDbConnectorResponseHandlerFactory couchDbConnectorResponseHandlerFactory;
@@ -102,6 +126,8 @@ public class StdCouchDbConnector implements CouchDbConnector {
 
         inputStreamBulkExecutor = new InputStreamWrapperBulkExecutor(dbURI, restTemplate, objectMapper);
 
+        allDocsFetcher = new AllDocsFetcher(dbURI, restTemplate, objectMapper);
+
         couchDbConnectorResponseHandlerFactory = new DefaultCouchDbConnectorResponseHandlerFactory(objectMapper);
     }
 
@@ -117,6 +143,41 @@ public class StdCouchDbConnector implements CouchDbConnector {
         this.inputStreamBulkExecutor = inputStreamBulkExecutor;
     }
 
+    /**
+     * Set the ExecutorService used for running sub requests in parallel, e.g. the chunks of a getAll call or the next
+     * page of a paged queryForIterator. If not set, sub requests are executed sequentially in the calling thread.
+     */
+    public void setExecutorService(ExecutorService executorService) {
+        this.executorService = executorService;
+        this.allDocsFetcher.setExecutorService(executorService);
+    }
+
+    /**
+     * Makes changesFeed(ChangesCommand) return feeds serviced by the multiplexer instead of feeds with a thread of
+     * their own. Use a shared multiplexer for connectors that follow the changes of many databases.
+     */
+    public void setChangesFeedMultiplexer(ChangesFeedMultiplexer changesFeedMultiplexer) {
+        this.changesFeedMultiplexer = changesFeedMultiplexer;
+    }
+
+    /**
+     * Returns the ChangesHub shared by all subscribers to the changes of this database through this connector. The
+     * hub is created on the first call.
+     */
+    public synchronized ChangesHub getChangesHub() {
+        if (changesHub == null) {
+            changesHub = new ChangesHub(this);
+        }
+        return changesHub;
+    }
+
+    /**
+     * Sets the maximum number of ids sent in a single request by getAll. Default is 200.
+     */
+    public void setMaxKeysPerRequest(int maxKeysPerRequest) {
+        this.allDocsFetcher.setMaxKeysPerRequest(maxKeysPerRequest);
+    }
+
     /**
      * Set an alternative QueryExecutor instance in order to change the executeQuery implementation as you like.
      */
@@ -210,6 +271,31 @@ public class StdCouchDbConnector implements CouchDbConnector {
         return attachmentCouchDbConnector.createAttachment(docId, revision, data);
     }
 
+    @Override
+    public String createAttachment(String docId, String revision, String attachmentId, File file, String contentType) {
+        return attachmentCouchDbConnector.createAttachment(docId, revision, attachmentId, file, contentType);
+    }
+
+    @Override
+    public long getAttachment(String id, String attachmentId, File target) {
+        return attachmentCouchDbConnector.getAttachment(id, attachmentId, target);
+    }
+
+    @Override
+    public long getAttachment(String id, String attachmentId, String revision, File target) {
+        return attachmentCouchDbConnector.getAttachment(id, attachmentId, revision, target);
+    }
+
+    @Override
+    public AttachmentInputStream getAttachment(String id, String attachmentId, long offset, long length) {
+        return attachmentCouchDbConnector.getAttachment(id, attachmentId, offset, length);
+    }
+
+    @Override
+    public AttachmentInputStream getAttachment(String id, String attachmentId, String revision, long offset, long length) {
+        return attachmentCouchDbConnector.getAttachment(id, attachmentId, revision, offset, length);
+    }
+
     @Override
     public String createAttachment(String docId, HttpEntity attachmentEntity, String attachmentName) {
         return attachmentCouchDbConnector.createAttachment(docId, attachmentEntity, attachmentName);
@@ -247,6 +333,11 @@ public class StdCouchDbConnector implements CouchDbConnector {
         return restTemplate.get(uri.toString(), responseCallback);
     }
 
+    @Override
+    public <T> BulkGetResult<T> getAll(Class<T> c, Collection<String> ids) {
+        return allDocsFetcher.fetch(c, ids);
+    }
+
     @Override
     public <T> T get(final Class<T> c, String id, String rev) {
         Assert.notNull(c, "Class may not be null");
@@ -452,6 +543,48 @@ public class StdCouchDbConnector implements CouchDbConnector {
         return new StreamingViewResult(objectMapper, queryForHttpResponse(query), query.isIgnoreNotFound());
     }
 
+    @Override
+    public <T> TypedStreamingViewResult<T> queryForStreamingView(ViewQuery query, Class<T> type) {
+        Assert.notNull(type, "type cannot be null");
+        return new TypedStreamingViewResult<T>(objectMapper, queryForHttpResponse(query), type,
+                query.isIgnoreNotFound());
+    }
+
+    @Override
+    public <T> CloseableIterator<T> queryForIterator(ViewQuery query, Class<T> type) {
+        return new StreamingViewIterator<T>(queryForStreamingView(query, type));
+    }
+
+    @Override
+    public <T> Publisher<T> queryForPublisher(final ViewQuery query, final Class<T> type) {
+        Assert.notNull(query, "query may not be null");
+        Assert.notNull(type, "type cannot be null");
+        return new SourcePublisher<T>(new SourceFactory<T>() {
+            @Override
+            public Source<T> open() {
+                final CloseableIterator<T> rows = queryForIterator(query, type);
+                return new Source<T>() {
+                    @Override
+                    public T read() {
+                        return rows.hasNext() ? rows.next() : null;
+                    }
+
+                    @Override
+                    public void close() {
+                        rows.close();
+                    }
+                };
+            }
+        });
+    }
+
+    @Override
+    public <T> CloseableIterator<T> queryForIterator(ViewQuery query, Class<T> type, int pageSize) {
+        Assert.notNull(query, "query may not be null");
+        query.dbPath(dbURI.toString());
+        return new KeysetPagingViewIterator<T>(query, type, pageSize, objectMapper, queryExecutor, executorService);
+    }
+
     @Override
     public InputStream queryForStream(ViewQuery query) {
         return queryForHttpResponse(query).getContent();
@@ -640,6 +773,11 @@ public class StdCouchDbConnector implements CouchDbConnector {
 		return collectionBulkExecutor.executeBulk(objects, allOrNothing);
 	}
 
+    @Override
+    public BulkWriter createBulkWriter(BulkWriterConfig config) {
+        return new StdBulkWriter(dbURI, restTemplate, objectMapper, config);
+    }
+
     @Override
     public int getRevisionLimit() {
         return restTemplate.get(dbURI.append("_revs_limit").toString(),
@@ -659,11 +797,23 @@ public class StdCouchDbConnector implements CouchDbConnector {
     }
 
     private InputStream fetchChangesAsStream(ChangesCommand cmd) {
-        HttpResponse r = restTemplate.get(dbURI.append(cmd.toString())
-                .toString());
+        HttpResponse r = requestChanges(cmd);
         return r.getContent();
     }
 
+    /**
+     * Commands with a selector or doc ids are sent as POST requests, as the body may be too large for a query string.
+     */
+    private HttpResponse requestChanges(ChangesCommand cmd) {
+        String path = dbURI.append(cmd.toString()).toString();
+        return cmd.hasBody() ? restTemplate.post(path, cmd.getBodyAsJson(objectMapper)) : restTemplate.get(path);
+    }
+
+    private HttpResponse requestChangesUncached(ChangesCommand cmd) {
+        String path = dbURI.append(cmd.toString()).toString();
+        return cmd.hasBody() ? restTemplate.postUncached(path, cmd.getBodyAsJson(objectMapper)) : restTemplate.getUncached(path);
+    }
+
     @Override
     public List<DocumentChange> changes(ChangesCommand cmd) {
         if (cmd.continuous) {
@@ -675,17 +825,36 @@ public class StdCouchDbConnector implements CouchDbConnector {
                 .continuous(false).build();
 
         List<DocumentChange> changes = new ArrayList<DocumentChange>();
+        StreamingChangesResult result = new StreamingChangesResult(objectMapper, requestChanges(actualCmd));
         try {
-            JsonNode node = objectMapper.readTree(fetchChangesAsStream(actualCmd));
-            JsonNode results = node.findPath("results");
-
-            for (JsonNode change : results) {
-                changes.add(new StdDocumentChange(change));
+            for (DocumentChange change : result) {
+                changes.add(change);
             }
+        } finally {
+            result.close();
+        }
+        return changes;
+    }
+
+    @Override
+    public <T> List<TypedDocumentChange<T>> changes(ChangesCommand cmd, Class<T> docType) {
+        if (cmd.continuous) {
+            throw new IllegalArgumentException(
+                    "ChangesCommand may not declare continous = true while calling changes");
+        }
+        Assert.notNull(docType, "docType may not be null");
+
+        ChangesCommand actualCmd = new ChangesCommand.Builder().merge(cmd)
+                .continuous(false).build();
+
+        InputStream json = fetchChangesAsStream(actualCmd);
+        try {
+            return new TypedChangeParser<T>(objectMapper, docType).parseResults(json);
         } catch (IOException e) {
             throw Exceptions.propagate(e);
+        } finally {
+            IOUtils.closeQuietly(json);
         }
-        return changes;
     }
 
     @Override
@@ -698,24 +867,60 @@ public class StdCouchDbConnector implements CouchDbConnector {
         ChangesCommand actualCmd = new ChangesCommand.Builder().merge(cmd)
                 .continuous(false).build();
 
-        HttpResponse response = restTemplate.get(dbURI.append(actualCmd.toString())
-                .toString());
+        HttpResponse response = requestChanges(actualCmd);
 
         return new StreamingChangesResult(objectMapper, response);
     }
 
+    @Override
+    public Iterator<ChangesPage> changesInPages(ChangesCommand cmd, int pageSize) {
+        return new ChangesPager(this, cmd, pageSize);
+    }
+
     @Override
     public ChangesFeed changesFeed(ChangesCommand cmd) {
+        if (changesFeedMultiplexer != null) {
+            return changesFeedMultiplexer.open(this, cmd);
+        }
+        return continuousChangesFeed(cmd, new StdChangeParser(objectMapper));
+    }
+
+    @Override
+    public <T> TypedChangesFeed<T> changesFeed(ChangesCommand cmd, Class<T> docType) {
+        Assert.notNull(docType, "docType may not be null");
+        if (changesFeedMultiplexer != null) {
+            return changesFeedMultiplexer.open(this, cmd, new TypedChangeParser<T>(objectMapper, docType));
+        }
+        return new StdTypedChangesFeed<T>(continuousChangesFeed(cmd, new TypedChangeParser<T>(objectMapper, docType)));
+    }
+
+    private ChangesFeed continuousChangesFeed(ChangesCommand cmd, ChangeParser parser) {
+        ChangesCommand actualCmd = continuousChangesCommand(cmd);
+
+        return new ContinuousChangesFeed(dbName, requestChangesUncached(actualCmd),
+                actualCmd.queueCapacity, actualCmd.overflowPolicy, parser);
+    }
+
+    private ChangesCommand continuousChangesCommand(ChangesCommand cmd) {
         int heartbeat = cmd.heartbeat > 0 ? cmd.heartbeat
                 : DEFAULT_HEARTBEAT_INTERVAL;
 
         String since = cmd.since != null ? cmd.since : getDbInfo().getUpdateSeqAsString();
 
-        ChangesCommand actualCmd = new ChangesCommand.Builder().merge(cmd)
+        return new ChangesCommand.Builder().merge(cmd)
                 .continuous(true).heartbeat(heartbeat).since(since).build();
+    }
 
-        return new ContinuousChangesFeed(dbName,
-                restTemplate.getUncached(dbURI.append(actualCmd.toString()).toString()));
+    @Override
+    public Publisher<DocumentChange> changesPublisher(final ChangesCommand cmd) {
+        Assert.notNull(cmd, "cmd may not be null");
+        return new SourcePublisher<DocumentChange>(new SourceFactory<DocumentChange>() {
+            @Override
+            public Source<DocumentChange> open() {
+                ChangesCommand actualCmd = continuousChangesCommand(cmd);
+                return new ChangesSource(requestChangesUncached(actualCmd), new StdChangeParser(objectMapper));
+            }
+        });
     }
 
     @Override
@@ -0,0 +1,53 @@
+package org.ektorp.impl;
+
+import java.util.Iterator;
+
+import org.ektorp.CloseableIterator;
+import org.ektorp.TypedStreamingViewResult;
+
+/**
+ * Iterates over a TypedStreamingViewResult. The connection is released when the iterator is exhausted. If the
+ * iterator is closed before that, the request is aborted so that the remainder of the response is not read.
+ *
+ * @param <T>
+ */
+public class StreamingViewIterator<T> implements CloseableIterator<T> {
+
+	private final TypedStreamingViewResult<T> result;
+	private final Iterator<T> iterator;
+	private boolean closed;
+
+	public StreamingViewIterator(TypedStreamingViewResult<T> result) {
+		this.result = result;
+		this.iterator = result.iterator();
+	}
+
+	public boolean hasNext() {
+		if (closed) {
+			return false;
+		}
+		if (!iterator.hasNext()) {
+			// the result releases the connection when the end of the rows has been reached.
+			closed = true;
+			return false;
+		}
+		return true;
+	}
+
+	public T next() {
+		return iterator.next();
+	}
+
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	public void close() {
+		if (!closed) {
+			closed = true;
+			result.abort();
+			result.close();
+		}
+	}
+
+}
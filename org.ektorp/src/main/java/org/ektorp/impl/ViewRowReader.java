@@ -0,0 +1,127 @@
+package org.ektorp.impl;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import org.ektorp.ViewResultException;
+
+/**
+ * Binds the rows of a view result to a type, one row at a time, for QueryResultParser and TypedStreamingViewResult.
+ *
+ * The data field (doc or value) is decided by the first row that isn't an error row. Until then a value is buffered
+ * as tokens, as a doc later in the same row takes precedence. A null doc (deleted document in an include_docs query)
+ * still means that docs are to be used.
+ *
+ * Error rows throw a ViewResultException, except not_found errors when ignoreNotFound is set, which are skipped.
+ *
+ * @param <T>
+ */
+public class ViewRowReader<T> {
+
+	private static final String NOT_FOUND_ERROR = "not_found";
+	private static final String ID_FIELD_NAME = "id";
+	private static final String KEY_FIELD_NAME = "key";
+	private static final String VALUE_FIELD_NAME = "value";
+	private static final String INCLUDED_DOC_FIELD_NAME = "doc";
+	private static final String ERROR_FIELD_NAME = "error";
+
+	private final ObjectReader reader;
+	private final boolean ignoreNotFound;
+	private String dataField;
+
+	private String id;
+	private JsonNode key;
+	private T value;
+
+	public ViewRowReader(ObjectReader reader, boolean ignoreNotFound) {
+		this.reader = reader;
+		this.ignoreNotFound = ignoreNotFound;
+	}
+
+	/**
+	 * Reads one row. The parser must be positioned at the START_OBJECT token of the row and is left at the
+	 * corresponding END_OBJECT token.
+	 *
+	 * @param jp
+	 * @return false if the row was an error row that is ignored.
+	 * @throws IOException
+	 * @throws ViewResultException if the row was an error row that is not ignored.
+	 */
+	public boolean read(JsonParser jp) throws IOException {
+		String currentId = null;
+		JsonNode currentKey = null;
+		String error = null;
+		T currentValue = null;
+		TokenBuffer bufferedValue = null;
+		boolean docFound = false;
+		// jp points at a value token except after the last field.
+		while (jp.nextValue() != JsonToken.END_OBJECT) {
+			String currentName = jp.getCurrentName();
+			if (ID_FIELD_NAME.equals(currentName)) {
+				currentId = jp.getText();
+			} else if (KEY_FIELD_NAME.equals(currentName)) {
+				currentKey = jp.readValueAsTree();
+			} else if (ERROR_FIELD_NAME.equals(currentName)) {
+				error = jp.getText();
+			} else if (dataField != null) {
+				if (dataField.equals(currentName)) {
+					currentValue = reader.readValue(jp);
+				} else {
+					jp.skipChildren();
+				}
+			} else if (INCLUDED_DOC_FIELD_NAME.equals(currentName)) {
+				currentValue = reader.readValue(jp);
+				docFound = true;
+				bufferedValue = null;
+			} else if (VALUE_FIELD_NAME.equals(currentName) && !docFound) {
+				bufferedValue = new TokenBuffer(jp);
+				bufferedValue.copyCurrentStructure(jp);
+			} else {
+				// Skip fields value that are of no interest to us.
+				jp.skipChildren();
+			}
+		}
+		if (error != null) {
+			if (ignoreNotFound && NOT_FOUND_ERROR.equals(error)) {
+				return false;
+			}
+			throw new ViewResultException(currentKey, error);
+		}
+		if (dataField == null) {
+			dataField = docFound ? INCLUDED_DOC_FIELD_NAME : VALUE_FIELD_NAME;
+			if (bufferedValue != null) {
+				currentValue = reader.readValue(bufferedValue.asParser());
+			}
+		}
+		id = currentId;
+		key = currentKey;
+		value = currentValue;
+		return true;
+	}
+
+	/**
+	 * @return the id of the row most recently read.
+	 */
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * @return the key of the row most recently read.
+	 */
+	public JsonNode getKey() {
+		return key;
+	}
+
+	/**
+	 * @return the doc or value of the row most recently read, null if it was null in the row.
+	 */
+	public T getValue() {
+		return value;
+	}
+
+}
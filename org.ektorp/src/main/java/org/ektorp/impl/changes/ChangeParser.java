@@ -0,0 +1,14 @@
+package org.ektorp.impl.changes;
+
+import java.io.IOException;
+
+import org.ektorp.changes.DocumentChange;
+
+/**
+ * Creates DocumentChanges from the JSON lines of a changes feed.
+ */
+public interface ChangeParser {
+
+	DocumentChange parse(String json) throws IOException;
+
+}
@@ -0,0 +1,504 @@
+package org.ektorp.impl.changes;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.io.IOUtils;
+import org.ektorp.changes.DocumentChange;
+import org.ektorp.changes.OverflowPolicy;
+import org.ektorp.util.Assert;
+import org.ektorp.util.Exceptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * The queue between the thread reading a changes feed and its consumers.
+ *
+ * A bounded ring buffer guarded by a single lock, so enqueueing does not allocate and drainTo moves any number of
+ * changes in one lock round trip. What happens when the buffer is full is decided by the OverflowPolicy.
+ *
+ * Once closed, consumers may take the remaining changes, including those spilled to disk, after which they get an
+ * InterruptedException. The spill file is deleted when it has been drained or when the queue is cancelled.
+ *
+ * Spilled changes are written through a buffered writer while the lock is held, so the producer only waits for the
+ * disk when the write buffer is flushed. They are read back by a consumer in blocks of at least half the capacity
+ * once the buffer is half empty, without holding the lock, so the producer and the other consumers are not blocked
+ * while the spill file is read.
+ */
+public class ChangeQueue {
+
+	private final static Logger LOG = LoggerFactory.getLogger(ChangeQueue.class);
+	private final static ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+	private final static int WRITE_BUFFER_SIZE = 64 * 1024;
+
+	private final DocumentChange[] items;
+	private final OverflowPolicy policy;
+	private final ChangeParser parser;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private final Condition notFull = lock.newCondition();
+
+	private int head;
+	private int count;
+	private boolean closed;
+	private long dropped;
+	// while non null the buffer is full and newer changes are in the spill file
+	private SpillFile spill;
+	private boolean refilling;
+
+	public ChangeQueue(int capacity, OverflowPolicy policy) {
+		this(capacity, policy, new StdChangeParser(OBJECT_MAPPER));
+	}
+
+	/**
+	 * @param parser reads changes spilled to disk back, so that they are of the same type as the changes put.
+	 */
+	public ChangeQueue(int capacity, OverflowPolicy policy, ChangeParser parser) {
+		Assert.isTrue(capacity > 0, "capacity must be greater than 0");
+		Assert.notNull(policy, "policy may not be null");
+		Assert.notNull(parser, "parser may not be null");
+		this.items = new DocumentChange[capacity];
+		this.policy = policy;
+		this.parser = parser;
+	}
+
+	/**
+	 * Adds the change according to the overflow policy, waiting for room if the policy is BLOCK.
+	 * @return false if the queue has been closed.
+	 * @throws InterruptedException
+	 */
+	public boolean put(DocumentChange change) throws InterruptedException {
+		Assert.notNull(change, "change may not be null");
+		lock.lockInterruptibly();
+		try {
+			if (policy == OverflowPolicy.BLOCK) {
+				while (count == items.length && !closed) {
+					notFull.await();
+				}
+			}
+			return add(change);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Adds the change according to the overflow policy without waiting.
+	 * @return false if the queue has been closed, or is full and the policy is BLOCK.
+	 */
+	public boolean offer(DocumentChange change) {
+		Assert.notNull(change, "change may not be null");
+		lock.lock();
+		try {
+			if (policy == OverflowPolicy.BLOCK && count == items.length) {
+				return false;
+			}
+			return add(change);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private boolean add(DocumentChange change) {
+		if (closed) {
+			return false;
+		}
+		if (count == items.length) {
+			if (policy == OverflowPolicy.DROP_OLDEST) {
+				dequeue();
+				dropped++;
+			} else {
+				spill(change);
+				return true;
+			}
+		} else if (spill != null) {
+			spill(change);
+			return true;
+		}
+		items[(head + count) % items.length] = change;
+		count++;
+		notEmpty.signal();
+		return true;
+	}
+
+	/**
+	 * Retrieves and removes the head of the queue, waiting until a change becomes available.
+	 * @throws InterruptedException when the queue is closed and empty.
+	 */
+	public DocumentChange take() throws InterruptedException {
+		lockWhenNotEmpty(Long.MAX_VALUE);
+		try {
+			return next();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the head of the queue, null if the queue is empty.
+	 * @throws InterruptedException when the queue is closed and empty.
+	 */
+	public DocumentChange poll() throws InterruptedException {
+		if (!lockWhenNotEmpty(0)) {
+			return null;
+		}
+		try {
+			return next();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the head of the queue, null if no change became available within the wait time.
+	 * @throws InterruptedException when the queue is closed and empty.
+	 */
+	public DocumentChange poll(long timeout, TimeUnit unit) throws InterruptedException {
+		if (!lockWhenNotEmpty(unit.toNanos(timeout))) {
+			return null;
+		}
+		try {
+			return next();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Moves up to max changes to the target collection, waiting up to the specified time for the first change.
+	 * @return the number of changes moved
+	 * @throws InterruptedException when the queue is closed and empty.
+	 */
+	public int drainTo(Collection<? super DocumentChange> target, int max, long timeout, TimeUnit unit) throws InterruptedException {
+		Assert.isTrue(max > 0, "max must be greater than 0");
+		if (!lockWhenNotEmpty(unit.toNanos(timeout))) {
+			return 0;
+		}
+		int n = 0;
+		try {
+			if (count == 0) {
+				throw new InterruptedException();
+			}
+			while (n < max && count > 0) {
+				target.add(dequeue());
+				n++;
+			}
+		} finally {
+			lock.unlock();
+		}
+		// continue with changes read back from the spill file, if any
+		while (n < max && lockWhenNotEmpty(0)) {
+			try {
+				if (count == 0) {
+					break;
+				}
+				while (n < max && count > 0) {
+					target.add(dequeue());
+					n++;
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Acquires the lock when a change is available in the buffer or when the queue is closed and empty. Changes
+	 * spilled to disk are read back when the buffer runs low, unless another consumer is already doing so.
+	 *
+	 * @return true if the lock is held, false on timeout.
+	 */
+	private boolean lockWhenNotEmpty(long nanos) throws InterruptedException {
+		while (true) {
+			refill();
+			lock.lockInterruptibly();
+			boolean locked = false;
+			try {
+				while (count == 0 && !isDrained() && (spill == null || refilling)) {
+					if (nanos <= 0) {
+						return false;
+					}
+					nanos = notEmpty.awaitNanos(nanos);
+				}
+				if (count > 0 || isDrained()) {
+					locked = true;
+					return true;
+				}
+				// the buffer is empty and spilled changes can be read back
+			} finally {
+				if (!locked) {
+					lock.unlock();
+				}
+			}
+		}
+	}
+
+	private boolean isDrained() {
+		return closed && spill == null;
+	}
+
+	private DocumentChange next() throws InterruptedException {
+		if (count == 0) {
+			throw new InterruptedException();
+		}
+		return dequeue();
+	}
+
+	private DocumentChange dequeue() {
+		DocumentChange c = items[head];
+		items[head] = null;
+		head = (head + 1) % items.length;
+		count--;
+		notFull.signal();
+		return c;
+	}
+
+	/**
+	 * Reads a block of spilled changes back into the buffer if it is at most half full. The file is read without
+	 * holding the lock. While the spill file exists the producer only appends to it, so the room in the buffer can
+	 * only grow until the block is added.
+	 */
+	private void refill() throws InterruptedException {
+		SpillFile s;
+		int n;
+		lock.lockInterruptibly();
+		try {
+			if (spill == null || refilling || count > items.length / 2) {
+				return;
+			}
+			s = spill;
+			n = (int) Math.min(items.length - count, s.size());
+			refilling = true;
+		} finally {
+			lock.unlock();
+		}
+		List<DocumentChange> block = null;
+		RuntimeException failure = null;
+		try {
+			block = s.read(n);
+		} catch (RuntimeException e) {
+			failure = e;
+		}
+		lock.lock();
+		try {
+			refilling = false;
+			notEmpty.signalAll();
+			if (spill != s) {
+				// the queue was cancelled while the block was read
+				return;
+			}
+			if (failure != null) {
+				throw failure;
+			}
+			for (DocumentChange c : block) {
+				items[(head + count) % items.length] = c;
+				count++;
+			}
+			s.consumed += block.size();
+			if (s.isEmpty()) {
+				s.delete();
+				spill = null;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void spill(DocumentChange change) {
+		try {
+			if (spill == null) {
+				spill = new SpillFile();
+				LOG.info("Changes feed consumer is behind, spilling changes to {}", spill.file);
+			}
+			spill.write(change);
+		} catch (IOException e) {
+			throw Exceptions.propagate(e);
+		}
+	}
+
+	/**
+	 * Closes the queue. Waiting producers and consumers are woken up. Changes already queued, including those spilled
+	 * to disk, can still be taken.
+	 */
+	public void close() {
+		lock.lock();
+		try {
+			closed = true;
+			notEmpty.signalAll();
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Closes the queue and discards the changes spilled to disk.
+	 */
+	public void cancel() {
+		lock.lock();
+		try {
+			closed = true;
+			if (spill != null) {
+				spill.delete();
+				spill = null;
+			}
+			notEmpty.signalAll();
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public boolean isClosed() {
+		lock.lock();
+		try {
+			return closed;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the number of queued changes, including changes spilled to disk.
+	 */
+	public int size() {
+		lock.lock();
+		try {
+			return count + (spill != null ? (int) spill.size() : 0);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the number of changes that can be added to the buffer before the overflow policy applies.
+	 */
+	public int remainingCapacity() {
+		lock.lock();
+		try {
+			return items.length - count;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getCapacity() {
+		return items.length;
+	}
+
+	/**
+	 * @return the number of changes discarded by the DROP_OLDEST policy.
+	 */
+	public long getDroppedCount() {
+		lock.lock();
+		try {
+			return dropped;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	static String encode(DocumentChange change) {
+		if (change instanceof StdDocumentChange) {
+			return change.toString();
+		}
+		ObjectNode node = OBJECT_MAPPER.createObjectNode();
+		if (change.getStringSequence() != null) {
+			node.put("seq", change.getStringSequence());
+		} else {
+			node.put("seq", change.getSequence());
+		}
+		node.put("id", change.getId());
+		ArrayNode revs = node.putArray("changes");
+		for (String rev : change.getRevisions()) {
+			revs.addObject().put("rev", rev);
+		}
+		if (change.isDeleted()) {
+			node.put("deleted", true);
+		}
+		JsonNode doc = change.getDocAsNode();
+		if (doc != null && !doc.isMissingNode()) {
+			node.put("doc", doc);
+		}
+		return node.toString();
+	}
+
+	DocumentChange decode(String line) throws IOException {
+		return parser.parse(line);
+	}
+
+	private class SpillFile {
+
+		private final File file;
+		private final BufferedWriter writer;
+		private BufferedReader reader;
+		// both counts are only changed while the lock is held
+		private long written;
+		private long consumed;
+
+		SpillFile() throws IOException {
+			file = File.createTempFile("ektorp-changes-", ".spill");
+			writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"), WRITE_BUFFER_SIZE);
+		}
+
+		void write(DocumentChange change) throws IOException {
+			writer.write(encode(change));
+			writer.newLine();
+			written++;
+		}
+
+		/**
+		 * Reads the next n changes. Only called by the consumer that is refilling the buffer, without the lock.
+		 */
+		List<DocumentChange> read(int n) {
+			try {
+				// the writer synchronizes with the producer
+				writer.flush();
+				if (reader == null) {
+					reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+				}
+				List<DocumentChange> block = new ArrayList<DocumentChange>(n);
+				for (int i = 0; i < n; i++) {
+					block.add(decode(reader.readLine()));
+				}
+				return block;
+			} catch (IOException e) {
+				throw Exceptions.propagate(e);
+			}
+		}
+
+		long size() {
+			return written - consumed;
+		}
+
+		boolean isEmpty() {
+			return written == consumed;
+		}
+
+		void delete() {
+			IOUtils.closeQuietly(writer);
+			IOUtils.closeQuietly(reader);
+			if (!file.delete()) {
+				LOG.warn("Could not delete changes spill file {}", file);
+			}
+		}
+	}
+}
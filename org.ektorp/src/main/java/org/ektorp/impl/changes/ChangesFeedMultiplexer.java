@@ -0,0 +1,263 @@
+package org.ektorp.impl.changes;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.ektorp.CouchDbConnector;
+import org.ektorp.DocumentNotFoundException;
+import org.ektorp.changes.ChangesCommand;
+import org.ektorp.changes.ChangesFeed;
+import org.ektorp.changes.DocumentChange;
+import org.ektorp.changes.TypedChangesFeed;
+import org.ektorp.impl.StdObjectMapperFactory;
+import org.ektorp.util.Assert;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Services many changes feeds from a small, fixed number of worker threads.
+ *
+ * A ContinuousChangesFeed holds a thread blocked on its connection for as long as it is open. The feeds of a
+ * multiplexer instead poll the _changes resource (feed=normal) from the last seen sequence, so a worker is only busy
+ * while a poll is in progress. A feed that returned changes is polled again right away, an idle feed backs off from
+ * minPollInterval up to maxPollInterval. The trade off is latency: an idle feed may see a new change up to
+ * maxPollInterval after it was made.
+ *
+ * A worker polls its feeds one at a time, so a slow poll, e.g. a filtered feed on a large database or a server that
+ * is slow to respond, delays every other feed serviced by the same worker until the request completes or times out.
+ *
+ * Feeds are assigned to the worker that services the fewest feeds when they are opened. A StdCouchDbConnector returns
+ * multiplexed feeds from changesFeed(ChangesCommand) when a multiplexer has been set with setChangesFeedMultiplexer.
+ */
+public class ChangesFeedMultiplexer {
+
+	private final static Logger LOG = LoggerFactory.getLogger(ChangesFeedMultiplexer.class);
+	private final static AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+	private final List<Worker> workers;
+	private final long minPollIntervalMillis;
+	private final long maxPollIntervalMillis;
+	private volatile boolean shutdown;
+
+	private ChangesFeedMultiplexer(Builder b) {
+		this.minPollIntervalMillis = b.minPollIntervalMillis;
+		this.maxPollIntervalMillis = b.maxPollIntervalMillis;
+		this.workers = new ArrayList<Worker>(b.workers);
+		for (int i = 0; i < b.workers; i++) {
+			Worker w = new Worker();
+			w.setDaemon(true);
+			w.setName(String.format("ektorp-changes-multiplexer-thread-%s", THREAD_COUNT.incrementAndGet()));
+			workers.add(w);
+			w.start();
+		}
+	}
+
+	/**
+	 * Opens a feed on the database. The current update sequence of the database is used if the command does not
+	 * specify since, or specifies "now". Its limit is the total number of changes delivered before the feed ends.
+	 *
+	 * The queue capacity of the command is also the maximum number of changes fetched per poll. Its overflow policy
+	 * does not apply, as a feed is not polled while its queue is full.
+	 *
+	 * @param db
+	 * @param cmd
+	 * @return a running changes feed serviced by this multiplexer.
+	 */
+	public ChangesFeed open(CouchDbConnector db, ChangesCommand cmd) {
+		return openFeed(db, cmd, null);
+	}
+
+	/**
+	 * Opens a feed that binds the included documents to the specified type.
+	 *
+	 * @see #open(CouchDbConnector, ChangesCommand)
+	 * @param db
+	 * @param cmd
+	 * @param docType
+	 * @return a running changes feed serviced by this multiplexer.
+	 */
+	public <T> TypedChangesFeed<T> open(CouchDbConnector db, ChangesCommand cmd, Class<T> docType) {
+		Assert.notNull(docType, "docType may not be null");
+		return open(db, cmd, new TypedChangeParser<T>(new StdObjectMapperFactory().createObjectMapper(), docType));
+	}
+
+	/**
+	 * Opens a feed that binds the included documents with the specified parser, e.g. one that uses the ObjectMapper
+	 * of the connector.
+	 *
+	 * @see #open(CouchDbConnector, ChangesCommand)
+	 * @param db
+	 * @param cmd
+	 * @param parser
+	 * @return a running changes feed serviced by this multiplexer.
+	 */
+	public <T> TypedChangesFeed<T> open(CouchDbConnector db, ChangesCommand cmd, TypedChangeParser<T> parser) {
+		Assert.notNull(parser, "parser may not be null");
+		return new StdTypedChangesFeed<T>(openFeed(db, cmd, parser));
+	}
+
+	private ChangesFeed openFeed(CouchDbConnector db, ChangesCommand cmd, TypedChangeParser<?> parser) {
+		Assert.notNull(db, "db may not be null");
+		Assert.notNull(cmd, "cmd may not be null");
+		if (shutdown) {
+			throw new IllegalStateException("multiplexer has been shut down");
+		}
+		String since = cmd.since != null && !"now".equals(cmd.since) ? cmd.since : db.getDbInfo().getUpdateSeqAsString();
+		ChangesCommand pollCmd = new ChangesCommand.Builder().merge(cmd).continuous(false).since(since).build();
+		Worker w = leastLoadedWorker();
+		MultiplexedChangesFeed feed = new MultiplexedChangesFeed(db, pollCmd, parser, w);
+		w.add(feed);
+		return feed;
+	}
+
+	/**
+	 * @return the number of open feeds serviced by each worker.
+	 */
+	public int[] getFeedsPerWorker() {
+		int[] result = new int[workers.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = workers.get(i).feedCount.get();
+		}
+		return result;
+	}
+
+	/**
+	 * @return the total number of open feeds.
+	 */
+	public int getFeedCount() {
+		int count = 0;
+		for (Worker w : workers) {
+			count += w.feedCount.get();
+		}
+		return count;
+	}
+
+	/**
+	 * Cancels all feeds and stops the worker threads.
+	 */
+	public void shutdown() {
+		shutdown = true;
+		for (Worker w : workers) {
+			w.interrupt();
+		}
+	}
+
+	private synchronized Worker leastLoadedWorker() {
+		Worker least = workers.get(0);
+		for (Worker w : workers) {
+			if (w.feedCount.get() < least.feedCount.get()) {
+				least = w;
+			}
+		}
+		// count the feed before it is added so that concurrent opens are spread out
+		least.feedCount.incrementAndGet();
+		return least;
+	}
+
+	class Worker extends Thread {
+
+		private final DelayQueue<MultiplexedChangesFeed> due = new DelayQueue<MultiplexedChangesFeed>();
+		private final AtomicInteger feedCount = new AtomicInteger();
+
+		void add(MultiplexedChangesFeed feed) {
+			feed.scheduleIn(0);
+			due.add(feed);
+		}
+
+		void feedClosed(MultiplexedChangesFeed feed) {
+			due.remove(feed);
+			feedCount.decrementAndGet();
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (!shutdown) {
+					MultiplexedChangesFeed feed = due.take();
+					if (!feed.isAlive()) {
+						continue;
+					}
+					long delay = poll(feed);
+					if (feed.isAlive()) {
+						feed.scheduleIn(delay);
+						due.add(feed);
+					}
+				}
+			} catch (InterruptedException e) {
+				LOG.debug("changes multiplexer worker interrupted");
+			} finally {
+				for (MultiplexedChangesFeed feed : new ArrayList<MultiplexedChangesFeed>(due)) {
+					feed.terminate();
+				}
+			}
+		}
+
+		/**
+		 * @return the delay in milliseconds until the next poll of the feed.
+		 */
+		private long poll(MultiplexedChangesFeed feed) {
+			try {
+				int capacity = feed.remainingCapacity();
+				if (capacity == 0) {
+					// the consumer is behind, let it catch up
+					return feed.backOff(minPollIntervalMillis, maxPollIntervalMillis);
+				}
+				List<? extends DocumentChange> changes = feed.fetch(capacity);
+				feed.deliver(changes);
+				if (changes.isEmpty()) {
+					return feed.backOff(minPollIntervalMillis, maxPollIntervalMillis);
+				}
+				feed.resetBackOff();
+				return changes.size() == capacity ? 0 : minPollIntervalMillis;
+			} catch (DocumentNotFoundException e) {
+				LOG.info("Database of changes feed not found, stopping feed: {}", e.getMessage());
+				feed.terminate();
+				return 0;
+			} catch (RuntimeException e) {
+				LOG.warn("Caught exception while polling changes feed, will retry", e);
+				return feed.backOff(minPollIntervalMillis, maxPollIntervalMillis);
+			}
+		}
+	}
+
+	public static class Builder {
+
+		private int workers = 2;
+		private long minPollIntervalMillis = 100;
+		private long maxPollIntervalMillis = 5000;
+
+		/**
+		 * @param i the number of worker threads. Default is 2.
+		 */
+		public Builder workers(int i) {
+			Assert.isTrue(i > 0, "workers must be greater than 0");
+			workers = i;
+			return this;
+		}
+
+		/**
+		 * @param interval the delay before polling a feed again after a poll that returned changes. Default is 100 ms.
+		 */
+		public Builder minPollInterval(long interval, TimeUnit unit) {
+			minPollIntervalMillis = unit.toMillis(interval);
+			return this;
+		}
+
+		/**
+		 * @param interval the longest delay between polls of an idle feed. Default is 5 seconds.
+		 */
+		public Builder maxPollInterval(long interval, TimeUnit unit) {
+			maxPollIntervalMillis = unit.toMillis(interval);
+			return this;
+		}
+
+		public ChangesFeedMultiplexer build() {
+			Assert.isTrue(minPollIntervalMillis >= 0, "minPollInterval may not be negative");
+			Assert.isTrue(maxPollIntervalMillis >= minPollIntervalMillis, "maxPollInterval may not be less than minPollInterval");
+			return new ChangesFeedMultiplexer(this);
+		}
+	}
+}
@@ -0,0 +1,450 @@
+package org.ektorp.impl.changes;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.ektorp.CouchDbConnector;
+import org.ektorp.DocumentNotFoundException;
+import org.ektorp.changes.ChangesCommand;
+import org.ektorp.changes.ChangesFeed;
+import org.ektorp.changes.ChangesHandler;
+import org.ektorp.changes.CheckpointStore;
+import org.ektorp.changes.DocumentChange;
+import org.ektorp.changes.FailedBatchHandler;
+import org.ektorp.changes.OverflowPolicy;
+import org.ektorp.util.Assert;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Follows the changes feed of a database from a thread of its own and survives lost connections.
+ *
+ * Changes are handed to a ChangesHandler in batches. The sequence of the last change in a batch is saved in the
+ * CheckpointStore when the handler returns, so after a restart or a reconnect at most the batch that was being
+ * handled is delivered again.
+ *
+ * The follower reconnects from the last checkpoint when the feed ends, fails or stalls. A feed is considered stalled
+ * when neither a change nor a heartbeat has been received for maxMissedHeartbeats heartbeat intervals, which detects
+ * connections that were silently dropped by a proxy or a firewall. Stalls are only detected for feeds with a
+ * connection of their own (ContinuousChangesFeed). Feeds returned by a connector with a ChangesFeedMultiplexer poll
+ * with ordinary requests, whose lost connections are detected by the socket timeout of the HttpClient and retried by
+ * the multiplexer. Reconnects are delayed by an exponential back off with random jitter, so that many followers do not
+ * reconnect to a restarted server at the same time. The back off is reset when a batch has been handled.
+ *
+ * If the handler throws an exception the follower reconnects and delivers the batch again, up to maxAttempts times in
+ * a row. A batch that still fails is handed to the FailedBatchHandler, if any, and skipped. Without a
+ * FailedBatchHandler, or if it throws as well, the follower stops and the exception is available from getFailure().
+ *
+ * The follower stops if the database does not exist.
+ */
+public class ChangesFollower {
+
+	private final static Logger LOG = LoggerFactory.getLogger(ChangesFollower.class);
+	private final static AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+	private final CouchDbConnector db;
+	private final ChangesCommand cmd;
+	private final CheckpointStore checkpointStore;
+	private final ChangesHandler handler;
+	private final FailedBatchHandler failedBatchHandler;
+	private final int maxAttempts;
+	private final Runnable onStop;
+	private final int batchSize;
+	private final int heartbeatMillis;
+	private final int maxMissedHeartbeats;
+	private final long minBackOffMillis;
+	private final long maxBackOffMillis;
+	private final Random random = new Random();
+
+	private final AtomicLong reconnects = new AtomicLong();
+	private final AtomicLong stalls = new AtomicLong();
+	private volatile String checkpoint;
+	private volatile ChangesFeed feed;
+	private volatile boolean running;
+	private volatile Thread thread;
+	private volatile Exception failure;
+	private int failedAttempts;
+	private int failedBatchAttempts;
+
+	private ChangesFollower(Builder b) {
+		this.db = b.db;
+		this.cmd = b.cmd;
+		this.checkpointStore = b.checkpointStore;
+		this.handler = b.handler;
+		this.failedBatchHandler = b.failedBatchHandler;
+		this.maxAttempts = b.maxAttempts;
+		this.onStop = b.onStop;
+		this.batchSize = b.batchSize;
+		this.heartbeatMillis = b.heartbeatMillis;
+		this.maxMissedHeartbeats = b.maxMissedHeartbeats;
+		this.minBackOffMillis = b.minBackOffMillis;
+		this.maxBackOffMillis = b.maxBackOffMillis;
+	}
+
+	public synchronized void start() {
+		if (running) {
+			return;
+		}
+		running = true;
+		Thread t = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				follow();
+			}
+		});
+		t.setDaemon(true);
+		t.setName(String.format("ektorp-%s-changes-follower-thread-%s", db.getDatabaseName(), THREAD_COUNT.incrementAndGet()));
+		thread = t;
+		t.start();
+	}
+
+	/**
+	 * Stops the follower and interrupts its thread. A batch that is being handled is checkpointed if the handler
+	 * completes it.
+	 */
+	public synchronized void stop() {
+		running = false;
+		closeFeed();
+		Thread t = thread;
+		if (t != null) {
+			t.interrupt();
+		}
+	}
+
+	/**
+	 * Waits for the follower thread to stop.
+	 */
+	public void awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		Thread t = thread;
+		if (t != null) {
+			t.join(unit.toMillis(timeout));
+		}
+	}
+
+	public boolean isRunning() {
+		Thread t = thread;
+		return running && t != null && t.isAlive();
+	}
+
+	/**
+	 * @return the sequence of the last handled change, or the sequence the follower started from.
+	 */
+	public String getCheckpoint() {
+		return checkpoint;
+	}
+
+	/**
+	 * @return the exception of the handler that stopped the follower, or null.
+	 */
+	public Exception getFailure() {
+		return failure;
+	}
+
+	/**
+	 * @return the number of times the feed has been reopened.
+	 */
+	public long getReconnectCount() {
+		return reconnects.get();
+	}
+
+	/**
+	 * @return the number of times the feed was reopened because heartbeats were missed.
+	 */
+	public long getStallCount() {
+		return stalls.get();
+	}
+
+	private void follow() {
+		try {
+			checkpoint = checkpointStore.load();
+			if (checkpoint == null) {
+				checkpoint = cmd.since;
+			}
+			while (running) {
+				try {
+					openFeed();
+					consume();
+				} catch (DocumentNotFoundException e) {
+					LOG.error("Database {} does not exist, changes follower stopped", db.getDatabaseName());
+					running = false;
+				} catch (InterruptedException e) {
+					if (running) {
+						LOG.debug("Changes feed ended");
+					}
+				} catch (Exception e) {
+					LOG.warn("Changes follower caught exception, will reconnect", e);
+				} finally {
+					closeFeed();
+				}
+				if (running) {
+					backOff();
+					reconnects.incrementAndGet();
+				}
+			}
+		} catch (InterruptedException e) {
+			LOG.debug("Changes follower interrupted");
+		} finally {
+			running = false;
+			closeFeed();
+			LOG.info("Changes follower for {} stopped at {}", db.getDatabaseName(), checkpoint);
+			if (onStop != null) {
+				try {
+					onStop.run();
+				} catch (RuntimeException e) {
+					LOG.warn("onStop callback of changes follower threw exception", e);
+				}
+			}
+		}
+	}
+
+	private void openFeed() {
+		ChangesCommand.Builder b = new ChangesCommand.Builder()
+				.merge(cmd)
+				.continuous(true)
+				.heartbeat(heartbeatMillis)
+				.limit(-1)
+				.overflowPolicy(OverflowPolicy.BLOCK);
+		if (checkpoint != null) {
+			b.since(checkpoint);
+		}
+		feed = db.changesFeed(b.build());
+		LOG.debug("Changes feed opened from {}", checkpoint);
+	}
+
+	private void consume() throws Exception {
+		long stallTimeout = (long) heartbeatMillis * maxMissedHeartbeats;
+		long lastBatch = System.currentTimeMillis();
+		while (running) {
+			ChangesFeed f = feed;
+			if (f == null) {
+				return;
+			}
+			List<? extends DocumentChange> batch;
+			try {
+				batch = f.nextBatch(batchSize, heartbeatMillis, TimeUnit.MILLISECONDS);
+			} catch (IllegalStateException e) {
+				LOG.debug("Changes feed ended");
+				return;
+			}
+			long now = System.currentTimeMillis();
+			if (!batch.isEmpty()) {
+				List<DocumentChange> changes = Collections.<DocumentChange>unmodifiableList(batch);
+				try {
+					handler.handle(changes);
+				} catch (InterruptedException e) {
+					throw e;
+				} catch (Exception e) {
+					if (++failedBatchAttempts < maxAttempts) {
+						// reconnect and deliver the batch again
+						throw e;
+					}
+					if (!skip(changes, e)) {
+						return;
+					}
+				}
+				failedBatchAttempts = 0;
+				saveCheckpoint(batch.get(batch.size() - 1));
+				failedAttempts = 0;
+				lastBatch = now;
+			} else if (f instanceof ContinuousChangesFeed
+					&& now - Math.max(lastBatch, ((ContinuousChangesFeed) f).getLastActivity()) > stallTimeout) {
+				LOG.warn("No heartbeat received from {} in {} ms, reconnecting", db.getDatabaseName(), stallTimeout);
+				stalls.incrementAndGet();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Hands a batch that failed maxAttempts times to the FailedBatchHandler.
+	 * @return true if the batch is to be skipped, false if the follower has been stopped.
+	 */
+	private boolean skip(List<DocumentChange> changes, Exception cause) {
+		if (failedBatchHandler != null) {
+			try {
+				failedBatchHandler.failed(changes, cause);
+				LOG.warn(String.format("Changes handler failed %s times, skipped %s changes after %s", maxAttempts,
+						changes.size(), checkpoint), cause);
+				return true;
+			} catch (Exception e) {
+				cause = e;
+			}
+		}
+		failure = cause;
+		running = false;
+		LOG.error(String.format("Changes handler failed %s times on the changes after %s, stopping", maxAttempts,
+				checkpoint), cause);
+		return false;
+	}
+
+	private void saveCheckpoint(DocumentChange last) {
+		String s = last.getStringSequence();
+		String seq = s != null ? s : Integer.toString(last.getSequence());
+		checkpointStore.save(seq);
+		checkpoint = seq;
+	}
+
+	/**
+	 * Sleeps for half of the current back off plus a random part of the other half.
+	 */
+	private void backOff() throws InterruptedException {
+		long delay = backOffMillis(failedAttempts++);
+		long jittered = delay / 2 + (long) (random.nextDouble() * (delay - delay / 2));
+		LOG.debug("Reconnecting in {} ms", jittered);
+		Thread.sleep(jittered);
+	}
+
+	long backOffMillis(int attempts) {
+		long delay = minBackOffMillis;
+		for (int i = 0; i < attempts && delay < maxBackOffMillis; i++) {
+			delay *= 2;
+		}
+		return Math.min(delay, maxBackOffMillis);
+	}
+
+	private void closeFeed() {
+		ChangesFeed f = feed;
+		feed = null;
+		if (f != null) {
+			f.cancel();
+		}
+	}
+
+	public static class Builder {
+
+		private final CouchDbConnector db;
+		private final ChangesHandler handler;
+		private FailedBatchHandler failedBatchHandler;
+		private int maxAttempts = 3;
+		private Runnable onStop;
+		private ChangesCommand cmd = new ChangesCommand.Builder().build();
+		private CheckpointStore checkpointStore = new InMemoryCheckpointStore();
+		private int batchSize = 100;
+		private int heartbeatMillis = 10000;
+		private int maxMissedHeartbeats = 3;
+		private long minBackOffMillis = 500;
+		private long maxBackOffMillis = 60000;
+
+		public Builder(CouchDbConnector db, ChangesHandler handler) {
+			Assert.notNull(db, "db may not be null");
+			Assert.notNull(handler, "handler may not be null");
+			this.db = db;
+			this.handler = handler;
+		}
+
+		/**
+		 * The command is used to open the feed. Its since is used if the checkpoint store is empty, its limit is
+		 * ignored and its queue always blocks when full, as dropped changes would be lost.
+		 * @param c
+		 * @return
+		 */
+		public Builder command(ChangesCommand c) {
+			Assert.notNull(c, "command may not be null");
+			this.cmd = c;
+			return this;
+		}
+
+		/**
+		 * Default is an InMemoryCheckpointStore.
+		 * @param s
+		 * @return
+		 */
+		public Builder checkpointStore(CheckpointStore s) {
+			Assert.notNull(s, "checkpointStore may not be null");
+			this.checkpointStore = s;
+			return this;
+		}
+
+		/**
+		 * The number of times in a row a batch is handed to the handler before it is given up. Default is 3.
+		 * @param i
+		 * @return
+		 */
+		public Builder maxAttempts(int i) {
+			Assert.isTrue(i > 0, "maxAttempts must be greater than 0");
+			this.maxAttempts = i;
+			return this;
+		}
+
+		/**
+		 * Receives the batches that failed maxAttempts times, which are then skipped. By default the follower stops
+		 * instead.
+		 * @param h
+		 * @return
+		 */
+		public Builder failedBatchHandler(FailedBatchHandler h) {
+			Assert.notNull(h, "failedBatchHandler may not be null");
+			this.failedBatchHandler = h;
+			return this;
+		}
+
+		/**
+		 * Run by the follower thread when the follower has stopped, whether it was stopped, the database does not exist
+		 * or a batch could not be handled.
+		 * @param r
+		 * @return
+		 */
+		public Builder onStop(Runnable r) {
+			Assert.notNull(r, "onStop may not be null");
+			this.onStop = r;
+			return this;
+		}
+
+		/**
+		 * The maximum number of changes handed to the handler at once. Default is 100.
+		 * @param i
+		 * @return
+		 */
+		public Builder batchSize(int i) {
+			Assert.isTrue(i > 0, "batchSize must be greater than 0");
+			this.batchSize = i;
+			return this;
+		}
+
+		/**
+		 * The heartbeat interval requested from the database. Default is 10000 ms.
+		 * @param millis
+		 * @return
+		 */
+		public Builder heartbeat(int millis) {
+			Assert.isTrue(millis > 0, "heartbeat must be greater than 0");
+			this.heartbeatMillis = millis;
+			return this;
+		}
+
+		/**
+		 * The number of heartbeat intervals without activity after which the feed is considered stalled. Default is 3.
+		 * @param i
+		 * @return
+		 */
+		public Builder maxMissedHeartbeats(int i) {
+			Assert.isTrue(i > 0, "maxMissedHeartbeats must be greater than 0");
+			this.maxMissedHeartbeats = i;
+			return this;
+		}
+
+		/**
+		 * The reconnect back off starts at min and doubles for every failed attempt up to max. Default is 500 ms to
+		 * 60 s.
+		 * @param min
+		 * @param max
+		 * @param unit
+		 * @return
+		 */
+		public Builder backOff(long min, long max, TimeUnit unit) {
+			Assert.isTrue(min > 0, "min back off must be greater than 0");
+			Assert.isTrue(max >= min, "max back off may not be less than min");
+			this.minBackOffMillis = unit.toMillis(min);
+			this.maxBackOffMillis = unit.toMillis(max);
+			return this;
+		}
+
+		public ChangesFollower build() {
+			return new ChangesFollower(this);
+		}
+	}
+}
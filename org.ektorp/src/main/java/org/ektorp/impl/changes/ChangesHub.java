@@ -0,0 +1,257 @@
+package org.ektorp.impl.changes;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.ektorp.CouchDbConnector;
+import org.ektorp.changes.ChangesCommand;
+import org.ektorp.changes.ChangesFeed;
+import org.ektorp.changes.ChangesHandler;
+import org.ektorp.changes.DocumentChange;
+import org.ektorp.changes.OverflowPolicy;
+import org.ektorp.util.Assert;
+import org.ektorp.util.Predicate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shares one upstream changes feed between many subscribers in the same JVM, so that every change is transferred and
+ * parsed once regardless of the number of subscribers.
+ *
+ * Each subscriber gets a ChangesFeed of its own with a predicate that selects the changes it is interested in and a
+ * bounded queue. Changes are dispatched without blocking, so a slow subscriber only lags itself: when its queue is full
+ * the oldest changes are dropped, or spilled to disk, depending on the overflow policy of the subscription.
+ *
+ * The upstream feed is followed by a ChangesFollower, so it reconnects from the last dispatched change if the
+ * connection is lost. It is opened when the first subscriber subscribes, starting at the current update sequence of
+ * the database, and closed when the last subscriber cancels its feed. If the upstream feed stops by itself, e.g.
+ * because the database has been deleted, every subscriber feed is closed: its consumer can take the changes already
+ * queued and then sees the end of the feed. A later subscription opens a new upstream feed.
+ *
+ * A hub for the database of a StdCouchDbConnector is available through StdCouchDbConnector.getChangesHub().
+ */
+public class ChangesHub {
+
+	public static final int DEFAULT_SUBSCRIBER_CAPACITY = 1000;
+
+	private final static Logger LOG = LoggerFactory.getLogger(ChangesHub.class);
+
+	private final CouchDbConnector db;
+	private final ChangesCommand cmd;
+	private final List<SubscriberFeed> subscriptions = new CopyOnWriteArrayList<SubscriberFeed>();
+	private ChangesFollower upstream;
+	private long upstreamGeneration;
+
+	public ChangesHub(CouchDbConnector db) {
+		this(db, new ChangesCommand.Builder().build());
+	}
+
+	/**
+	 * @param db
+	 * @param cmd the command of the upstream feed, i.e. a filter or includeDocs that apply to all subscribers.
+	 */
+	public ChangesHub(CouchDbConnector db, ChangesCommand cmd) {
+		Assert.notNull(db, "db may not be null");
+		Assert.notNull(cmd, "cmd may not be null");
+		this.db = db;
+		this.cmd = cmd;
+	}
+
+	/**
+	 * Subscribes to all changes with a queue of DEFAULT_SUBSCRIBER_CAPACITY that drops the oldest changes when full.
+	 */
+	public SubscriberFeed subscribe() {
+		return subscribe(null);
+	}
+
+	/**
+	 * Subscribes to the changes that match the filter with a queue of DEFAULT_SUBSCRIBER_CAPACITY that drops the
+	 * oldest changes when full.
+	 *
+	 * @param filter may be null in order to receive all changes.
+	 */
+	public SubscriberFeed subscribe(Predicate<DocumentChange> filter) {
+		return subscribe(filter, DEFAULT_SUBSCRIBER_CAPACITY, OverflowPolicy.DROP_OLDEST);
+	}
+
+	/**
+	 * @param filter may be null in order to receive all changes.
+	 * @param queueCapacity
+	 * @param overflowPolicy DROP_OLDEST or SPILL_TO_DISK. BLOCK is not allowed as a full subscriber would stall the
+	 *            dispatch to all other subscribers.
+	 * @return a feed of the matching changes, cancel it in order to unsubscribe.
+	 */
+	public SubscriberFeed subscribe(Predicate<DocumentChange> filter, int queueCapacity, OverflowPolicy overflowPolicy) {
+		Assert.notNull(overflowPolicy, "overflowPolicy may not be null");
+		Assert.isTrue(overflowPolicy != OverflowPolicy.BLOCK, "subscribers of a ChangesHub may not block");
+		String since = cmd.since;
+		while (true) {
+			synchronized (this) {
+				if (upstream != null || since != null) {
+					SubscriberFeed s = new SubscriberFeed(filter, new ChangeQueue(queueCapacity, overflowPolicy));
+					subscriptions.add(s);
+					if (upstream == null) {
+						startUpstream(since);
+					}
+					return s;
+				}
+			}
+			// the upstream feed has to be opened, the request is made without holding the lock
+			since = currentUpdateSeq();
+		}
+	}
+
+	private void startUpstream(String since) {
+		final long generation = ++upstreamGeneration;
+		ChangesCommand c = new ChangesCommand.Builder().merge(cmd).since(since).build();
+		upstream = new ChangesFollower.Builder(db, new Dispatcher()).command(c).onStop(new Runnable() {
+			public void run() {
+				upstreamStopped(generation);
+			}
+		}).build();
+		upstream.start();
+		LOG.debug("Upstream changes feed for {} started at {}", db.getDatabaseName(), since);
+	}
+
+	/**
+	 * Captured when the upstream feed is opened, so that it is not replayed from the start of the database.
+	 */
+	private String currentUpdateSeq() {
+		return db.getDbInfo().getUpdateSeqAsString();
+	}
+
+	/**
+	 * Closes the subscriber feeds if the upstream feed that stopped is the current one, i.e. it was not stopped by the
+	 * hub.
+	 */
+	private synchronized void upstreamStopped(long generation) {
+		if (upstream == null || generation != upstreamGeneration) {
+			return;
+		}
+		LOG.warn("Upstream changes feed for {} stopped, closing {} subscriber feeds", db.getDatabaseName(),
+				subscriptions.size());
+		upstream = null;
+		for (SubscriberFeed s : subscriptions) {
+			s.changes.close();
+		}
+		subscriptions.clear();
+	}
+
+	public int getSubscriberCount() {
+		return subscriptions.size();
+	}
+
+	/**
+	 * Cancels all subscriptions and closes the upstream feed.
+	 */
+	public synchronized void shutdown() {
+		for (SubscriberFeed s : subscriptions) {
+			s.changes.cancel();
+		}
+		subscriptions.clear();
+		stopUpstream();
+	}
+
+	private synchronized void unsubscribe(SubscriberFeed s) {
+		if (subscriptions.remove(s) && subscriptions.isEmpty()) {
+			stopUpstream();
+		}
+	}
+
+	private void stopUpstream() {
+		if (upstream != null) {
+			upstream.stop();
+			upstream = null;
+			LOG.debug("Upstream changes feed for {} stopped", db.getDatabaseName());
+		}
+	}
+
+	private class Dispatcher implements ChangesHandler {
+
+		public void handle(List<DocumentChange> changes) throws Exception {
+			for (DocumentChange change : changes) {
+				for (SubscriberFeed s : subscriptions) {
+					if (s.accepts(change)) {
+						s.changes.put(change);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * The feed of one subscriber.
+	 */
+	public final class SubscriberFeed implements ChangesFeed {
+
+		private final Predicate<DocumentChange> filter;
+		private final ChangeQueue changes;
+
+		private SubscriberFeed(Predicate<DocumentChange> filter, ChangeQueue changes) {
+			this.filter = filter;
+			this.changes = changes;
+		}
+
+		boolean accepts(DocumentChange change) {
+			if (filter == null) {
+				return true;
+			}
+			try {
+				return filter.apply(change);
+			} catch (RuntimeException e) {
+				LOG.warn("Changes filter threw exception, change " + change.getId() + " is not delivered", e);
+				return false;
+			}
+		}
+
+		public DocumentChange next() throws InterruptedException {
+			assertRunningState();
+			return changes.take();
+		}
+
+		public DocumentChange poll() throws InterruptedException {
+			assertRunningState();
+			return changes.poll();
+		}
+
+		public DocumentChange next(long timeout, TimeUnit unit) throws InterruptedException {
+			assertRunningState();
+			return changes.poll(timeout, unit);
+		}
+
+		public List<DocumentChange> nextBatch(int max, long timeout, TimeUnit unit) throws InterruptedException {
+			assertRunningState();
+			List<DocumentChange> batch = new ArrayList<DocumentChange>(Math.min(max, changes.getCapacity()));
+			changes.drainTo(batch, max, timeout, unit);
+			return batch;
+		}
+
+		private void assertRunningState() {
+			if (!isAlive() && changes.size() == 0) {
+				throw new IllegalStateException("Changes feed is not alive");
+			}
+		}
+
+		public void cancel() {
+			changes.cancel();
+			unsubscribe(this);
+		}
+
+		public boolean isAlive() {
+			return !changes.isClosed();
+		}
+
+		public int queueSize() {
+			return changes.size();
+		}
+
+		/**
+		 * @return the number of changes that have been dropped because this subscriber did not keep up.
+		 */
+		public long getDroppedCount() {
+			return changes.getDroppedCount();
+		}
+	}
+}
@@ -0,0 +1,78 @@
+package org.ektorp.impl.changes;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.ektorp.CouchDbConnector;
+import org.ektorp.StreamingChangesResult;
+import org.ektorp.changes.ChangesCommand;
+import org.ektorp.changes.ChangesPage;
+import org.ektorp.changes.DocumentChange;
+import org.ektorp.util.Assert;
+
+/**
+ * Reads the changes of a database in pages of bounded size. Each page is a separate request with limit set to the
+ * page size and since set to the last_seq of the previous page, so only one page is held in memory at a time.
+ *
+ * The limit of the command, if set, is the total number of changes to read. Iteration stops after a page with fewer
+ * changes than the page size.
+ */
+public class ChangesPager implements Iterator<ChangesPage> {
+
+	private final CouchDbConnector db;
+	private final ChangesCommand cmd;
+	private final int pageSize;
+	private String since;
+	private long remaining;
+	private boolean done;
+
+	public ChangesPager(CouchDbConnector db, ChangesCommand cmd, int pageSize) {
+		Assert.notNull(db, "db may not be null");
+		Assert.notNull(cmd, "cmd may not be null");
+		Assert.isTrue(pageSize > 0, "pageSize must be greater than 0");
+		if (cmd.continuous) {
+			throw new IllegalArgumentException("ChangesCommand may not declare continous = true while calling changes");
+		}
+		this.db = db;
+		this.cmd = cmd;
+		this.pageSize = pageSize;
+		this.since = cmd.since;
+		this.remaining = cmd.limit > -1 ? cmd.limit : Long.MAX_VALUE;
+		this.done = remaining == 0;
+	}
+
+	public boolean hasNext() {
+		return !done;
+	}
+
+	public ChangesPage next() {
+		if (done) {
+			throw new NoSuchElementException();
+		}
+		int limit = (int) Math.min(pageSize, remaining);
+		ChangesCommand.Builder b = new ChangesCommand.Builder().merge(cmd).limit(limit);
+		if (since != null) {
+			b.since(since);
+		}
+		List<DocumentChange> changes = new ArrayList<DocumentChange>(limit);
+		StreamingChangesResult result = db.changesAsStream(b.build());
+		try {
+			for (DocumentChange c : result) {
+				changes.add(c);
+			}
+			since = result.getLastSeqAsString();
+		} finally {
+			result.close();
+		}
+		remaining -= changes.size();
+		done = changes.size() < limit || remaining == 0;
+		return new ChangesPage(changes, since, done);
+	}
+
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+}
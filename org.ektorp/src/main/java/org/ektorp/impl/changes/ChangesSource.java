@@ -0,0 +1,52 @@
+package org.ektorp.impl.changes;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+import org.ektorp.changes.DocumentChange;
+import org.ektorp.http.HttpResponse;
+import org.ektorp.reactive.Source;
+import org.ektorp.util.Exceptions;
+
+/**
+ * Reads the changes of a continuous changes feed response on demand, skipping heartbeats.
+ */
+public class ChangesSource implements Source<DocumentChange> {
+
+	private final HttpResponse httpResponse;
+	private final BufferedReader reader;
+	private final ChangeParser parser;
+	private volatile boolean closed;
+
+	public ChangesSource(HttpResponse httpResponse, ChangeParser parser) {
+		this.httpResponse = httpResponse;
+		this.parser = parser;
+		try {
+			this.reader = new BufferedReader(new InputStreamReader(httpResponse.getContent(), "UTF-8"));
+		} catch (IOException e) {
+			httpResponse.abort();
+			throw Exceptions.propagate(e);
+		}
+	}
+
+	public DocumentChange read() throws IOException {
+		String line = reader.readLine();
+		while (line != null && line.length() == 0) {
+			line = reader.readLine();
+		}
+		if (line == null || closed) {
+			return null;
+		}
+		return parser.parse(line);
+	}
+
+	/**
+	 * Aborts the request, as a continuous feed is never read to its end.
+	 */
+	public void close() {
+		closed = true;
+		httpResponse.abort();
+	}
+
+}
@@ -8,7 +8,6 @@ import java.util.concurrent.atomic.*;
 import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.NullNode;
 import org.ektorp.changes.*;
 import org.ektorp.http.HttpResponse;
 import org.ektorp.util.*;
@@ -23,21 +22,35 @@ public final class ContinuousChangesFeed implements ChangesFeed, Runnable {
 	private final static AtomicInteger THREAD_COUNT = new AtomicInteger();
 	private final static Logger LOG = LoggerFactory.getLogger(ContinuousChangesFeed.class);
 	private final static ObjectMapper OBJECT_MAPPER = new ObjectMapper();
-	private final static DocumentChange INTERRUPT_MARKER = new StdDocumentChange(NullNode.getInstance());
 	private final static Set<Class<?>> INTERRUPTED_EXCEPTION_TYPES = new HashSet<Class<?>>();
 	static {
 		INTERRUPTED_EXCEPTION_TYPES.add(InterruptedException.class);
 		INTERRUPTED_EXCEPTION_TYPES.add(InterruptedIOException.class);
 	}
 
-	private final BlockingQueue<DocumentChange> changes = new LinkedBlockingQueue<DocumentChange>(100);
+	private final ChangeQueue changes;
+	private final ChangeParser parser;
 	private final BufferedReader reader;
 	private final Thread thread = new Thread(this);
 	private volatile boolean shouldRun = true;
+	private volatile long lastActivity = System.currentTimeMillis();
 	private final HttpResponse httpResponse;
 
 	public ContinuousChangesFeed(String dbName, HttpResponse httpResponse) {
+		this(dbName, httpResponse, ChangesCommand.DEFAULT_QUEUE_CAPACITY, OverflowPolicy.BLOCK);
+	}
+
+	public ContinuousChangesFeed(String dbName, HttpResponse httpResponse, int queueCapacity, OverflowPolicy overflowPolicy) {
+		this(dbName, httpResponse, queueCapacity, overflowPolicy, new StdChangeParser(OBJECT_MAPPER));
+	}
+
+	/**
+	 * @param parser creates the changes from the lines of the feed.
+	 */
+	public ContinuousChangesFeed(String dbName, HttpResponse httpResponse, int queueCapacity, OverflowPolicy overflowPolicy, ChangeParser parser) {
 		this.httpResponse = httpResponse;
+		this.parser = parser;
+		this.changes = new ChangeQueue(queueCapacity, overflowPolicy, parser);
 		try {
 			reader = new BufferedReader(new InputStreamReader(httpResponse.getContent(), "UTF-8"));
 			thread.setName(String.format("ektorp-%s-changes-listening-thread-%s", dbName, THREAD_COUNT.getAndIncrement()));
@@ -49,52 +62,43 @@ public final class ContinuousChangesFeed implements ChangesFeed, Runnable {
 
 	public DocumentChange next() throws InterruptedException {
 		assertRunningState();
-		DocumentChange c = changes.take();
-		checkIfInterrupted(c);
-		return c;
+		return changes.take();
 	}
 
 	public DocumentChange poll() throws InterruptedException {
 		assertRunningState();
-		DocumentChange c = changes.poll();
-		checkIfInterrupted(c);
-		return c;
+		return changes.poll();
 	}
 
-
-
 	public DocumentChange next(long timeout, TimeUnit unit)
 			throws InterruptedException {
 		assertRunningState();
-		DocumentChange c = changes.poll(timeout, unit);
-		checkIfInterrupted(c);
-		return c;
+		return changes.poll(timeout, unit);
 	}
 
-	private void assertRunningState() {
-		if (!isAlive()) {
-			throw new IllegalStateException("Changes feed is not alive");
-		}
+	public List<? extends DocumentChange> nextBatch(int max, long timeout, TimeUnit unit) throws InterruptedException {
+		assertRunningState();
+		List<DocumentChange> batch = new ArrayList<DocumentChange>(Math.min(max, changes.getCapacity()));
+		changes.drainTo(batch, max, timeout, unit);
+		return batch;
 	}
 
-	private void checkIfInterrupted(DocumentChange c) throws InterruptedException {
-		if (c == INTERRUPT_MARKER || (!shouldRun && changes.isEmpty())) {
-			throw new InterruptedException();
+	/**
+	 * Changes buffered before the feed stopped can still be read.
+	 */
+	private void assertRunningState() {
+		if (!isAlive() && changes.size() == 0) {
+			throw new IllegalStateException("Changes feed is not alive");
 		}
 	}
 
 	public void cancel() {
 		LOG.debug("Feed cancelled");
 		shouldRun = false;
+		changes.cancel();
 		thread.interrupt();
 	}
 
-    @edu.umd.cs.findbugs.annotations.SuppressWarnings(value="RV_RETURN_VALUE_IGNORED_BAD_PRACTICE")
-	private void sendInterruptMarker()  {
-		LOG.debug("Sending interrupt marker in order to interrupt feed consumer");
-		changes.offer(INTERRUPT_MARKER);
-	}
-
 	public boolean isAlive() {
 		return thread.isAlive();
 	}
@@ -103,10 +107,18 @@ public final class ContinuousChangesFeed implements ChangesFeed, Runnable {
 		return changes.size();
 	}
 
+	/**
+	 * @return the time in millis when a change or heartbeat was last read from the database.
+	 */
+	long getLastActivity() {
+		return lastActivity;
+	}
+
 	public void run() {
 		try {
 			String line = reader.readLine();
 			while(shouldRun && line != null) {
+				lastActivity = System.currentTimeMillis();
 				if (line.length() > 0) {
 					handleChange(line);
 				} else {
@@ -119,7 +131,8 @@ public final class ContinuousChangesFeed implements ChangesFeed, Runnable {
 		} catch (Exception e) {
 			handleException(e);
 		} finally {
-			sendInterruptMarker();
+			LOG.debug("Closing queue in order to interrupt feed consumer");
+			changes.close();
 			httpResponse.abort();
 			try {
 				reader.close();
@@ -128,7 +141,9 @@ public final class ContinuousChangesFeed implements ChangesFeed, Runnable {
 	}
 
 	private void handleChange(String line) throws IOException, InterruptedException, JsonParseException, JsonMappingException {
-		changes.put(new StdDocumentChange(OBJECT_MAPPER.readTree(line)));
+		if (!changes.put(parser.parse(line))) {
+			shouldRun = false;
+		}
 	}
 
 	private void handleHeartbeat() {
@@ -0,0 +1,70 @@
+package org.ektorp.impl.changes;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.ektorp.changes.CheckpointStore;
+import org.ektorp.util.Assert;
+import org.ektorp.util.Exceptions;
+
+/**
+ * A CheckpointStore that keeps the sequence in a local file.
+ *
+ * The sequence is written to a temporary file that is synced to disk and then renamed, so a crash never leaves a
+ * partially written checkpoint behind.
+ */
+public class FileCheckpointStore implements CheckpointStore {
+
+	private final static String ENCODING = "UTF-8";
+
+	private final File file;
+	private final File tmpFile;
+
+	public FileCheckpointStore(File file) {
+		Assert.notNull(file, "file may not be null");
+		this.file = file;
+		this.tmpFile = new File(file.getPath() + ".tmp");
+	}
+
+	public synchronized String load() {
+		if (!file.exists()) {
+			return null;
+		}
+		try {
+			String s = FileUtils.readFileToString(file, ENCODING).trim();
+			return s.length() > 0 ? s : null;
+		} catch (IOException e) {
+			throw Exceptions.propagate(e);
+		}
+	}
+
+	public synchronized void save(String sequence) {
+		Assert.hasText(sequence, "sequence may not be null or empty");
+		FileOutputStream out = null;
+		try {
+			out = new FileOutputStream(tmpFile);
+			out.write(sequence.getBytes(ENCODING));
+			out.getFD().sync();
+			out.close();
+			out = null;
+			if (!tmpFile.renameTo(file)) {
+				// renameTo does not replace an existing file on all platforms
+				if (!file.delete() || !tmpFile.renameTo(file)) {
+					throw new IOException(String.format("could not rename %s to %s", tmpFile, file));
+				}
+			}
+		} catch (IOException e) {
+			throw Exceptions.propagate(e);
+		} finally {
+			IOUtils.closeQuietly(out);
+		}
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+}
@@ -0,0 +1,27 @@
+package org.ektorp.impl.changes;
+
+import org.ektorp.changes.CheckpointStore;
+
+/**
+ * A CheckpointStore that only survives reconnects, not restarts.
+ */
+public class InMemoryCheckpointStore implements CheckpointStore {
+
+	private volatile String sequence;
+
+	public InMemoryCheckpointStore() {
+	}
+
+	public InMemoryCheckpointStore(String initialSequence) {
+		this.sequence = initialSequence;
+	}
+
+	public String load() {
+		return sequence;
+	}
+
+	public void save(String sequence) {
+		this.sequence = sequence;
+	}
+
+}
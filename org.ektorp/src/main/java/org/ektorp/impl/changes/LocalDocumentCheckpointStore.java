@@ -0,0 +1,73 @@
+package org.ektorp.impl.changes;
+
+import org.ektorp.CouchDbConnector;
+import org.ektorp.UpdateConflictException;
+import org.ektorp.changes.CheckpointStore;
+import org.ektorp.util.Assert;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * A CheckpointStore that keeps the sequence in a _local document in the database, the same way replication
+ * checkpoints are stored. Local documents are not replicated and do not show up in the changes feed.
+ */
+public class LocalDocumentCheckpointStore implements CheckpointStore {
+
+	private final static String LOCAL_PREFIX = "_local/";
+	private final static String SEQ_FIELD_NAME = "last_seq";
+
+	private final CouchDbConnector db;
+	private final String id;
+	private String revision;
+
+	/**
+	 * @param db the database to store the checkpoint in, normally the database that is followed.
+	 * @param name the name of the checkpoint, should be unique for each consumer of the changes feed.
+	 */
+	public LocalDocumentCheckpointStore(CouchDbConnector db, String name) {
+		Assert.notNull(db, "CouchDbConnector may not be null");
+		Assert.hasText(name, "name may not be null or empty");
+		this.db = db;
+		this.id = name.startsWith(LOCAL_PREFIX) ? name : LOCAL_PREFIX + name;
+	}
+
+	public synchronized String load() {
+		ObjectNode doc = db.find(ObjectNode.class, id);
+		if (doc == null) {
+			revision = null;
+			return null;
+		}
+		revision = doc.has("_rev") ? doc.get("_rev").textValue() : null;
+		JsonNode seq = doc.get(SEQ_FIELD_NAME);
+		return seq != null && !seq.isNull() ? seq.asText() : null;
+	}
+
+	public synchronized void save(String sequence) {
+		Assert.hasText(sequence, "sequence may not be null or empty");
+		try {
+			write(sequence);
+		} catch (UpdateConflictException e) {
+			// someone else wrote the checkpoint, overwrite it with ours
+			load();
+			write(sequence);
+		}
+	}
+
+	private void write(String sequence) {
+		ObjectNode doc = JsonNodeFactory.instance.objectNode();
+		doc.put("_id", id);
+		if (revision != null) {
+			doc.put("_rev", revision);
+		}
+		doc.put(SEQ_FIELD_NAME, sequence);
+		db.update(doc);
+		revision = doc.get("_rev").textValue();
+	}
+
+	public String getId() {
+		return id;
+	}
+
+}
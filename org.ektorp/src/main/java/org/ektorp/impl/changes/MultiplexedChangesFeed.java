@@ -0,0 +1,188 @@
+package org.ektorp.impl.changes;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.ektorp.CouchDbConnector;
+import org.ektorp.StreamingChangesResult;
+import org.ektorp.changes.ChangesCommand;
+import org.ektorp.changes.ChangesFeed;
+import org.ektorp.changes.DocumentChange;
+import org.ektorp.changes.OverflowPolicy;
+import org.ektorp.util.Exceptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A changes feed serviced by a ChangesFeedMultiplexer worker. The fetch and scheduling methods are only called by the
+ * worker thread.
+ *
+ * Each poll resumes from the last_seq of the previous response, not from the last delivered change, so that a
+ * filtered feed on a database without matching changes does not scan the same changes again on every poll.
+ */
+final class MultiplexedChangesFeed implements ChangesFeed, Delayed {
+
+	private final static Logger LOG = LoggerFactory.getLogger(MultiplexedChangesFeed.class);
+
+	private final CouchDbConnector db;
+	private final ChangesCommand cmd;
+	private final TypedChangeParser<?> parser;
+	private final ChangesFeedMultiplexer.Worker worker;
+	private final ChangeQueue changes;
+	private final AtomicBoolean alive = new AtomicBoolean(true);
+
+	private volatile String since;
+	private String lastSeq;
+	private long delivered;
+	private long backOffMillis;
+	private volatile long nextPollNanos;
+
+	/**
+	 * The worker only fetches as many changes as there is room for, so the overflow policy never applies.
+	 */
+	MultiplexedChangesFeed(CouchDbConnector db, ChangesCommand cmd, TypedChangeParser<?> parser,
+			ChangesFeedMultiplexer.Worker worker) {
+		this.db = db;
+		this.cmd = cmd;
+		this.parser = parser;
+		this.worker = worker;
+		this.since = cmd.since;
+		this.changes = new ChangeQueue(cmd.queueCapacity, OverflowPolicy.BLOCK);
+	}
+
+	public DocumentChange next() throws InterruptedException {
+		assertRunningState();
+		return changes.take();
+	}
+
+	public DocumentChange poll() throws InterruptedException {
+		assertRunningState();
+		return changes.poll();
+	}
+
+	public DocumentChange next(long timeout, TimeUnit unit) throws InterruptedException {
+		assertRunningState();
+		return changes.poll(timeout, unit);
+	}
+
+	public List<? extends DocumentChange> nextBatch(int max, long timeout, TimeUnit unit) throws InterruptedException {
+		assertRunningState();
+		List<DocumentChange> batch = new ArrayList<DocumentChange>(Math.min(max, changes.getCapacity()));
+		changes.drainTo(batch, max, timeout, unit);
+		return batch;
+	}
+
+	/**
+	 * Changes buffered before the feed stopped can still be read.
+	 */
+	private void assertRunningState() {
+		if (!isAlive() && changes.size() == 0) {
+			throw new IllegalStateException("Changes feed is not alive");
+		}
+	}
+
+	public void cancel() {
+		LOG.debug("Feed cancelled");
+		terminate();
+	}
+
+	public boolean isAlive() {
+		return alive.get();
+	}
+
+	public int queueSize() {
+		return changes.size();
+	}
+
+	/**
+	 * @return the sequence after which the next poll will start.
+	 */
+	String getSince() {
+		return since;
+	}
+
+	void terminate() {
+		if (alive.compareAndSet(true, false)) {
+			changes.close();
+			worker.feedClosed(this);
+		}
+	}
+
+	int remainingCapacity() {
+		return changes.remainingCapacity();
+	}
+
+	/**
+	 * @return typed changes if the feed was opened with a parser for a document type.
+	 */
+	List<? extends DocumentChange> fetch(int max) {
+		int limit = max;
+		if (cmd.limit > -1) {
+			limit = (int) Math.min(limit, cmd.limit - delivered);
+		}
+		ChangesCommand pollCmd = new ChangesCommand.Builder().merge(cmd).since(since).limit(limit).build();
+		StreamingChangesResult result = db.changesAsStream(pollCmd);
+		try {
+			List<DocumentChange> batch = new ArrayList<DocumentChange>();
+			for (DocumentChange c : result) {
+				batch.add(parser != null ? parser.parse(c.toString()) : c);
+			}
+			lastSeq = result.getLastSeqAsString();
+			return batch;
+		} catch (IOException e) {
+			throw Exceptions.propagate(e);
+		} finally {
+			result.close();
+		}
+	}
+
+	/**
+	 * Queues the changes of the last fetch, which may be empty, and moves since to the last_seq of its response.
+	 */
+	void deliver(List<? extends DocumentChange> batch) {
+		for (DocumentChange c : batch) {
+			changes.offer(c);
+		}
+		if (lastSeq != null) {
+			since = lastSeq;
+		} else if (!batch.isEmpty()) {
+			since = sequenceOf(batch.get(batch.size() - 1));
+		}
+		delivered += batch.size();
+		if (cmd.limit > -1 && delivered >= cmd.limit) {
+			LOG.debug("Changes feed limit reached");
+			terminate();
+		}
+	}
+
+	long backOff(long minMillis, long maxMillis) {
+		backOffMillis = backOffMillis == 0 ? Math.max(minMillis, 1) : Math.min(maxMillis, backOffMillis * 2);
+		return backOffMillis;
+	}
+
+	void resetBackOff() {
+		backOffMillis = 0;
+	}
+
+	void scheduleIn(long millis) {
+		nextPollNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+	}
+
+	public long getDelay(TimeUnit unit) {
+		return unit.convert(nextPollNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+	}
+
+	public int compareTo(Delayed o) {
+		long d = getDelay(TimeUnit.NANOSECONDS) - o.getDelay(TimeUnit.NANOSECONDS);
+		return d < 0 ? -1 : d > 0 ? 1 : 0;
+	}
+
+	private static String sequenceOf(DocumentChange c) {
+		String s = c.getStringSequence();
+		return s != null ? s : Integer.toString(c.getSequence());
+	}
+}
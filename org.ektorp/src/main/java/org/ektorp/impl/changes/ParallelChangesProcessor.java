@@ -0,0 +1,446 @@
+package org.ektorp.impl.changes;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.ektorp.changes.ChangesFeed;
+import org.ektorp.changes.CheckpointStore;
+import org.ektorp.changes.DocumentChange;
+import org.ektorp.changes.DocumentChangeHandler;
+import org.ektorp.util.Assert;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Processes the changes of a ChangesFeed on several threads while keeping the changes of each document in order.
+ *
+ * Changes are dispatched to a fixed number of lanes by the hash of the document id. Each lane has a bounded queue and
+ * a thread of its own, so changes to the same document are handled in feed order while changes to different documents
+ * are handled concurrently. The dispatcher blocks when the queue of a lane is full, which in turn lets the feed apply
+ * its overflow policy.
+ *
+ * The checkpoint is the sequence of the last change for which all earlier changes in the feed have been handled as
+ * well, i.e. a consumer that restarts from the checkpoint never misses a change. If a CheckpointStore is set the
+ * checkpoint is saved when it advances, at most once per checkpoint interval, and when the processor stops.
+ *
+ * If the handler throws an exception the processor stops and the checkpoint does not advance past the failed change.
+ * The feed is owned by the caller and is not cancelled by the processor.
+ */
+public class ParallelChangesProcessor {
+
+	private final static Logger LOG = LoggerFactory.getLogger(ParallelChangesProcessor.class);
+	private final static AtomicInteger THREAD_COUNT = new AtomicInteger();
+	private final static Slot STOP = new Slot(null, null);
+
+	private final ChangesFeed feed;
+	private final DocumentChangeHandler handler;
+	private final CheckpointStore checkpointStore;
+	private final long checkpointIntervalMillis;
+	private final List<Lane> lanes;
+	private final int dispatchBatchSize;
+	private final AtomicInteger runningLanes = new AtomicInteger();
+	private final Thread dispatcher;
+	private final ArrayDeque<Slot> pending = new ArrayDeque<Slot>();
+	private final Object checkpointLock = new Object();
+
+	private volatile boolean running;
+	private volatile Exception failure;
+	private volatile String checkpoint;
+	private String savedCheckpoint;
+	private long lastSave;
+
+	private ParallelChangesProcessor(Builder b) {
+		this.feed = b.feed;
+		this.handler = b.handler;
+		this.checkpointStore = b.checkpointStore;
+		this.checkpointIntervalMillis = b.checkpointIntervalMillis;
+		int id = THREAD_COUNT.incrementAndGet();
+		this.dispatchBatchSize = b.laneCapacity;
+		this.lanes = new ArrayList<Lane>(b.lanes);
+		for (int i = 0; i < b.lanes; i++) {
+			Lane lane = new Lane(i, b.laneCapacity);
+			lane.setDaemon(true);
+			lane.setName(String.format("ektorp-changes-processor-%s-lane-thread-%s", id, i));
+			lanes.add(lane);
+		}
+		this.dispatcher = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				dispatch();
+			}
+		});
+		dispatcher.setDaemon(true);
+		dispatcher.setName(String.format("ektorp-changes-processor-thread-%s", id));
+	}
+
+	public synchronized void start() {
+		if (running || dispatcher.isAlive()) {
+			return;
+		}
+		running = true;
+		runningLanes.set(lanes.size());
+		for (Lane lane : lanes) {
+			lane.start();
+		}
+		dispatcher.start();
+	}
+
+	/**
+	 * Stops taking changes from the feed. Changes already queued in the lanes are handled before the lanes stop.
+	 */
+	public void stop() {
+		running = false;
+		dispatcher.interrupt();
+	}
+
+	/**
+	 * Waits until the lanes have stopped, either because the processor was stopped or because the feed ended.
+	 * @return true if the processor terminated within the timeout.
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+		dispatcher.join(Math.max(1, deadline - System.currentTimeMillis()));
+		for (Lane lane : lanes) {
+			lane.join(Math.max(1, deadline - System.currentTimeMillis()));
+			if (lane.isAlive()) {
+				return false;
+			}
+		}
+		return !dispatcher.isAlive();
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * @return the exception that stopped the processor, or null.
+	 */
+	public Exception getFailure() {
+		return failure;
+	}
+
+	/**
+	 * @return the sequence up to which all changes have been handled, or null if no change has been handled yet.
+	 */
+	public String getCheckpoint() {
+		return checkpoint;
+	}
+
+	public List<LaneStats> getLaneStats() {
+		List<LaneStats> result = new ArrayList<LaneStats>(lanes.size());
+		for (Lane lane : lanes) {
+			result.add(lane.stats());
+		}
+		return Collections.unmodifiableList(result);
+	}
+
+	/**
+	 * Changes without a document id all go to the first lane.
+	 */
+	int laneOf(String id) {
+		if (id == null) {
+			return 0;
+		}
+		int h = id.hashCode();
+		h ^= (h >>> 16);
+		return (h & 0x7fffffff) % lanes.size();
+	}
+
+	private void dispatch() {
+		try {
+			while (running) {
+				List<? extends DocumentChange> batch;
+				try {
+					batch = feed.nextBatch(dispatchBatchSize, 100, TimeUnit.MILLISECONDS);
+				} catch (IllegalStateException e) {
+					LOG.debug("Changes feed has ended");
+					break;
+				}
+				for (DocumentChange change : batch) {
+					Slot slot = new Slot(change, sequenceOf(change));
+					synchronized (pending) {
+						pending.addLast(slot);
+					}
+					lanes.get(laneOf(change.getId())).queue.put(slot);
+				}
+			}
+		} catch (InterruptedException e) {
+			LOG.debug("Changes processor dispatcher interrupted");
+		} finally {
+			running = false;
+			Thread.interrupted();
+			for (Lane lane : lanes) {
+				try {
+					// a lane that failed has stopped taking from its queue
+					while (lane.isAlive() && !lane.queue.offer(STOP, 100, TimeUnit.MILLISECONDS)) {
+						LOG.debug("Waiting for room in lane {}", lane.index);
+					}
+				} catch (InterruptedException e) {
+					lane.interrupt();
+				}
+			}
+		}
+	}
+
+	private void completed(Slot slot) {
+		boolean save = false;
+		synchronized (pending) {
+			slot.done = true;
+			Slot head = pending.peekFirst();
+			if (head == null || !head.done) {
+				return;
+			}
+			while (head != null && head.done) {
+				checkpoint = head.seq;
+				pending.pollFirst();
+				head = pending.peekFirst();
+			}
+			long now = System.currentTimeMillis();
+			if (checkpointStore != null && now - lastSave >= checkpointIntervalMillis) {
+				lastSave = now;
+				save = true;
+			}
+		}
+		if (save) {
+			saveCheckpoint();
+		}
+	}
+
+	/**
+	 * Saves the current checkpoint rather than the one that triggered the save, so that a lane that is slow to get here
+	 * cannot move the saved checkpoint backwards.
+	 */
+	private void saveCheckpoint() {
+		String seq = null;
+		try {
+			synchronized (checkpointLock) {
+				seq = checkpoint;
+				if (seq != null && !seq.equals(savedCheckpoint)) {
+					checkpointStore.save(seq);
+					savedCheckpoint = seq;
+				}
+			}
+		} catch (RuntimeException e) {
+			LOG.warn("Could not save changes checkpoint " + seq, e);
+		}
+	}
+
+	private void failed(Exception e) {
+		if (failure == null) {
+			failure = e;
+		}
+		stop();
+	}
+
+	private void laneStopped() {
+		if (runningLanes.decrementAndGet() > 0) {
+			return;
+		}
+		if (checkpointStore != null) {
+			saveCheckpoint();
+		}
+		LOG.info("Changes processor stopped at {}", checkpoint);
+	}
+
+	private static String sequenceOf(DocumentChange c) {
+		String s = c.getStringSequence();
+		return s != null ? s : Integer.toString(c.getSequence());
+	}
+
+	private static class Slot {
+
+		final DocumentChange change;
+		final String seq;
+		boolean done;
+
+		Slot(DocumentChange change, String seq) {
+			this.change = change;
+			this.seq = seq;
+		}
+	}
+
+	private class Lane extends Thread {
+
+		private final int index;
+		private final BlockingQueue<Slot> queue;
+		private final AtomicLong processed = new AtomicLong();
+		private final AtomicLong failed = new AtomicLong();
+		private final AtomicLong busyNanos = new AtomicLong();
+
+		Lane(int index, int capacity) {
+			this.index = index;
+			this.queue = new ArrayBlockingQueue<Slot>(capacity);
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (true) {
+					Slot slot = queue.take();
+					if (slot == STOP) {
+						break;
+					}
+					long start = System.nanoTime();
+					try {
+						handler.handle(slot.change);
+					} catch (Exception e) {
+						failed.incrementAndGet();
+						LOG.error(String.format("Handler failed for change %s of document %s, stopping", slot.seq,
+								slot.change.getId()), e);
+						failed(e);
+						// unblock the dispatcher, the discarded changes are after the checkpoint
+						queue.clear();
+						break;
+					} finally {
+						busyNanos.addAndGet(System.nanoTime() - start);
+					}
+					processed.incrementAndGet();
+					completed(slot);
+				}
+			} catch (InterruptedException e) {
+				LOG.debug("Changes processor lane {} interrupted", index);
+			} finally {
+				laneStopped();
+			}
+		}
+
+		LaneStats stats() {
+			return new LaneStats(index, processed.get(), failed.get(), queue.size(), queue.remainingCapacity(),
+					busyNanos.get());
+		}
+	}
+
+	/**
+	 * A snapshot of the counters of a lane.
+	 */
+	public static class LaneStats {
+
+		private final int lane;
+		private final long processed;
+		private final long failed;
+		private final int queueSize;
+		private final int remainingCapacity;
+		private final long busyNanos;
+
+		LaneStats(int lane, long processed, long failed, int queueSize, int remainingCapacity, long busyNanos) {
+			this.lane = lane;
+			this.processed = processed;
+			this.failed = failed;
+			this.queueSize = queueSize;
+			this.remainingCapacity = remainingCapacity;
+			this.busyNanos = busyNanos;
+		}
+
+		public int getLane() {
+			return lane;
+		}
+
+		/**
+		 * @return the number of changes handled successfully.
+		 */
+		public long getProcessed() {
+			return processed;
+		}
+
+		public long getFailed() {
+			return failed;
+		}
+
+		/**
+		 * @return the number of changes waiting in the queue of the lane.
+		 */
+		public int getQueueSize() {
+			return queueSize;
+		}
+
+		public int getRemainingCapacity() {
+			return remainingCapacity;
+		}
+
+		/**
+		 * @return the total time the handler has spent on changes in this lane.
+		 */
+		public long getBusyTime(TimeUnit unit) {
+			return unit.convert(busyNanos, TimeUnit.NANOSECONDS);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("lane: %s, processed: %s, failed: %s, queued: %s, busy: %s ms", lane, processed,
+					failed, queueSize, TimeUnit.NANOSECONDS.toMillis(busyNanos));
+		}
+	}
+
+	public static class Builder {
+
+		private final ChangesFeed feed;
+		private final DocumentChangeHandler handler;
+		private int lanes = Runtime.getRuntime().availableProcessors();
+		private int laneCapacity = 100;
+		private CheckpointStore checkpointStore;
+		private long checkpointIntervalMillis = 1000;
+
+		public Builder(ChangesFeed feed, DocumentChangeHandler handler) {
+			Assert.notNull(feed, "feed may not be null");
+			Assert.notNull(handler, "handler may not be null");
+			this.feed = feed;
+			this.handler = handler;
+		}
+
+		/**
+		 * The number of lanes, i.e. threads, changes are processed on. Default is the number of available processors.
+		 * @param i
+		 * @return
+		 */
+		public Builder lanes(int i) {
+			Assert.isTrue(i > 0, "lanes must be greater than 0");
+			this.lanes = i;
+			return this;
+		}
+
+		/**
+		 * The number of changes that can be queued in each lane. Default is 100.
+		 * @param i
+		 * @return
+		 */
+		public Builder laneCapacity(int i) {
+			Assert.isTrue(i > 0, "laneCapacity must be greater than 0");
+			this.laneCapacity = i;
+			return this;
+		}
+
+		/**
+		 * Sets a store the checkpoint is saved to. Default is none.
+		 * @param s
+		 * @return
+		 */
+		public Builder checkpointStore(CheckpointStore s) {
+			this.checkpointStore = s;
+			return this;
+		}
+
+		/**
+		 * The minimum time between saves of the checkpoint. Default is 1 second.
+		 * @param interval
+		 * @param unit
+		 * @return
+		 */
+		public Builder checkpointInterval(long interval, TimeUnit unit) {
+			Assert.isTrue(interval >= 0, "checkpointInterval may not be negative");
+			this.checkpointIntervalMillis = unit.toMillis(interval);
+			return this;
+		}
+
+		public ParallelChangesProcessor build() {
+			return new ParallelChangesProcessor(this);
+		}
+	}
+}
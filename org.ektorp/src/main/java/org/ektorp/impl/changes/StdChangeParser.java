@@ -0,0 +1,26 @@
+package org.ektorp.impl.changes;
+
+import java.io.IOException;
+
+import org.ektorp.changes.DocumentChange;
+import org.ektorp.util.Assert;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Reads each change into a JsonNode wrapped by a StdDocumentChange.
+ */
+public class StdChangeParser implements ChangeParser {
+
+	private final ObjectMapper objectMapper;
+
+	public StdChangeParser(ObjectMapper objectMapper) {
+		Assert.notNull(objectMapper, "ObjectMapper may not be null");
+		this.objectMapper = objectMapper;
+	}
+
+	public DocumentChange parse(String json) throws IOException {
+		return new StdDocumentChange(objectMapper.readTree(json));
+	}
+
+}
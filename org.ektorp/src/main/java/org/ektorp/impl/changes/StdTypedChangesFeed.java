@@ -0,0 +1,55 @@
+package org.ektorp.impl.changes;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.ektorp.changes.ChangesFeed;
+import org.ektorp.changes.TypedChangesFeed;
+import org.ektorp.changes.TypedDocumentChange;
+import org.ektorp.util.Assert;
+
+/**
+ * Presents a feed that has been set up to create TypedDocumentChanges, i.e. with a TypedChangeParser, as a
+ * TypedChangesFeed.
+ *
+ * @param <T> the type of the included documents
+ */
+@SuppressWarnings("unchecked")
+public class StdTypedChangesFeed<T> implements TypedChangesFeed<T> {
+
+	private final ChangesFeed feed;
+
+	public StdTypedChangesFeed(ChangesFeed feed) {
+		Assert.notNull(feed, "feed may not be null");
+		this.feed = feed;
+	}
+
+	public TypedDocumentChange<T> next() throws InterruptedException {
+		return (TypedDocumentChange<T>) feed.next();
+	}
+
+	public TypedDocumentChange<T> poll() throws InterruptedException {
+		return (TypedDocumentChange<T>) feed.poll();
+	}
+
+	public TypedDocumentChange<T> next(long timeout, TimeUnit unit) throws InterruptedException {
+		return (TypedDocumentChange<T>) feed.next(timeout, unit);
+	}
+
+	public List<TypedDocumentChange<T>> nextBatch(int max, long timeout, TimeUnit unit) throws InterruptedException {
+		return (List<TypedDocumentChange<T>>) feed.nextBatch(max, timeout, unit);
+	}
+
+	public void cancel() {
+		feed.cancel();
+	}
+
+	public boolean isAlive() {
+		return feed.isAlive();
+	}
+
+	public int queueSize() {
+		return feed.queueSize();
+	}
+
+}
@@ -0,0 +1,89 @@
+package org.ektorp.impl.changes;
+
+import java.util.List;
+
+import org.ektorp.changes.TypedDocumentChange;
+import org.ektorp.util.Exceptions;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.MissingNode;
+
+/**
+ *
+ * @param <T> the type of the included document
+ */
+public class StdTypedDocumentChange<T> implements TypedDocumentChange<T> {
+
+	private final ObjectMapper objectMapper;
+	private final int seq;
+	private final String stringSeq;
+	private final String id;
+	private final List<String> revisions;
+	private final boolean deleted;
+	private final T doc;
+
+	public StdTypedDocumentChange(ObjectMapper objectMapper, int seq, String stringSeq, String id,
+			List<String> revisions, boolean deleted, T doc) {
+		this.objectMapper = objectMapper;
+		this.seq = seq;
+		this.stringSeq = stringSeq;
+		this.id = id;
+		this.revisions = revisions;
+		this.deleted = deleted;
+		this.doc = doc;
+	}
+
+	public int getSequence() {
+		return seq;
+	}
+
+	public String getStringSequence() {
+		return stringSeq;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getRevision() {
+		return revisions.isEmpty() ? null : revisions.get(0);
+	}
+
+	public List<String> getRevisions() {
+		return revisions;
+	}
+
+	public boolean isDeleted() {
+		return deleted;
+	}
+
+	public T getDocument() {
+		return doc;
+	}
+
+	public String getDoc() {
+		if (doc == null) {
+			return null;
+		}
+		try {
+			return objectMapper.writeValueAsString(doc);
+		} catch (JsonProcessingException e) {
+			throw Exceptions.propagate(e);
+		}
+	}
+
+	public JsonNode getDocAsNode() {
+		if (doc == null) {
+			return MissingNode.getInstance();
+		}
+		return objectMapper.valueToTree(doc);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("seq: %s, id: %s, rev: %s, deleted: %s", stringSeq != null ? stringSeq : seq, id,
+				getRevision(), deleted);
+	}
+}
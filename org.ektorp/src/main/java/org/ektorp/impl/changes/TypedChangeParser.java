@@ -0,0 +1,145 @@
+package org.ektorp.impl.changes;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.ektorp.changes.TypedDocumentChange;
+import org.ektorp.util.Assert;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+/**
+ * Binds changes directly from the token stream. The included document is read with an ObjectReader for the document
+ * type that is created once per parser, so no JsonNode is built for the change or the document.
+ *
+ * @param <T> the type of the included documents
+ */
+public class TypedChangeParser<T> implements ChangeParser {
+
+	private static final String SEQ_FIELD_NAME = "seq";
+	private static final String ID_FIELD_NAME = "id";
+	private static final String CHANGES_FIELD_NAME = "changes";
+	private static final String REV_FIELD_NAME = "rev";
+	private static final String DELETED_FIELD_NAME = "deleted";
+	private static final String DOC_FIELD_NAME = "doc";
+	private static final String RESULTS_FIELD_NAME = "results";
+
+	private final ObjectMapper objectMapper;
+	private final ObjectReader docReader;
+
+	public TypedChangeParser(ObjectMapper objectMapper, Class<T> docType) {
+		Assert.notNull(objectMapper, "ObjectMapper may not be null");
+		Assert.notNull(docType, "docType may not be null");
+		this.objectMapper = objectMapper;
+		this.docReader = objectMapper.reader(docType);
+	}
+
+	public TypedDocumentChange<T> parse(String json) throws IOException {
+		JsonParser jp = objectMapper.getFactory().createParser(json);
+		try {
+			jp.nextToken();
+			return parse(jp);
+		} finally {
+			jp.close();
+		}
+	}
+
+	/**
+	 * Reads the results of a non-continuous changes response.
+	 *
+	 * @param json
+	 * @return
+	 * @throws IOException
+	 */
+	public List<TypedDocumentChange<T>> parseResults(InputStream json) throws IOException {
+		JsonParser jp = objectMapper.getFactory().createParser(json);
+		try {
+			List<TypedDocumentChange<T>> result = new ArrayList<TypedDocumentChange<T>>();
+			assertToken(jp.nextToken(), JsonToken.START_OBJECT, jp);
+			while (jp.nextToken() == JsonToken.FIELD_NAME) {
+				String field = jp.getCurrentName();
+				JsonToken t = jp.nextToken();
+				if (RESULTS_FIELD_NAME.equals(field) && t == JsonToken.START_ARRAY) {
+					while (jp.nextToken() == JsonToken.START_OBJECT) {
+						result.add(parse(jp));
+					}
+				} else {
+					jp.skipChildren();
+				}
+			}
+			return result;
+		} finally {
+			jp.close();
+		}
+	}
+
+	/**
+	 * @param jp positioned at the start of the change object, will be positioned at its end when this method returns.
+	 * @return
+	 * @throws IOException
+	 */
+	public TypedDocumentChange<T> parse(JsonParser jp) throws IOException {
+		assertToken(jp.getCurrentToken(), JsonToken.START_OBJECT, jp);
+		int seq = 0;
+		String stringSeq = null;
+		String id = null;
+		List<String> revisions = Collections.emptyList();
+		boolean deleted = false;
+		T doc = null;
+		while (jp.nextToken() == JsonToken.FIELD_NAME) {
+			String field = jp.getCurrentName();
+			JsonToken t = jp.nextToken();
+			if (SEQ_FIELD_NAME.equals(field)) {
+				if (t == JsonToken.VALUE_NUMBER_INT) {
+					seq = jp.getIntValue();
+				} else if (t == JsonToken.VALUE_STRING) {
+					stringSeq = jp.getText();
+				} else {
+					jp.skipChildren();
+				}
+			} else if (ID_FIELD_NAME.equals(field)) {
+				id = jp.getText();
+			} else if (CHANGES_FIELD_NAME.equals(field) && t == JsonToken.START_ARRAY) {
+				revisions = readRevisions(jp);
+			} else if (DELETED_FIELD_NAME.equals(field)) {
+				deleted = t == JsonToken.VALUE_TRUE;
+			} else if (DOC_FIELD_NAME.equals(field) && t == JsonToken.START_OBJECT) {
+				doc = docReader.readValue(jp);
+			} else {
+				jp.skipChildren();
+			}
+		}
+		return new StdTypedDocumentChange<T>(objectMapper, seq, stringSeq, id, revisions, deleted, doc);
+	}
+
+	private List<String> readRevisions(JsonParser jp) throws IOException {
+		List<String> revisions = new ArrayList<String>(1);
+		while (jp.nextToken() == JsonToken.START_OBJECT) {
+			while (jp.nextToken() == JsonToken.FIELD_NAME) {
+				String field = jp.getCurrentName();
+				jp.nextToken();
+				if (REV_FIELD_NAME.equals(field)) {
+					revisions.add(jp.getText());
+				} else {
+					jp.skipChildren();
+				}
+			}
+		}
+		return Collections.unmodifiableList(revisions);
+	}
+
+	private static void assertToken(JsonToken actual, JsonToken expected, JsonParser jp) throws JsonParseException {
+		if (actual != expected) {
+			throw new JsonParseException(String.format("expected %s but was %s", expected, actual),
+					jp.getCurrentLocation());
+		}
+	}
+
+}
@@ -0,0 +1,158 @@
+package org.ektorp.metrics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.pool.PoolStats;
+
+/**
+ * A MetricsCollector that keeps its measurements in memory, for inspection by the application or for periodic export
+ * to a monitoring system.
+ *
+ * Latencies are kept in LatencyHistograms per operation and database. Error responses are also counted per status
+ * code, so that it is possible to tell client pool saturation (high lease wait) from slow or failing server responses.
+ */
+public class InMemoryMetricsCollector implements MetricsCollector {
+
+	private final ConcurrentMap<Key, RequestStats> requestStats = new ConcurrentHashMap<Key, RequestStats>();
+	private final ConcurrentMap<Integer, AtomicLong> statusCounts = new ConcurrentHashMap<Integer, AtomicLong>();
+	private final LatencyHistogram leaseWait = new LatencyHistogram();
+	private volatile PoolStats poolStats;
+
+	@Override
+	public void requestStarted(Operation operation, String database) {
+		statsFor(operation, database).started();
+	}
+
+	@Override
+	public void requestCompleted(Operation operation, String database, int statusCode, long latencyNanos) {
+		statsFor(operation, database).completed(statusCode, latencyNanos);
+		if (statusCode >= 400) {
+			AtomicLong c = statusCounts.get(statusCode);
+			if (c == null) {
+				AtomicLong existing = statusCounts.putIfAbsent(statusCode, c = new AtomicLong());
+				if (existing != null) {
+					c = existing;
+				}
+			}
+			c.incrementAndGet();
+		}
+	}
+
+	@Override
+	public void requestFailed(Operation operation, String database, Exception cause, long latencyNanos) {
+		statsFor(operation, database).failed(latencyNanos);
+	}
+
+	@Override
+	public void bytesSent(Operation operation, String database, long bytes) {
+		statsFor(operation, database).sent(bytes);
+	}
+
+	@Override
+	public void bytesReceived(Operation operation, String database, long bytes) {
+		statsFor(operation, database).received(bytes);
+	}
+
+	@Override
+	public void connectionLeased(long waitNanos, PoolStats poolStats) {
+		leaseWait.record(waitNanos);
+		if (poolStats != null) {
+			this.poolStats = poolStats;
+		}
+	}
+
+	/**
+	 * @return the stats of the operation on the database, null if no such request has been made.
+	 */
+	public RequestStats getRequestStats(Operation operation, String database) {
+		return requestStats.get(new Key(operation, database));
+	}
+
+	public Collection<RequestStats> getAllRequestStats() {
+		return new ArrayList<RequestStats>(requestStats.values());
+	}
+
+	/**
+	 * @return the latency in nanoseconds of the operation over all databases.
+	 */
+	public LatencyHistogram getLatency(Operation operation) {
+		LatencyHistogram h = new LatencyHistogram();
+		for (RequestStats s : requestStats.values()) {
+			if (s.getOperation() == operation) {
+				h.add(s.getLatency());
+			}
+		}
+		return h;
+	}
+
+	/**
+	 * @return the number of error responses (status 400 and above) by status code.
+	 */
+	public Map<Integer, Long> getErrorCountsByStatus() {
+		Map<Integer, Long> result = new TreeMap<Integer, Long>();
+		for (Map.Entry<Integer, AtomicLong> e : statusCounts.entrySet()) {
+			result.put(e.getKey(), e.getValue().get());
+		}
+		return result;
+	}
+
+	/**
+	 * @return the time in nanoseconds spent waiting for a connection from the pool.
+	 */
+	public LatencyHistogram getConnectionLeaseWait() {
+		return leaseWait;
+	}
+
+	/**
+	 * @return the state of the connection pool at the most recent lease, null if unknown.
+	 */
+	public PoolStats getPoolStats() {
+		return poolStats;
+	}
+
+	private RequestStats statsFor(Operation operation, String database) {
+		Key key = new Key(operation, database);
+		RequestStats s = requestStats.get(key);
+		if (s == null) {
+			RequestStats existing = requestStats.putIfAbsent(key, s = new RequestStats(operation, key.database));
+			if (existing != null) {
+				s = existing;
+			}
+		}
+		return s;
+	}
+
+	private static class Key {
+
+		private final Operation operation;
+		private final String database;
+
+		Key(Operation operation, String database) {
+			this.operation = operation;
+			this.database = database != null ? database : "";
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * operation.hashCode() + database.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return operation == other.operation && database.equals(other.database);
+		}
+	}
+}
@@ -0,0 +1,145 @@
+package org.ektorp.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread safe histogram of non-negative long values with a bounded relative error, in the style of HdrHistogram.
+ *
+ * Values below 64 are counted exactly. Larger values are counted in buckets where each power of two range is divided
+ * into 32 sub buckets, so that a reported percentile is never more than about 3% above the recorded value. The
+ * histogram covers the whole range of long in a fixed array of 1888 counters and recording does not allocate.
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 6;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+	private static final int BUCKET_COUNT = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * HALF_SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * @param value negative values are recorded as 0.
+	 */
+	public void record(long value) {
+		long v = Math.max(0, value);
+		counts.incrementAndGet(indexOf(v));
+		count.incrementAndGet();
+		sum.addAndGet(v);
+		long m;
+		while (v < (m = min.get()) && !min.compareAndSet(m, v)) {
+		}
+		while (v > (m = max.get()) && !max.compareAndSet(m, v)) {
+		}
+	}
+
+	/**
+	 * Adds the values of the other histogram to this histogram.
+	 */
+	public void add(LatencyHistogram other) {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			long c = other.counts.get(i);
+			if (c != 0) {
+				counts.addAndGet(i, c);
+			}
+		}
+		long otherCount = other.count.get();
+		if (otherCount == 0) {
+			return;
+		}
+		count.addAndGet(otherCount);
+		sum.addAndGet(other.sum.get());
+		long v = other.min.get();
+		long m;
+		while (v < (m = min.get()) && !min.compareAndSet(m, v)) {
+		}
+		v = other.max.get();
+		while (v > (m = max.get()) && !max.compareAndSet(m, v)) {
+		}
+	}
+
+	/**
+	 * @return a copy of this histogram. The copy is consistent with this histogram only if no values are recorded
+	 *         while it is taken.
+	 */
+	public LatencyHistogram copy() {
+		LatencyHistogram h = new LatencyHistogram();
+		h.add(this);
+		return h;
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @return the smallest recorded value, 0 if the histogram is empty.
+	 */
+	public long getMin() {
+		return count.get() == 0 ? 0 : min.get();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	public double getMean() {
+		long c = count.get();
+		return c == 0 ? 0 : (double) sum.get() / c;
+	}
+
+	/**
+	 * @param percentile between 0 and 100
+	 * @return the highest value that is equivalent to the value at the percentile, 0 if the histogram is empty.
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long total = count.get();
+		if (total == 0) {
+			return 0;
+		}
+		double p = Math.min(100, Math.max(0, percentile));
+		long rank = Math.max(1, (long) Math.ceil(p / 100 * total));
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += counts.get(i);
+			if (seen >= rank) {
+				return Math.min(highestEquivalentValue(i), getMax());
+			}
+		}
+		return getMax();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("count: %s, min: %s, mean: %.1f, p50: %s, p99: %s, p99.9: %s, max: %s", getCount(),
+				getMin(), getMean(), getValueAtPercentile(50), getValueAtPercentile(99),
+				getValueAtPercentile(99.9), getMax());
+	}
+
+	static int indexOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int shift = exponent - SUB_BUCKET_BITS + 1;
+		int subBucket = (int) (value >>> shift);
+		return SUB_BUCKETS + (shift - 1) * HALF_SUB_BUCKETS + (subBucket - HALF_SUB_BUCKETS);
+	}
+
+	static long highestEquivalentValue(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int offset = index - SUB_BUCKETS;
+		int shift = offset / HALF_SUB_BUCKETS + 1;
+		long subBucket = offset % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+		long next = (subBucket + 1) << shift;
+		// the last bucket ends at Long.MAX_VALUE
+		return next <= 0 ? Long.MAX_VALUE : next - 1;
+	}
+}
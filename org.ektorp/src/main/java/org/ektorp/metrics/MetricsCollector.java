@@ -0,0 +1,44 @@
+package org.ektorp.metrics;
+
+import org.apache.http.pool.PoolStats;
+
+/**
+ * Receives measurements of the requests made by StdHttpClient.
+ *
+ * Requests are tagged with their Operation and database name (the empty string for requests that are not directed to
+ * a database). Implementations are called from the request threads and must be thread safe and fast.
+ *
+ * Latency is measured up to the point where the response headers have been received. It includes the time spent
+ * waiting for a pooled connection, which is reported separately through connectionLeased when the connection manager
+ * is created by StdHttpClient.Builder.
+ * @see NoOpMetricsCollector
+ * @see InMemoryMetricsCollector
+ */
+public interface MetricsCollector {
+
+	void requestStarted(Operation operation, String database);
+
+	/**
+	 * Called when a response has been received, regardless of its status code.
+	 */
+	void requestCompleted(Operation operation, String database, int statusCode, long latencyNanos);
+
+	/**
+	 * Called when a request failed without a response, i.e. on connection errors and timeouts.
+	 */
+	void requestFailed(Operation operation, String database, Exception cause, long latencyNanos);
+
+	void bytesSent(Operation operation, String database, long bytes);
+
+	/**
+	 * Called when the content of a response has been closed with the number of bytes read by the application.
+	 */
+	void bytesReceived(Operation operation, String database, long bytes);
+
+	/**
+	 * @param waitNanos the time spent waiting for a connection from the pool
+	 * @param poolStats the state of the pool after the lease, null if the connection manager does not provide it.
+	 */
+	void connectionLeased(long waitNanos, PoolStats poolStats);
+
+}
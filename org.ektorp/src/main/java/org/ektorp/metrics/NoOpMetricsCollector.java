@@ -0,0 +1,39 @@
+package org.ektorp.metrics;
+
+import org.apache.http.pool.PoolStats;
+
+/**
+ * The default MetricsCollector. StdHttpClient does not measure anything when this collector is used.
+ */
+public final class NoOpMetricsCollector implements MetricsCollector {
+
+	public static final NoOpMetricsCollector INSTANCE = new NoOpMetricsCollector();
+
+	private NoOpMetricsCollector() {
+	}
+
+	@Override
+	public void requestStarted(Operation operation, String database) {
+	}
+
+	@Override
+	public void requestCompleted(Operation operation, String database, int statusCode, long latencyNanos) {
+	}
+
+	@Override
+	public void requestFailed(Operation operation, String database, Exception cause, long latencyNanos) {
+	}
+
+	@Override
+	public void bytesSent(Operation operation, String database, long bytes) {
+	}
+
+	@Override
+	public void bytesReceived(Operation operation, String database, long bytes) {
+	}
+
+	@Override
+	public void connectionLeased(long waitNanos, PoolStats poolStats) {
+	}
+
+}
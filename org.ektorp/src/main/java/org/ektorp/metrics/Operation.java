@@ -0,0 +1,88 @@
+package org.ektorp.metrics;
+
+/**
+ * The kind of operation a request performs, used to tag request metrics.
+ */
+public enum Operation {
+	/**
+	 * Document or attachment read.
+	 */
+	GET,
+	HEAD,
+	/**
+	 * Document or attachment write.
+	 */
+	PUT,
+	POST,
+	DELETE,
+	COPY,
+	/**
+	 * Requests to _bulk_docs.
+	 */
+	BULK,
+	/**
+	 * Requests to views, _all_docs and _design_docs.
+	 */
+	VIEW,
+	/**
+	 * Requests to _changes.
+	 */
+	CHANGES,
+	/**
+	 * Requests with other methods.
+	 */
+	OTHER;
+
+	/**
+	 * Classifies a request from its method and path.
+	 * @param method the http method
+	 * @param path the request path, with or without query string
+	 */
+	public static Operation classify(String method, String path) {
+		String p = stripQuery(path);
+		if (p.endsWith("/_bulk_docs")) {
+			return BULK;
+		}
+		if (p.contains("/_view/") || p.endsWith("/_all_docs") || p.endsWith("/_design_docs")) {
+			return VIEW;
+		}
+		if (p.endsWith("/_changes")) {
+			return CHANGES;
+		}
+		try {
+			return Operation.valueOf(method);
+		} catch (IllegalArgumentException e) {
+			return OTHER;
+		}
+	}
+
+	/**
+	 * @param path the request path, with or without query string
+	 * @return the database name of the path or the empty string if the request is not directed to a database, for
+	 *         example /_all_dbs or /_replicate.
+	 */
+	public static String databaseOf(String path) {
+		String p = stripQuery(path);
+		int start = 0;
+		int schemeEnd = p.indexOf("://");
+		if (schemeEnd != -1) {
+			start = p.indexOf('/', schemeEnd + 3);
+			if (start == -1) {
+				return "";
+			}
+		}
+		while (start < p.length() && p.charAt(start) == '/') {
+			start++;
+		}
+		if (start == p.length() || p.charAt(start) == '_') {
+			return "";
+		}
+		int end = p.indexOf('/', start);
+		return end == -1 ? p.substring(start) : p.substring(start, end);
+	}
+
+	private static String stripQuery(String path) {
+		int q = path.indexOf('?');
+		return q == -1 ? path : path.substring(0, q);
+	}
+}
@@ -0,0 +1,99 @@
+package org.ektorp.metrics;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The measurements of InMemoryMetricsCollector for one operation on one database.
+ */
+public class RequestStats {
+
+	private final Operation operation;
+	private final String database;
+
+	private final LatencyHistogram latency = new LatencyHistogram();
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicLong errors = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+	private final AtomicLong bytesSent = new AtomicLong();
+	private final AtomicLong bytesReceived = new AtomicLong();
+
+	RequestStats(Operation operation, String database) {
+		this.operation = operation;
+		this.database = database;
+	}
+
+	void started() {
+		inFlight.incrementAndGet();
+	}
+
+	void completed(int statusCode, long latencyNanos) {
+		inFlight.decrementAndGet();
+		latency.record(latencyNanos);
+		if (statusCode >= 400) {
+			errors.incrementAndGet();
+		}
+	}
+
+	void failed(long latencyNanos) {
+		inFlight.decrementAndGet();
+		latency.record(latencyNanos);
+		failures.incrementAndGet();
+	}
+
+	void sent(long bytes) {
+		bytesSent.addAndGet(bytes);
+	}
+
+	void received(long bytes) {
+		bytesReceived.addAndGet(bytes);
+	}
+
+	public Operation getOperation() {
+		return operation;
+	}
+
+	public String getDatabase() {
+		return database;
+	}
+
+	/**
+	 * @return the latency of completed and failed requests in nanoseconds.
+	 */
+	public LatencyHistogram getLatency() {
+		return latency;
+	}
+
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	/**
+	 * @return the number of responses with status 400 or above.
+	 */
+	public long getErrors() {
+		return errors.get();
+	}
+
+	/**
+	 * @return the number of requests that failed without a response.
+	 */
+	public long getFailures() {
+		return failures.get();
+	}
+
+	public long getBytesSent() {
+		return bytesSent.get();
+	}
+
+	public long getBytesReceived() {
+		return bytesReceived.get();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s %s: in flight: %s, errors: %s, failures: %s, sent: %s, received: %s, latency [ns]: %s",
+				operation, database, getInFlight(), getErrors(), getFailures(), getBytesSent(), getBytesReceived(),
+				latency);
+	}
+}
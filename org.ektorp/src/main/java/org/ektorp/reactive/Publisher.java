@@ -0,0 +1,19 @@
+package org.ektorp.reactive;
+
+/**
+ * A provider of a potentially unbounded number of elements, published according to the demand received from its
+ * Subscribers.
+ *
+ * Mirrors org.reactivestreams.Publisher and java.util.concurrent.Flow.Publisher, so that an adapter to either is a
+ * matter of forwarding calls.
+ *
+ * @param <T> the type of element signaled.
+ */
+public interface Publisher<T> {
+	/**
+	 * Each call starts a new subscription, i.e. a new request to the database.
+	 * @param s
+	 */
+	void subscribe(Subscriber<? super T> s);
+
+}
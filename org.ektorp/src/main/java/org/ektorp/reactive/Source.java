@@ -0,0 +1,21 @@
+package org.ektorp.reactive;
+
+/**
+ * A blocking source of elements read one at a time by a SourcePublisher.
+ *
+ * @param <T>
+ */
+public interface Source<T> {
+	/**
+	 * Is never called concurrently.
+	 * @return the next element, or null when the source is exhausted.
+	 * @throws Exception
+	 */
+	T read() throws Exception;
+	/**
+	 * Releases the resources of this source. May be called from another thread while read() is blocked, in which case
+	 * the read should fail or return null promptly.
+	 */
+	void close();
+
+}
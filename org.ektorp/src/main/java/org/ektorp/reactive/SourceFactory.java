@@ -0,0 +1,12 @@
+package org.ektorp.reactive;
+
+/**
+ * Opens a new Source for each subscription of a SourcePublisher.
+ *
+ * @param <T>
+ */
+public interface SourceFactory<T> {
+
+	Source<T> open();
+
+}
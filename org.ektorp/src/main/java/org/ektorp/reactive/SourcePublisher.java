@@ -0,0 +1,202 @@
+package org.ektorp.reactive;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.ektorp.util.Assert;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Publishes the elements of a blocking Source according to the demand of the subscriber.
+ *
+ * Elements are read on a thread of the executor, and only while there is outstanding demand. When the demand is
+ * exhausted the source is left unread, so a source backed by a http response applies back pressure all the way to the
+ * database through TCP flow control. The source is opened on the first request, not on subscribe, and is closed when
+ * it is exhausted, when it fails or when the subscription is cancelled.
+ *
+ * Signals to a subscriber are never concurrent, but may be made from different threads of the executor.
+ *
+ * This is not a non-blocking publisher. Source.read() blocks, so a subscription with outstanding demand holds one
+ * executor thread for as long as the read takes, which for a continuous changes feed is until the next change arrives.
+ * A subscription without demand holds no thread. The executor must therefore be able to run one task per subscription
+ * with outstanding demand; a bounded pool shared with other work can be starved. The default executor creates threads
+ * as needed for this reason.
+ *
+ * @param <T>
+ */
+public class SourcePublisher<T> implements Publisher<T> {
+
+	private final static Logger LOG = LoggerFactory.getLogger(SourcePublisher.class);
+	private final static AtomicInteger THREAD_COUNT = new AtomicInteger();
+	private static volatile ExecutorService defaultExecutor;
+
+	private final SourceFactory<T> factory;
+	private final Executor executor;
+
+	/**
+	 * Uses an unbounded pool of daemon threads that is shared by all publishers using the default.
+	 */
+	public SourcePublisher(SourceFactory<T> factory) {
+		this(factory, defaultExecutor());
+	}
+
+	/**
+	 * @param executor runs the blocking reads, see the class comment for how to size it.
+	 */
+	public SourcePublisher(SourceFactory<T> factory, Executor executor) {
+		Assert.notNull(factory, "factory may not be null");
+		Assert.notNull(executor, "executor may not be null");
+		this.factory = factory;
+		this.executor = executor;
+	}
+
+	public void subscribe(Subscriber<? super T> s) {
+		Assert.notNull(s, "subscriber may not be null");
+		s.onSubscribe(new SourceSubscription(s));
+	}
+
+	private static ExecutorService defaultExecutor() {
+		if (defaultExecutor == null) {
+			synchronized (SourcePublisher.class) {
+				if (defaultExecutor == null) {
+					defaultExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable r) {
+							Thread t = new Thread(r, String.format("ektorp-publisher-thread-%s", THREAD_COUNT.incrementAndGet()));
+							t.setDaemon(true);
+							return t;
+						}
+					});
+				}
+			}
+		}
+		return defaultExecutor;
+	}
+
+	private class SourceSubscription implements Subscription, Runnable {
+
+		private final Subscriber<? super T> subscriber;
+		private final AtomicLong demand = new AtomicLong();
+		private final AtomicInteger wip = new AtomicInteger();
+		private final AtomicBoolean closed = new AtomicBoolean();
+		private volatile boolean cancelled;
+		private volatile Source<T> source;
+		private volatile Throwable invalidRequest;
+		// only accessed by the draining thread
+		private boolean done;
+
+		SourceSubscription(Subscriber<? super T> subscriber) {
+			this.subscriber = subscriber;
+		}
+
+		public void request(long n) {
+			if (n <= 0) {
+				invalidRequest = new IllegalArgumentException("request must be greater than 0, was " + n);
+			} else {
+				long current;
+				long next;
+				do {
+					current = demand.get();
+					next = current + n < 0 ? Long.MAX_VALUE : current + n;
+				} while (!demand.compareAndSet(current, next));
+			}
+			schedule();
+		}
+
+		public void cancel() {
+			cancelled = true;
+			closeSource();
+		}
+
+		private void schedule() {
+			if (wip.getAndIncrement() == 0) {
+				executor.execute(this);
+			}
+		}
+
+		public void run() {
+			int missed = 1;
+			do {
+				drain();
+				missed = wip.addAndGet(-missed);
+			} while (missed != 0);
+		}
+
+		private void drain() {
+			if (done) {
+				return;
+			}
+			if (cancelled) {
+				done = true;
+				closeSource();
+				return;
+			}
+			if (invalidRequest != null) {
+				cancel();
+				terminate(invalidRequest);
+				return;
+			}
+			while (demand.get() > 0 && !cancelled) {
+				T next;
+				try {
+					if (source == null) {
+						source = factory.open();
+						if (cancelled) {
+							closeSource();
+							return;
+						}
+					}
+					next = source.read();
+				} catch (Throwable e) {
+					closeSource();
+					if (!cancelled) {
+						terminate(e);
+					}
+					done = true;
+					return;
+				}
+				if (next == null) {
+					done = true;
+					closeSource();
+					if (!cancelled) {
+						subscriber.onComplete();
+					}
+					return;
+				}
+				if (demand.get() != Long.MAX_VALUE) {
+					demand.decrementAndGet();
+				}
+				try {
+					subscriber.onNext(next);
+				} catch (RuntimeException e) {
+					LOG.error("Subscriber threw exception from onNext, cancelling subscription", e);
+					cancel();
+					done = true;
+					return;
+				}
+			}
+		}
+
+		private void terminate(Throwable e) {
+			done = true;
+			subscriber.onError(e);
+		}
+
+		private void closeSource() {
+			Source<T> s = source;
+			if (s != null && closed.compareAndSet(false, true)) {
+				try {
+					s.close();
+				} catch (RuntimeException e) {
+					LOG.debug("Exception while closing source", e);
+				}
+			}
+		}
+	}
+}
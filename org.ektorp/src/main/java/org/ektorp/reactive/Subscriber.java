@@ -0,0 +1,18 @@
+package org.ektorp.reactive;
+
+/**
+ * Receives the elements of a Publisher. Mirrors org.reactivestreams.Subscriber.
+ *
+ * @param <T> the type of element signaled.
+ */
+public interface Subscriber<T> {
+
+	void onSubscribe(Subscription s);
+
+	void onNext(T t);
+
+	void onError(Throwable t);
+
+	void onComplete();
+
+}
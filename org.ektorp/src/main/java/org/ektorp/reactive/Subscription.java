@@ -0,0 +1,17 @@
+package org.ektorp.reactive;
+
+/**
+ * The link between a Publisher and one of its Subscribers. Mirrors org.reactivestreams.Subscription.
+ */
+public interface Subscription {
+	/**
+	 * Adds n to the number of elements the subscriber is ready to receive.
+	 * @param n must be greater than 0.
+	 */
+	void request(long n);
+	/**
+	 * Stops the publishing of elements and aborts the underlying request.
+	 */
+	void cancel();
+
+}
@@ -0,0 +1,133 @@
+package org.ektorp;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.ektorp.ViewResult.Row;
+import org.ektorp.http.HttpResponse;
+import org.ektorp.impl.HttpResponseStub;
+import org.ektorp.support.CouchDbDocument;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class StreamingViewResultTest {
+
+	ObjectMapper mapper = new ObjectMapper();
+
+	@Test
+	public void rows_should_be_read_regardless_of_line_formatting() {
+		String json = "{\"total_rows\":3,\"offset\":1,\"rows\":[{\"id\":\"a\",\"key\":\"ka\",\"value\":1},"
+				+ "{\"id\":\"b\",\"key\":\"kb\",\"value\":2},{\"id\":\"c\",\"key\":\"kc\",\"value\":3}]}";
+		StreamingViewResult result = new StreamingViewResult(mapper, HttpResponseStub.valueOf(200, json), false);
+		assertEquals(3, result.getTotalRows());
+		assertEquals(1, result.getOffset());
+		Iterator<Row> it = result.iterator();
+		assertEquals("a", it.next().getId());
+		assertEquals("kb", it.next().getKey());
+		assertEquals(3, it.next().getValueAsInt());
+		assertFalse(it.hasNext());
+	}
+
+	@Test
+	public void fields_after_rows_should_be_available_when_iteration_has_completed() {
+		String json = "{\"rows\":[\n{\"id\":\"a\",\"key\":\"ka\",\"value\":1}\n],\n\"total_rows\":1,\n\"offset\":0}";
+		StreamingViewResult result = new StreamingViewResult(mapper, HttpResponseStub.valueOf(200, json), false);
+		assertEquals(-1, result.getTotalRows());
+		Iterator<Row> it = result.iterator();
+		it.next();
+		assertFalse(it.hasNext());
+		assertEquals(1, result.getTotalRows());
+		assertEquals(0, result.getOffset());
+	}
+
+	@Test
+	public void error_rows_should_be_skipped_when_not_found_is_ignored() {
+		String json = "{\"rows\":[{\"key\":\"x\",\"error\":\"not_found\"},{\"id\":\"a\",\"key\":\"a\",\"value\":1}]}";
+		StreamingViewResult result = new StreamingViewResult(mapper, HttpResponseStub.valueOf(200, json), true);
+		Iterator<Row> it = result.iterator();
+		assertEquals("a", it.next().getId());
+		assertFalse(it.hasNext());
+	}
+
+	@Test
+	public void empty_result_should_have_no_rows() {
+		String json = "{\"total_rows\":0,\"offset\":0,\"rows\":[]}";
+		StreamingViewResult result = new StreamingViewResult(mapper, HttpResponseStub.valueOf(200, json), false);
+		assertFalse(result.iterator().hasNext());
+	}
+
+	@Test
+	public void typed_result_should_bind_included_docs() {
+		String json = "{\"total_rows\":2,\"offset\":0,\"rows\":["
+				+ "{\"id\":\"doc_id1\",\"key\":[1,\"a\"],\"value\":{\"rev\":\"1-a\"},\"doc\":{\"_id\":\"doc_id1\",\"_rev\":\"1-a\",\"name\":\"foo\"}},"
+				+ "{\"id\":\"doc_id2\",\"key\":[2,\"b\"],\"value\":{\"rev\":\"1-b\"},\"doc\":{\"_id\":\"doc_id2\",\"_rev\":\"1-b\",\"name\":\"bar\"}}]}";
+		TypedStreamingViewResult<TestDoc> result = new TypedStreamingViewResult<TestDoc>(mapper,
+				HttpResponseStub.valueOf(200, json), TestDoc.class, false);
+		Iterator<TestDoc> it = result.iterator();
+		assertEquals("foo", it.next().getName());
+		assertEquals("doc_id1", result.getCurrentId());
+		assertEquals("bar", it.next().getName());
+		assertEquals("doc_id2", result.getCurrentId());
+		assertEquals(2, result.getCurrentKey().get(0).intValue());
+		assertFalse(it.hasNext());
+	}
+
+	@Test
+	public void typed_result_should_bind_values_when_docs_are_not_included() {
+		String json = "{\"rows\":[{\"id\":\"a\",\"key\":\"a\",\"value\":{\"name\":\"foo\"}}]}";
+		TypedStreamingViewResult<TestDoc> result = new TypedStreamingViewResult<TestDoc>(mapper,
+				HttpResponseStub.valueOf(200, json), TestDoc.class, false);
+		Iterator<TestDoc> it = result.iterator();
+		assertEquals("foo", it.next().getName());
+		assertFalse(it.hasNext());
+	}
+
+	@Test(expected = ViewResultException.class)
+	public void typed_result_should_throw_on_error_row() {
+		String json = "{\"rows\":[{\"key\":\"x\",\"error\":\"not_found\"}]}";
+		TypedStreamingViewResult<TestDoc> result = new TypedStreamingViewResult<TestDoc>(mapper,
+				HttpResponseStub.valueOf(200, json), TestDoc.class, false);
+		result.iterator().hasNext();
+	}
+
+	@Test
+	public void error_row_should_close_the_stream() throws Exception {
+		String json = "{\"rows\":[{\"key\":\"x\",\"error\":\"not_found\"},{\"key\":\"y\",\"value\":{}}]}";
+		final AtomicBoolean closed = new AtomicBoolean();
+		HttpResponse response = mock(HttpResponse.class);
+		when(response.getContent()).thenReturn(new ByteArrayInputStream(json.getBytes("UTF-8")) {
+			@Override
+			public void close() throws IOException {
+				closed.set(true);
+			}
+		});
+		TypedStreamingViewResult<TestDoc> result = new TypedStreamingViewResult<TestDoc>(mapper, response,
+				TestDoc.class, false);
+		try {
+			result.iterator().hasNext();
+			fail("expected ViewResultException");
+		} catch (ViewResultException e) {
+			assertTrue(closed.get());
+		}
+	}
+
+	@SuppressWarnings("serial")
+	public static class TestDoc extends CouchDbDocument {
+
+		private String name;
+
+		public String getName() {
+			return name;
+		}
+
+		public void setName(String name) {
+			this.name = name;
+		}
+	}
+}
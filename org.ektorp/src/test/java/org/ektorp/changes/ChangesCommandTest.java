@@ -2,6 +2,10 @@ package org.ektorp.changes;
 
 import static org.junit.Assert.*;
 
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import org.junit.*;
 
 public class ChangesCommandTest {
@@ -27,4 +31,60 @@ public class ChangesCommandTest {
 										.param("paramName", "paramValue")
 										.build().toString());
 	}
+
+	@Test
+	public void queue_settings_should_not_be_sent_and_should_be_merged() {
+		ChangesCommand cmd = new ChangesCommand.Builder()
+										.queueCapacity(500)
+										.overflowPolicy(OverflowPolicy.SPILL_TO_DISK)
+										.build();
+		assertEquals("_changes", cmd.toString());
+		ChangesCommand merged = new ChangesCommand.Builder().merge(cmd).build();
+		assertEquals(500, merged.queueCapacity);
+		assertEquals(OverflowPolicy.SPILL_TO_DISK, merged.overflowPolicy);
+	}
+
+	@Test
+	public void selector_should_be_sent_in_body() {
+		Map<String, Object> selector = new LinkedHashMap<String, Object>();
+		selector.put("type", "order");
+		ChangesCommand cmd = new ChangesCommand.Builder()
+										.since(10)
+										.selector(selector)
+										.build();
+		assertTrue(cmd.hasBody());
+		assertEquals("_changes?since=10&filter=_selector", cmd.toString());
+		assertEquals("{\"selector\":{\"type\":\"order\"}}", cmd.getBodyAsJson());
+		assertEquals(cmd.getBodyAsJson(), new ChangesCommand.Builder().merge(cmd).build().getBodyAsJson());
+	}
+
+	@Test
+	public void selector_may_be_a_json_string() {
+		ChangesCommand cmd = new ChangesCommand.Builder()
+										.selector("{\"type\": {\"$eq\": \"order\"}}")
+										.build();
+		assertEquals("{\"selector\":{\"type\":{\"$eq\":\"order\"}}}", cmd.getBodyAsJson());
+	}
+
+	@Test
+	public void docIds_should_be_sent_in_body() {
+		ChangesCommand cmd = new ChangesCommand.Builder()
+										.continuous(true)
+										.docIds(Arrays.asList("a", "b"))
+										.build();
+		assertEquals("_changes?feed=continuous&filter=_doc_ids", cmd.toString());
+		assertEquals("{\"doc_ids\":[\"a\",\"b\"]}", cmd.getBodyAsJson());
+	}
+
+	@Test
+	public void command_without_selector_or_docIds_should_not_have_body() {
+		ChangesCommand cmd = new ChangesCommand.Builder().filter("mydesigndoc/myfilter").build();
+		assertFalse(cmd.hasBody());
+		assertNull(cmd.getBodyAsJson());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void selector_and_docIds_should_not_be_combined() {
+		new ChangesCommand.Builder().selector("{}").docIds(Arrays.asList("a"));
+	}
 }
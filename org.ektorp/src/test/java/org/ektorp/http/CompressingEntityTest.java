@@ -0,0 +1,44 @@
+package org.ektorp.http;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Collections;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.entity.StringEntity;
+import org.ektorp.impl.StdObjectMapperFactory;
+import org.junit.Test;
+
+public class CompressingEntityTest {
+
+	@Test
+	public void gzip_entity_should_be_readable_with_gzip() throws Exception {
+		CompressingEntity e = new CompressingEntity(new StringEntity("{\"docs\":[]}", "UTF-8"), CompressingEntity.Encoding.GZIP);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		e.writeTo(out);
+		assertEquals("{\"docs\":[]}", IOUtils.toString(new GZIPInputStream(new ByteArrayInputStream(out.toByteArray())), "UTF-8"));
+		assertEquals("gzip", e.getContentEncoding().getValue());
+		assertEquals(-1, e.getContentLength());
+		assertTrue(e.isChunked());
+	}
+
+	@Test
+	public void deflate_entity_should_be_readable_with_inflater() throws Exception {
+		CompressingEntity e = new CompressingEntity(new StringEntity("{\"docs\":[]}", "UTF-8"), CompressingEntity.Encoding.DEFLATE);
+		assertEquals("{\"docs\":[]}", IOUtils.toString(new InflaterInputStream(e.getContent()), "UTF-8"));
+		assertEquals("deflate", e.getContentEncoding().getValue());
+	}
+
+	@Test
+	public void entity_that_closes_the_stream_should_be_finished() throws Exception {
+		// ObjectMapper closes the stream it writes to by default
+		JacksonableEntity json = new JacksonableEntity(Collections.singletonMap("docs", "x"),
+				new StdObjectMapperFactory().createObjectMapper());
+		CompressingEntity e = new CompressingEntity(json, CompressingEntity.Encoding.GZIP);
+		assertEquals("{\"docs\":\"x\"}", IOUtils.toString(new GZIPInputStream(e.getContent()), "UTF-8"));
+	}
+}
@@ -0,0 +1,100 @@
+package org.ektorp.http;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.ektorp.ConcurrencyLimitExceededException;
+import org.ektorp.metrics.Operation;
+import org.junit.Test;
+
+public class ConcurrencyLimiterTest {
+
+	@Test
+	public void acquire_should_fail_fast_when_limit_is_reached() {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter.Builder().limits(2, 1, 2).maxWait(0, TimeUnit.SECONDS).build();
+		limiter.acquire();
+		limiter.acquire();
+		try {
+			limiter.acquire();
+			fail("expected ConcurrencyLimitExceededException");
+		} catch (ConcurrencyLimitExceededException e) {
+			// expected
+		}
+		assertEquals(2, limiter.getInFlight());
+		assertEquals(1, limiter.getRejectedCount());
+	}
+
+	@Test
+	public void acquire_should_wait_for_release() throws Exception {
+		final ConcurrencyLimiter limiter = new ConcurrencyLimiter.Builder().limits(1, 1, 1).maxWait(5, TimeUnit.SECONDS).build();
+		final long start = limiter.acquire();
+		Thread t = new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException e) {
+					return;
+				}
+				limiter.release(start, false);
+			}
+		};
+		t.start();
+		limiter.acquire();
+		assertEquals(1, limiter.getInFlight());
+		assertEquals(0, limiter.getRejectedCount());
+		t.join();
+	}
+
+	@Test
+	public void overload_should_decrease_limit_once_per_round_trip() {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter.Builder().limits(10, 1, 20).build();
+		long first = limiter.acquire();
+		long second = limiter.acquire();
+		limiter.release(first, true);
+		assertEquals(9, limiter.getLimit());
+		// sent before the decrease
+		limiter.release(second, true);
+		assertEquals(9, limiter.getLimit());
+		limiter.release(limiter.acquire(), true);
+		assertEquals(8, limiter.getLimit());
+	}
+
+	@Test
+	public void steady_latency_should_increase_limit_up_to_max() {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter.Builder().limits(10, 1, 12).build();
+		for (int i = 0; i < 100; i++) {
+			limiter.acquire();
+			limiter.release(System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(1), false);
+		}
+		assertEquals(12, limiter.getLimit());
+		assertEquals(0, limiter.getInFlight());
+	}
+
+	@Test
+	public void slow_request_should_decrease_limit() throws Exception {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter.Builder().limits(10, 1, 20).build();
+		limiter.acquire();
+		limiter.release(System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(1), false);
+		long start = limiter.acquire();
+		Thread.sleep(10);
+		limiter.release(start, false);
+		assertEquals(9, limiter.getLimit());
+	}
+
+	@Test
+	public void slow_operations_should_not_decrease_limit_when_mixed_with_fast_ones() {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter.Builder().limits(10, 1, 12).build();
+		long fast = TimeUnit.MILLISECONDS.toNanos(1);
+		long slow = TimeUnit.MILLISECONDS.toNanos(200);
+		for (int i = 0; i < 100; i++) {
+			limiter.release(limiter.acquire(), Operation.GET, fast, false);
+			limiter.release(limiter.acquire(), Operation.VIEW, slow, false);
+		}
+		assertEquals(12, limiter.getLimit());
+
+		limiter.release(limiter.acquire(), Operation.GET, slow, false);
+		assertEquals(10, limiter.getLimit());
+	}
+}
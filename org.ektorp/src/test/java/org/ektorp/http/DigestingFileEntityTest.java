@@ -0,0 +1,36 @@
+package org.ektorp.http;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+public class DigestingFileEntityTest {
+
+	@Test
+	public void file_content_should_be_written_and_digested() throws Exception {
+		byte[] content = new byte[100000];
+		for (int i = 0; i < content.length; i++) {
+			content[i] = (byte) i;
+		}
+		File file = File.createTempFile("ektorp", ".bin");
+		file.deleteOnExit();
+		FileUtils.writeByteArrayToFile(file, content);
+
+		DigestingFileEntity entity = new DigestingFileEntity(file, "application/octet-stream");
+		assertEquals(content.length, entity.getContentLength());
+		assertNull(entity.getMd5Digest());
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		entity.writeTo(out);
+
+		assertTrue(Arrays.equals(content, out.toByteArray()));
+		assertTrue(Arrays.equals(MessageDigest.getInstance("MD5").digest(content), entity.getMd5Digest()));
+		assertTrue(entity.isRepeatable());
+	}
+}
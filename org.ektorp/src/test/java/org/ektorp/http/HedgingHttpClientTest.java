@@ -0,0 +1,194 @@
+package org.ektorp.http;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpEntity;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HedgingHttpClientTest {
+
+	HttpClient delegate;
+	HttpResponse slow;
+	HttpResponse fast;
+	CountDownLatch slowReturned = new CountDownLatch(1);
+	HedgingHttpClient client;
+
+	@Before
+	public void setUp() {
+		delegate = mock(HttpClient.class);
+		slow = mock(HttpResponse.class);
+		fast = mock(HttpResponse.class);
+	}
+
+	@After
+	public void tearDown() {
+		if (client != null) {
+			client.shutdown();
+		}
+	}
+
+	@Test
+	public void slow_read_should_be_hedged_and_loser_aborted() throws Exception {
+		client = new HedgingHttpClient.Builder(new SlowFirstClient()).delay(20, 20, TimeUnit.MILLISECONDS).budget(1).build();
+
+		assertSame(fast, client.get("/db/doc"));
+		assertEquals(1, client.getStats().getHedges());
+		assertEquals(1, client.getStats().getHedgeWins());
+
+		assertTrue(slowReturned.await(5, TimeUnit.SECONDS));
+		verify(slow, timeout(5000)).abort();
+		verify(fast, never()).abort();
+	}
+
+	@Test
+	public void hedge_should_answer_when_first_attempt_fails() {
+		client = new HedgingHttpClient.Builder(new FailingFirstClient()).delay(20, 20, TimeUnit.MILLISECONDS).budget(1).build();
+
+		assertSame(fast, client.get("/db/doc"));
+		assertEquals(1, client.getStats().getHedges());
+		assertEquals(1, client.getStats().getHedgeWins());
+		verify(fast, never()).abort();
+	}
+
+	@Test
+	public void fast_read_should_not_be_hedged() {
+		HttpResponse rsp = mock(HttpResponse.class);
+		when(delegate.head("/db/doc")).thenReturn(rsp);
+		client = new HedgingHttpClient.Builder(delegate).delay(1, 1, TimeUnit.SECONDS).budget(1).build();
+
+		assertSame(rsp, client.head("/db/doc"));
+		assertEquals(1, client.getStats().getReads());
+		assertEquals(0, client.getStats().getHedges());
+		verify(delegate, times(1)).head("/db/doc");
+	}
+
+	@Test
+	public void hedges_should_be_limited_by_budget() {
+		SlowFirstClient d = new SlowFirstClient();
+		client = new HedgingHttpClient.Builder(d).delay(20, 20, TimeUnit.MILLISECONDS).budget(0).build();
+
+		assertSame(slow, client.get("/db/doc"));
+		assertEquals(0, client.getStats().getHedges());
+		assertEquals(1, client.getStats().getBudgetExhausted());
+		assertEquals(1, d.calls);
+	}
+
+	@Test
+	public void writes_should_not_be_hedged() {
+		client = new HedgingHttpClient.Builder(delegate).build();
+		client.put("/db/doc", "{}");
+		verify(delegate, times(1)).put("/db/doc", "{}");
+		assertEquals(0, client.getStats().getReads());
+	}
+
+	/**
+	 * Fails the first get after 100 ms and answers the following ones after 100 ms, so that the failure is seen
+	 * before the hedge's response.
+	 */
+	class FailingFirstClient extends SlowFirstClient {
+
+		@Override
+		public HttpResponse get(String uri) {
+			boolean first;
+			synchronized (this) {
+				first = calls++ == 0;
+			}
+			try {
+				Thread.sleep(100);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			if (first) {
+				throw new IllegalStateException("connection reset");
+			}
+			return fast;
+		}
+	}
+
+	/**
+	 * Answers the first get after 300 ms and the following ones at once. Not a mock, as Mockito serializes
+	 * concurrent invocations of a mock.
+	 */
+	class SlowFirstClient implements HttpClient {
+
+		int calls;
+
+		public HttpResponse get(String uri) {
+			synchronized (this) {
+				if (calls++ > 0) {
+					return fast;
+				}
+			}
+			try {
+				Thread.sleep(300);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			slowReturned.countDown();
+			return slow;
+		}
+
+		public HttpResponse get(String uri, Map<String, String> headers) {
+			throw new UnsupportedOperationException();
+		}
+
+		public HttpResponse put(String uri, String content) {
+			throw new UnsupportedOperationException();
+		}
+
+		public HttpResponse put(String uri) {
+			throw new UnsupportedOperationException();
+		}
+
+		public HttpResponse put(String uri, InputStream data, String contentType, long contentLength) {
+			throw new UnsupportedOperationException();
+		}
+
+		public HttpResponse put(String uri, HttpEntity httpEntity) {
+			throw new UnsupportedOperationException();
+		}
+
+		public HttpResponse post(String uri, String content) {
+			throw new UnsupportedOperationException();
+		}
+
+		public HttpResponse post(String uri, InputStream content) {
+			throw new UnsupportedOperationException();
+		}
+
+		public HttpResponse post(String uri, HttpEntity httpEntity) {
+			throw new UnsupportedOperationException();
+		}
+
+		public HttpResponse delete(String uri) {
+			throw new UnsupportedOperationException();
+		}
+
+		public HttpResponse head(String uri) {
+			throw new UnsupportedOperationException();
+		}
+
+		public HttpResponse getUncached(String uri) {
+			throw new UnsupportedOperationException();
+		}
+
+		public HttpResponse postUncached(String uri, String content) {
+			throw new UnsupportedOperationException();
+		}
+
+		public HttpResponse copy(String sourceUri, String destination) {
+			throw new UnsupportedOperationException();
+		}
+
+		public void shutdown() {
+		}
+	}
+}
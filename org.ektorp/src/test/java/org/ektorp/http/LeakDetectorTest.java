@@ -0,0 +1,54 @@
+package org.ektorp.http;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class LeakDetectorTest {
+
+	@Test
+	public void disabled_detector_should_not_track() {
+		LeakDetector detector = new LeakDetector(LeakDetector.Level.DISABLED, 1);
+		assertNull(detector.track(new Object(), "leak"));
+	}
+
+	@Test
+	public void sampled_detector_should_track_one_in_interval() {
+		LeakDetector detector = new LeakDetector(LeakDetector.Level.SAMPLED, 4);
+		int tracked = 0;
+		for (int i = 0; i < 16; i++) {
+			LeakDetector.Tracker t = detector.track(new Object(), "leak");
+			if (t != null) {
+				tracked++;
+				t.close();
+			}
+		}
+		assertEquals(4, tracked);
+	}
+
+	@Test
+	public void unreleased_object_should_be_reported_as_leak() throws Exception {
+		LeakDetector detector = new LeakDetector(LeakDetector.Level.PARANOID, 1);
+		assertNotNull(detector.track(new Object(), "leak"));
+		assertTrue(awaitLeaks(detector, 1));
+		assertEquals(1, detector.getLeakCount());
+	}
+
+	@Test
+	public void released_object_should_not_be_reported() throws Exception {
+		LeakDetector detector = new LeakDetector(LeakDetector.Level.PARANOID, 1);
+		detector.track(new Object(), "released").close();
+		assertNotNull(detector.track(new Object(), "leak"));
+		assertTrue(awaitLeaks(detector, 1));
+		assertEquals(1, detector.getLeakCount());
+	}
+
+	private boolean awaitLeaks(LeakDetector detector, int expected) throws InterruptedException {
+		for (int i = 0; i < 50 && detector.getLeakCount() < expected; i++) {
+			System.gc();
+			Thread.sleep(20);
+			detector.reportLeaks();
+		}
+		return detector.getLeakCount() >= expected;
+	}
+}
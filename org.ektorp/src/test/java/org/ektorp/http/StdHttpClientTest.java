@@ -1,8 +1,24 @@
 package org.ektorp.http;
 
 import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
 
+import java.io.ByteArrayInputStream;
+import java.util.EnumSet;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.ektorp.http.clientconfig.HttpClientRequestExecutor;
+import org.ektorp.impl.HttpResponseStub;
+import org.ektorp.metrics.InMemoryMetricsCollector;
+import org.ektorp.metrics.NoOpMetricsCollector;
+import org.ektorp.metrics.Operation;
+import org.ektorp.metrics.RequestStats;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 
 public class StdHttpClientTest {
 
@@ -19,4 +35,78 @@ public class StdHttpClientTest {
 		StdHttpClient.Builder b = new StdHttpClient.Builder().url("https://somehost:8989");
 		assertTrue(b.enableSSL);
 	}
+
+	@Test
+	public void requests_should_be_reported_to_metrics_collector() throws Exception {
+		HttpClientRequestExecutor executor = mock(HttpClientRequestExecutor.class);
+		when(executor.executeRequest(any(HttpUriRequest.class), anyBoolean()))
+			.thenReturn(HttpResponseStub.valueOf(200, "{\"rows\":[]}"))
+			.thenReturn(HttpResponseStub.valueOf(404, "{\"error\":\"not_found\"}"));
+		InMemoryMetricsCollector metrics = new InMemoryMetricsCollector();
+		StdHttpClient client = new StdHttpClient(executor, metrics);
+
+		HttpResponse rsp = client.get("/db/_design/d/_view/v");
+		assertEquals("{\"rows\":[]}", IOUtils.toString(rsp.getContent()));
+		rsp.releaseConnection();
+		client.get("/db/doc_id").releaseConnection();
+
+		RequestStats view = metrics.getRequestStats(Operation.VIEW, "db");
+		assertEquals(1, view.getLatency().getCount());
+		assertEquals(11, view.getBytesReceived());
+		assertEquals(0, view.getInFlight());
+		assertEquals(1, metrics.getRequestStats(Operation.GET, "db").getErrors());
+		assertEquals(Long.valueOf(1), metrics.getErrorCountsByStatus().get(404));
+	}
+
+	@Test
+	public void large_bulk_bodies_should_be_compressed() throws Exception {
+		HttpClientRequestExecutor executor = mock(HttpClientRequestExecutor.class);
+		when(executor.executeRequest(any(HttpUriRequest.class), anyBoolean()))
+			.thenReturn(HttpResponseStub.valueOf(201, "[]"));
+		StdHttpClient client = new StdHttpClient(executor, NoOpMetricsCollector.INSTANCE,
+				new RequestCompression(CompressingEntity.Encoding.GZIP, 10, Operation.BULK));
+
+		client.post("/db/_bulk_docs", "{\"docs\":[{\"_id\":\"a\"}]}");
+		client.post("/db/_bulk_docs", "{}");
+		client.post("/db/_find", "{\"selector\":{\"type\":\"order\"}}");
+
+		ArgumentCaptor<HttpUriRequest> requests = ArgumentCaptor.forClass(HttpUriRequest.class);
+		verify(executor, times(3)).executeRequest(requests.capture(), anyBoolean());
+		assertTrue(entityOf(requests.getAllValues().get(0)) instanceof CompressingEntity);
+		assertFalse(entityOf(requests.getAllValues().get(1)) instanceof CompressingEntity);
+		assertFalse(entityOf(requests.getAllValues().get(2)) instanceof CompressingEntity);
+	}
+
+	@Test
+	public void attachments_should_never_be_compressed() throws Exception {
+		HttpClientRequestExecutor executor = mock(HttpClientRequestExecutor.class);
+		when(executor.executeRequest(any(HttpUriRequest.class), anyBoolean()))
+			.thenReturn(HttpResponseStub.valueOf(201, "{}"));
+		StdHttpClient client = new StdHttpClient(executor, NoOpMetricsCollector.INSTANCE,
+				new RequestCompression(CompressingEntity.Encoding.GZIP, 0, Operation.PUT));
+		byte[] json = "{\"a\":1}".getBytes("UTF-8");
+
+		client.put("/db/doc", "{\"_id\":\"doc\"}");
+		client.put("/db/doc/photo.jpg", new ByteArrayInputStream(new byte[100]), "image/jpeg", 100);
+		client.put("/db/doc/data.json?rev=1-a", new ByteArrayInputStream(json), "application/json", json.length);
+		client.put("/db/_design/app/data.json", new ByteArrayInputStream(json), "application/json", json.length);
+		client.put("/db/_design/app", "{\"_id\":\"_design/app\"}");
+
+		ArgumentCaptor<HttpUriRequest> requests = ArgumentCaptor.forClass(HttpUriRequest.class);
+		verify(executor, times(5)).executeRequest(requests.capture(), anyBoolean());
+		assertTrue(entityOf(requests.getAllValues().get(0)) instanceof CompressingEntity);
+		assertFalse(entityOf(requests.getAllValues().get(1)) instanceof CompressingEntity);
+		assertFalse(entityOf(requests.getAllValues().get(2)) instanceof CompressingEntity);
+		assertFalse(entityOf(requests.getAllValues().get(3)) instanceof CompressingEntity);
+		assertTrue(entityOf(requests.getAllValues().get(4)) instanceof CompressingEntity);
+	}
+
+	@Test
+	public void only_bulk_bodies_should_be_compressed_by_default() {
+		assertEquals(EnumSet.of(Operation.BULK), new RequestCompression(CompressingEntity.Encoding.GZIP).getOperations());
+	}
+
+	private HttpEntity entityOf(HttpUriRequest request) {
+		return ((HttpEntityEnclosingRequest) request).getEntity();
+	}
 }
@@ -0,0 +1,78 @@
+package org.ektorp.http.clientconfig;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Mockito.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.ektorp.http.ConcurrencyLimiter;
+import org.ektorp.http.HttpResponse;
+import org.ektorp.impl.HttpResponseStub;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LimitingHttpClientRequestExecutorTest {
+
+	HttpClientRequestExecutor delegate;
+	ConcurrencyLimiter limiter;
+	ConcurrencyLimiter backendLimiter;
+	LimitingHttpClientRequestExecutor executor;
+
+	@Before
+	public void setUp() {
+		delegate = mock(HttpClientRequestExecutor.class);
+		limiter = new ConcurrencyLimiter.Builder().limits(10, 1, 10).build();
+		backendLimiter = new ConcurrencyLimiter.Builder().limits(10, 1, 10).build();
+		executor = new LimitingHttpClientRequestExecutor(delegate, limiter, backendLimiter);
+	}
+
+	@Test
+	public void service_unavailable_should_only_decrease_limit_of_its_path() throws IOException {
+		doReturn(HttpResponseStub.valueOf(503, "{}")).when(delegate).executeRequest(any(HttpUriRequest.class), anyBoolean());
+		HttpResponse rsp = executor.executeRequest(new HttpGet("/db/doc"), true);
+		assertEquals(503, rsp.getCode());
+		rsp.releaseConnection();
+		assertEquals(9, backendLimiter.getLimit());
+		assertEquals(10, limiter.getLimit());
+		assertEquals(0, backendLimiter.getInFlight());
+	}
+
+	@Test
+	public void request_should_be_in_flight_until_content_is_closed() throws IOException {
+		doReturn(HttpResponseStub.valueOf(200, "{}")).when(delegate).executeRequest(any(HttpUriRequest.class), anyBoolean());
+		HttpResponse rsp = executor.executeRequest(new HttpGet("/db/doc"), false);
+		assertEquals(1, limiter.getInFlight());
+		InputStream content = rsp.getContent();
+		assertEquals('{', content.read());
+		assertEquals(1, limiter.getInFlight());
+		content.close();
+		assertEquals(0, limiter.getInFlight());
+		rsp.releaseConnection();
+		assertEquals(0, limiter.getInFlight());
+	}
+
+	@Test
+	public void changes_request_should_be_released_when_headers_are_received() throws IOException {
+		doReturn(HttpResponseStub.valueOf(200, "")).when(delegate).executeRequest(any(HttpUriRequest.class), anyBoolean());
+		executor.executeRequest(new HttpGet("/db/_changes?feed=continuous"), false);
+		assertEquals(0, limiter.getInFlight());
+	}
+
+	@Test
+	public void failed_request_should_be_released_as_overload() throws IOException {
+		doThrow(new IOException("connection reset")).when(delegate).executeRequest(any(HttpUriRequest.class), anyBoolean());
+		try {
+			executor.executeRequest(new HttpGet("/db/doc"), false);
+			fail("expected IOException");
+		} catch (IOException e) {
+			// expected
+		}
+		assertEquals(9, limiter.getLimit());
+		assertEquals(0, limiter.getInFlight());
+	}
+}
@@ -0,0 +1,189 @@
+package org.ektorp.impl;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.ektorp.changes.ChangesCommand;
+import org.ektorp.changes.ChangesFeed;
+import org.ektorp.changes.DocumentChange;
+import org.ektorp.http.HttpResponse;
+import org.ektorp.http.StdHttpClient;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.internal.stubbing.answers.ThrowsException;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class CachingCouchDbConnectorTest {
+
+	private final static String DOC = "{\"_id\":\"doc_id\",\"_rev\":\"1-abc\",\"name\":\"nisse\",\"age\":12}";
+
+	StdHttpClient httpClient;
+	CachingCouchDbConnector dbCon;
+
+	@Before
+	public void setUp() {
+		httpClient = mock(StdHttpClient.class, new ThrowsException(new UnsupportedOperationException()));
+		dbCon = new CachingCouchDbConnector("test_db", new StdCouchDbInstance(httpClient));
+	}
+
+	@Test
+	public void cached_document_should_be_revalidated_with_etag() {
+		doReturn(new ETagResponse(200, DOC, "1-abc"))
+			.when(httpClient).get(eq("/test_db/doc_id"), eq(Collections.<String, String>emptyMap()));
+		doReturn(new ETagResponse(304, "", "1-abc"))
+			.when(httpClient).get(eq("/test_db/doc_id"), eq(Collections.singletonMap("If-None-Match", "\"1-abc\"")));
+
+		StdCouchDbConnectorTest.TestDoc first = dbCon.get(StdCouchDbConnectorTest.TestDoc.class, "doc_id");
+		StdCouchDbConnectorTest.TestDoc second = dbCon.get(StdCouchDbConnectorTest.TestDoc.class, "doc_id");
+
+		assertEquals("nisse", second.getName());
+		assertEquals(first.getRevision(), second.getRevision());
+		DocumentCacheStats stats = dbCon.getCacheStats();
+		assertEquals(1, stats.getMisses());
+		assertEquals(1, stats.getHits());
+		assertEquals(1, stats.getRevalidations());
+		verify(httpClient, times(2)).get(eq("/test_db/doc_id"), anyHeaders());
+	}
+
+	@Test
+	public void document_should_be_served_from_cache_within_revalidation_interval() {
+		doReturn(new ETagResponse(200, DOC, "1-abc")).when(httpClient).get(eq("/test_db/doc_id"), anyHeaders());
+		dbCon.setRevalidationInterval(60000);
+
+		StdCouchDbConnectorTest.TestDoc first = dbCon.find(StdCouchDbConnectorTest.TestDoc.class, "doc_id");
+		StdCouchDbConnectorTest.TestDoc second = dbCon.find(StdCouchDbConnectorTest.TestDoc.class, "doc_id");
+
+		assertEquals(first.getName(), second.getName());
+		verify(httpClient, times(1)).get(eq("/test_db/doc_id"), anyHeaders());
+	}
+
+	@Test
+	public void each_read_should_return_a_copy_of_the_cached_document() {
+		doReturn(new ETagResponse(200, DOC, "1-abc")).when(httpClient).get(eq("/test_db/doc_id"), anyHeaders());
+		dbCon.setRevalidationInterval(60000);
+
+		StdCouchDbConnectorTest.TestDoc first = dbCon.get(StdCouchDbConnectorTest.TestDoc.class, "doc_id");
+		first.setName("modified");
+		StdCouchDbConnectorTest.TestDoc second = dbCon.get(StdCouchDbConnectorTest.TestDoc.class, "doc_id");
+
+		assertNotSame(first, second);
+		assertEquals("nisse", second.getName());
+		assertEquals(1, dbCon.getCacheStats().getHits());
+	}
+
+	@Test
+	public void update_should_invalidate_cached_document() {
+		doReturn(new ETagResponse(200, DOC, "1-abc")).when(httpClient).get(eq("/test_db/doc_id"), anyHeaders());
+		doReturn(HttpResponseStub.valueOf(201, "{\"ok\":true,\"id\":\"doc_id\",\"rev\":\"2-def\"}"))
+			.when(httpClient).put(anyString(), anyString());
+		dbCon.setRevalidationInterval(60000);
+
+		StdCouchDbConnectorTest.TestDoc doc = dbCon.get(StdCouchDbConnectorTest.TestDoc.class, "doc_id");
+		dbCon.update(doc);
+		assertEquals(0, dbCon.getCacheStats().getSize());
+
+		assertNotSame(doc, dbCon.get(StdCouchDbConnectorTest.TestDoc.class, "doc_id"));
+		assertEquals(2, dbCon.getCacheStats().getMisses());
+	}
+
+	@Test
+	public void not_found_should_not_be_cached() {
+		doReturn(HttpResponseStub.valueOf(404, "{\"error\":\"not_found\",\"reason\":\"missing\"}"))
+			.when(httpClient).get(eq("/test_db/doc_id"), anyHeaders());
+		assertNull(dbCon.find(StdCouchDbConnectorTest.TestDoc.class, "doc_id"));
+		assertEquals(0, dbCon.getCacheStats().getSize());
+	}
+
+	@Test
+	public void object_caching_should_return_the_cached_instance() {
+		doReturn(new ETagResponse(200, DOC, "1-abc")).when(httpClient).get(eq("/test_db/doc_id"), anyHeaders());
+		dbCon.setRevalidationInterval(60000);
+		dbCon.setObjectCaching(true);
+
+		StdCouchDbConnectorTest.TestDoc first = dbCon.get(StdCouchDbConnectorTest.TestDoc.class, "doc_id");
+		StdCouchDbConnectorTest.TestDoc second = dbCon.get(StdCouchDbConnectorTest.TestDoc.class, "doc_id");
+
+		assertSame(first, second);
+		assertEquals(1, dbCon.getCacheStats().getHits());
+	}
+
+	@Test
+	public void response_read_before_invalidation_should_not_be_cached() {
+		doAnswer(new Answer<HttpResponse>() {
+			@Override
+			public HttpResponse answer(InvocationOnMock invocation) {
+				// a concurrent write invalidates the id while the read is in flight
+				dbCon.invalidate("doc_id");
+				return new ETagResponse(200, DOC, "1-abc");
+			}
+		}).when(httpClient).get(eq("/test_db/doc_id"), anyHeaders());
+		dbCon.setRevalidationInterval(60000);
+
+		assertEquals("nisse", dbCon.get(StdCouchDbConnectorTest.TestDoc.class, "doc_id").getName());
+		assertEquals(0, dbCon.getCacheStats().getSize());
+	}
+
+	@Test
+	public void changes_invalidation_should_lengthen_default_revalidation_interval() throws Exception {
+		final ChangesFeed feed = mock(ChangesFeed.class);
+		when(feed.isAlive()).thenReturn(true);
+		when(feed.next()).thenAnswer(new Answer<DocumentChange>() {
+			@Override
+			public DocumentChange answer(InvocationOnMock invocation) throws Throwable {
+				Thread.sleep(60000);
+				throw new InterruptedException();
+			}
+		});
+		dbCon = new CachingCouchDbConnector("test_db", new StdCouchDbInstance(httpClient)) {
+			@Override
+			public ChangesFeed changesFeed(ChangesCommand cmd) {
+				return feed;
+			}
+		};
+		assertEquals(0, dbCon.getRevalidationInterval());
+		dbCon.startChangesInvalidation();
+		assertEquals(CachingCouchDbConnector.DEFAULT_CHANGES_REVALIDATION_INTERVAL, dbCon.getRevalidationInterval());
+		dbCon.setRevalidationInterval(1000);
+		assertEquals(1000, dbCon.getRevalidationInterval());
+		dbCon.stopChangesInvalidation();
+	}
+
+	@Test
+	public void least_recently_used_entry_should_be_evicted() {
+		DocumentCache cache = new DocumentCache(2);
+		cache.put("a", "{}".getBytes(), "1-a");
+		cache.put("b", "{}".getBytes(), "1-b");
+		assertNotNull(cache.get("a"));
+		cache.put("c", "{}".getBytes(), "1-c");
+
+		assertNotNull(cache.get("a"));
+		assertNull(cache.get("b"));
+		assertNotNull(cache.get("c"));
+		assertEquals(1, cache.getStats().getEvictions());
+	}
+
+	private static class ETagResponse extends HttpResponseStub {
+
+		private final String etag;
+
+		ETagResponse(int code, String body, String etag) {
+			super(code, body);
+			this.etag = etag;
+		}
+
+		@Override
+		public String getETag() {
+			return etag;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, String> anyHeaders() {
+		return anyMap();
+	}
+}
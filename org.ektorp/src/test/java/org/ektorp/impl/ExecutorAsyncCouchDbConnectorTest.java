@@ -0,0 +1,133 @@
+package org.ektorp.impl;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.FutureCallback;
+import org.ektorp.CouchDbConnector;
+import org.ektorp.DocumentNotFoundException;
+import org.ektorp.ViewQuery;
+import org.ektorp.http.HttpResponse;
+import org.ektorp.http.StdHttpClient;
+import org.ektorp.http.clientconfig.HttpClientRequestExecutor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class ExecutorAsyncCouchDbConnectorTest {
+
+	CouchDbConnector connector;
+	ExecutorAsyncCouchDbConnector asyncConnector;
+
+	@Before
+	public void setUp() {
+		connector = mock(CouchDbConnector.class);
+		asyncConnector = new ExecutorAsyncCouchDbConnector(connector, Executors.newFixedThreadPool(2));
+	}
+
+	@After
+	public void tearDown() {
+		asyncConnector.shutdown();
+	}
+
+	@Test
+	public void get_should_complete_future_with_document() throws Exception {
+		when(connector.get(String.class, "doc_id")).thenReturn("the doc");
+		Future<String> f = asyncConnector.get(String.class, "doc_id");
+		assertEquals("the doc", f.get(1, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void callback_should_be_notified_on_completion() throws Exception {
+		List<String> rows = Arrays.asList("a", "b");
+		ViewQuery query = new ViewQuery().allDocs();
+		when(connector.queryView(query, String.class)).thenReturn(rows);
+
+		final CountDownLatch latch = new CountDownLatch(1);
+		final AtomicReference<List<String>> result = new AtomicReference<List<String>>();
+		asyncConnector.queryView(query, String.class, new FutureCallback<List<String>>() {
+			public void completed(List<String> r) {
+				result.set(r);
+				latch.countDown();
+			}
+			public void failed(Exception ex) {}
+			public void cancelled() {}
+		});
+		assertTrue(latch.await(1, TimeUnit.SECONDS));
+		assertEquals(rows, result.get());
+	}
+
+	@Test
+	public void failure_should_be_propagated_as_cause() throws Exception {
+		when(connector.get(String.class, "missing")).thenThrow(new DocumentNotFoundException("/test_db/missing"));
+		Future<String> f = asyncConnector.get(String.class, "missing");
+		try {
+			f.get(1, TimeUnit.SECONDS);
+			fail("expected ExecutionException");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof DocumentNotFoundException);
+		}
+	}
+
+	@Test
+	public void create_should_delegate_to_connector() throws Exception {
+		Object doc = new Object();
+		asyncConnector.create(doc).get(1, TimeUnit.SECONDS);
+		verify(connector).create(doc);
+	}
+
+	@Test
+	public void operations_submitted_after_shutdown_should_fail() throws Exception {
+		asyncConnector.shutdown();
+		try {
+			asyncConnector.contains("id").get(1, TimeUnit.SECONDS);
+			fail("expected ExecutionException");
+		} catch (ExecutionException e) {
+			assertNotNull(e.getCause());
+		}
+	}
+
+	@Test
+	public void cancel_should_abort_request_in_flight() throws Exception {
+		final CountDownLatch sent = new CountDownLatch(1);
+		final AtomicReference<HttpUriRequest> request = new AtomicReference<HttpUriRequest>();
+		HttpClientRequestExecutor executor = mock(HttpClientRequestExecutor.class);
+		when(executor.executeRequest(any(HttpUriRequest.class), anyBoolean())).thenAnswer(new Answer<HttpResponse>() {
+			public HttpResponse answer(InvocationOnMock invocation) throws Throwable {
+				HttpRequestBase r = (HttpRequestBase) invocation.getArguments()[0];
+				request.set(r);
+				sent.countDown();
+				for (int i = 0; i < 500 && !r.isAborted(); i++) {
+					Thread.sleep(10);
+				}
+				throw new IOException("aborted");
+			}
+		});
+		final StdHttpClient httpClient = new StdHttpClient(executor);
+		when(connector.get(String.class, "doc_id")).thenAnswer(new Answer<String>() {
+			public String answer(InvocationOnMock invocation) throws Throwable {
+				httpClient.get("/test_db/doc_id");
+				return "the doc";
+			}
+		});
+
+		Future<String> f = asyncConnector.get(String.class, "doc_id");
+		assertTrue(sent.await(5, TimeUnit.SECONDS));
+		assertTrue(f.cancel(true));
+		assertTrue(((HttpRequestBase) request.get()).isAborted());
+	}
+}
@@ -0,0 +1,220 @@
+package org.ektorp.impl;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.ektorp.AttachmentInputStream;
+import org.ektorp.CouchDbConnector;
+import org.ektorp.DbAccessException;
+import org.ektorp.http.HttpResponse;
+import org.ektorp.util.Base64;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class ParallelAttachmentDownloaderTest {
+
+	CouchDbConnector db;
+	byte[] content = new byte[1000];
+	File dir;
+	ParallelAttachmentDownloader downloader;
+
+	@Before
+	public void setUp() throws Exception {
+		for (int i = 0; i < content.length; i++) {
+			content[i] = (byte) (i * 31);
+		}
+		db = mock(CouchDbConnector.class);
+		givenStub(Base64.encodeBytes(MessageDigest.getInstance("MD5").digest(content)));
+		dir = File.createTempFile("ektorp", "download");
+		dir.delete();
+		dir.mkdirs();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (downloader != null) {
+			downloader.shutdown();
+		}
+		FileUtils.deleteDirectory(dir);
+	}
+
+	@Test
+	public void ranges_should_be_reassembled_into_file() throws Exception {
+		RangeAnswer ranges = new RangeAnswer(-1);
+		when(db.getAttachment(eq("doc"), eq("video.mp4"), eq("2-a"), anyLong(), anyLong())).thenAnswer(ranges);
+		downloader = new ParallelAttachmentDownloader.Builder(db).rangeSize(100).parallelism(3).build();
+
+		File target = new File(dir, "video.mp4");
+		assertEquals(1000, downloader.download("doc", "video.mp4", target));
+
+		assertTrue(Arrays.equals(content, FileUtils.readFileToByteArray(target)));
+		assertEquals(10, ranges.calls.get());
+		assertFalse(new File(dir, "video.mp4.part").exists());
+		assertFalse(new File(dir, "video.mp4.ranges").exists());
+	}
+
+	@Test
+	public void ranges_should_be_written_to_channel_in_order() throws Exception {
+		when(db.getAttachment(eq("doc"), eq("video.mp4"), eq("2-a"), anyLong(), anyLong())).thenAnswer(new RangeAnswer(-1));
+		downloader = new ParallelAttachmentDownloader.Builder(db).rangeSize(64).parallelism(4).build();
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertEquals(1000, downloader.download("doc", "video.mp4", Channels.newChannel(out)));
+
+		assertTrue(Arrays.equals(content, out.toByteArray()));
+	}
+
+	@Test
+	public void failed_download_should_resume_from_completed_ranges() throws Exception {
+		when(db.getAttachment(eq("doc"), eq("video.mp4"), eq("2-a"), anyLong(), anyLong())).thenAnswer(new RangeAnswer(500));
+		downloader = new ParallelAttachmentDownloader.Builder(db).rangeSize(100).parallelism(1).retries(1).build();
+		File target = new File(dir, "video.mp4");
+		try {
+			downloader.download("doc", "video.mp4", target);
+			fail("expected DbAccessException");
+		} catch (DbAccessException e) {
+			// expected
+		}
+		assertFalse(target.exists());
+		assertTrue(new File(dir, "video.mp4.ranges").exists());
+
+		RangeAnswer ranges = new RangeAnswer(-1);
+		reset(db);
+		givenStub(Base64.encodeBytes(MessageDigest.getInstance("MD5").digest(content)));
+		when(db.getAttachment(eq("doc"), eq("video.mp4"), eq("2-a"), anyLong(), anyLong())).thenAnswer(ranges);
+
+		assertEquals(1000, downloader.download("doc", "video.mp4", target));
+		assertTrue(Arrays.equals(content, FileUtils.readFileToByteArray(target)));
+		assertEquals(5, ranges.calls.get());
+		assertEquals(500, ranges.lowestOffset);
+	}
+
+	@Test
+	public void digest_mismatch_should_fail_and_discard_part_file() throws Exception {
+		givenStub("AAAAAAAAAAAAAAAAAAAAAA==");
+		when(db.getAttachment(eq("doc"), eq("video.mp4"), eq("2-a"), anyLong(), anyLong())).thenAnswer(new RangeAnswer(-1));
+		downloader = new ParallelAttachmentDownloader.Builder(db).rangeSize(300).build();
+		File target = new File(dir, "video.mp4");
+		try {
+			downloader.download("doc", "video.mp4", target);
+			fail("expected DbAccessException");
+		} catch (DbAccessException e) {
+			// expected
+		}
+		assertFalse(target.exists());
+		assertFalse(new File(dir, "video.mp4.part").exists());
+		assertFalse(new File(dir, "video.mp4.ranges").exists());
+	}
+
+	@Test
+	public void ignored_ranges_should_fall_back_to_one_sequential_download() throws Exception {
+		WholeContentAnswer ranges = new WholeContentAnswer();
+		when(db.getAttachment(eq("doc"), eq("video.mp4"), eq("2-a"), anyLong(), anyLong())).thenAnswer(ranges);
+		when(db.getAttachment("doc", "video.mp4", "2-a")).thenReturn(
+				new AttachmentInputStream("video.mp4", new ByteArrayInputStream(content), "video/mp4", content.length));
+		downloader = new ParallelAttachmentDownloader.Builder(db).rangeSize(100).parallelism(3).build();
+
+		File target = new File(dir, "video.mp4");
+		assertEquals(1000, downloader.download("doc", "video.mp4", target));
+
+		assertTrue(Arrays.equals(content, FileUtils.readFileToByteArray(target)));
+		assertTrue(ranges.calls.get() <= 3);
+		assertTrue(ranges.aborts.get() >= 1);
+		verify(db, times(1)).getAttachment("doc", "video.mp4", "2-a");
+		assertFalse(new File(dir, "video.mp4.ranges").exists());
+	}
+
+	@Test
+	public void ignored_ranges_should_fall_back_to_sequential_download_into_channel() throws Exception {
+		when(db.getAttachment(eq("doc"), eq("video.mp4"), eq("2-a"), anyLong(), anyLong())).thenAnswer(new WholeContentAnswer());
+		when(db.getAttachment("doc", "video.mp4", "2-a")).thenReturn(
+				new AttachmentInputStream("video.mp4", new ByteArrayInputStream(content), "video/mp4", content.length));
+		downloader = new ParallelAttachmentDownloader.Builder(db).rangeSize(64).parallelism(4).build();
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertEquals(1000, downloader.download("doc", "video.mp4", Channels.newChannel(out)));
+
+		assertTrue(Arrays.equals(content, out.toByteArray()));
+	}
+
+	private void givenStub(String md5) {
+		String doc = String.format("{\"_id\":\"doc\",\"_rev\":\"2-a\",\"_attachments\":{\"video.mp4\":"
+				+ "{\"content_type\":\"video/mp4\",\"revpos\":2,\"digest\":\"md5-%s\",\"length\":%s,\"stub\":true}}}",
+				md5, content.length);
+		when(db.getAsStream("doc")).thenReturn(new ByteArrayInputStream(doc.getBytes()));
+	}
+
+	/**
+	 * Answers ranges of the content, failing for the range at failingOffset.
+	 */
+	class RangeAnswer implements Answer<AttachmentInputStream> {
+
+		final long failingOffset;
+		final AtomicInteger calls = new AtomicInteger();
+		volatile long lowestOffset = Long.MAX_VALUE;
+
+		RangeAnswer(long failingOffset) {
+			this.failingOffset = failingOffset;
+		}
+
+		public AttachmentInputStream answer(InvocationOnMock invocation) throws Throwable {
+			long offset = (Long) invocation.getArguments()[3];
+			long length = (Long) invocation.getArguments()[4];
+			calls.incrementAndGet();
+			lowestOffset = Math.min(lowestOffset, offset);
+			if (offset == failingOffset) {
+				throw new DbAccessException("connection reset");
+			}
+			return new AttachmentInputStream("video.mp4", new ByteArrayInputStream(content, (int) offset, (int) length),
+					"video/mp4", length);
+		}
+	}
+
+	/**
+	 * Answers range requests the way a server that ignores the Range header does, counting the aborted responses.
+	 */
+	class WholeContentAnswer implements Answer<AttachmentInputStream> {
+
+		final AtomicInteger calls = new AtomicInteger();
+		final AtomicInteger aborts = new AtomicInteger();
+
+		public AttachmentInputStream answer(InvocationOnMock invocation) throws Throwable {
+			long offset = (Long) invocation.getArguments()[3];
+			long length = (Long) invocation.getArguments()[4];
+			calls.incrementAndGet();
+			HttpResponse response = new HttpResponseStub(200, "") {
+				@Override
+				public String getContentType() {
+					return "video/mp4";
+				}
+
+				@Override
+				public long getContentLength() {
+					return content.length;
+				}
+
+				@Override
+				public void abort() {
+					aborts.incrementAndGet();
+				}
+			};
+			InputStream in = new ByteArrayInputStream(content);
+			in.skip(offset);
+			return new RangeIgnoredAttachmentInputStream("video.mp4", response, in, offset, length);
+		}
+	}
+}
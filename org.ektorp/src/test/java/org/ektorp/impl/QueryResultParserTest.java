@@ -7,6 +7,7 @@ import org.ektorp.ViewResultException;
 import org.ektorp.support.CouchDbDocument;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.List;
@@ -96,6 +97,52 @@ public class QueryResultParserTest {
 		parser.parseResult(loadData("erroneous_cloudant_view_result.json"));
 	}
 
+	@Test
+	public void doc_field_before_value_field_should_be_used() throws Exception {
+		parser.parseResult(loadData("view_result_with_doc_before_value.json"));
+		List<TestDoc> result = parser.getRows();
+		assertEquals(2, result.size());
+		assertEquals("foo", result.get(0).getName());
+		assertEquals("bar", result.get(1).getName());
+		assertEquals("doc_id1", parser.getFirstId());
+		assertEquals("key2", parser.getLastKey().textValue());
+		assertEquals(2, parser.getTotalRows());
+	}
+
+	@Test
+	public void not_found_and_deleted_rows_should_be_skipped_when_not_found_is_ignored() throws Exception {
+		parser.setIgnoreNotFound(true);
+		parser.parseResult(loadData("all_docs_result_with_not_found_first.json"));
+		List<TestDoc> result = parser.getRows();
+		assertEquals(1, result.size());
+		assertEquals("doc_id1", result.get(0).getId());
+		assertEquals("foo", result.get(0).getName());
+	}
+
+	@Test
+	public void large_included_docs_result_should_be_parsed_in_order() throws Exception {
+		int rowCount = 5000;
+		StringBuilder json = new StringBuilder("{\"total_rows\":").append(rowCount).append(",\"offset\":0,\"rows\":[");
+		for (int i = 0; i < rowCount; i++) {
+			if (i > 0) {
+				json.append(',');
+			}
+			json.append("{\"id\":\"doc_").append(i).append("\",\"key\":").append(i)
+				.append(",\"value\":{\"rev\":\"1-abc\"},\"doc\":{\"_id\":\"doc_").append(i)
+				.append("\",\"_rev\":\"1-abc\",\"name\":\"name_").append(i).append("\",\"age\":").append(i).append("}}");
+		}
+		json.append("]}");
+		parser.parseResult(new ByteArrayInputStream(json.toString().getBytes("UTF-8")));
+		List<TestDoc> result = parser.getRows();
+		assertEquals(rowCount, result.size());
+		for (int i = 0; i < rowCount; i++) {
+			assertEquals("doc_" + i, result.get(i).getId());
+			assertEquals(i, result.get(i).getAge());
+		}
+		assertEquals(0, parser.getFirstKey().intValue());
+		assertEquals("doc_" + (rowCount - 1), parser.getLastId());
+	}
+
 	private InputStream loadData(String name) throws JsonParseException, IOException {
 		return getClass().getResourceAsStream(name);
 	}
@@ -0,0 +1,140 @@
+package org.ektorp.impl;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.http.HttpEntity;
+import org.ektorp.BulkWriter;
+import org.ektorp.BulkWriterCallback;
+import org.ektorp.BulkWriterConfig;
+import org.ektorp.DbAccessException;
+import org.ektorp.DocumentOperationResult;
+import org.ektorp.http.RestTemplate;
+import org.ektorp.http.StdHttpClient;
+import org.ektorp.http.URI;
+import org.ektorp.support.CouchDbDocument;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.internal.stubbing.answers.ThrowsException;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class StdBulkWriterTest {
+
+	ObjectMapper mapper = new ObjectMapper();
+	StdHttpClient httpClient;
+	RestTemplate restTemplate;
+	final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<Integer>());
+
+	@Before
+	public void setUp() {
+		httpClient = mock(StdHttpClient.class, new ThrowsException(new UnsupportedOperationException()));
+		restTemplate = new RestTemplate(httpClient);
+		doAnswer(new Answer<Object>() {
+			public Object answer(InvocationOnMock invocation) throws Throwable {
+				HttpEntity entity = (HttpEntity) invocation.getArguments()[1];
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				entity.writeTo(out);
+				assertEquals(entity.getContentLength(), out.size());
+				JsonNode docs = mapper.readTree(out.toByteArray()).get("docs");
+				batchSizes.add(docs.size());
+				StringBuilder response = new StringBuilder("[");
+				for (int i = 0; i < docs.size(); i++) {
+					if (i > 0) {
+						response.append(',');
+					}
+					response.append("{\"id\":\"").append(docs.get(i).get("_id").textValue()).append("\",\"rev\":\"1-abc\"}");
+				}
+				response.append(']');
+				return HttpResponseStub.valueOf(201, response.toString());
+			}
+		}).when(httpClient).post(anyString(), any(HttpEntity.class));
+	}
+
+	@Test
+	public void documents_should_be_written_in_batches_of_max_docs() {
+		BulkWriter writer = new StdBulkWriter(URI.prototype("/test_db"), restTemplate, mapper,
+				new BulkWriterConfig.Builder().maxDocsPerBatch(2).maxBatchesInFlight(2).build());
+		List<TestDoc> docs = new ArrayList<TestDoc>();
+		for (int i = 0; i < 5; i++) {
+			TestDoc d = new TestDoc("doc_" + i);
+			docs.add(d);
+			writer.add(d);
+		}
+		writer.close();
+		assertEquals(3, batchSizes.size());
+		assertEquals(5, batchSizes.get(0) + batchSizes.get(1) + batchSizes.get(2));
+		for (TestDoc d : docs) {
+			assertEquals("1-abc", d.getRevision());
+		}
+		verify(httpClient, times(3)).post(eq("/test_db/_bulk_docs"), any(HttpEntity.class));
+	}
+
+	@Test
+	public void batches_should_be_cut_on_size_in_bytes() {
+		BulkWriter writer = new StdBulkWriter(URI.prototype("/test_db"), restTemplate, mapper,
+				new BulkWriterConfig.Builder().maxBytesPerBatch(60).build());
+		for (int i = 0; i < 4; i++) {
+			writer.add(new TestDoc("doc_" + i));
+		}
+		writer.flush();
+		assertTrue(batchSizes.size() > 1);
+		int total = 0;
+		for (int size : batchSizes) {
+			total += size;
+		}
+		assertEquals(4, total);
+		writer.close();
+	}
+
+	@Test
+	public void callback_should_receive_each_batch() {
+		final List<Integer> completed = Collections.synchronizedList(new ArrayList<Integer>());
+		BulkWriter writer = new StdBulkWriter(URI.prototype("/test_db"), restTemplate, mapper,
+				new BulkWriterConfig.Builder().maxDocsPerBatch(3).callback(new BulkWriterCallback() {
+					public void batchCompleted(List<?> documents, List<DocumentOperationResult> errors) {
+						assertTrue(errors.isEmpty());
+						completed.add(documents.size());
+					}
+					public void batchFailed(List<?> documents, Exception e) {
+						fail();
+					}
+				}).build());
+		for (int i = 0; i < 4; i++) {
+			writer.add(new TestDoc("doc_" + i));
+		}
+		writer.flush();
+		assertEquals(2, completed.size());
+		writer.close();
+	}
+
+	@Test(expected = DbAccessException.class)
+	public void failed_batch_should_be_reported_by_flush_when_there_is_no_callback() {
+		doThrow(new DbAccessException("connection refused")).when(httpClient).post(anyString(), any(HttpEntity.class));
+		BulkWriter writer = new StdBulkWriter(URI.prototype("/test_db"), restTemplate, mapper,
+				new BulkWriterConfig.Builder().build());
+		writer.add(new TestDoc("doc_1"));
+		writer.flush();
+	}
+
+	@SuppressWarnings("serial")
+	public static class TestDoc extends CouchDbDocument {
+
+		public TestDoc() {
+		}
+
+		public TestDoc(String id) {
+			setId(id);
+		}
+	}
+}
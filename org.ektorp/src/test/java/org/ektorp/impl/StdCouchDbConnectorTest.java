@@ -4,9 +4,14 @@ import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.joda.JodaModule;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.input.ReaderInputStream;
+import org.apache.http.HttpEntity;
 import org.ektorp.*;
+import org.ektorp.changes.ChangesCommand;
+import org.ektorp.changes.ChangesPage;
+import org.ektorp.changes.DocumentChange;
 import org.ektorp.http.HttpResponse;
 import org.ektorp.http.HttpStatus;
 import org.ektorp.http.StdHttpClient;
@@ -23,6 +28,7 @@ import org.mockito.internal.verification.VerificationModeFactory;
 import java.io.*;
 import java.nio.charset.Charset;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static java.lang.String.format;
 import static org.junit.Assert.*;
@@ -73,6 +79,66 @@ public class StdCouchDbConnectorTest {
         assertEqualJson("create.json", Charset.forName("UTF-8"), ac.getValue());
     }
 
+    @Test
+    public void changes_should_be_read_from_stream() {
+        doReturn(HttpResponseStub.valueOf(200, changesResponse(1, 2))).when(httpClient).get("/test_db/_changes?since=0");
+        List<DocumentChange> changes = dbCon.changes(new ChangesCommand.Builder().since(0).build());
+        assertEquals(2, changes.size());
+        assertEquals("doc-1", changes.get(0).getId());
+        assertEquals(2, changes.get(1).getSequence());
+    }
+
+    @Test
+    public void changesInPages_should_continue_from_last_seq() {
+        doReturn(HttpResponseStub.valueOf(200, changesResponse(1, 2))).when(httpClient).get("/test_db/_changes?limit=2");
+        doReturn(HttpResponseStub.valueOf(200, changesResponse(3))).when(httpClient).get("/test_db/_changes?since=2&limit=2");
+        Iterator<ChangesPage> pages = dbCon.changesInPages(new ChangesCommand.Builder().build(), 2);
+
+        ChangesPage first = pages.next();
+        assertEquals(2, first.size());
+        assertEquals("2", first.getLastSeq());
+        assertFalse(first.isLastPage());
+        assertTrue(pages.hasNext());
+
+        ChangesPage second = pages.next();
+        assertEquals(1, second.size());
+        assertEquals("doc-3", second.getChanges().get(0).getId());
+        assertEquals("3", second.getLastSeq());
+        assertTrue(second.isLastPage());
+        assertFalse(pages.hasNext());
+    }
+
+    @Test
+    public void changesInPages_should_stop_at_command_limit() {
+        doReturn(HttpResponseStub.valueOf(200, changesResponse(1, 2))).when(httpClient).get("/test_db/_changes?limit=2");
+        doReturn(HttpResponseStub.valueOf(200, changesResponse(3))).when(httpClient).get("/test_db/_changes?since=2&limit=1");
+        Iterator<ChangesPage> pages = dbCon.changesInPages(new ChangesCommand.Builder().limit(3).build(), 2);
+        assertEquals(2, pages.next().size());
+        assertEquals(1, pages.next().size());
+        assertFalse(pages.hasNext());
+    }
+
+    @Test
+    public void changes_with_doc_ids_should_be_posted() {
+        doReturn(HttpResponseStub.valueOf(200, changesResponse(1))).when(httpClient)
+                .post("/test_db/_changes?filter=_doc_ids", "{\"doc_ids\":[\"doc-1\",\"doc-2\"]}");
+        List<DocumentChange> changes = dbCon.changes(new ChangesCommand.Builder()
+                .docIds(Arrays.asList("doc-1", "doc-2")).build());
+        assertEquals(1, changes.size());
+        assertEquals("doc-1", changes.get(0).getId());
+    }
+
+    private String changesResponse(int... seqs) {
+        StringBuilder sb = new StringBuilder("{\"results\":[");
+        for (int i = 0; i < seqs.length; i++) {
+            if (i > 0) {
+                sb.append(",");
+            }
+            sb.append(format("{\"seq\":%s,\"id\":\"doc-%s\",\"changes\":[{\"rev\":\"1-a\"}]}", seqs[i], seqs[i]));
+        }
+        return sb.append(format("],\"last_seq\":%s}", seqs[seqs.length - 1])).toString();
+    }
+
     @Test
     public void docId_should_be_escaped_when_id_contains_slash() throws UnsupportedEncodingException {
         String escapedId = "http%3A%2F%2Fsome%2Fopenid%3Fgoog";
@@ -344,6 +410,152 @@ public class StdCouchDbConnectorTest {
         verify(httpClient).put(eq("/test_db/docid/attachment_id"), any(InputStream.class), eq("text/html"), eq(12l));
     }
 
+    @Test
+    public void attachment_should_be_downloaded_to_file_and_verified() throws Exception {
+        File target = new File(tempDir(), "attachment.bin");
+        doReturn(responseWithETag(200, "attachment content", md5Of("attachment content")))
+                .when(httpClient).get("/test_db/docid/attachment.bin");
+
+        assertEquals(18, dbCon.getAttachment("docid", "attachment.bin", target));
+        assertEquals("attachment content", FileUtils.readFileToString(target, "UTF-8"));
+        assertFalse(new File(target.getParentFile(), "attachment.bin.part").exists());
+    }
+
+    @Test
+    public void attachment_with_wrong_digest_should_not_replace_file() throws Exception {
+        File target = new File(tempDir(), "attachment.bin");
+        doReturn(responseWithETag(200, "attachment content", md5Of("other content")))
+                .when(httpClient).get("/test_db/docid/attachment.bin?rev=1-a");
+
+        try {
+            dbCon.getAttachment("docid", "attachment.bin", "1-a", target);
+            fail("expected DbAccessException");
+        } catch (DbAccessException e) {
+            // expected
+        }
+        assertFalse(target.exists());
+        assertFalse(new File(target.getParentFile(), "attachment.bin.part").exists());
+    }
+
+    @Test
+    public void file_attachment_should_be_uploaded_and_verified() throws Exception {
+        File file = new File(tempDir(), "movie.mp4");
+        FileUtils.writeStringToFile(file, "movie content", "UTF-8");
+        final ByteArrayOutputStream sent = new ByteArrayOutputStream();
+        doAnswer(new org.mockito.stubbing.Answer<HttpResponse>() {
+            public HttpResponse answer(org.mockito.invocation.InvocationOnMock invocation) throws Throwable {
+                ((HttpEntity) invocation.getArguments()[1]).writeTo(sent);
+                return HttpResponseStub.valueOf(201, "{\"ok\":true,\"id\":\"docid\",\"rev\":\"2-b\"}");
+            }
+        }).when(httpClient).put(eq("/test_db/docid/movie.mp4?rev=1-a"), any(HttpEntity.class));
+        doReturn(responseWithETag(200, "", md5Of("movie content"))).when(httpClient).head("/test_db/docid/movie.mp4?rev=2-b");
+
+        assertEquals("2-b", dbCon.createAttachment("docid", "1-a", "movie.mp4", file, "video/mp4"));
+        assertEquals("movie content", sent.toString("UTF-8"));
+    }
+
+    @Test
+    public void file_attachment_digest_mismatch_should_report_stored_revision() throws Exception {
+        File file = new File(tempDir(), "movie.mp4");
+        FileUtils.writeStringToFile(file, "movie content", "UTF-8");
+        doAnswer(new org.mockito.stubbing.Answer<HttpResponse>() {
+            public HttpResponse answer(org.mockito.invocation.InvocationOnMock invocation) throws Throwable {
+                ((HttpEntity) invocation.getArguments()[1]).writeTo(new ByteArrayOutputStream());
+                return HttpResponseStub.valueOf(201, "{\"ok\":true,\"id\":\"docid\",\"rev\":\"2-b\"}");
+            }
+        }).when(httpClient).put(eq("/test_db/docid/movie.mp4?rev=1-a"), any(HttpEntity.class));
+        doReturn(responseWithETag(200, "", md5Of("other content"))).when(httpClient).head("/test_db/docid/movie.mp4?rev=2-b");
+
+        try {
+            dbCon.createAttachment("docid", "1-a", "movie.mp4", file, "video/mp4");
+            fail("expected AttachmentDigestMismatchException");
+        } catch (AttachmentDigestMismatchException e) {
+            assertEquals("2-b", e.getRevision());
+            assertEquals("docid", e.getDocId());
+        }
+    }
+
+    @Test
+    public void attachment_range_should_be_requested_with_range_header() throws Exception {
+        doReturn(attachmentResponse(206, "ment")).when(httpClient)
+                .get("/test_db/docid/attachment.bin", Collections.singletonMap("Range", "bytes=6-9"));
+
+        AttachmentInputStream a = dbCon.getAttachment("docid", "attachment.bin", 6, 4);
+        assertEquals("ment", IOUtils.toString(a, "UTF-8"));
+        assertEquals(4, a.getContentLength());
+    }
+
+    @Test
+    public void attachment_range_should_be_cut_from_whole_attachment_if_range_is_ignored() throws Exception {
+        doReturn(attachmentResponse(200, "attachment content")).when(httpClient)
+                .get("/test_db/docid/attachment.bin?rev=1-a", Collections.singletonMap("Range", "bytes=6-9"));
+
+        AttachmentInputStream a = dbCon.getAttachment("docid", "attachment.bin", "1-a", 6, 4);
+        assertEquals("ment", IOUtils.toString(a, "UTF-8"));
+        assertEquals(4, a.getContentLength());
+    }
+
+    @Test
+    public void closing_range_cut_from_whole_attachment_should_abort_response() throws Exception {
+        final AtomicBoolean aborted = new AtomicBoolean();
+        doReturn(new HttpResponseStub(200, "attachment content") {
+            @Override
+            public String getContentType() {
+                return "application/octet-stream";
+            }
+
+            @Override
+            public long getContentLength() {
+                return 18;
+            }
+
+            @Override
+            public void abort() {
+                aborted.set(true);
+            }
+        }).when(httpClient).get("/test_db/docid/attachment.bin", Collections.singletonMap("Range", "bytes=0-9"));
+
+        AttachmentInputStream a = dbCon.getAttachment("docid", "attachment.bin", 0, 10);
+        assertEquals("attachment", IOUtils.toString(a, "UTF-8"));
+        a.close();
+        assertTrue(aborted.get());
+    }
+
+    private HttpResponse attachmentResponse(int code, final String body) {
+        return new HttpResponseStub(code, body) {
+            @Override
+            public String getContentType() {
+                return "application/octet-stream";
+            }
+
+            @Override
+            public long getContentLength() {
+                return body.length();
+            }
+        };
+    }
+
+    private File tempDir() throws IOException {
+        File dir = File.createTempFile("ektorp", "attachments");
+        dir.delete();
+        dir.mkdirs();
+        dir.deleteOnExit();
+        return dir;
+    }
+
+    private String md5Of(String s) throws Exception {
+        return org.ektorp.util.Base64.encodeBytes(java.security.MessageDigest.getInstance("MD5").digest(s.getBytes("UTF-8")));
+    }
+
+    private HttpResponse responseWithETag(int code, String body, final String etag) {
+        return new HttpResponseStub(code, body) {
+            @Override
+            public String getETag() {
+                return etag;
+            }
+        };
+    }
+
     @Test
     public void load_query_result() {
         setupGetDocResponse("doc_id1", "doc_id2");
@@ -430,6 +642,146 @@ public class StdCouchDbConnectorTest {
         verify(httpClient).postUncached(query.buildQuery(), query.getKeysAsJson());
     }
 
+    @Test
+    public void getAll_should_keep_request_order_and_report_missing_and_deleted_ids() {
+        doReturn(ResponseOnFileStub.newInstance(200, "bulk_get_result.json")).when(httpClient).postUncached(anyString(), anyString());
+
+        BulkGetResult<TestDoc> result = dbCon.getAll(TestDoc.class, Arrays.asList("doc_id2", "doc_id3", "doc_id4", "doc_id1"));
+
+        assertEquals(2, result.getSize());
+        assertEquals("doc_id2", result.getDocuments().get(0).getId());
+        assertEquals("doc_id1", result.getDocuments().get(1).getId());
+        assertEquals(99, result.get("doc_id2").getAge());
+        assertEquals(Arrays.asList("doc_id3"), result.getMissingIds());
+        assertEquals(Arrays.asList("doc_id4"), result.getDeletedIds());
+        assertFalse(result.isComplete());
+        verify(httpClient).postUncached("/test_db/_all_docs?include_docs=true", "{\"keys\":[\"doc_id2\",\"doc_id3\",\"doc_id4\",\"doc_id1\"]}");
+    }
+
+    @Test
+    public void getAll_should_split_ids_into_chunks() {
+        ((StdCouchDbConnector) dbCon).setMaxKeysPerRequest(2);
+        doReturn(ResponseOnFileStub.newInstance(200, "bulk_get_result.json"))
+            .doReturn(ResponseOnFileStub.newInstance(200, "bulk_get_result.json"))
+            .when(httpClient).postUncached(anyString(), anyString());
+
+        BulkGetResult<TestDoc> result = dbCon.getAll(TestDoc.class, Arrays.asList("doc_id2", "doc_id3", "doc_id4", "doc_id1"));
+
+        assertEquals(2, result.getSize());
+        verify(httpClient).postUncached("/test_db/_all_docs?include_docs=true", "{\"keys\":[\"doc_id2\",\"doc_id3\"]}");
+        verify(httpClient).postUncached("/test_db/_all_docs?include_docs=true", "{\"keys\":[\"doc_id4\",\"doc_id1\"]}");
+    }
+
+    @Test
+    public void queryForIterator_should_bind_rows_lazily() {
+        ViewQuery query = new ViewQuery()
+                .dbPath(TEST_DB_PATH)
+                .designDocId("_design/testdoc")
+                .viewName("test_view")
+                .key("key_value");
+
+        doReturn(ResponseOnFileStub.newInstance(200, "view_result_with_embedded_docs.json")).when(httpClient).getUncached(query.buildQuery());
+
+        CloseableIterator<TestDoc> it = dbCon.queryForIterator(query, TestDoc.class);
+        assertEquals("doc_id1", it.next().getId());
+        assertEquals("doc_id2", it.next().getId());
+        assertFalse(it.hasNext());
+        it.close();
+    }
+
+    @Test
+    public void paged_queryForIterator_should_continue_after_last_row_of_previous_page() {
+        ViewQuery query = new ViewQuery()
+                .dbPath(TEST_DB_PATH)
+                .designDocId("_design/testdoc")
+                .viewName("test_view");
+
+        doReturn(HttpResponseStub.valueOf(200, "{\"total_rows\":3,\"offset\":0,\"rows\":["
+                + "{\"id\":\"doc_id1\",\"key\":\"a\",\"value\":{\"_id\":\"doc_id1\",\"name\":\"foo\"}},"
+                + "{\"id\":\"doc_id2\",\"key\":\"b\",\"value\":{\"_id\":\"doc_id2\",\"name\":\"bar\"}}]}"))
+            .doReturn(HttpResponseStub.valueOf(200, "{\"total_rows\":3,\"offset\":2,\"rows\":["
+                + "{\"id\":\"doc_id3\",\"key\":\"c\",\"value\":{\"_id\":\"doc_id3\",\"name\":\"baz\"}}]}"))
+            .when(httpClient).getUncached(anyString());
+
+        CloseableIterator<TestDoc> it = dbCon.queryForIterator(query, TestDoc.class, 2);
+        List<String> ids = new ArrayList<String>();
+        while (it.hasNext()) {
+            ids.add(it.next().getId());
+        }
+        assertEquals(Arrays.asList("doc_id1", "doc_id2", "doc_id3"), ids);
+
+        ArgumentCaptor<String> ac = ArgumentCaptor.forClass(String.class);
+        verify(httpClient, times(2)).getUncached(ac.capture());
+        assertTrue(ac.getAllValues().get(0).contains("limit=2"));
+        assertFalse(ac.getAllValues().get(0).contains("startkey"));
+        String secondPage = ac.getAllValues().get(1);
+        assertTrue(secondPage.contains("startkey=%22b%22"));
+        assertTrue(secondPage.contains("startkey_docid=doc_id2"));
+        assertTrue(secondPage.contains("skip=1"));
+    }
+
+    @Test
+    public void paged_queryForIterator_should_continue_after_null_key() {
+        ViewQuery query = new ViewQuery()
+                .dbPath(TEST_DB_PATH)
+                .designDocId("_design/testdoc")
+                .viewName("test_view");
+
+        doReturn(HttpResponseStub.valueOf(200, "{\"total_rows\":3,\"offset\":0,\"rows\":["
+                + "{\"id\":\"doc_id1\",\"key\":null,\"value\":{\"_id\":\"doc_id1\",\"name\":\"foo\"}},"
+                + "{\"id\":\"doc_id2\",\"key\":null,\"value\":{\"_id\":\"doc_id2\",\"name\":\"bar\"}}]}"))
+            .doReturn(HttpResponseStub.valueOf(200, "{\"total_rows\":3,\"offset\":2,\"rows\":["
+                + "{\"id\":\"doc_id3\",\"key\":\"c\",\"value\":{\"_id\":\"doc_id3\",\"name\":\"baz\"}}]}"))
+            .when(httpClient).getUncached(anyString());
+
+        CloseableIterator<TestDoc> it = dbCon.queryForIterator(query, TestDoc.class, 2);
+        List<String> ids = new ArrayList<String>();
+        while (it.hasNext()) {
+            ids.add(it.next().getId());
+        }
+        assertEquals(Arrays.asList("doc_id1", "doc_id2", "doc_id3"), ids);
+
+        ArgumentCaptor<String> ac = ArgumentCaptor.forClass(String.class);
+        verify(httpClient, times(2)).getUncached(ac.capture());
+        String secondPage = ac.getAllValues().get(1);
+        assertTrue(secondPage.contains("startkey=null"));
+        assertTrue(secondPage.contains("startkey_docid=doc_id2"));
+        assertTrue(secondPage.contains("skip=1"));
+    }
+
+    @Test
+    public void paged_queryForIterator_should_skip_returned_rows_of_repeated_key_and_id() {
+        ViewQuery query = new ViewQuery()
+                .dbPath(TEST_DB_PATH)
+                .designDocId("_design/testdoc")
+                .viewName("test_view");
+
+        String a1 = "{\"id\":\"doc_id1\",\"key\":\"a\",\"value\":{\"_id\":\"doc_id1\",\"name\":\"foo\"}}";
+        doReturn(HttpResponseStub.valueOf(200, "{\"total_rows\":5,\"offset\":0,\"rows\":[" + a1 + "," + a1 + "]}"))
+            .doReturn(HttpResponseStub.valueOf(200, "{\"total_rows\":5,\"offset\":2,\"rows\":[" + a1 + ","
+                + "{\"id\":\"doc_id2\",\"key\":\"b\",\"value\":{\"_id\":\"doc_id2\",\"name\":\"bar\"}}]}"))
+            .doReturn(HttpResponseStub.valueOf(200, "{\"total_rows\":5,\"offset\":4,\"rows\":["
+                + "{\"id\":\"doc_id3\",\"key\":\"c\",\"value\":{\"_id\":\"doc_id3\",\"name\":\"baz\"}}]}"))
+            .when(httpClient).getUncached(anyString());
+
+        CloseableIterator<TestDoc> it = dbCon.queryForIterator(query, TestDoc.class, 2);
+        List<String> ids = new ArrayList<String>();
+        while (it.hasNext()) {
+            ids.add(it.next().getId());
+        }
+        assertEquals(Arrays.asList("doc_id1", "doc_id1", "doc_id1", "doc_id2", "doc_id3"), ids);
+
+        ArgumentCaptor<String> ac = ArgumentCaptor.forClass(String.class);
+        verify(httpClient, times(3)).getUncached(ac.capture());
+        String secondPage = ac.getAllValues().get(1);
+        assertTrue(secondPage.contains("startkey=%22a%22"));
+        assertTrue(secondPage.contains("startkey_docid=doc_id1"));
+        assertTrue(secondPage.contains("skip=2"));
+        String thirdPage = ac.getAllValues().get(2);
+        assertTrue(thirdPage.contains("startkey=%22b%22"));
+        assertTrue(thirdPage.contains("skip=1"));
+    }
+
     @Test
     public void multiple_query_keys_should_be_posted() {
         List<Object> keys = new ArrayList<Object>();
@@ -0,0 +1,197 @@
+package org.ektorp.impl.changes;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.ektorp.changes.DocumentChange;
+import org.ektorp.changes.OverflowPolicy;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class ChangeQueueTest {
+
+	ObjectMapper om = new ObjectMapper();
+
+	@Test
+	public void changes_should_be_taken_in_order_across_wrap_around() throws Exception {
+		ChangeQueue q = new ChangeQueue(3, OverflowPolicy.BLOCK);
+		for (int i = 1; i <= 10; i++) {
+			assertTrue(q.offer(change(i)));
+			assertEquals(i, q.take().getSequence());
+		}
+		assertNull(q.poll());
+	}
+
+	@Test
+	public void offer_should_fail_when_full_and_blocking() throws Exception {
+		ChangeQueue q = new ChangeQueue(2, OverflowPolicy.BLOCK);
+		assertTrue(q.offer(change(1)));
+		assertTrue(q.offer(change(2)));
+		assertFalse(q.offer(change(3)));
+		assertEquals(0, q.remainingCapacity());
+	}
+
+	@Test
+	public void drop_oldest_should_keep_newest_changes() throws Exception {
+		ChangeQueue q = new ChangeQueue(3, OverflowPolicy.DROP_OLDEST);
+		for (int i = 1; i <= 5; i++) {
+			q.put(change(i));
+		}
+		assertEquals(2, q.getDroppedCount());
+		assertEquals(sequences(3, 4, 5), drain(q, 10));
+	}
+
+	@Test
+	public void spilled_changes_should_be_read_back_in_order() throws Exception {
+		ChangeQueue q = new ChangeQueue(3, OverflowPolicy.SPILL_TO_DISK);
+		for (int i = 1; i <= 6; i++) {
+			q.put(change(i));
+		}
+		assertEquals(6, q.size());
+		assertEquals(sequences(1, 2), drain(q, 2));
+		q.put(change(7));
+		assertEquals(sequences(3, 4, 5, 6, 7), drain(q, 10));
+		assertEquals(0, q.size());
+		q.put(change(8));
+		assertEquals(8, q.take().getSequence());
+	}
+
+	@Test
+	public void drain_should_take_at_most_max_changes() throws Exception {
+		ChangeQueue q = new ChangeQueue(10, OverflowPolicy.BLOCK);
+		for (int i = 1; i <= 5; i++) {
+			q.put(change(i));
+		}
+		assertEquals(sequences(1, 2, 3), drain(q, 3));
+		assertEquals(sequences(4, 5), drain(q, 3));
+		assertEquals(sequences(), drain(q, 3));
+	}
+
+	@Test
+	public void blocked_producer_should_continue_when_consumer_takes() throws Exception {
+		final ChangeQueue q = new ChangeQueue(1, OverflowPolicy.BLOCK);
+		q.put(change(1));
+		Thread producer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					q.put(change(2));
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			}
+		});
+		producer.start();
+		assertEquals(1, q.take().getSequence());
+		assertEquals(2, q.poll(5, TimeUnit.SECONDS).getSequence());
+		producer.join(5000);
+	}
+
+	@Test
+	public void closed_queue_should_be_drained_before_interrupting() throws Exception {
+		ChangeQueue q = new ChangeQueue(3, OverflowPolicy.BLOCK);
+		q.put(change(1));
+		q.close();
+		assertFalse(q.offer(change(2)));
+		assertEquals(1, q.take().getSequence());
+		try {
+			q.take();
+			fail("expected InterruptedException");
+		} catch (InterruptedException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void spilled_changes_should_be_readable_after_close() throws Exception {
+		ChangeQueue q = new ChangeQueue(2, OverflowPolicy.SPILL_TO_DISK);
+		for (int i = 1; i <= 5; i++) {
+			q.put(change(i));
+		}
+		q.close();
+		assertFalse(q.offer(change(6)));
+		assertEquals(5, q.size());
+		for (int i = 1; i <= 5; i++) {
+			assertEquals(i, q.take().getSequence());
+		}
+		try {
+			q.take();
+			fail("expected InterruptedException");
+		} catch (InterruptedException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void cancel_should_discard_spilled_changes() throws Exception {
+		ChangeQueue q = new ChangeQueue(2, OverflowPolicy.SPILL_TO_DISK);
+		for (int i = 1; i <= 5; i++) {
+			q.put(change(i));
+		}
+		q.cancel();
+		assertEquals(2, q.size());
+		assertEquals(sequences(1, 2), drain(q, 10));
+	}
+
+	@Test
+	public void spilled_changes_should_keep_order_with_concurrent_producer() throws Exception {
+		final ChangeQueue q = new ChangeQueue(4, OverflowPolicy.SPILL_TO_DISK);
+		final int total = 2000;
+		Thread producer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					for (int i = 1; i <= total; i++) {
+						q.put(change(i));
+					}
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				} finally {
+					q.close();
+				}
+			}
+		});
+		producer.start();
+		int expected = 1;
+		try {
+			while (true) {
+				List<DocumentChange> batch = new ArrayList<DocumentChange>();
+				q.drainTo(batch, 3, 1, TimeUnit.SECONDS);
+				for (DocumentChange c : batch) {
+					assertEquals(expected++, c.getSequence());
+				}
+			}
+		} catch (InterruptedException e) {
+			// closed and drained
+		}
+		producer.join();
+		assertEquals(total + 1, expected);
+	}
+
+	private List<Integer> drain(ChangeQueue q, int max) throws InterruptedException {
+		List<DocumentChange> batch = new ArrayList<DocumentChange>();
+		q.drainTo(batch, max, 0, TimeUnit.MILLISECONDS);
+		List<Integer> result = new ArrayList<Integer>();
+		for (DocumentChange c : batch) {
+			result.add(c.getSequence());
+		}
+		return result;
+	}
+
+	private List<Integer> sequences(Integer... seqs) {
+		List<Integer> result = new ArrayList<Integer>();
+		for (Integer s : seqs) {
+			result.add(s);
+		}
+		return result;
+	}
+
+	private DocumentChange change(int seq) throws Exception {
+		return new StdDocumentChange(om.readTree(String.format(
+				"{\"seq\":%s,\"id\":\"doc-%s\",\"changes\":[{\"rev\":\"1-a\"}]}", seq, seq)));
+	}
+}
@@ -0,0 +1,165 @@
+package org.ektorp.impl.changes;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.ektorp.CouchDbConnector;
+import org.ektorp.StreamingChangesResult;
+import org.ektorp.changes.ChangesCommand;
+import org.ektorp.changes.ChangesFeed;
+import org.ektorp.changes.TypedChangesFeed;
+import org.ektorp.changes.TypedDocumentChange;
+import org.ektorp.impl.HttpResponseStub;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class ChangesFeedMultiplexerTest {
+
+	ChangesFeedMultiplexer multiplexer;
+	CouchDbConnector db;
+	List<String> polledSince = new CopyOnWriteArrayList<String>();
+
+	@Before
+	public void setUp() {
+		multiplexer = new ChangesFeedMultiplexer.Builder()
+			.workers(2)
+			.minPollInterval(1, TimeUnit.MILLISECONDS)
+			.maxPollInterval(10, TimeUnit.MILLISECONDS)
+			.build();
+		db = mock(CouchDbConnector.class);
+		when(db.changesAsStream(any(ChangesCommand.class))).thenAnswer(new Answer<StreamingChangesResult>() {
+			@Override
+			public StreamingChangesResult answer(InvocationOnMock invocation) throws Throwable {
+				ChangesCommand cmd = (ChangesCommand) invocation.getArguments()[0];
+				assertFalse(cmd.continuous);
+				polledSince.add(cmd.since);
+				if ("1".equals(cmd.since)) {
+					return changes(cmd.since, cmd.limit, 2, 3);
+				}
+				if ("3".equals(cmd.since)) {
+					return changes(cmd.since, cmd.limit, 4);
+				}
+				if ("10".equals(cmd.since)) {
+					// nothing passed the filter, but the database has moved on to 20
+					return result(Collections.<String>emptyList(), "20");
+				}
+				return changes(cmd.since, cmd.limit);
+			}
+		});
+	}
+
+	@After
+	public void tearDown() {
+		multiplexer.shutdown();
+	}
+
+	@Test
+	public void changes_should_be_delivered_in_sequence_order() throws Exception {
+		ChangesFeed feed = multiplexer.open(db, new ChangesCommand.Builder().since(1).build());
+		assertEquals("doc-2", feed.next(5, TimeUnit.SECONDS).getId());
+		assertEquals("doc-3", feed.next(5, TimeUnit.SECONDS).getId());
+		assertEquals("doc-4", feed.next(5, TimeUnit.SECONDS).getId());
+		assertTrue(feed.isAlive());
+		assertTrue(polledSince.contains("3"));
+	}
+
+	@Test
+	public void empty_polls_should_resume_from_last_seq() throws Exception {
+		ChangesFeed feed = multiplexer.open(db, new ChangesCommand.Builder().since(10).filter("app/none").build());
+		for (int i = 0; i < 100 && !polledSince.contains("20"); i++) {
+			Thread.sleep(10);
+		}
+		assertTrue(feed.isAlive());
+		assertTrue(polledSince.contains("20"));
+		assertEquals(1, Collections.frequency(polledSince, "10"));
+	}
+
+	@Test
+	@SuppressWarnings("rawtypes")
+	public void typed_feed_should_bind_changes_with_parser() throws Exception {
+		TypedChangesFeed<Map> feed = multiplexer.open(db, new ChangesCommand.Builder().since(1).build(),
+				new TypedChangeParser<Map>(new ObjectMapper(), Map.class));
+		TypedDocumentChange<Map> change = feed.next(5, TimeUnit.SECONDS);
+		assertEquals("doc-2", change.getId());
+		assertEquals("1-a", change.getRevision());
+	}
+
+	@Test
+	public void feeds_should_be_spread_over_workers() {
+		List<ChangesFeed> feeds = new ArrayList<ChangesFeed>();
+		for (int i = 0; i < 4; i++) {
+			feeds.add(multiplexer.open(db, new ChangesCommand.Builder().since(100).build()));
+		}
+		int[] perWorker = multiplexer.getFeedsPerWorker();
+		assertEquals(2, perWorker[0]);
+		assertEquals(2, perWorker[1]);
+
+		feeds.get(0).cancel();
+		assertFalse(feeds.get(0).isAlive());
+		assertEquals(3, multiplexer.getFeedCount());
+	}
+
+	@Test(expected = InterruptedException.class)
+	public void cancel_should_interrupt_waiting_consumer() throws Exception {
+		final ChangesFeed feed = multiplexer.open(db, new ChangesCommand.Builder().since(100).build());
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException e) {
+				}
+				feed.cancel();
+			}
+		}).start();
+		feed.next();
+	}
+
+	@Test
+	public void feed_should_stop_when_limit_is_reached() throws Exception {
+		ChangesFeed feed = multiplexer.open(db, new ChangesCommand.Builder().since(1).limit(2).build());
+		assertEquals("doc-2", feed.next(5, TimeUnit.SECONDS).getId());
+		assertEquals("doc-3", feed.next(5, TimeUnit.SECONDS).getId());
+		// the worker terminates the feed right after delivering the last change
+		for (int i = 0; i < 100 && feed.isAlive(); i++) {
+			Thread.sleep(10);
+		}
+		assertFalse(feed.isAlive());
+		assertEquals(0, multiplexer.getFeedCount());
+	}
+
+	private StreamingChangesResult changes(String since, int limit, int... seqs) {
+		List<String> rows = new ArrayList<String>();
+		String lastSeq = since;
+		for (int seq : seqs) {
+			if (limit > -1 && rows.size() == limit) {
+				break;
+			}
+			rows.add(String.format("{\"seq\":%s,\"id\":\"doc-%s\",\"changes\":[{\"rev\":\"1-a\"}]}", seq, seq));
+			lastSeq = Integer.toString(seq);
+		}
+		return result(rows, lastSeq);
+	}
+
+	private StreamingChangesResult result(List<String> rows, String lastSeq) {
+		StringBuilder json = new StringBuilder("{\"results\":[");
+		for (int i = 0; i < rows.size(); i++) {
+			json.append(i > 0 ? "," : "").append(rows.get(i));
+		}
+		json.append("],\"last_seq\":").append(lastSeq).append("}");
+		return new StreamingChangesResult(new ObjectMapper(), HttpResponseStub.valueOf(200, json.toString()));
+	}
+}
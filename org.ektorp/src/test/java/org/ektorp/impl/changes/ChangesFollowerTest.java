@@ -0,0 +1,219 @@
+package org.ektorp.impl.changes;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.ektorp.CouchDbConnector;
+import org.ektorp.changes.ChangesCommand;
+import org.ektorp.changes.ChangesFeed;
+import org.ektorp.changes.ChangesHandler;
+import org.ektorp.changes.DocumentChange;
+import org.ektorp.changes.FailedBatchHandler;
+import org.ektorp.impl.ResponseOnFileStub;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class ChangesFollowerTest {
+
+	CouchDbConnector db;
+	RecordingHandler handler = new RecordingHandler();
+	InMemoryCheckpointStore checkpoints = new InMemoryCheckpointStore();
+	IdleFeed idleFeed = new IdleFeed();
+	ChangesFollower follower;
+
+	@Before
+	public void setUp() {
+		db = mock(CouchDbConnector.class);
+		when(db.getDatabaseName()).thenReturn("testdb");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (follower != null) {
+			follower.stop();
+			follower.awaitTermination(5, TimeUnit.SECONDS);
+		}
+	}
+
+	@Test
+	public void follower_should_resume_from_checkpoint_when_feed_ends() throws Exception {
+		when(db.changesFeed(any(ChangesCommand.class)))
+			.thenReturn(feedOf(change(1), change(2)))
+			.thenReturn(feedOf(change(3)))
+			.thenAnswer(idleFeed);
+		follower = newFollower().build();
+		follower.start();
+
+		assertTrue(idleFeed.opened.await(5, TimeUnit.SECONDS));
+		assertEquals("[1, 2, 3]", handler.sequences.toString());
+		assertEquals("3", checkpoints.load());
+
+		ArgumentCaptor<ChangesCommand> cmds = ArgumentCaptor.forClass(ChangesCommand.class);
+		verify(db, atLeast(3)).changesFeed(cmds.capture());
+		assertNull(cmds.getAllValues().get(0).since);
+		assertTrue(cmds.getAllValues().get(0).continuous);
+		assertEquals("2", cmds.getAllValues().get(1).since);
+		assertEquals("3", cmds.getAllValues().get(2).since);
+	}
+
+	@Test
+	public void follower_should_start_from_stored_checkpoint() throws Exception {
+		checkpoints.save("41");
+		when(db.changesFeed(any(ChangesCommand.class)))
+			.thenReturn(feedOf(change(42)))
+			.thenAnswer(idleFeed);
+		follower = newFollower().build();
+		follower.start();
+
+		assertTrue(idleFeed.opened.await(5, TimeUnit.SECONDS));
+		assertEquals("[42]", handler.sequences.toString());
+		ArgumentCaptor<ChangesCommand> cmds = ArgumentCaptor.forClass(ChangesCommand.class);
+		verify(db, atLeast(1)).changesFeed(cmds.capture());
+		assertEquals("41", cmds.getAllValues().get(0).since);
+	}
+
+	@Test
+	public void failed_batch_should_be_delivered_again() throws Exception {
+		handler.failures = 1;
+		when(db.changesFeed(any(ChangesCommand.class)))
+			.thenReturn(feedOf(change(1)))
+			.thenReturn(feedOf(change(1)))
+			.thenAnswer(idleFeed);
+		follower = newFollower().build();
+		follower.start();
+
+		assertTrue(idleFeed.opened.await(5, TimeUnit.SECONDS));
+		assertEquals("[1]", handler.sequences.toString());
+		assertEquals("1", checkpoints.load());
+		assertTrue(follower.getReconnectCount() >= 1);
+	}
+
+	@Test
+	public void poison_batch_should_stop_follower_after_max_attempts() throws Exception {
+		handler.failures = Integer.MAX_VALUE;
+		when(db.changesFeed(any(ChangesCommand.class))).thenAnswer(new Answer<ChangesFeed>() {
+			public ChangesFeed answer(InvocationOnMock invocation) throws Throwable {
+				return feedOf(change(1));
+			}
+		});
+		follower = newFollower().maxAttempts(2).build();
+		follower.start();
+		follower.awaitTermination(5, TimeUnit.SECONDS);
+
+		assertFalse(follower.isRunning());
+		assertTrue(follower.getFailure() instanceof IllegalStateException);
+		assertNull(checkpoints.load());
+		verify(db, times(2)).changesFeed(any(ChangesCommand.class));
+	}
+
+	@Test
+	public void poison_batch_should_be_skipped_by_failed_batch_handler() throws Exception {
+		handler.failures = 2;
+		final List<DocumentChange> skipped = Collections.synchronizedList(new ArrayList<DocumentChange>());
+		when(db.changesFeed(any(ChangesCommand.class)))
+			.thenReturn(feedOf(change(1)))
+			.thenReturn(feedOf(change(1)))
+			.thenReturn(feedOf(change(2)))
+			.thenAnswer(idleFeed);
+		follower = newFollower().maxAttempts(2).failedBatchHandler(new FailedBatchHandler() {
+			public void failed(List<DocumentChange> changes, Exception cause) {
+				skipped.addAll(changes);
+			}
+		}).build();
+		follower.start();
+
+		assertTrue(idleFeed.opened.await(5, TimeUnit.SECONDS));
+		assertEquals(1, skipped.size());
+		assertEquals(1, skipped.get(0).getSequence());
+		assertEquals("[2]", handler.sequences.toString());
+		assertEquals("2", checkpoints.load());
+		assertNull(follower.getFailure());
+	}
+
+	@Test
+	public void stalled_feed_should_be_reopened() throws Exception {
+		when(db.changesFeed(any(ChangesCommand.class))).thenAnswer(idleFeed);
+		follower = newFollower().heartbeat(20).maxMissedHeartbeats(2).build();
+		follower.start();
+
+		for (int i = 0; i < 100 && follower.getStallCount() < 2; i++) {
+			Thread.sleep(20);
+		}
+		assertTrue(follower.getStallCount() >= 2);
+		assertTrue(follower.isRunning());
+	}
+
+	@Test
+	public void back_off_should_double_up_to_max() {
+		ChangesFollower f = newFollower().backOff(100, 1000, TimeUnit.MILLISECONDS).build();
+		assertEquals(100, f.backOffMillis(0));
+		assertEquals(200, f.backOffMillis(1));
+		assertEquals(800, f.backOffMillis(3));
+		assertEquals(1000, f.backOffMillis(4));
+		assertEquals(1000, f.backOffMillis(100));
+	}
+
+	private ChangesFollower.Builder newFollower() {
+		return new ChangesFollower.Builder(db, handler)
+			.checkpointStore(checkpoints)
+			.backOff(1, 5, TimeUnit.MILLISECONDS);
+	}
+
+	private String change(int seq) {
+		return String.format("{\"seq\":%s,\"id\":\"doc-%s\",\"changes\":[{\"rev\":\"1-a\"}]}%n", seq, seq);
+	}
+
+	private ChangesFeed feedOf(String... changes) throws Exception {
+		StringBuilder sb = new StringBuilder();
+		for (String c : changes) {
+			sb.append(c);
+		}
+		byte[] bytes = sb.toString().getBytes("UTF-8");
+		return new ContinuousChangesFeed("testdb", ResponseOnFileStub.newInstance(200,
+				new ByteArrayInputStream(bytes), "application/json", bytes.length));
+	}
+
+	/**
+	 * A feed on a connection that never sends anything.
+	 */
+	static class IdleFeed implements Answer<ChangesFeed> {
+
+		final CountDownLatch opened = new CountDownLatch(1);
+
+		public ChangesFeed answer(InvocationOnMock invocation) throws Throwable {
+			opened.countDown();
+			PipedInputStream in = new PipedInputStream();
+			new PipedOutputStream(in);
+			return new ContinuousChangesFeed("testdb", ResponseOnFileStub.newInstance(200, in, "application/json", -1));
+		}
+	}
+
+	static class RecordingHandler implements ChangesHandler {
+
+		final List<Integer> sequences = Collections.synchronizedList(new ArrayList<Integer>());
+		int failures;
+
+		public synchronized void handle(List<DocumentChange> changes) throws Exception {
+			if (failures > 0) {
+				failures--;
+				throw new IllegalStateException("handler failure");
+			}
+			for (DocumentChange c : changes) {
+				sequences.add(c.getSequence());
+			}
+		}
+	}
+}
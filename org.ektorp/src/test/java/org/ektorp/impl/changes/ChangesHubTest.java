@@ -0,0 +1,161 @@
+package org.ektorp.impl.changes;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.ektorp.CouchDbConnector;
+import org.ektorp.DbInfo;
+import org.ektorp.DocumentNotFoundException;
+import org.ektorp.changes.ChangesCommand;
+import org.ektorp.changes.ChangesFeed;
+import org.ektorp.changes.DocumentChange;
+import org.ektorp.changes.OverflowPolicy;
+import org.ektorp.impl.ResponseOnFileStub;
+import org.ektorp.util.Predicate;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class ChangesHubTest {
+
+	CouchDbConnector db;
+	PipedFeed upstream = new PipedFeed();
+	ChangesHub hub;
+
+	@Before
+	public void setUp() throws Exception {
+		db = mock(CouchDbConnector.class);
+		when(db.getDatabaseName()).thenReturn("testdb");
+		when(db.getDbInfo()).thenReturn(new ObjectMapper().readValue(
+				"{\"db_name\":\"testdb\",\"update_seq\":42}", DbInfo.class));
+		when(db.changesFeed(any(ChangesCommand.class))).thenAnswer(upstream);
+		hub = new ChangesHub(db);
+	}
+
+	@After
+	public void tearDown() {
+		hub.shutdown();
+	}
+
+	@Test
+	public void subscribers_should_receive_matching_changes_from_one_upstream_feed() throws Exception {
+		ChangesFeed all = hub.subscribe();
+		ChangesFeed even = hub.subscribe(new Predicate<DocumentChange>() {
+			public boolean apply(DocumentChange input) {
+				return input.getSequence() % 2 == 0;
+			}
+		});
+		upstream.send(1, 2, 3, 4);
+
+		assertEquals("[1, 2, 3, 4]", sequences(all, 4).toString());
+		assertEquals("[2, 4]", sequences(even, 2).toString());
+		verify(db, times(1)).changesFeed(any(ChangesCommand.class));
+	}
+
+	@Test
+	public void slow_subscriber_should_only_lag_itself() throws Exception {
+		ChangesHub.SubscriberFeed slow = hub.subscribe(null, 2, OverflowPolicy.DROP_OLDEST);
+		ChangesHub.SubscriberFeed fast = hub.subscribe();
+		upstream.send(1, 2, 3, 4, 5);
+
+		assertEquals("[1, 2, 3, 4, 5]", sequences(fast, 5).toString());
+		assertEquals(0, fast.getDroppedCount());
+		assertEquals(3, slow.getDroppedCount());
+		assertEquals("[4, 5]", sequences(slow, 2).toString());
+	}
+
+	@Test
+	public void upstream_feed_should_be_closed_when_last_subscriber_cancels() throws Exception {
+		ChangesFeed first = hub.subscribe();
+		ChangesFeed second = hub.subscribe();
+		assertTrue(upstream.opened.await(5, TimeUnit.SECONDS));
+
+		first.cancel();
+		assertFalse(first.isAlive());
+		assertEquals(1, hub.getSubscriberCount());
+		second.cancel();
+		assertEquals(0, hub.getSubscriberCount());
+
+		for (int i = 0; i < 100 && upstream.feed.isAlive(); i++) {
+			Thread.sleep(20);
+		}
+		assertFalse(upstream.feed.isAlive());
+	}
+
+	@Test
+	public void upstream_feed_should_start_at_current_update_seq() throws Exception {
+		hub.subscribe();
+		assertTrue(upstream.opened.await(5, TimeUnit.SECONDS));
+		assertEquals("42", upstream.cmd.since);
+	}
+
+	@Test
+	public void subscribers_should_see_end_of_feed_when_upstream_stops() throws Exception {
+		when(db.changesFeed(any(ChangesCommand.class))).thenThrow(new DocumentNotFoundException("/testdb/_changes"));
+		ChangesFeed feed = hub.subscribe();
+		try {
+			feed.next(5, TimeUnit.SECONDS);
+			fail("expected the feed to end");
+		} catch (InterruptedException e) {
+			// closed and empty
+		}
+		assertFalse(feed.isAlive());
+		assertEquals(0, hub.getSubscriberCount());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void blocking_subscribers_should_be_rejected() {
+		hub.subscribe(null, 10, OverflowPolicy.BLOCK);
+	}
+
+	private List<Integer> sequences(ChangesFeed feed, int count) throws InterruptedException {
+		List<Integer> result = new ArrayList<Integer>();
+		while (result.size() < count) {
+			DocumentChange c = feed.next(5, TimeUnit.SECONDS);
+			if (c == null) {
+				break;
+			}
+			result.add(c.getSequence());
+		}
+		return result;
+	}
+
+	/**
+	 * An upstream feed that the test writes changes to.
+	 */
+	static class PipedFeed implements Answer<ChangesFeed> {
+
+		final CountDownLatch opened = new CountDownLatch(1);
+		volatile PipedOutputStream out;
+		volatile ChangesFeed feed;
+		volatile ChangesCommand cmd;
+
+		public synchronized ChangesFeed answer(InvocationOnMock invocation) throws Throwable {
+			cmd = (ChangesCommand) invocation.getArguments()[0];
+			PipedInputStream in = new PipedInputStream();
+			out = new PipedOutputStream(in);
+			feed = new ContinuousChangesFeed("testdb", ResponseOnFileStub.newInstance(200, in, "application/json", -1));
+			opened.countDown();
+			return feed;
+		}
+
+		void send(int... seqs) throws Exception {
+			assertTrue(opened.await(5, TimeUnit.SECONDS));
+			for (int seq : seqs) {
+				out.write(String.format("{\"seq\":%s,\"id\":\"doc-%s\",\"changes\":[{\"rev\":\"1-a\"}]}%n", seq, seq).getBytes("UTF-8"));
+			}
+			out.flush();
+		}
+	}
+}
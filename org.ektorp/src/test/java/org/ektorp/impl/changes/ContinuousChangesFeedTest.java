@@ -35,6 +35,19 @@ public class ContinuousChangesFeedTest {
 		assertNotNull(c);
 	}
 
+	@Test
+	public void nextBatch_should_return_queued_changes() throws IOException, InterruptedException {
+		writeChange();
+		writeChange();
+		writeChange();
+		java.util.List<DocumentChange> batch = new java.util.ArrayList<DocumentChange>();
+		while (batch.size() < 3) {
+			batch.addAll(feed.nextBatch(2, 1, TimeUnit.SECONDS));
+		}
+		assertEquals(3, batch.size());
+		assertTrue(feed.nextBatch(2, 10, TimeUnit.MILLISECONDS).isEmpty());
+	}
+
 	@Test
 	public void test_heartbeat() throws IOException, InterruptedException {
 		writeHeartbeat();
@@ -93,6 +106,27 @@ public class ContinuousChangesFeedTest {
 		assertFalse(feed.isAlive());
 	}
 	
+	@Test
+	public void spilled_changes_should_be_readable_after_feed_ends() throws Exception {
+		feed.cancel();
+		PipedInputStream in = new PipedInputStream();
+		writer = new BufferedWriter(new OutputStreamWriter(new PipedOutputStream(in), "UTF-8"));
+		feed = new ContinuousChangesFeed("testDB", ResponseOnFileStub.newInstance(200, in, "application/json", -1),
+				2, OverflowPolicy.SPILL_TO_DISK);
+		for (int i = 1; i <= 5; i++) {
+			writer.write(change.replace("\"seq\":1", "\"seq\":" + i));
+			writer.newLine();
+		}
+		writer.close();
+		while (feed.isAlive()) {
+			Thread.sleep(10);
+		}
+		assertEquals(5, feed.queueSize());
+		for (int i = 1; i <= 5; i++) {
+			assertEquals(i, feed.next().getSequence());
+		}
+	}
+
 	private void writeChange() throws IOException {
 		writer.write(change);
 		writer.newLine();
@@ -0,0 +1,39 @@
+package org.ektorp.impl.changes;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FileCheckpointStoreTest {
+
+	File file;
+
+	@Before
+	public void setUp() throws Exception {
+		file = File.createTempFile("ektorp-checkpoint", ".seq");
+		file.delete();
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Test
+	public void missing_file_should_load_as_null() {
+		assertNull(new FileCheckpointStore(file).load());
+	}
+
+	@Test
+	public void saved_sequence_should_be_loaded_by_new_store() {
+		FileCheckpointStore store = new FileCheckpointStore(file);
+		store.save("1-abc");
+		store.save("2-g1AAAAFTeJzLYWBg4MhgTmFQ");
+		assertEquals("2-g1AAAAFTeJzLYWBg4MhgTmFQ", new FileCheckpointStore(file).load());
+		assertFalse(new File(file.getPath() + ".tmp").exists());
+	}
+}
@@ -0,0 +1,125 @@
+package org.ektorp.impl.changes;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.ektorp.changes.ChangesFeed;
+import org.ektorp.changes.DocumentChange;
+import org.ektorp.changes.DocumentChangeHandler;
+import org.ektorp.impl.ResponseOnFileStub;
+import org.junit.Test;
+
+public class ParallelChangesProcessorTest {
+
+	InMemoryCheckpointStore checkpoints = new InMemoryCheckpointStore();
+
+	@Test
+	public void changes_to_the_same_document_should_be_handled_in_order() throws Exception {
+		final Map<String, List<Integer>> handled = new HashMap<String, List<Integer>>();
+		ParallelChangesProcessor p = new ParallelChangesProcessor.Builder(feedOf(1000, 17), new DocumentChangeHandler() {
+			public void handle(DocumentChange change) throws Exception {
+				synchronized (handled) {
+					List<Integer> seqs = handled.get(change.getId());
+					if (seqs == null) {
+						seqs = new ArrayList<Integer>();
+						handled.put(change.getId(), seqs);
+					}
+					seqs.add(change.getSequence());
+				}
+				Thread.yield();
+			}
+		}).lanes(4).laneCapacity(10).checkpointStore(checkpoints).checkpointInterval(0, TimeUnit.MILLISECONDS).build();
+		p.start();
+		assertTrue(p.awaitTermination(10, TimeUnit.SECONDS));
+
+		int total = 0;
+		for (List<Integer> seqs : handled.values()) {
+			for (int i = 1; i < seqs.size(); i++) {
+				assertTrue(seqs.get(i - 1) < seqs.get(i));
+			}
+			total += seqs.size();
+		}
+		assertEquals(1000, total);
+		assertEquals("1000", p.getCheckpoint());
+		assertEquals("1000", checkpoints.load());
+		assertNull(p.getFailure());
+
+		long processed = 0;
+		for (ParallelChangesProcessor.LaneStats s : p.getLaneStats()) {
+			processed += s.getProcessed();
+		}
+		assertEquals(1000, processed);
+	}
+
+	@Test
+	public void checkpoint_should_not_pass_failed_change() throws Exception {
+		final IllegalStateException failure = new IllegalStateException("failed");
+		ParallelChangesProcessor p = new ParallelChangesProcessor.Builder(feedOf(50, 7), new DocumentChangeHandler() {
+			public void handle(DocumentChange change) throws Exception {
+				if (change.getSequence() == 5) {
+					throw failure;
+				}
+			}
+		}).lanes(3).checkpointStore(checkpoints).checkpointInterval(0, TimeUnit.MILLISECONDS).build();
+		p.start();
+		assertTrue(p.awaitTermination(10, TimeUnit.SECONDS));
+
+		assertSame(failure, p.getFailure());
+		assertFalse(p.isRunning());
+		assertEquals("4", p.getCheckpoint());
+		assertEquals("4", checkpoints.load());
+	}
+
+	@Test
+	public void same_id_should_map_to_same_lane() throws Exception {
+		ParallelChangesProcessor p = new ParallelChangesProcessor.Builder(feedOf(0, 1), new DocumentChangeHandler() {
+			public void handle(DocumentChange change) throws Exception {
+			}
+		}).lanes(5).build();
+		for (int i = 0; i < 100; i++) {
+			int lane = p.laneOf("doc-" + i);
+			assertTrue(lane >= 0 && lane < 5);
+			assertEquals(lane, p.laneOf("doc-" + i));
+		}
+	}
+
+	@Test
+	public void changes_without_id_should_be_handled() throws Exception {
+		String lines = "{\"seq\":1,\"id\":null,\"changes\":[]}\n"
+				+ "{\"seq\":2,\"id\":\"doc-1\",\"changes\":[{\"rev\":\"1-a\"}]}\n";
+		byte[] bytes = lines.getBytes("UTF-8");
+		ChangesFeed feed = new ContinuousChangesFeed("testdb", ResponseOnFileStub.newInstance(200,
+				new ByteArrayInputStream(bytes), "application/json", bytes.length));
+		final List<Integer> handled = new ArrayList<Integer>();
+		ParallelChangesProcessor p = new ParallelChangesProcessor.Builder(feed, new DocumentChangeHandler() {
+			public void handle(DocumentChange change) throws Exception {
+				synchronized (handled) {
+					handled.add(change.getSequence());
+				}
+			}
+		}).lanes(3).build();
+		p.start();
+		assertTrue(p.awaitTermination(10, TimeUnit.SECONDS));
+
+		assertNull(p.getFailure());
+		assertEquals(2, handled.size());
+		assertEquals("2", p.getCheckpoint());
+		assertEquals(0, p.laneOf(null));
+	}
+
+	private ChangesFeed feedOf(int changes, int docs) throws Exception {
+		StringBuilder sb = new StringBuilder();
+		for (int seq = 1; seq <= changes; seq++) {
+			sb.append(String.format("{\"seq\":%s,\"id\":\"doc-%s\",\"changes\":[{\"rev\":\"%s-a\"}]}%n", seq, seq % docs, seq));
+		}
+		byte[] bytes = sb.toString().getBytes("UTF-8");
+		return new ContinuousChangesFeed("testdb", ResponseOnFileStub.newInstance(200,
+				new ByteArrayInputStream(bytes), "application/json", bytes.length));
+	}
+}
@@ -93,6 +93,20 @@ public class StdDocumentChangeTest {
         changes.close();
     }
 
+    @Test
+    public void test_streaming_changes_with_opaque_sequences() throws IOException {
+        HttpResponse httpResponse = ResponseOnFileStub.newInstance(200, "changes/changes_opaque_seq.json");
+
+        StreamingChangesResult changes = new StreamingChangesResult(new ObjectMapper(), httpResponse);
+        String lastChangeSeq = null;
+        for (DocumentChange documentChange : changes) {
+            lastChangeSeq = documentChange.getStringSequence();
+        }
+        Assert.assertEquals(lastChangeSeq, changes.getLastSeqAsString());
+        Assert.assertEquals(2, changes.getLastSeq());
+        changes.close();
+    }
+
 	private JsonNode load(String id) throws IOException {
         InputStream resourceAsStream = null;
         try {
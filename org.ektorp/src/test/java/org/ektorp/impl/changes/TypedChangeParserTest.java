@@ -0,0 +1,100 @@
+package org.ektorp.impl.changes;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.ektorp.changes.DocumentChange;
+import org.ektorp.changes.OverflowPolicy;
+import org.ektorp.changes.TypedDocumentChange;
+import org.junit.Test;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class TypedChangeParserTest {
+
+	ObjectMapper mapper = new ObjectMapper();
+	TypedChangeParser<TestDoc> parser = new TypedChangeParser<TestDoc>(mapper, TestDoc.class);
+
+	@Test
+	public void included_doc_should_be_bound_to_type() throws IOException {
+		TypedDocumentChange<TestDoc> c = parser.parse(load("change_message_w_included_doc.json"));
+		assertEquals(21, c.getSequence());
+		assertNull(c.getStringSequence());
+		assertEquals("doc_id", c.getId());
+		assertEquals("doc_rev", c.getRevision());
+		assertFalse(c.isDeleted());
+		assertEquals("df629c360be62d4645bcffe1b8000f32", c.getDocument().id);
+		assertEquals("snafu", c.getDocument().fubar);
+		assertEquals("snafu", c.getDocAsNode().get("fubar").textValue());
+	}
+
+	@Test
+	public void change_without_doc_should_have_null_document() throws IOException {
+		TypedDocumentChange<TestDoc> c = parser.parse(load("change_message_w_multiple_revs.json"));
+		assertEquals("doc_id", c.getId());
+		assertEquals(3, c.getRevisions().size());
+		assertEquals("rev-first", c.getRevision());
+		assertNull(c.getDocument());
+		assertNull(c.getDoc());
+		assertTrue(c.getDocAsNode().isMissingNode());
+	}
+
+	@Test
+	public void typed_change_should_match_std_change() throws IOException {
+		String json = load("change_message_w_deleted_doc.json");
+		DocumentChange expected = new StdDocumentChange(mapper.readTree(json));
+		TypedDocumentChange<TestDoc> actual = parser.parse(json);
+		assertEquals(expected.getSequence(), actual.getSequence());
+		assertEquals(expected.getId(), actual.getId());
+		assertEquals(expected.getRevision(), actual.getRevision());
+		assertEquals(expected.getRevisions(), actual.getRevisions());
+		assertEquals(expected.isDeleted(), actual.isDeleted());
+	}
+
+	@Test
+	public void results_should_be_parsed_with_opaque_sequences() throws IOException {
+		InputStream in = getClass().getResourceAsStream("changes_opaque_seq.json");
+		try {
+			List<TypedDocumentChange<TestDoc>> changes = parser.parseResults(in);
+			assertEquals(2, changes.size());
+			assertTrue(changes.get(1).getStringSequence().startsWith("2-"));
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+	}
+
+	@Test
+	public void spilled_changes_should_keep_their_type() throws Exception {
+		ChangeQueue q = new ChangeQueue(1, OverflowPolicy.SPILL_TO_DISK, parser);
+		q.put(parser.parse(load("change_message_w_included_doc.json")));
+		q.put(parser.parse(load("change_message_w_included_doc.json")));
+		q.take();
+		@SuppressWarnings("unchecked")
+		TypedDocumentChange<TestDoc> spilled = (TypedDocumentChange<TestDoc>) q.take();
+		assertEquals("snafu", spilled.getDocument().fubar);
+		assertEquals(21, spilled.getSequence());
+		q.close();
+	}
+
+	private String load(String name) throws IOException {
+		InputStream in = getClass().getResourceAsStream(name);
+		try {
+			return IOUtils.toString(in, "UTF-8");
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+	}
+
+	@JsonIgnoreProperties(ignoreUnknown = true)
+	public static class TestDoc {
+		@JsonProperty("_id")
+		public String id;
+		public String fubar;
+	}
+}
@@ -0,0 +1,69 @@
+package org.ektorp.metrics;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void empty_histogram() {
+		LatencyHistogram h = new LatencyHistogram();
+		assertEquals(0, h.getCount());
+		assertEquals(0, h.getMin());
+		assertEquals(0, h.getValueAtPercentile(99));
+	}
+
+	@Test
+	public void small_values_should_be_exact() {
+		LatencyHistogram h = new LatencyHistogram();
+		for (int i = 1; i <= 50; i++) {
+			h.record(i);
+		}
+		assertEquals(50, h.getCount());
+		assertEquals(1, h.getMin());
+		assertEquals(50, h.getMax());
+		assertEquals(25, h.getValueAtPercentile(50));
+		assertEquals(50, h.getValueAtPercentile(100));
+		assertEquals(25.5, h.getMean(), 0.001);
+	}
+
+	@Test
+	public void percentiles_should_be_within_relative_error() {
+		LatencyHistogram h = new LatencyHistogram();
+		for (long i = 1; i <= 100000; i++) {
+			h.record(i * 1000);
+		}
+		assertWithin(50000000, h.getValueAtPercentile(50));
+		assertWithin(99000000, h.getValueAtPercentile(99));
+		assertEquals(100000000, h.getValueAtPercentile(100));
+	}
+
+	@Test
+	public void index_should_cover_whole_range() {
+		int previous = -1;
+		for (long v = 1; v > 0 && v < Long.MAX_VALUE / 2; v = v * 3 / 2 + 1) {
+			int index = LatencyHistogram.indexOf(v);
+			assertTrue(index >= previous);
+			assertTrue(LatencyHistogram.highestEquivalentValue(index) >= v);
+			previous = index;
+		}
+		assertEquals(Long.MAX_VALUE, LatencyHistogram.highestEquivalentValue(LatencyHistogram.indexOf(Long.MAX_VALUE)));
+	}
+
+	@Test
+	public void merged_histogram() {
+		LatencyHistogram a = new LatencyHistogram();
+		LatencyHistogram b = new LatencyHistogram();
+		a.record(10);
+		b.record(5000);
+		a.add(b);
+		assertEquals(2, a.getCount());
+		assertEquals(10, a.getMin());
+		assertEquals(5000, a.getMax());
+	}
+
+	private void assertWithin(long expected, long actual) {
+		assertTrue(actual + " should be close to " + expected, actual >= expected && actual <= expected * 1.04);
+	}
+}
@@ -0,0 +1,30 @@
+package org.ektorp.metrics;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class OperationTest {
+
+	@Test
+	public void classify() {
+		assertEquals(Operation.GET, Operation.classify("GET", "/db/doc_id"));
+		assertEquals(Operation.PUT, Operation.classify("PUT", "/db/doc_id"));
+		assertEquals(Operation.BULK, Operation.classify("POST", "/db/_bulk_docs"));
+		assertEquals(Operation.VIEW, Operation.classify("GET", "/db/_design/d/_view/v?key=%22a%22"));
+		assertEquals(Operation.VIEW, Operation.classify("POST", "/db/_all_docs"));
+		assertEquals(Operation.CHANGES, Operation.classify("GET", "/db/_changes?feed=continuous"));
+		assertEquals(Operation.OTHER, Operation.classify("PATCH", "/db/doc_id"));
+	}
+
+	@Test
+	public void database_of_path() {
+		assertEquals("db", Operation.databaseOf("/db/doc_id"));
+		assertEquals("db", Operation.databaseOf("/db"));
+		assertEquals("db", Operation.databaseOf("/db?q=1"));
+		assertEquals("a%2Fb", Operation.databaseOf("/a%2Fb/_changes"));
+		assertEquals("db", Operation.databaseOf("http://localhost:5984/db/doc"));
+		assertEquals("", Operation.databaseOf("/_all_dbs"));
+		assertEquals("", Operation.databaseOf("/"));
+	}
+}
@@ -0,0 +1,154 @@
+package org.ektorp.reactive;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.junit.Test;
+
+public class SourcePublisherTest {
+
+	Executor sameThread = new Executor() {
+		@Override
+		public void execute(Runnable command) {
+			command.run();
+		}
+	};
+
+	CountingSource source = new CountingSource(5);
+	RecordingSubscriber subscriber = new RecordingSubscriber();
+
+	@Test
+	public void source_should_only_be_read_when_there_is_demand() {
+		publisher().subscribe(subscriber);
+		assertEquals(0, source.reads);
+		assertFalse(source.opened);
+
+		subscriber.subscription.request(2);
+		assertEquals(2, source.reads);
+		assertEquals("[1, 2]", subscriber.received.toString());
+
+		subscriber.subscription.request(1);
+		assertEquals(3, source.reads);
+		assertEquals("[1, 2, 3]", subscriber.received.toString());
+		assertFalse(subscriber.completed);
+	}
+
+	@Test
+	public void exhausted_source_should_complete_and_be_closed() {
+		publisher().subscribe(subscriber);
+		subscriber.subscription.request(Long.MAX_VALUE);
+		assertEquals("[1, 2, 3, 4, 5]", subscriber.received.toString());
+		assertTrue(subscriber.completed);
+		assertTrue(source.closed);
+	}
+
+	@Test
+	public void cancel_should_close_source_and_stop_signals() {
+		publisher().subscribe(subscriber);
+		subscriber.subscription.request(1);
+		subscriber.subscription.cancel();
+		assertTrue(source.closed);
+		subscriber.subscription.request(10);
+		assertEquals("[1]", subscriber.received.toString());
+		assertFalse(subscriber.completed);
+		assertNull(subscriber.error);
+	}
+
+	@Test
+	public void failing_source_should_signal_error() {
+		source.failAt = 2;
+		publisher().subscribe(subscriber);
+		subscriber.subscription.request(5);
+		assertEquals("[1]", subscriber.received.toString());
+		assertTrue(subscriber.error instanceof IllegalStateException);
+		assertTrue(source.closed);
+	}
+
+	@Test
+	public void non_positive_request_should_signal_error() {
+		publisher().subscribe(subscriber);
+		subscriber.subscription.request(0);
+		assertTrue(subscriber.error instanceof IllegalArgumentException);
+	}
+
+	@Test
+	public void request_from_onNext_should_not_recurse() {
+		subscriber.requestOnNext = true;
+		publisher().subscribe(subscriber);
+		subscriber.subscription.request(1);
+		assertEquals("[1, 2, 3, 4, 5]", subscriber.received.toString());
+		assertEquals(1, subscriber.maxDepth);
+		assertTrue(subscriber.completed);
+	}
+
+	private SourcePublisher<Integer> publisher() {
+		return new SourcePublisher<Integer>(new SourceFactory<Integer>() {
+			@Override
+			public Source<Integer> open() {
+				source.opened = true;
+				return source;
+			}
+		}, sameThread);
+	}
+
+	static class CountingSource implements Source<Integer> {
+
+		final int size;
+		int reads;
+		int failAt = -1;
+		boolean opened;
+		boolean closed;
+
+		CountingSource(int size) {
+			this.size = size;
+		}
+
+		public Integer read() {
+			reads++;
+			if (reads == failAt) {
+				throw new IllegalStateException("read failed");
+			}
+			return reads <= size ? reads : null;
+		}
+
+		public void close() {
+			closed = true;
+		}
+	}
+
+	static class RecordingSubscriber implements Subscriber<Integer> {
+
+		final List<Integer> received = new ArrayList<Integer>();
+		Subscription subscription;
+		Throwable error;
+		boolean completed;
+		boolean requestOnNext;
+		int depth;
+		int maxDepth;
+
+		public void onSubscribe(Subscription s) {
+			subscription = s;
+		}
+
+		public void onNext(Integer t) {
+			depth++;
+			maxDepth = Math.max(depth, maxDepth);
+			received.add(t);
+			if (requestOnNext) {
+				subscription.request(1);
+			}
+			depth--;
+		}
+
+		public void onError(Throwable t) {
+			error = t;
+		}
+
+		public void onComplete() {
+			completed = true;
+		}
+	}
+}